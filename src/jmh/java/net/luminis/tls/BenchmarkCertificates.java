@@ -0,0 +1,240 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls;
+
+import java.io.ByteArrayInputStream;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Certificates and keys used by the benchmarks. These are copies of (some of) the test certificates, as the jmh source
+ * set does not depend on the test classes.
+ */
+public class BenchmarkCertificates {
+
+    public static final String SERVER_NAME = "kwik.tech";
+
+    public static X509Certificate serverCertificate() throws Exception {
+        return inflateCertificate(KWIK_DOT_TECH_RSA_CERTIFICATE);
+    }
+
+    public static PrivateKey serverPrivateKey() throws Exception {
+        return inflatePrivateKey(KWIK_DOT_TECH_RSA_PRIVATE_KEY, "RSA");
+    }
+
+    /**
+     * @return  a certificate chain consisting of a leaf certificate and the CA certificate that signed it.
+     */
+    public static List<X509Certificate> certificateChain() throws Exception {
+        return List.of(inflateCertificate(CA1_SIGNED_CERTIFICATE), inflateCertificate(SAMPLE_CA1));
+    }
+
+    /**
+     * @param certificateType  one of "rsa", "ecdsaP256", "ecdsaP384" or "ed25519"
+     * @return  a (self-signed) server certificate with a key of the given type
+     */
+    public static X509Certificate serverCertificate(String certificateType) throws Exception {
+        switch (certificateType) {
+            case "rsa":
+                return inflateCertificate(KWIK_DOT_TECH_RSA_CERTIFICATE);
+            case "ecdsaP256":
+                return inflateCertificate(KWIK_DOT_TECH_ECDSA_P256_CERTIFICATE);
+            case "ecdsaP384":
+                return inflateCertificate(KWIK_DOT_TECH_ECDSA_P384_CERTIFICATE);
+            case "ed25519":
+                return inflateCertificate(KWIK_DOT_TECH_ED25519_CERTIFICATE);
+            default:
+                throw new IllegalArgumentException("Unknown certificate type " + certificateType);
+        }
+    }
+
+    /**
+     * @param certificateType  one of "rsa", "ecdsaP256", "ecdsaP384" or "ed25519"
+     * @return  the private key belonging to the server certificate of the given type
+     */
+    public static PrivateKey serverPrivateKey(String certificateType) throws Exception {
+        switch (certificateType) {
+            case "rsa":
+                return inflatePrivateKey(KWIK_DOT_TECH_RSA_PRIVATE_KEY, "RSA");
+            case "ecdsaP256":
+                return inflatePrivateKey(KWIK_DOT_TECH_ECDSA_P256_PRIVATE_KEY, "EC");
+            case "ecdsaP384":
+                return inflatePrivateKey(KWIK_DOT_TECH_ECDSA_P384_PRIVATE_KEY, "EC");
+            case "ed25519":
+                return inflatePrivateKey(KWIK_DOT_TECH_ED25519_PRIVATE_KEY, "Ed25519");
+            default:
+                throw new IllegalArgumentException("Unknown certificate type " + certificateType);
+        }
+    }
+
+    public static X509Certificate inflateCertificate(String encodedCertificate) throws Exception {
+        CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+        return (X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(Base64.getDecoder().decode(encodedCertificate)));
+    }
+
+    public static PrivateKey inflatePrivateKey(String encodedKey, String algorithm) throws Exception {
+        PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(Base64.getDecoder().decode(encodedKey));
+        return KeyFactory.getInstance(algorithm).generatePrivate(keySpec);
+    }
+
+    // Self-signed, subject CN=kwik.tech, RSA 2048 bit
+    static final String KWIK_DOT_TECH_RSA_CERTIFICATE =
+            "MIICxzCCAa+gAwIBAgIEJ4Jd0zANBgkqhkiG9w0BAQsFADAUMRIwEAYDVQQDEwlr" +
+            "d2lrLnRlY2gwHhcNMjAwNjAxMTAyNDMzWhcNMjEwNjAxMTAyNDMzWjAUMRIwEAYD" +
+            "VQQDEwlrd2lrLnRlY2gwggEiMA0GCSqGSIb3DQEBAQUAA4IBDwAwggEKAoIBAQCD" +
+            "fGLG29p6hjY251wLhSWd1Al9utOd3pkUteFX4pXDi8pgumq3pL6CsEsD9sj1XmCX" +
+            "CcWWTVlU0tPHq74daA/gm6KHubtNmyLESS38e5gjC3PCRz5ock4h9IZvsrhoFz9K" +
+            "pFs3edTtglaiB0dl2nIm281upk3f2qXN/+JQAK9F5jtimYRaNfUGkPFyHy278tzu" +
+            "xEblg+TreCA8L7TJjJz/H/Y+OtYgZFza6K6mGxhm6ykHKbNZOfv76k0KJTC4u/Fz" +
+            "V2ReFqfwYip+S4/8M9QHbIx1xQwbFBeDhTQHfM6jak1GrzbIGTs6TWpFFzv7qQip" +
+            "DP29HpI5Xgsjy8J5ui9fAgMBAAGjITAfMB0GA1UdDgQWBBQKETVqXNREe51yGXst" +
+            "Z+TQkh21bDANBgkqhkiG9w0BAQsFAAOCAQEAWuVsyQLbUdasz1YgbYzdH8SsxtVe" +
+            "EwJIhw3YQk9ongDaFxogk+rgqMTBt8CBU0OzYqddKPSCtm1RQGG08qQv00Rzev3c" +
+            "VsDHZZM9GiK1TYHnYeYc2hV9UCxxmEcDrs86NHV+eCGjTuw8FJr3owLJs/lnukbw" +
+            "SFHMKmPIHbNn1LLMR0oEu7w0h8DEQ6CI/lfpF/F+mcgjrHrDgvC0QP+0ZiUH95YL" +
+            "OBaxTtxi3ZDIfGofw3tHJoq55I4SuZcvCKid0FKeCunomfuIHsvCVyVYJcHSaMMa" +
+            "vMBM0Kn6CfdkQukplJzwNujbXJtvxx4a7+UPEzfEmBUuuVRZ3rzjq2u46w==";
+
+    static final String KWIK_DOT_TECH_RSA_PRIVATE_KEY =
+            "MIIEvQIBADANBgkqhkiG9w0BAQEFAASCBKcwggSjAgEAAoIBAQCDfGLG29p6hjY2" +
+            "51wLhSWd1Al9utOd3pkUteFX4pXDi8pgumq3pL6CsEsD9sj1XmCXCcWWTVlU0tPH" +
+            "q74daA/gm6KHubtNmyLESS38e5gjC3PCRz5ock4h9IZvsrhoFz9KpFs3edTtglai" +
+            "B0dl2nIm281upk3f2qXN/+JQAK9F5jtimYRaNfUGkPFyHy278tzuxEblg+TreCA8" +
+            "L7TJjJz/H/Y+OtYgZFza6K6mGxhm6ykHKbNZOfv76k0KJTC4u/FzV2ReFqfwYip+" +
+            "S4/8M9QHbIx1xQwbFBeDhTQHfM6jak1GrzbIGTs6TWpFFzv7qQipDP29HpI5Xgsj" +
+            "y8J5ui9fAgMBAAECggEAWddn9tDKW+XQrXswXX7A0TLMuWgqqDgtCQWtz8s24cJm" +
+            "qek2efzLX6jt2OuLLH0sKoe2xphbbaYQpuImqRktoB830t2JqeFSxCPslBQvQ+LT" +
+            "WfAsKFnSIUlfgnrvndAkou/ik+lfIFpqr5OhqWq1jO+rUuu3UjmoCTXKgTe2i19k" +
+            "/MeoNP6/OvzuHy8mQLb2Zf2nBx6h+Xn29vvsjvyIhBzSvtZCq9pcPdmRku8CPfql" +
+            "cWjGvAGEKxzsSJS5jE4doet+8h+kjgeWUE6jP2Nbkj4yr7pRbKd2PhGlZ0kdfpWz" +
+            "1HipRpJ3lilI2ddknU9c6wxl0cKNtM6+/vBT3/V2AQKBgQDM2s5rmqZwmoFIhJ6M" +
+            "TFVXGOY5iW/Wj3vhGAQxG4ZPdIOIfH+yvQmSEBjGqkN4BJFlh3EHj8cHFbSggOAf" +
+            "0obrMwbXCnzVH4zP0gwyr9xiZlNqA4EmwmvFm22R1X5JjBmq/Nn9HjXLs+/Hy+Uz" +
+            "EdoATv44RlclilrOCNCnzF0zHwKBgQCkUD6vfHNvVBhjjCv3q2gQYhzRNtFkOcDV" +
+            "scs4+nbEcq8kCMwHUVomvZt5gjr6edSQjNWkpdfYrWai7F8CHv0aSGc7RO2YGw9d" +
+            "3/fQpwTC77qYegLyLkd7p1UmVyOm6eHT68bU6hn2QXYhmRgQ+0GzHIOeWTWaPTMC" +
+            "fJr/4AG7wQKBgByHcG3t6LYP3mdiCM6TJuNtVUq4CDpCW0c62AKaybaxDExqwkH7" +
+            "L6UG1tx8A89oG3OfTC94Z4hmDnS33f6wjBefUJmMHVx0+2BJ6Wb5tOCDTaSa/laO" +
+            "hwHLJpRDvkWx3DVC53znwyguU/toOvBE0S5v0dm2ehaBUSoWcjCcNnKTAoGAavYp" +
+            "uEbFRkVyEutee71C4tdbdv2+VQYbd4BjkFXLFpqpVEW9u03D59Ap83FJP2ArdWWY" +
+            "dbPXzJ8kXw6L0m+lx4Q2XyjBmfCTkkKHqXXv7Y3s4/EZFdn2gpItJeY3uSIq9a9Y" +
+            "IaW6/MkkQz7LodJNtHDtZRkhgaQxHn9KzyJdPoECgYEAs75ZaTk4JO9PsEwwokHq" +
+            "LX59yk+g0NHf24vdDAQLXiEN1R6GezfFfW5RTZ1Z9EVtPqIlJ7ONLpXg0lEYol3P" +
+            "iN/5yyqMuAaKpu6/2ESRPIG1xbn1yttyRusGqkD7G8cTi6FixjGLIeoQ9/0FaOPV" +
+            "Jw7iHTfpu+iPQlmvb660GBs=";
+
+    // Subject CN=SampleCA1, RSA 2048 bit
+    static final String SAMPLE_CA1 =
+            "MIIDCTCCAfGgAwIBAgIUDNjROuDc9EU/jLWRzSPJFktpAwcwDQYJKoZIhvcNAQEL" +
+            "BQAwFDESMBAGA1UEAwwJU2FtcGxlQ0ExMB4XDTI0MDQwMTEwMTk0MVoXDTI0MDUw" +
+            "MTEwMTk0MVowFDESMBAGA1UEAwwJU2FtcGxlQ0ExMIIBIjANBgkqhkiG9w0BAQEF" +
+            "AAOCAQ8AMIIBCgKCAQEA2Bv1R0ft2tCB+4gkRg/yfZ43bHC0P8TwyBNakmFVc3Hb" +
+            "AyHRWWuLtERXnVI4tZsay61VGjk9pFa+R5wpHb0ZtRgYV/1N7YFdIZzyQN0v3X8O" +
+            "y2UTqYfYCAlHTZ8+UEN7MqS0mVwan/GfhKj5m1yx+zxQCLrCvahHoytY9jR3C6gi" +
+            "0F/hdN9iICLgc51fOU5WMedyEjAWEh04H5Sg/D7N+w7DBB0okSaP38YoeQaLezmv" +
+            "ChtAVo+XMQQPEXaaYgdG+s/yKdT5JWUQgqB+qtc48wnEC2oOUuxu/JZKd+BU3HOG" +
+            "xLD7B2Bdm0YGSKt9yCp2L9PVJmlB4PrlAm8GWOgDIwIDAQABo1MwUTAdBgNVHQ4E" +
+            "FgQU3Fg1NmjjZIszeMJsUrCeZM+64WUwHwYDVR0jBBgwFoAU3Fg1NmjjZIszeMJs" +
+            "UrCeZM+64WUwDwYDVR0TAQH/BAUwAwEB/zANBgkqhkiG9w0BAQsFAAOCAQEAENJY" +
+            "gwTMq682WW+DXinok6Lxvyx0QrFtyQ5Noa3d8vmQ9bFXGCzUXuwDYmcZSqZlG56A" +
+            "/rbDpBA7Fadx/CIpJOsMFL/awoG/itK7W290VKvF25J2gEdy3HSgFJDe0oAoZ7/8" +
+            "0hCYHFPZ8pdvGLVm0zOt9AK2wy2m+W0ugSMT1MRgqgsipUSWSHewBImK865xYaQS" +
+            "lajtrjePUQ2kNql5gtLp+URCNbQVLxnPRDmObSMYKPoWK6mzjEDvWgRTMSj+EsUT" +
+            "nXoQ7A5EA78HAQLuYVb3TNZWSH7YVHNjrJ5ErI84xZPxWhv9RYZeKtKj61ea5xYQ" +
+            "tt5eTeRexWhlHHax7Q==";
+
+    // Subject CN=sample1.com, signed by SampleCA1
+    static final String CA1_SIGNED_CERTIFICATE =
+            "MIIDPzCCAiegAwIBAgIUFqpYSez/zC7fzZxwF+Az/evz7p4wDQYJKoZIhvcNAQEL" +
+            "BQAwFDESMBAGA1UEAwwJU2FtcGxlQ0ExMB4XDTI0MDQwMTEwMjkyN1oXDTI0MDUw" +
+            "MTEwMjkyN1owWzELMAkGA1UEBhMCQVUxEzARBgNVBAgMClNvbWUtU3RhdGUxITAf" +
+            "BgNVBAoMGEludGVybmV0IFdpZGdpdHMgUHR5IEx0ZDEUMBIGA1UEAwwLc2FtcGxl" +
+            "MS5jb20wggEiMA0GCSqGSIb3DQEBAQUAA4IBDwAwggEKAoIBAQDV6+2D/c/fHYr2" +
+            "NpngyimPiRQf7epqXmlI8x1Ka5NgYG2/BCgEGoMa/0pZ1LRNjMFbh+IbpshMf2oX" +
+            "M0gbyC8kY+wprq9o+rCgA7DEKg/wVHTeut85584lc/Z/nG9rSkNDhnxc6/qTp+UC" +
+            "IsqT27t9Qs2YQsgRyC3zdXVzGRAK2CiCVdbT5AJudQtnMOqexDyukfuu4tidjETQ" +
+            "1oZ3xFtxDVKKK+zKYj7O69hEAmpN473R0HgKWyNJKr4zneFIWeqeZCyZYZZYfNiF" +
+            "Kb445mVCF9D2jBObBqWV1n6FMmFds8E0pAo+SWj2JvHpJx2HG1otPT5lnLkj7XnP" +
+            "UQFWsS4fAgMBAAGjQjBAMB0GA1UdDgQWBBTr7NM+Z/AdzOK2r+I5cAOlkCYhADAf" +
+            "BgNVHSMEGDAWgBTcWDU2aONkizN4wmxSsJ5kz7rhZTANBgkqhkiG9w0BAQsFAAOC" +
+            "AQEAG1PJzzzO8vchhlnW7nPzF0whaK3ARpiW3M3TzbMWjxaBVtFID3HgJ8hQuFl2" +
+            "vSv3Yv07gGh7ZbpWd8Iq3oYwH94IeiBfSVGO2iD3GR+fzjk2bqtBlxNmn4tbk3Ya" +
+            "LW4940mHczYiAz2QVbBSGUZfRgGdyxJKazT8PdUpjEfTpUH5lu7OkhCxlGnrg6gv" +
+            "p/yYeO6WrbfRhet/9tMVtBRm4oRePDXdHEMoTl5uFAASoED0XRxF6hEC8eLoWGRC" +
+            "eIAhuxnU0PFH/PRtplkU98A52rvz7Ab1TdYea+fAsc/9nK7OwwZfsXkd9GlYfmPJ" +
+            "86giEJwN+yGN1WnMWBwSR3fCiQ==";
+
+    // Self-signed, subject CN=kwik.tech, EC key on secp256r1
+    static final String KWIK_DOT_TECH_ECDSA_P256_CERTIFICATE =
+            "MIIBlTCCATugAwIBAgIUTLH+WBYbapeqjSIDIMYys6tPG2UwCgYIKoZIzj0EAwIw" +
+            "FDESMBAGA1UEAwwJa3dpay50ZWNoMCAXDTI2MTAxNzIwMTkzNFoYDzIxMjYwOTIz" +
+            "MjAxOTM0WjAUMRIwEAYDVQQDDAlrd2lrLnRlY2gwWTATBgcqhkjOPQIBBggqhkjO" +
+            "PQMBBwNCAAQaRO59Gir8zagh8030ugEhgQE5WXNWftgbZqidjuvcQvJRAY26QjQd" +
+            "GZd08WcnfD2b2fTeoimS8D8l8rStcQBjo2kwZzAdBgNVHQ4EFgQUCir/dyzFhxfj" +
+            "zfLaxd+9R5ZQGtEwHwYDVR0jBBgwFoAUCir/dyzFhxfjzfLaxd+9R5ZQGtEwDwYD" +
+            "VR0TAQH/BAUwAwEB/zAUBgNVHREEDTALgglrd2lrLnRlY2gwCgYIKoZIzj0EAwID" +
+            "SAAwRQIhAPUy4W7/5xG8UEvOY4EvGGyPRpDWZaWEmV1mFy4nJ+0oAiBKYIM42QMR" +
+            "qQNZF29FBU+zETet+Tc5Zk83mH8mHXnvEQ==";
+
+    // PKCS#8 encoded private key for KWIK_DOT_TECH_ECDSA_P256_CERTIFICATE
+    static final String KWIK_DOT_TECH_ECDSA_P256_PRIVATE_KEY =
+            "MIGHAgEAMBMGByqGSM49AgEGCCqGSM49AwEHBG0wawIBAQQg68FkYASDBVCKPyde" +
+            "2fzfQnlJziQ2zaoFKBg7kP1qLo+hRANCAAQaRO59Gir8zagh8030ugEhgQE5WXNW" +
+            "ftgbZqidjuvcQvJRAY26QjQdGZd08WcnfD2b2fTeoimS8D8l8rStcQBj";
+
+    // Self-signed, subject CN=kwik.tech, EC key on secp384r1
+    static final String KWIK_DOT_TECH_ECDSA_P384_CERTIFICATE =
+            "MIIB0TCCAVigAwIBAgIUVbcAxO41KimMaRgju4snlfbnTJwwCgYIKoZIzj0EAwIw" +
+            "FDESMBAGA1UEAwwJa3dpay50ZWNoMCAXDTI2MTAxNzIwMTkzNFoYDzIxMjYwOTIz" +
+            "MjAxOTM0WjAUMRIwEAYDVQQDDAlrd2lrLnRlY2gwdjAQBgcqhkjOPQIBBgUrgQQA" +
+            "IgNiAASHBkzoOTzDqs+s3mo9rwLldV51ct3NMJ1BKFzIfeUd/LXSAG/CwXgqg0DV" +
+            "eQI8afXFAjj/nEnFRug2bV7IGmu8PDR0LBb0JN0cI2DxbUmpwivUJ5sS+XFl4iTu" +
+            "J3oVWhajaTBnMB0GA1UdDgQWBBSn8S6VapbPOT1Ds5bDeHvX4h3cgjAfBgNVHSME" +
+            "GDAWgBSn8S6VapbPOT1Ds5bDeHvX4h3cgjAPBgNVHRMBAf8EBTADAQH/MBQGA1Ud" +
+            "EQQNMAuCCWt3aWsudGVjaDAKBggqhkjOPQQDAgNnADBkAjBLXNpdMZ71M8hF6kIU" +
+            "n7XA/UQ0w1lIIlQAlo5VLtJyvbDMW8I2zJBlp8QU2sWc0o4CMGDwNwKEz5qt/C/U" +
+            "TyxM2OqofB9Bk3WQAPAG34JwbL0AkSg7Eca57xPOWPKoyRjreA==";
+
+    // PKCS#8 encoded private key for KWIK_DOT_TECH_ECDSA_P384_CERTIFICATE
+    static final String KWIK_DOT_TECH_ECDSA_P384_PRIVATE_KEY =
+            "MIG2AgEAMBAGByqGSM49AgEGBSuBBAAiBIGeMIGbAgEBBDApldWISBpu8I9hoZk5" +
+            "nnI6nw0MxC/lvjCEkQTDkkLyw3vaEz5kmI81syYbZYkybh6hZANiAASHBkzoOTzD" +
+            "qs+s3mo9rwLldV51ct3NMJ1BKFzIfeUd/LXSAG/CwXgqg0DVeQI8afXFAjj/nEnF" +
+            "Rug2bV7IGmu8PDR0LBb0JN0cI2DxbUmpwivUJ5sS+XFl4iTuJ3oVWhY=";
+
+    // Self-signed, subject CN=kwik.tech, Ed25519 key
+    static final String KWIK_DOT_TECH_ED25519_CERTIFICATE =
+            "MIIBVTCCAQegAwIBAgIUUKIpcdQQOtFFkOqrr7Q5lRJDTOQwBQYDK2VwMBQxEjAQ" +
+            "BgNVBAMMCWt3aWsudGVjaDAgFw0yNjEwMTcyMDE5MzVaGA8yMTI2MDkyMzIwMTkz" +
+            "NVowFDESMBAGA1UEAwwJa3dpay50ZWNoMCowBQYDK2VwAyEAXT2sEcmY/uHFk10o" +
+            "u0Bo1MEc5pIfSoJrsSZdR0yVGBujaTBnMB0GA1UdDgQWBBTh4NNSxEnZS58KPSD/" +
+            "yly0V+eoWTAfBgNVHSMEGDAWgBTh4NNSxEnZS58KPSD/yly0V+eoWTAPBgNVHRMB" +
+            "Af8EBTADAQH/MBQGA1UdEQQNMAuCCWt3aWsudGVjaDAFBgMrZXADQQAVnMT+/Mbi" +
+            "ZWEXwhMO3KE1swtjxqHkg/sp3qyI7IIMlvG1TsQTfMUCDbaNwUi8yO3O+MxmIvy/" +
+            "HSCM0kI0gi0I";
+
+    // PKCS#8 encoded private key for KWIK_DOT_TECH_ED25519_CERTIFICATE
+    static final String KWIK_DOT_TECH_ED25519_PRIVATE_KEY =
+            "MC4CAQAwBQYDK2VwBCIEIENVBfdSo8ByGfDH4KOhjjsFNmbTp1p7lQj9a0WEAFiP";
+}
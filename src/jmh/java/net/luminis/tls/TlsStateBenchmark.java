@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the TLS 1.3 key schedule as implemented by TlsState. The transcript hash is replaced by one that returns
+ * fixed values, so transcript hashing is not included (see TranscriptHashBenchmark for that).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TlsStateBenchmark {
+
+    private TranscriptHash transcriptHash;
+    private KeyPair ownKeyPair;
+    private KeyPair peerKeyPair;
+    private byte[] psk;
+    private byte[] partialClientHello;
+
+    @Setup
+    public void setup() throws Exception {
+        transcriptHash = new FixedTranscriptHash(32);
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+        keyPairGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+        ownKeyPair = keyPairGenerator.genKeyPair();
+        peerKeyPair = keyPairGenerator.genKeyPair();
+        psk = new byte[32];
+        partialClientHello = new byte[512];
+    }
+
+    @Benchmark
+    public TlsState sharedSecret() {
+        TlsState state = new TlsState(transcriptHash, 16, 32);
+        state.setOwnKey(ownKeyPair.getPrivate());
+        state.setPeerKey(peerKeyPair.getPublic());
+        state.computeSharedSecret();
+        return state;
+    }
+
+    @Benchmark
+    public byte[] fullHandshakeKeySchedule() {
+        TlsState state = new TlsState(transcriptHash, 16, 32);
+        state.setOwnKey(ownKeyPair.getPrivate());
+        state.setPeerKey(peerKeyPair.getPublic());
+        state.computeSharedSecret();
+        state.computeHandshakeSecrets();
+        state.computeApplicationSecrets();
+        state.computeResumptionMasterSecret();
+        return state.computePSK(new byte[] { 0x00 });
+    }
+
+    @Benchmark
+    public byte[] resumptionKeySchedule() {
+        TlsState state = new TlsState(transcriptHash, psk, 16, 32);
+        state.computePskBinder(ByteBuffer.wrap(partialClientHello));
+        state.computeEarlyTrafficSecret();
+        state.setOwnKey(ownKeyPair.getPrivate());
+        state.setPeerKey(peerKeyPair.getPublic());
+        state.computeSharedSecret();
+        state.computeHandshakeSecrets();
+        state.computeApplicationSecrets();
+        state.computeResumptionMasterSecret();
+        return state.computePSK(new byte[] { 0x00 });
+    }
+
+    private static class FixedTranscriptHash extends TranscriptHash {
+        private final byte[] hash;
+
+        FixedTranscriptHash(int hashLength) {
+            super(hashLength);
+            hash = new byte[hashLength];
+        }
+
+        @Override
+        public byte[] getHash(TlsConstants.HandshakeType msgType) {
+            return hash;
+        }
+
+        @Override
+        public byte[] getClientHash(TlsConstants.HandshakeType msgType) {
+            return hash;
+        }
+
+        @Override
+        public byte[] getServerHash(TlsConstants.HandshakeType msgType) {
+            return hash;
+        }
+    }
+}
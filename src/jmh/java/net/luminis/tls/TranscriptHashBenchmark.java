@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls;
+
+import net.luminis.tls.extension.ApplicationLayerProtocolNegotiationExtension;
+import net.luminis.tls.handshake.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static net.luminis.tls.TlsConstants.HandshakeType.*;
+import static net.luminis.tls.TlsConstants.NamedGroup.secp256r1;
+
+/**
+ * Measures recording the messages of a full handshake and computing the transcript hashes a client or server needs
+ * during that handshake.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TranscriptHashBenchmark {
+
+    private ClientHello clientHello;
+    private ServerHello serverHello;
+    private EncryptedExtensions encryptedExtensions;
+    private CertificateMessage certificateMessage;
+    private CertificateVerifyMessage certificateVerifyMessage;
+    private FinishedMessage serverFinished;
+    private FinishedMessage clientFinished;
+
+    @Setup
+    public void setup() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+        keyPairGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+        clientHello = new ClientHello(BenchmarkCertificates.SERVER_NAME, keyPairGenerator.genKeyPair().getPublic(), false,
+                List.of(TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256), TlsClientEngine.AVAILABLE_SIGNATURES, secp256r1,
+                List.of(new ApplicationLayerProtocolNegotiationExtension("h3")), null, ClientHello.PskKeyEstablishmentMode.PSKwithDHE);
+        serverHello = new ServerHello(TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256);
+        encryptedExtensions = new EncryptedExtensions(List.of(new ApplicationLayerProtocolNegotiationExtension("h3")));
+        certificateMessage = new CertificateMessage(BenchmarkCertificates.serverCertificate());
+        certificateVerifyMessage = new CertificateVerifyMessage(TlsConstants.SignatureScheme.rsa_pss_rsae_sha256, new byte[256]);
+        serverFinished = new FinishedMessage(new byte[32]);
+        clientFinished = new FinishedMessage(new byte[32]);
+    }
+
+    @Benchmark
+    public byte[] fullHandshakeTranscript() {
+        TranscriptHash transcriptHash = new TranscriptHash(32);
+        transcriptHash.record(clientHello);
+        transcriptHash.record(serverHello);
+        transcriptHash.getHash(server_hello);
+        transcriptHash.record(encryptedExtensions);
+        transcriptHash.recordServer(certificateMessage);
+        transcriptHash.getServerHash(certificate);
+        transcriptHash.recordServer(certificateVerifyMessage);
+        transcriptHash.getServerHash(certificate_verify);
+        transcriptHash.recordServer(serverFinished);
+        transcriptHash.getServerHash(finished);
+        transcriptHash.recordClient(clientFinished);
+        return transcriptHash.getClientHash(finished);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.BenchmarkCertificates;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing a certificate message, which includes decoding the X.509 certificates it contains.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CertificateMessageBenchmark {
+
+    private byte[] singleCertificateMessage;
+    private byte[] certificateChainMessage;
+
+    @Setup
+    public void setup() throws Exception {
+        singleCertificateMessage = new CertificateMessage(BenchmarkCertificates.serverCertificate()).getBytes();
+        certificateChainMessage = new CertificateMessage(BenchmarkCertificates.certificateChain()).getBytes();
+    }
+
+    @Benchmark
+    public CertificateMessage parseSingleCertificate() throws Exception {
+        return new CertificateMessage().parse(ByteBuffer.wrap(singleCertificateMessage));
+    }
+
+    @Benchmark
+    public CertificateMessage parseCertificateChain() throws Exception {
+        return new CertificateMessage().parse(ByteBuffer.wrap(certificateChainMessage));
+    }
+
+    @Benchmark
+    public CertificateMessage parseCertificateChainZeroCopy() throws Exception {
+        return new CertificateMessage().parse(ByteBuffer.wrap(certificateChainMessage), true);
+    }
+}
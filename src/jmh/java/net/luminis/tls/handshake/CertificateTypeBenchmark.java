@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.BenchmarkCertificates;
+import net.luminis.tls.NewSessionTicket;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures full handshakes for the different types of server certificate. As the benchmark runs in a single thread,
+ * the throughput equals the number of handshakes per core per second (for client and server together, as both engines
+ * run in the same thread).
+ * The difference between the certificate types is determined by the cost of signing the certificate verify message
+ * on the server and verifying it on the client.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CertificateTypeBenchmark {
+
+    @Param({ "rsa", "ecdsaP256", "ecdsaP384", "ed25519" })
+    private String certificateType;
+
+    private ServerCredentials serverCredentials;
+    private TlsSessionRegistry sessionRegistry;
+
+    @Setup
+    public void setup() throws Exception {
+        serverCredentials = new ServerCredentials(List.of(BenchmarkCertificates.serverCertificate(certificateType)),
+                BenchmarkCertificates.serverPrivateKey(certificateType)).precompute();
+        sessionRegistry = new TlsSessionRegistryImpl();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        sessionRegistry.close();
+    }
+
+    @Benchmark
+    public NewSessionTicket fullHandshake() throws Exception {
+        return new LoopbackHandshake(serverCredentials, sessionRegistry, null, false).run();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.BenchmarkCertificates;
+import net.luminis.tls.TlsConstants;
+import net.luminis.tls.extension.ApplicationLayerProtocolNegotiationExtension;
+import net.luminis.tls.extension.Extension;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static net.luminis.tls.TlsConstants.NamedGroup.secp256r1;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ClientHelloBenchmark {
+
+    private PublicKey publicKey;
+    private List<Extension> extensions;
+    private byte[] serializedClientHello;
+
+    @Setup
+    public void setup() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+        keyPairGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+        publicKey = keyPairGenerator.genKeyPair().getPublic();
+        extensions = List.of(new ApplicationLayerProtocolNegotiationExtension(LoopbackHandshake.APPLICATION_PROTOCOL));
+        serializedClientHello = serialize().getBytes();
+    }
+
+    @Benchmark
+    public ClientHello serialize() {
+        return new ClientHello(BenchmarkCertificates.SERVER_NAME, publicKey, false, List.of(TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256),
+                TlsClientEngine.AVAILABLE_SIGNATURES, secp256r1, extensions, null, ClientHello.PskKeyEstablishmentMode.PSKwithDHE);
+    }
+
+    @Benchmark
+    public ClientHello parse() throws Exception {
+        return new ClientHello(ByteBuffer.wrap(serializedClientHello), null);
+    }
+
+    @Benchmark
+    public ClientHello parseZeroCopy() throws Exception {
+        return new ClientHello(ByteBuffer.wrap(serializedClientHello), null, true);
+    }
+}
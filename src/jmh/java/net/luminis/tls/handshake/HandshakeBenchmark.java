@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.BenchmarkCertificates;
+import net.luminis.tls.NewSessionTicket;
+import net.luminis.tls.TlsConstants;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures complete handshakes between a client and a server engine that are connected in memory, so the numbers
+ * reflect the cost of the TLS processing (crypto, message serialization and parsing) only.
+ * Run with the gc profiler (enabled by default in the build file) to get allocation rates per handshake.
+ * The "pooled" variant takes the ephemeral key pairs from a pool that is filled in the background; note that with
+ * handshakes running back-to-back, the pool can be exhausted, in which case it falls back to on demand generation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HandshakeBenchmark {
+
+    @Param({ "onDemand", "pooled" })
+    private String keyShares;
+
+    @Param({ "stateful", "stateless" })
+    private String sessionRegistryType;
+
+    private ServerCredentials serverCredentials;
+    private TlsSessionRegistry sessionRegistry;
+    private NewSessionTicket ticket;
+    private KeyShareProvider keyShareProvider;
+
+    @Setup
+    public void setup() throws Exception {
+        serverCredentials = new ServerCredentials(List.of(BenchmarkCertificates.serverCertificate()), BenchmarkCertificates.serverPrivateKey()).precompute();
+        if ("stateless".equals(sessionRegistryType)) {
+            sessionRegistry = new StatelessTlsSessionRegistry();
+        }
+        else {
+            sessionRegistry = new TlsSessionRegistryImpl();
+        }
+        if ("pooled".equals(keyShares)) {
+            keyShareProvider = new PooledKeyShareProvider(List.of(TlsConstants.NamedGroup.secp256r1));
+        }
+        else {
+            keyShareProvider = new OnDemandKeyShareProvider();
+        }
+        ticket = new LoopbackHandshake(serverCredentials, sessionRegistry, null, false, keyShareProvider).run();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        sessionRegistry.close();
+        if (keyShareProvider instanceof PooledKeyShareProvider) {
+            ((PooledKeyShareProvider) keyShareProvider).close();
+        }
+    }
+
+    @Benchmark
+    public NewSessionTicket fullHandshake() throws Exception {
+        return new LoopbackHandshake(serverCredentials, sessionRegistry, null, false, keyShareProvider).run();
+    }
+
+    @Benchmark
+    public NewSessionTicket pskResumption() throws Exception {
+        // Tickets are single use, so each resumption uses the ticket obtained by the previous one.
+        ticket = new LoopbackHandshake(serverCredentials, sessionRegistry, ticket, false, keyShareProvider).run();
+        return ticket;
+    }
+
+    @Benchmark
+    public NewSessionTicket zeroRttResumption() throws Exception {
+        ticket = new LoopbackHandshake(serverCredentials, sessionRegistry, ticket, true, keyShareProvider).run();
+        return ticket;
+    }
+}
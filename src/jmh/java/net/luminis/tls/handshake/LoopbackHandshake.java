@@ -0,0 +1,236 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.BenchmarkCertificates;
+import net.luminis.tls.NewSessionTicket;
+import net.luminis.tls.ProtectionKeysType;
+import net.luminis.tls.TlsConstants;
+import net.luminis.tls.TlsProtocolException;
+import net.luminis.tls.extension.ApplicationLayerProtocolNegotiationExtension;
+import net.luminis.tls.extension.EarlyDataExtension;
+import net.luminis.tls.extension.Extension;
+
+import javax.net.ssl.X509TrustManager;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Connects a client and a server engine in memory. Messages are serialized by the sending engine and parsed by the
+ * receiving engine, just like they would be when sent over a network, but without any I/O. Messages are queued rather
+ * than delivered from within the send call, as engines do not expect to receive a message while still processing the
+ * previous one.
+ */
+public class LoopbackHandshake {
+
+    public static final String APPLICATION_PROTOCOL = "h3";
+
+    private final TlsMessageParser messageParser = new TlsMessageParser();
+    private final Deque<QueuedMessage> inFlight = new ArrayDeque<>();
+    private final TlsClientEngine clientEngine;
+    private final TlsServerEngine serverEngine;
+    private NewSessionTicket receivedTicket;
+
+    /**
+     * Creates client and server engines for a single handshake.
+     * @param serverCredentials  the server certificate chain and private key
+     * @param sessionRegistry  the server session registry; should be shared between handshakes for resumption to work
+     * @param ticket  the ticket the client should use for resumption, or null for a full handshake
+     * @param earlyData  whether the client should request early data (only used when a ticket is given)
+     */
+    public LoopbackHandshake(ServerCredentials serverCredentials, TlsSessionRegistry sessionRegistry, NewSessionTicket ticket, boolean earlyData) {
+        this(serverCredentials, sessionRegistry, ticket, earlyData, null);
+    }
+
+    /**
+     * Creates client and server engines for a single handshake, that both use the given key share provider.
+     * @param keyShareProvider  the key share provider for both engines, or null for the engine's default
+     */
+    public LoopbackHandshake(ServerCredentials serverCredentials, TlsSessionRegistry sessionRegistry, NewSessionTicket ticket,
+                             boolean earlyData, KeyShareProvider keyShareProvider) {
+        serverEngine = new TlsServerEngine(serverCredentials, new ServerMessageSender() {
+            @Override
+            public void send(ServerHello message) {
+                inFlight.add(new QueuedMessage(message, ProtectionKeysType.None, true));
+            }
+
+            @Override
+            public void send(EncryptedExtensions message) {
+                inFlight.add(new QueuedMessage(message, ProtectionKeysType.Handshake, true));
+            }
+
+            @Override
+            public void send(CertificateMessage message) {
+                inFlight.add(new QueuedMessage(message, ProtectionKeysType.Handshake, true));
+            }
+
+            @Override
+            public void send(CertificateVerifyMessage message) {
+                inFlight.add(new QueuedMessage(message, ProtectionKeysType.Handshake, true));
+            }
+
+            @Override
+            public void send(FinishedMessage message) {
+                inFlight.add(new QueuedMessage(message, ProtectionKeysType.Handshake, true));
+            }
+
+            @Override
+            public void send(NewSessionTicketMessage message) {
+                inFlight.add(new QueuedMessage(message, ProtectionKeysType.Application, true));
+            }
+        }, new StatusHandler(true), sessionRegistry);
+        serverEngine.addSupportedCiphers(List.of(TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256));
+
+        clientEngine = new TlsClientEngine(new ClientMessageSender() {
+            @Override
+            public void send(ClientHello message) {
+                inFlight.add(new QueuedMessage(message, ProtectionKeysType.None, false));
+            }
+
+            @Override
+            public void send(FinishedMessage message) {
+                inFlight.add(new QueuedMessage(message, ProtectionKeysType.Handshake, false));
+            }
+
+            @Override
+            public void send(CertificateMessage message) {
+                inFlight.add(new QueuedMessage(message, ProtectionKeysType.Handshake, false));
+            }
+
+            @Override
+            public void send(CertificateVerifyMessage message) {
+                inFlight.add(new QueuedMessage(message, ProtectionKeysType.Handshake, false));
+            }
+        }, new StatusHandler(false));
+        clientEngine.setServerName(BenchmarkCertificates.SERVER_NAME);
+        clientEngine.addSupportedCiphers(List.of(TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256));
+        clientEngine.add(new ApplicationLayerProtocolNegotiationExtension(APPLICATION_PROTOCOL));
+        // Certificate path validation is not what is measured here (and the test certificates have expired anyway).
+        clientEngine.setTrustManager(new TrustAllTrustManager());
+        clientEngine.setHostnameVerifier((hostname, certificate) -> true);
+        if (keyShareProvider != null) {
+            clientEngine.setKeyShareProvider(keyShareProvider);
+            serverEngine.setKeyShareProvider(keyShareProvider);
+        }
+        if (ticket != null) {
+            clientEngine.setNewSessionTicket(ticket);
+            if (earlyData) {
+                clientEngine.add(new EarlyDataExtension());
+            }
+        }
+    }
+
+    /**
+     * Executes the handshake until both sides are finished.
+     * @return  the ticket the server sent to the client, or null if none was sent
+     */
+    public NewSessionTicket run() throws TlsProtocolException, IOException {
+        // Offer all signature schemes, so the handshake works with every type of server certificate.
+        clientEngine.startHandshake(TlsConstants.NamedGroup.secp256r1, TlsClientEngine.AVAILABLE_SIGNATURES);
+        while (!inFlight.isEmpty()) {
+            QueuedMessage queued = inFlight.poll();
+            MessageProcessor receiver = queued.toClient? clientEngine: serverEngine;
+            messageParser.parseAndProcessHandshakeMessage(ByteBuffer.wrap(queued.data), receiver, queued.protectedBy);
+        }
+        if (!clientEngine.handshakeFinished()) {
+            throw new IllegalStateException("handshake did not finish");
+        }
+        if (!Arrays.equals(clientEngine.getClientApplicationTrafficSecret(), serverEngine.getClientApplicationTrafficSecret())) {
+            throw new IllegalStateException("client and server did not agree on application traffic secret");
+        }
+        return receivedTicket;
+    }
+
+    public TlsClientEngine getClientEngine() {
+        return clientEngine;
+    }
+
+    public TlsServerEngine getServerEngine() {
+        return serverEngine;
+    }
+
+    private static class QueuedMessage {
+        final byte[] data;
+        final ProtectionKeysType protectedBy;
+        final boolean toClient;
+
+        QueuedMessage(HandshakeMessage message, ProtectionKeysType protectedBy, boolean toClient) {
+            this.data = message.getBytes();
+            this.protectedBy = protectedBy;
+            this.toClient = toClient;
+        }
+    }
+
+    private class StatusHandler implements TlsStatusEventHandler {
+        private final boolean server;
+
+        StatusHandler(boolean server) {
+            this.server = server;
+        }
+
+        @Override
+        public void earlySecretsKnown() {
+        }
+
+        @Override
+        public void handshakeSecretsKnown() {
+        }
+
+        @Override
+        public void handshakeFinished() {
+        }
+
+        @Override
+        public void newSessionTicketReceived(NewSessionTicket ticket) {
+            receivedTicket = ticket;
+        }
+
+        @Override
+        public void extensionsReceived(List<Extension> extensions) {
+            if (server) {
+                serverEngine.setSelectedApplicationLayerProtocol(APPLICATION_PROTOCOL);
+            }
+        }
+
+        @Override
+        public boolean isEarlyDataAccepted() {
+            return true;
+        }
+    }
+
+    private static class TrustAllTrustManager implements X509TrustManager {
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
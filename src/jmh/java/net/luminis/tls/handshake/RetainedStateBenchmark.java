@@ -0,0 +1,97 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.BenchmarkCertificates;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the heap retained by established connections, with and without compacting the engines once the handshake
+ * has finished (see {@link TlsEngine#compact()}). Each invocation establishes a batch of connections and keeps the
+ * client and server engines reachable; the heap in use is measured (after a full gc) before and after the batch, and
+ * the retained size per connection (client and server engine together) is reported as the secondary result
+ * "retainedBytesPerConnection". The score, the time to establish a batch, includes the forced garbage collections and
+ * is of little interest.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RetainedStateBenchmark {
+
+    private static final int CONNECTIONS = 1000;
+
+    @Param({ "false", "true" })
+    private boolean compact;
+
+    private ServerCredentials serverCredentials;
+    private TlsSessionRegistry sessionRegistry;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class RetainedSize {
+        public long retainedBytesPerConnection;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            retainedBytesPerConnection = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        serverCredentials = new ServerCredentials(List.of(BenchmarkCertificates.serverCertificate()), BenchmarkCertificates.serverPrivateKey()).precompute();
+        // Stateless, so the registry itself does not retain anything per connection.
+        sessionRegistry = new StatelessTlsSessionRegistry();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        sessionRegistry.close();
+    }
+
+    @Benchmark
+    public List<TlsEngine> establishConnections(RetainedSize retainedSize) throws Exception {
+        long before = usedHeap();
+        List<TlsEngine> engines = new ArrayList<>(2 * CONNECTIONS);
+        for (int i = 0; i < CONNECTIONS; i++) {
+            LoopbackHandshake handshake = new LoopbackHandshake(serverCredentials, sessionRegistry, null, false);
+            handshake.run();
+            if (compact) {
+                handshake.getClientEngine().compact();
+                handshake.getServerEngine().compact();
+            }
+            engines.add(handshake.getClientEngine());
+            engines.add(handshake.getServerEngine());
+        }
+        retainedSize.retainedBytesPerConnection = (usedHeap() - before) / CONNECTIONS;
+        return engines;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
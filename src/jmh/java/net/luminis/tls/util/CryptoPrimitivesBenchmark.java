@@ -0,0 +1,88 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.util;
+
+import at.favre.lib.hkdf.HKDF;
+import at.favre.lib.hkdf.HkdfMacFactory;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares obtaining crypto primitives with a provider lookup per call (as done before primitives were cached) with
+ * obtaining them from the cache (message digests from the per-thread cache, macs and the macs used by HKDF from the
+ * cached provider). Each benchmark performs a (small) operation with the primitive, so the numbers reflect the
+ * relative overhead of the lookup in realistic usage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CryptoPrimitivesBenchmark {
+
+    private byte[] data;
+    private SecretKeySpec macKey;
+    private HKDF hkdfLookup;
+    private byte[] pseudoRandomKey;
+
+    @Setup
+    public void setup() throws Exception {
+        data = new byte[256];
+        macKey = new SecretKeySpec(new byte[32], "HmacSHA256");
+        // HKDF without provider, which performs a provider lookup for every extract and expand.
+        hkdfLookup = HKDF.from(new HkdfMacFactory.Default("HmacSHA256", null));
+        pseudoRandomKey = new byte[32];
+    }
+
+    @Benchmark
+    public byte[] messageDigestLookup() throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(data);
+    }
+
+    @Benchmark
+    public byte[] messageDigestCached() throws Exception {
+        return CryptoPrimitives.getMessageDigest("SHA-256").digest(data);
+    }
+
+    @Benchmark
+    public byte[] macLookup() throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(macKey);
+        return mac.doFinal(data);
+    }
+
+    @Benchmark
+    public byte[] macCached() throws Exception {
+        Mac mac = CryptoPrimitives.getMac("HmacSHA256");
+        mac.init(macKey);
+        return mac.doFinal(data);
+    }
+
+    @Benchmark
+    public byte[] hkdfExpandLookup() {
+        return hkdfLookup.expand(pseudoRandomKey, data, 32);
+    }
+
+    @Benchmark
+    public byte[] hkdfExpandCached() {
+        return CryptoPrimitives.getHkdf("HmacSHA256").expand(pseudoRandomKey, data, 32);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls;
+
+import java.util.Arrays;
+
+/**
+ * A pre-shared key that is provisioned out-of-band (an "external" PSK), as opposed to a PSK that is derived from a
+ * previous handshake and provided by a session ticket. As both peers authenticate by proving knowledge of the key,
+ * a handshake with an external PSK does not use certificates.
+ * See https://datatracker.ietf.org/doc/html/rfc8446#section-4.2.11
+ */
+public class ExternalPsk {
+
+    private final byte[] identity;
+    private final byte[] key;
+    private final TlsConstants.CipherSuite cipher;
+
+    /**
+     * Creates an external PSK that is used with SHA-256 (and TLS_AES_128_GCM_SHA256).
+     * @param identity  the identity by which the server looks up the key
+     * @param key  the key itself
+     */
+    public ExternalPsk(byte[] identity, byte[] key) {
+        // https://datatracker.ietf.org/doc/html/rfc8446#section-4.2.11
+        // "For externally established PSKs, the Hash algorithm MUST be set when the PSK is established or default to
+        //  SHA-256 if no such algorithm is defined."
+        this(identity, key, TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256);
+    }
+
+    /**
+     * Creates an external PSK that is used with the given cipher suite; a server can select the key with any cipher
+     * suite that uses the same hash algorithm.
+     * @param identity  the identity by which the server looks up the key
+     * @param key  the key itself
+     * @param cipher  the cipher suite that determines the hash algorithm associated with the key
+     */
+    public ExternalPsk(byte[] identity, byte[] key, TlsConstants.CipherSuite cipher) {
+        // https://datatracker.ietf.org/doc/html/rfc8446#section-4.2.11: opaque identity<1..2^16-1>
+        if (identity.length < 1 || identity.length > 0xffff) {
+            throw new IllegalArgumentException("identity must be 1 to 65535 bytes");
+        }
+        if (key.length == 0) {
+            throw new IllegalArgumentException("key must not be empty");
+        }
+        this.identity = identity.clone();
+        this.key = key.clone();
+        this.cipher = cipher;
+    }
+
+    public byte[] getIdentity() {
+        return identity.clone();
+    }
+
+    public byte[] getKey() {
+        return key.clone();
+    }
+
+    public TlsConstants.CipherSuite getCipher() {
+        return cipher;
+    }
+
+    /**
+     * @param identity
+     * @return  whether this key has the given identity
+     */
+    public boolean hasIdentity(byte[] identity) {
+        return Arrays.equals(this.identity, identity);
+    }
+}
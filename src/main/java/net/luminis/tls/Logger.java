@@ -18,16 +18,95 @@
  */
 package net.luminis.tls;
 
+import net.luminis.tls.util.ByteUtils;
+
+import java.util.function.Supplier;
+
+/**
+ * Logging facade for the TLS library. By default, debug messages are written to standard out (when enabled with
+ * {@link #enableDebugLogging(boolean)}), but output can be redirected to any logging framework by setting a custom
+ * {@link Output}.
+ * To avoid overhead when debug logging is disabled, messages that need to be computed should be passed as a supplier or
+ * as a format string with arguments; these are only evaluated when debug logging is enabled.
+ */
 public class Logger {
 
-    private static boolean enabled = false;
+    /**
+     * Destination for log messages.
+     */
+    public interface Output {
+
+        boolean isDebugEnabled();
+
+        void debug(String message);
+    }
+
+    private static final StandardOutput standardOutput = new StandardOutput();
+    private static volatile Output output = standardOutput;
 
+    /**
+     * Enables or disables debug logging to standard out. Has no effect when a custom output is set.
+     * @param enable
+     */
     public static void enableDebugLogging(boolean enable) {
-        enabled = enable;
+        standardOutput.enabled = enable;
+    }
+
+    /**
+     * Sets the output for log messages; when <code>null</code>, the default (standard out) output is restored.
+     * @param customOutput
+     */
+    public static void setOutput(Output customOutput) {
+        output = customOutput != null? customOutput: standardOutput;
+    }
+
+    public static boolean isDebugEnabled() {
+        return output.isDebugEnabled();
     }
 
     public static void debug(String message) {
-        if (enabled) {
+        Output currentOutput = output;
+        if (currentOutput.isDebugEnabled()) {
+            currentOutput.debug(message);
+        }
+    }
+
+    public static void debug(Supplier<String> message) {
+        Output currentOutput = output;
+        if (currentOutput.isDebugEnabled()) {
+            currentOutput.debug(message.get());
+        }
+    }
+
+    /**
+     * Logs a message that is composed with {@link String#format(String, Object...)}, but only when debug logging is
+     * enabled. Byte array arguments are formatted as hexadecimal strings.
+     * @param format
+     * @param args
+     */
+    public static void debug(String format, Object... args) {
+        Output currentOutput = output;
+        if (currentOutput.isDebugEnabled()) {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i] instanceof byte[]) {
+                    args[i] = ByteUtils.bytesToHex((byte[]) args[i]);
+                }
+            }
+            currentOutput.debug(String.format(format, args));
+        }
+    }
+
+    private static class StandardOutput implements Output {
+
+        private volatile boolean enabled = false;
+
+        @Override
+        public boolean isDebugEnabled() {
+            return enabled;
+        }
+
+        @Override
+        public void debug(String message) {
             System.out.println(message);
         }
     }
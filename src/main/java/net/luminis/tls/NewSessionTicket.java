@@ -74,6 +74,7 @@ public class NewSessionTicket {
         }
         if (buffer.remaining() > 0) {
             earlyDataMaxSize = buffer.getLong();
+            hasEarlyDataExtension = earlyDataMaxSize > 0;
         }
     }
 
@@ -82,7 +83,7 @@ public class NewSessionTicket {
     }
 
     public byte[] serialize() {
-        ByteBuffer buffer = ByteBuffer.allocate(1000);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 8 + 4 + ticket.length + 4 + psk.length + 4 + 2 + 8);
         buffer.putLong(ticketCreationDate.getTime());
         buffer.putLong(ticketAgeAdd);
         buffer.putInt(ticket.length);
@@ -98,11 +99,7 @@ public class NewSessionTicket {
             buffer.putLong(0L);
         }
 
-        byte[] data = new byte[buffer.position()];
-        buffer.flip();
-        buffer.get(data);
-
-        return data;
+        return buffer.array();
     }
 
     int validFor() {
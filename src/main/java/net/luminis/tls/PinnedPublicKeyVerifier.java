@@ -0,0 +1,55 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls;
+
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * A public key verifier that only accepts the given (pinned) public keys, regardless of the server name. Keys are
+ * compared by their encoded SubjectPublicKeyInfo.
+ */
+public class PinnedPublicKeyVerifier implements PublicKeyVerifier {
+
+    private final Set<ByteBuffer> pinnedKeys;
+
+    public PinnedPublicKeyVerifier(Collection<PublicKey> pinnedKeys) {
+        Objects.requireNonNull(pinnedKeys);
+        if (pinnedKeys.isEmpty()) {
+            throw new IllegalArgumentException("at least one public key is required");
+        }
+        this.pinnedKeys = pinnedKeys.stream()
+                .map(key -> ByteBuffer.wrap(key.getEncoded()))
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    public PinnedPublicKeyVerifier(PublicKey pinnedKey) {
+        this(Set.of(pinnedKey));
+    }
+
+    @Override
+    public boolean verify(String serverName, PublicKey serverPublicKey) {
+        byte[] encoded = serverPublicKey.getEncoded();
+        return encoded != null && pinnedKeys.contains(ByteBuffer.wrap(encoded));
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls;
+
+import java.security.PublicKey;
+
+/**
+ * Verifies the public key a server authenticated with when the raw public key certificate type
+ * (https://datatracker.ietf.org/doc/html/rfc7250) is negotiated. As there is no certificate to validate, it is up to
+ * the verifier to decide whether the key is trusted for the given server name.
+ */
+public interface PublicKeyVerifier {
+
+    boolean verify(String serverName, PublicKey serverPublicKey);
+
+}
@@ -52,6 +52,7 @@ public class TlsConstants {
           finished(20),
           key_update(24),
           message_hash(254),
+          compressed_certificate(25),                 /* RFC 8879 */
         ;
 
         public final byte value;
@@ -84,6 +85,7 @@ public class TlsConstants {
         post_handshake_auth(49),                    /* RFC 8446 */
         signature_algorithms_cert(50),              /* RFC 8446 */
         key_share(51),
+        compress_certificate(27),                   /* RFC 8879 */
         ;
 
         public final short value;
@@ -175,6 +177,20 @@ public class TlsConstants {
          }
      }
 
+    // https://datatracker.ietf.org/doc/html/rfc8879#section-7.3
+    public enum CertificateCompressionAlgorithm {
+        zlib(1),
+        brotli(2),
+        zstd(3),
+        ;
+
+        public final short value;
+
+        CertificateCompressionAlgorithm(int value) {
+            this.value = (short) value;
+        }
+    }
+
     public enum CipherSuite {
         TLS_AES_128_GCM_SHA256(0x1301),
         TLS_AES_256_GCM_SHA384(0x1302),
@@ -250,4 +266,16 @@ public class TlsConstants {
                 .filter(item -> item.value == mode)
                 .findFirst();
     }
+
+    public static Optional<TlsConstants.CertificateCompressionAlgorithm> decodeCertificateCompressionAlgorithm(int algorithm) {
+        return Arrays.stream(TlsConstants.CertificateCompressionAlgorithm.values())
+                .filter(item -> item.value == algorithm)
+                .findFirst();
+    }
+
+    public static Optional<TlsConstants.CertificateType> decodeCertificateType(int certificateType) {
+        return Arrays.stream(TlsConstants.CertificateType.values())
+                .filter(item -> item.value == certificateType)
+                .findFirst();
+    }
 }
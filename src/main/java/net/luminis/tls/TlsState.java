@@ -19,7 +19,10 @@
 package net.luminis.tls;
 
 import at.favre.lib.hkdf.HKDF;
-import at.favre.lib.hkdf.HkdfMacFactory;
+import net.luminis.tls.jfr.TlsEvents;
+import net.luminis.tls.metrics.HandshakeMetricsListener;
+import net.luminis.tls.metrics.HandshakePhase;
+import net.luminis.tls.util.CryptoPrimitives;
 
 import javax.crypto.KeyAgreement;
 import javax.crypto.Mac;
@@ -30,8 +33,6 @@ import java.security.*;
 import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.XECPublicKey;
 
-import static net.luminis.tls.util.ByteUtils.bytesToHex;
-
 
 public class TlsState {
 
@@ -39,16 +40,18 @@ public class TlsState {
 
     private static String labelPrefix = "tls13 ";
 
-    private final MessageDigest hashFunction;
+    private final String hashAlgorithm;
+    private final String macAlgorithm;
     private final HKDF hkdf;
     private final byte[] emptyHash;
     private final short keyLength;
     private final short hashLength;
     private final short iv_length = 12;
+    private final String binderLabel;
     private boolean pskSelected;
     private PublicKey serverSharedKey;
     private PrivateKey clientPrivateKey;
-    private final byte[] psk;
+    private byte[] psk;
     private byte[] earlySecret;
     private byte[] binderKey;
     private byte[] resumptionMasterSecret;
@@ -58,29 +61,40 @@ public class TlsState {
     private byte[] handshakeSecret;
     private byte[] clientApplicationTrafficSecret;
     private byte[] serverApplicationTrafficSecret;
-    private final TranscriptHash transcriptHash;
+    private TranscriptHash transcriptHash;
     private byte[] sharedSecret;
     private byte[] masterSecret;
+    private HandshakeMetricsListener metricsListener = HandshakeMetricsListener.NONE;
 
     public TlsState(TranscriptHash transcriptHash, byte[] psk, int keyLength, int hashLength) {
+        this(transcriptHash, psk, false, keyLength, hashLength);
+    }
+
+    /**
+     * @param externalPsk  whether the psk is an externally provisioned key (rather than a resumption PSK), which
+     *                     determines the label of the binder key
+     */
+    public TlsState(TranscriptHash transcriptHash, byte[] psk, boolean externalPsk, int keyLength, int hashLength) {
         this.psk = psk;
+        // https://datatracker.ietf.org/doc/html/rfc8446#section-7.1
+        // "Derive-Secret(., "ext binder" | "res binder", "") = binder_key"
+        binderLabel = externalPsk? "ext binder": "res binder";
         this.transcriptHash = transcriptHash;
         this.keyLength = (short) keyLength;
         this.hashLength = (short) hashLength;
 
         // https://tools.ietf.org/html/rfc8446#section-7.1
         // "The Hash function used by Transcript-Hash and HKDF is the cipher suite hash algorithm."
-        String hashAlgorithm = "SHA-" + (this.hashLength * 8);
+        hashAlgorithm = "SHA-" + (this.hashLength * 8);
         try {
-            hashFunction = MessageDigest.getInstance(hashAlgorithm);
+            emptyHash = CryptoPrimitives.getMessageDigest(hashAlgorithm).digest();
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException("Missing " + hashAlgorithm + " support");
         }
-        String macAlgorithm = "HmacSHA" + (this.hashLength * 8);
-        hkdf = HKDF.from(new HkdfMacFactory.Default(macAlgorithm, null));
+        macAlgorithm = "HmacSHA" + (this.hashLength * 8);
+        hkdf = CryptoPrimitives.getHkdf(macAlgorithm);
 
-        emptyHash = hashFunction.digest(new byte[0]);
-        Logger.debug("Empty hash: " + bytesToHex(emptyHash));
+        Logger.debug("Empty hash: %s", emptyHash);
 
         if (psk == null) {
             // https://tools.ietf.org/html/rfc8446#section-7.1
@@ -95,47 +109,72 @@ public class TlsState {
         this(transcriptHash, null, keyLength, hashLength);
     }
 
+    /**
+     * Sets the listener to report the time spent in the key exchange and the key schedule to.
+     * @param metricsListener
+     */
+    public void setMetricsListener(HandshakeMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
     private byte[] computeEarlySecret(byte[] ikm) {
         byte[] zeroSalt = new byte[hashLength];
         earlySecret = hkdf.extract(zeroSalt, ikm);
-        Logger.debug("Early secret: " + bytesToHex(earlySecret));
+        Logger.debug("Early secret: %s", earlySecret);
 
-        binderKey = hkdfExpandLabel(earlySecret, "res binder", emptyHash, hashLength);
-        Logger.debug("Binder key: " + bytesToHex(binderKey));
+        binderKey = hkdfExpandLabel(earlySecret, binderLabel, emptyHash, hashLength);
+        Logger.debug("Binder key: %s", binderKey);
 
         return earlySecret;
     }
 
-    public byte[] computePskBinder(byte[] partialClientHello) {
-        String macAlgorithmName = "HmacSHA" + (hashLength * 8);
+    /**
+     * Computes the PSK binder over the given partial ClientHello (i.e. up to, but not including, the binders list).
+     * @param partialClientHello  the partial ClientHello, from its position to its limit; the buffer is not modified
+     * @return
+     */
+    public byte[] computePskBinder(ByteBuffer partialClientHello) {
         try {
-            hashFunction.reset();
-            hashFunction.update(partialClientHello);
-            byte[] hash = hashFunction.digest();
+            MessageDigest digest = CryptoPrimitives.getMessageDigest(hashAlgorithm);
+            // https://datatracker.ietf.org/doc/html/rfc8446#section-4.2.11.2
+            // "If the server responds with a HelloRetryRequest and the client then sends ClientHello2, its binder will
+            //  be computed over: Transcript-Hash(ClientHello1, HelloRetryRequest, Truncate(ClientHello2))"
+            byte[] helloRetryTranscript = transcriptHash != null? transcriptHash.getHelloRetryTranscript(): null;
+            if (helloRetryTranscript != null) {
+                digest.update(helloRetryTranscript);
+            }
+            digest.update(partialClientHello.duplicate());
+            byte[] hash = digest.digest();
 
+            long start = System.nanoTime();
+            Object event = TlsEvents.beginKeySchedule();
             byte[] finishedKey = hkdfExpandLabel(binderKey, "finished", "", hashLength);
-            SecretKeySpec hmacKey = new SecretKeySpec(finishedKey, macAlgorithmName);
+            SecretKeySpec hmacKey = new SecretKeySpec(finishedKey, macAlgorithm);
 
-            Mac hmacAlgorithm = Mac.getInstance(macAlgorithmName);
+            Mac hmacAlgorithm = CryptoPrimitives.getMac(macAlgorithm);
             hmacAlgorithm.init(hmacKey);
             hmacAlgorithm.update(hash);
             byte[] hmac = hmacAlgorithm.doFinal();
+            metricsListener.phaseCompleted(HandshakePhase.KeySchedule, System.nanoTime() - start);
+            TlsEvents.endKeySchedule(event, "psk binder");
             return hmac;
         } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Missing " + macAlgorithmName + " support");
+            throw new RuntimeException("Missing " + hashAlgorithm + " or " + macAlgorithm + " support");
         } catch (InvalidKeyException e) {
             throw new RuntimeException();
         }
     }
 
     public void computeSharedSecret() {
+        long start = System.nanoTime();
+        Object event = TlsEvents.beginKeySchedule();
         try {
             KeyAgreement keyAgreement;
             if (serverSharedKey instanceof ECPublicKey) {
-                keyAgreement = KeyAgreement.getInstance("ECDH");
+                keyAgreement = CryptoPrimitives.getKeyAgreement("ECDH");
             }
             else if (serverSharedKey instanceof XECPublicKey) {
-                keyAgreement = KeyAgreement.getInstance("XDH");
+                keyAgreement = CryptoPrimitives.getKeyAgreement("XDH");
             }
             else {
                 throw new RuntimeException("Unsupported key type");
@@ -145,45 +184,57 @@ public class TlsState {
             keyAgreement.doPhase(serverSharedKey, true);
 
             sharedSecret = keyAgreement.generateSecret();
-            Logger.debug("Shared key: " + bytesToHex(sharedSecret));
+            Logger.debug("Shared key: %s", sharedSecret);
+            metricsListener.phaseCompleted(HandshakePhase.Ecdh, System.nanoTime() - start);
+            TlsEvents.endKeySchedule(event, "ecdh");
         }
         catch (NoSuchAlgorithmException | InvalidKeyException e) {
             throw new RuntimeException("Unsupported crypto: " + e);
         }
     }
 
+    /**
+     * Use when no (EC)DHE key exchange takes place, i.e. with PSK-only key establishment (psk_ke).
+     */
+    public void setNoSharedSecret() {
+        // https://datatracker.ietf.org/doc/html/rfc8446#section-7.1
+        // "If a given secret is not available, then the 0-value consisting of a string of Hash.length bytes set to
+        //  zeros is used."
+        sharedSecret = new byte[hashLength];
+    }
+
     public void computeEarlyTrafficSecret() {
         byte[] clientHelloHash = transcriptHash.getHash(TlsConstants.HandshakeType.client_hello);
 
+        long start = System.nanoTime();
+        Object event = TlsEvents.beginKeySchedule();
         clientEarlyTrafficSecret = hkdfExpandLabel(earlySecret, "c e traffic", clientHelloHash, hashLength);
+        metricsListener.phaseCompleted(HandshakePhase.KeySchedule, System.nanoTime() - start);
+        TlsEvents.endKeySchedule(event, "early traffic secret");
     }
 
     public void computeHandshakeSecrets() {
+        byte[] handshakeHash = transcriptHash.getHash(TlsConstants.HandshakeType.server_hello);
+
+        long start = System.nanoTime();
+        Object event = TlsEvents.beginKeySchedule();
         byte[] derivedSecret = hkdfExpandLabel(earlySecret, "derived", emptyHash, hashLength);
-        Logger.debug("Derived secret: " + bytesToHex(derivedSecret));
+        Logger.debug("Derived secret: %s", derivedSecret);
 
         handshakeSecret = hkdf.extract(derivedSecret, sharedSecret);
-        Logger.debug("Handshake secret: " + bytesToHex(handshakeSecret));
-
-        byte[] handshakeHash = transcriptHash.getHash(TlsConstants.HandshakeType.server_hello);
+        Logger.debug("Handshake secret: %s", handshakeSecret);
 
         clientHandshakeTrafficSecret = hkdfExpandLabel(handshakeSecret, "c hs traffic", handshakeHash, hashLength);
-        Logger.debug("Client handshake traffic secret: " + bytesToHex(clientHandshakeTrafficSecret));
+        Logger.debug("Client handshake traffic secret: %s", clientHandshakeTrafficSecret);
 
         serverHandshakeTrafficSecret = hkdfExpandLabel(handshakeSecret, "s hs traffic", handshakeHash, hashLength);
-        Logger.debug("Server handshake traffic secret: " + bytesToHex(serverHandshakeTrafficSecret));
-
-        byte[] clientHandshakeKey = hkdfExpandLabel(clientHandshakeTrafficSecret, "key", "", keyLength);
-        Logger.debug("Client handshake key: " + bytesToHex(clientHandshakeKey));
-
-        byte[] serverHandshakeKey = hkdfExpandLabel(serverHandshakeTrafficSecret, "key", "", keyLength);
-        Logger.debug("Server handshake key: " + bytesToHex(serverHandshakeKey));
+        Logger.debug("Server handshake traffic secret: %s", serverHandshakeTrafficSecret);
+        metricsListener.phaseCompleted(HandshakePhase.KeySchedule, System.nanoTime() - start);
+        TlsEvents.endKeySchedule(event, "handshake secrets");
 
-        byte[] clientHandshakeIV = hkdfExpandLabel(clientHandshakeTrafficSecret, "iv", "", iv_length);
-        Logger.debug("Client handshake iv: " + bytesToHex(clientHandshakeIV));
-
-        byte[] serverHandshakeIV = hkdfExpandLabel(serverHandshakeTrafficSecret, "iv", "", iv_length);
-        Logger.debug("Server handshake iv: " + bytesToHex(serverHandshakeIV));
+        if (Logger.isDebugEnabled()) {
+            logTrafficKeys("handshake", clientHandshakeTrafficSecret, serverHandshakeTrafficSecret);
+        }
     }
 
     public void computeApplicationSecrets() {
@@ -193,37 +244,51 @@ public class TlsState {
     void computeApplicationSecrets(byte[] handshakeSecret) {
         byte[] serverFinishedHash = transcriptHash.getServerHash(TlsConstants.HandshakeType.finished);
 
+        long start = System.nanoTime();
+        Object event = TlsEvents.beginKeySchedule();
         byte[] derivedSecret = hkdfExpandLabel(handshakeSecret, "derived", emptyHash, hashLength);
-        Logger.debug("Derived secret: " + bytesToHex(derivedSecret));
+        Logger.debug("Derived secret: %s", derivedSecret);
 
         byte[] zeroKey = new byte[hashLength];
         masterSecret = hkdf.extract(derivedSecret, zeroKey);
-        Logger.debug("Master secret: "+ bytesToHex(masterSecret));
+        Logger.debug("Master secret: %s", masterSecret);
 
         clientApplicationTrafficSecret = hkdfExpandLabel(masterSecret, "c ap traffic", serverFinishedHash, hashLength);
-        Logger.debug("Client application traffic secret: " + bytesToHex(clientApplicationTrafficSecret));
+        Logger.debug("Client application traffic secret: %s", clientApplicationTrafficSecret);
 
         serverApplicationTrafficSecret = hkdfExpandLabel(masterSecret, "s ap traffic", serverFinishedHash, hashLength);
-        Logger.debug("Server application traffic secret: " + bytesToHex(serverApplicationTrafficSecret));
-
-        byte[] clientApplicationKey = hkdfExpandLabel(clientApplicationTrafficSecret, "key", "", keyLength);
-        Logger.debug("Client application key: " + bytesToHex(clientApplicationKey));
+        Logger.debug("Server application traffic secret: %s", serverApplicationTrafficSecret);
+        metricsListener.phaseCompleted(HandshakePhase.KeySchedule, System.nanoTime() - start);
+        TlsEvents.endKeySchedule(event, "application secrets");
 
-        byte[] serverApplicationKey = hkdfExpandLabel(serverApplicationTrafficSecret, "key", "", keyLength);
-        Logger.debug("Server application key: " + bytesToHex(serverApplicationKey));
-
-        byte[] clientApplicationIv = hkdfExpandLabel(clientApplicationTrafficSecret, "iv", "", iv_length);
-        Logger.debug("Client application iv: " + bytesToHex(clientApplicationIv));
+        if (Logger.isDebugEnabled()) {
+            logTrafficKeys("application", clientApplicationTrafficSecret, serverApplicationTrafficSecret);
+        }
+    }
 
-        byte[] serverApplicationIv = hkdfExpandLabel(serverApplicationTrafficSecret, "iv", "", iv_length);
-        Logger.debug("Server application iv: " + bytesToHex(serverApplicationIv));
+    /**
+     * Derives and logs the (TLS record layer) keys and iv's for the given traffic secrets. As these are not used by
+     * this library (nor by QUIC, which derives its own keys), they are only computed for logging.
+     * @param phase
+     * @param clientTrafficSecret
+     * @param serverTrafficSecret
+     */
+    private void logTrafficKeys(String phase, byte[] clientTrafficSecret, byte[] serverTrafficSecret) {
+        Logger.debug("Client %s key: %s", phase, hkdfExpandLabel(clientTrafficSecret, "key", "", keyLength));
+        Logger.debug("Server %s key: %s", phase, hkdfExpandLabel(serverTrafficSecret, "key", "", keyLength));
+        Logger.debug("Client %s iv: %s", phase, hkdfExpandLabel(clientTrafficSecret, "iv", "", iv_length));
+        Logger.debug("Server %s iv: %s", phase, hkdfExpandLabel(serverTrafficSecret, "iv", "", iv_length));
     }
 
     public void computeResumptionMasterSecret() {
         byte[] clientFinishedHash = transcriptHash.getClientHash(TlsConstants.HandshakeType.finished);
 
+        long start = System.nanoTime();
+        Object event = TlsEvents.beginKeySchedule();
         resumptionMasterSecret = hkdfExpandLabel(masterSecret, "res master", clientFinishedHash, hashLength);
-        Logger.debug("Resumption master secret: " + bytesToHex(resumptionMasterSecret));
+        metricsListener.phaseCompleted(HandshakePhase.KeySchedule, System.nanoTime() - start);
+        TlsEvents.endKeySchedule(event, "resumption master secret");
+        Logger.debug("Resumption master secret: %s", resumptionMasterSecret);
     }
 
     // https://tools.ietf.org/html/rfc8446#section-4.6.1
@@ -294,4 +359,24 @@ public class TlsState {
     public void setPeerKey(PublicKey serverSharedKey) {
         this.serverSharedKey = serverSharedKey;
     }
+
+    /**
+     * Releases everything that is only needed during the handshake: the transcript hash, the key exchange keys and all
+     * secrets except the application traffic secrets and the resumption master secret (needed to compute the PSK for
+     * session tickets). References are dropped rather than the arrays being cleared, as callers may still hold them.
+     */
+    public void compact() {
+        transcriptHash = null;
+        serverSharedKey = null;
+        clientPrivateKey = null;
+        psk = null;
+        earlySecret = null;
+        binderKey = null;
+        clientEarlyTrafficSecret = null;
+        handshakeSecret = null;
+        clientHandshakeTrafficSecret = null;
+        serverHandshakeTrafficSecret = null;
+        sharedSecret = null;
+        masterSecret = null;
+    }
 }
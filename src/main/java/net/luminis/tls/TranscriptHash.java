@@ -19,7 +19,11 @@
 package net.luminis.tls;
 
 import net.luminis.tls.handshake.HandshakeMessage;
+import net.luminis.tls.metrics.HandshakeMetricsListener;
+import net.luminis.tls.metrics.HandshakePhase;
+import net.luminis.tls.util.CryptoPrimitives;
 
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.List;
@@ -33,29 +37,24 @@ import java.util.concurrent.ConcurrentHashMap;
 public class TranscriptHash {
 
     enum ExtendedHandshakeType {
-        client_hello(1),
-        server_hello(2),
-        new_session_ticket(4),
-        end_of_early_data(5),
-        encrypted_extensions(8),
-        certificate(11),
-        certificate_request(13),
-        certificate_verify(15),
-        finished(20),
-        key_update(24),
-        server_certificate(249),
-        server_certificate_verify(250),
-        server_finished(251),
-        client_certificate(252),
-        client_certificate_verify(253),
-        client_finished(254)
-        ;
-
-        public final byte value;
-
-        ExtendedHandshakeType(int value) {
-            this.value = (byte) value;
-        }
+        client_hello,
+        server_hello,
+        new_session_ticket,
+        end_of_early_data,
+        encrypted_extensions,
+        certificate,
+        certificate_request,
+        certificate_verify,
+        finished,
+        key_update,
+        message_hash,
+        hello_retry_request,
+        server_certificate,
+        server_certificate_verify,
+        server_finished,
+        client_certificate,
+        client_certificate_verify,
+        client_finished
     }
 
     // https://tools.ietf.org/html/rfc8446#section-4.4.1
@@ -66,7 +65,12 @@ public class TranscriptHash {
     //   EncryptedExtensions, server CertificateRequest, server Certificate,
     //   server CertificateVerify, server Finished, EndOfEarlyData, client
     //   Certificate, client CertificateVerify, client Finished."
+    // https://datatracker.ietf.org/doc/html/rfc8446#section-4.4.1
+    // "When the server responds to a ClientHello with a HelloRetryRequest, the value of ClientHello1 is replaced with a
+    //  special synthetic handshake message of handshake type "message_hash" containing Hash(ClientHello1)."
     private static ExtendedHandshakeType[] hashedMessages = {
+            ExtendedHandshakeType.message_hash,
+            ExtendedHandshakeType.hello_retry_request,
             ExtendedHandshakeType.client_hello,
             ExtendedHandshakeType.server_hello,
             ExtendedHandshakeType.encrypted_extensions,
@@ -81,8 +85,17 @@ public class TranscriptHash {
 
     private final MessageDigest hashFunction;
 
-    private Map<ExtendedHandshakeType, byte[]> msgData = new ConcurrentHashMap<>();
+    // Messages that are recorded, but not yet absorbed into the running digest.
+    private Map<ExtendedHandshakeType, ByteBuffer> msgData = new ConcurrentHashMap<>();
+    // Transcript hashes, keyed by the (last) message that was included.
     private Map<ExtendedHandshakeType, byte[]> hashes = new ConcurrentHashMap<>();
+    // Copies of the running digest, taken at message boundaries for which the hash has not yet been computed.
+    private Map<ExtendedHandshakeType, MessageDigest> snapshots = new ConcurrentHashMap<>();
+    // Position (in hashedMessages) of the last message absorbed into the running digest, -1 if none.
+    private int lastAbsorbed = -1;
+    // The synthetic message_hash message followed by the HelloRetryRequest, null if there was no HelloRetryRequest.
+    private byte[] helloRetryTranscript;
+    private volatile HandshakeMetricsListener metricsListener = HandshakeMetricsListener.NONE;
 
 
     public TranscriptHash(int hashLength) {
@@ -90,12 +103,20 @@ public class TranscriptHash {
         // "The Hash function used by Transcript-Hash and HKDF is the cipher suite hash algorithm."
         String hashAlgorithm = "SHA-" + (hashLength * 8);
         try {
-            hashFunction = MessageDigest.getInstance(hashAlgorithm);
+            hashFunction = CryptoPrimitives.newMessageDigest(hashAlgorithm);
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException("Missing " + hashAlgorithm + " support");
         }
     }
 
+    /**
+     * Sets the listener to report the time spent in computing transcript hashes to.
+     * @param metricsListener
+     */
+    public void setMetricsListener(HandshakeMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
     /**
      * Return the transcript hash for the messages in the handshake up to and including the indicated message type.
      * @param msgType
@@ -130,15 +151,18 @@ public class TranscriptHash {
     /**
      * Record a handshake message for computing the transcript hash. The type of the message determines its position
      * in the transcript hash computation.
+     * Messages may be recorded in any order, as long as no message is recorded that precedes (in the transcript) a
+     * message for which a transcript hash has already been computed.
      * @param msg
      */
     public void record(HandshakeMessage msg) {
         List<TlsConstants.HandshakeType> ambigousTypes = List.of(TlsConstants.HandshakeType.certificate,
-                TlsConstants.HandshakeType.certificate_verify, TlsConstants.HandshakeType.finished);
+                TlsConstants.HandshakeType.compressed_certificate, TlsConstants.HandshakeType.certificate_verify,
+                TlsConstants.HandshakeType.finished);
         if (ambigousTypes.contains(msg.getType())) {
             throw new IllegalArgumentException();
         }
-        msgData.put(convert(msg.getType()), msg.getBytes());
+        record(convert(msg.getType()), msg);
     }
 
     /**
@@ -151,7 +175,7 @@ public class TranscriptHash {
      * @param msg
      */
     public void recordClient(HandshakeMessage msg) {
-        msgData.put(convert(msg.getType(), true), msg.getBytes());
+        record(convert(msg.getType(), true), msg);
     }
 
     /**
@@ -164,47 +188,215 @@ public class TranscriptHash {
      * @param msg
      */
     public void recordServer(HandshakeMessage msg) {
-        msgData.put(convert(msg.getType(), false), msg.getBytes());
+        record(convert(msg.getType(), false), msg);
     }
 
-    private byte[] getHash(ExtendedHandshakeType type) {
-        if (! hashes.containsKey(type)) {
-            computeHash(type);
+    /**
+     * Record a HelloRetryRequest. As the transcript hash must then start with a synthetic message_hash message that
+     * contains the hash of the first ClientHello, the first ClientHello must have been recorded before; the second
+     * ClientHello must be recorded after the HelloRetryRequest.
+     * @param helloRetryRequest
+     */
+    public synchronized void recordHelloRetryRequest(HandshakeMessage helloRetryRequest) {
+        if (helloRetryTranscript != null) {
+            throw new IllegalStateException("HelloRetryRequest already recorded");
         }
-        return hashes.get(type);
+        if (!msgData.containsKey(ExtendedHandshakeType.client_hello) && lastAbsorbed != positionOf(ExtendedHandshakeType.client_hello)) {
+            throw new IllegalStateException("first ClientHello must be recorded before the HelloRetryRequest");
+        }
+        byte[] clientHelloHash = getHash(ExtendedHandshakeType.client_hello);
+
+        // https://datatracker.ietf.org/doc/html/rfc8446#section-4.4.1
+        // "Transcript-Hash(ClientHello1, HelloRetryRequest, ... Mn) =
+        //      Hash(message_hash ||        /* Handshake type */
+        //           00 00 Hash.length  ||  /* Handshake message length (bytes) */
+        //           Hash(ClientHello1) ||  /* Hash of ClientHello1 */
+        //           HelloRetryRequest  || ... || Mn)"
+        byte[] messageHash = new byte[4 + clientHelloHash.length];
+        messageHash[0] = TlsConstants.HandshakeType.message_hash.value;
+        messageHash[3] = (byte) clientHelloHash.length;
+        System.arraycopy(clientHelloHash, 0, messageHash, 4, clientHelloHash.length);
+        byte[] helloRetryRequestBytes = helloRetryRequest.getBytes();
+        helloRetryTranscript = new byte[messageHash.length + helloRetryRequestBytes.length];
+        System.arraycopy(messageHash, 0, helloRetryTranscript, 0, messageHash.length);
+        System.arraycopy(helloRetryRequestBytes, 0, helloRetryTranscript, messageHash.length, helloRetryRequestBytes.length);
+
+        // Start all over, the first ClientHello is not part of the transcript anymore.
+        hashFunction.reset();
+        msgData.clear();
+        hashes.clear();
+        snapshots.clear();
+        lastAbsorbed = -1;
+        msgData.put(ExtendedHandshakeType.message_hash, ByteBuffer.wrap(messageHash));
+        msgData.put(ExtendedHandshakeType.hello_retry_request, ByteBuffer.wrap(helloRetryRequestBytes));
     }
 
-   private void computeHash(ExtendedHandshakeType requestedType) {
-        for (ExtendedHandshakeType type: hashedMessages) {
-            if (msgData.containsKey(type)) {
-                hashFunction.update(msgData.get(type));
+    /**
+     * @return  the part of the transcript that precedes the (second) ClientHello when a HelloRetryRequest was recorded,
+     * i.e. the synthetic message_hash message followed by the HelloRetryRequest, or null if there was none. This is
+     * needed for computing PSK binders, which cover the transcript up to and including the partial ClientHello.
+     */
+    public synchronized byte[] getHelloRetryTranscript() {
+        return helloRetryTranscript;
+    }
+
+    private void record(ExtendedHandshakeType type, HandshakeMessage msg) {
+        ByteBuffer view = msg.getBytesView();
+        record(type, view != null? view: ByteBuffer.wrap(msg.getBytes()));
+    }
+
+    private synchronized void record(ExtendedHandshakeType type, ByteBuffer data) {
+        int position = positionOf(type);
+        if (position <= lastAbsorbed) {
+            // The transcript up to (and including) a later message has already been hashed, so this message cannot be
+            // included anymore without invalidating hashes that were already handed out.
+            throw new IllegalStateException("message " + type + " recorded out of transcript order");
+        }
+        if (data.isReadOnly()) {
+            // A view on the bytes received by the caller (zero-copy parsing), which the caller may reuse as soon as the
+            // message is processed. Absorb it right away, unless a message that follows it in the transcript has been
+            // recorded already; only in that case the bytes must be copied.
+            if (msgData.keySet().stream().noneMatch(recorded -> positionOf(recorded) > position)) {
+                msgData.put(type, data);
+                absorbUpTo(position);
+                return;
             }
-            if (type == requestedType) {
-                break;
+            byte[] copy = new byte[data.remaining()];
+            data.duplicate().get(copy);
+            data = ByteBuffer.wrap(copy);
+        }
+        msgData.put(type, data);
+    }
+
+    private synchronized byte[] getHash(ExtendedHandshakeType requestedType) {
+        long start = System.nanoTime();
+        byte[] hash = computeHash(requestedType);
+        metricsListener.phaseCompleted(HandshakePhase.TranscriptHash, System.nanoTime() - start);
+        return hash;
+    }
+
+    private byte[] computeHash(ExtendedHandshakeType requestedType) {
+        int requestedPosition = positionOf(requestedType);
+        absorbUpTo(requestedPosition);
+
+        // The hash for the requested type equals the hash of the transcript up to the last message actually present.
+        for (int position = Integer.min(requestedPosition, lastAbsorbed); position >= 0; position--) {
+            ExtendedHandshakeType type = hashedMessages[position];
+            if (hashes.containsKey(type) || snapshots.containsKey(type) || position == lastAbsorbed) {
+                return hashAt(type, position);
             }
         }
-        hashes.put(requestedType, hashFunction.digest());
+        return emptyHash();
     }
 
-    private ExtendedHandshakeType convert(TlsConstants.HandshakeType type) {
-        List<TlsConstants.HandshakeType> ambigousTypes = List.of(TlsConstants.HandshakeType.certificate,
-                TlsConstants.HandshakeType.certificate_verify, TlsConstants.HandshakeType.finished);
-        if (ambigousTypes.contains(type)) {
-            throw new IllegalArgumentException("cannot convert ambiguous type " + type);
+    /**
+     * Feeds all recorded messages up to (and including) the given position into the running digest, in transcript order.
+     * @param requestedPosition
+     */
+    private void absorbUpTo(int requestedPosition) {
+        for (int position = lastAbsorbed + 1; position <= requestedPosition; position++) {
+            ExtendedHandshakeType type = hashedMessages[position];
+            ByteBuffer data = msgData.remove(type);
+            if (data != null) {
+                if (lastAbsorbed >= 0 && !hashes.containsKey(hashedMessages[lastAbsorbed])) {
+                    // Preserve the digest state at the previous message boundary, as its hash might still be requested.
+                    snapshots.put(hashedMessages[lastAbsorbed], cloneDigest(hashFunction));
+                }
+                hashFunction.update(data);
+                lastAbsorbed = position;
+            }
+        }
+    }
+
+    private byte[] hashAt(ExtendedHandshakeType type, int position) {
+        byte[] hash = hashes.get(type);
+        if (hash == null) {
+            if (position == lastAbsorbed) {
+                hash = cloneDigest(hashFunction).digest();
+            }
+            else {
+                hash = snapshots.remove(type).digest();
+            }
+            hashes.put(type, hash);
+        }
+        return hash;
+    }
+
+    private byte[] emptyHash() {
+        if (lastAbsorbed < 0) {
+            return cloneDigest(hashFunction).digest();
+        }
+        else {
+            try {
+                return CryptoPrimitives.getMessageDigest(hashFunction.getAlgorithm()).digest();
+            }
+            catch (NoSuchAlgorithmException e) {
+                // Impossible, as the algorithm is already in use
+                throw new RuntimeException("Missing " + hashFunction.getAlgorithm() + " support");
+            }
+        }
+    }
+
+    private static MessageDigest cloneDigest(MessageDigest digest) {
+        try {
+            return (MessageDigest) digest.clone();
+        }
+        catch (CloneNotSupportedException e) {
+            // Impossible, all JDK message digest implementations support cloning
+            throw new RuntimeException("Message digest does not support cloning");
+        }
+    }
+
+    private static int positionOf(ExtendedHandshakeType type) {
+        for (int i = 0; i < hashedMessages.length; i++) {
+            if (hashedMessages[i] == type) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("message type " + type + " is not part of the transcript");
+    }
+
+    static ExtendedHandshakeType convert(TlsConstants.HandshakeType type) {
+        // Explicit mapping, as the two enums do not (and need not) declare their constants in the same order.
+        switch (type) {
+            case client_hello:
+                return ExtendedHandshakeType.client_hello;
+            case server_hello:
+                return ExtendedHandshakeType.server_hello;
+            case new_session_ticket:
+                return ExtendedHandshakeType.new_session_ticket;
+            case end_of_early_data:
+                return ExtendedHandshakeType.end_of_early_data;
+            case encrypted_extensions:
+                return ExtendedHandshakeType.encrypted_extensions;
+            case certificate_request:
+                return ExtendedHandshakeType.certificate_request;
+            case key_update:
+                return ExtendedHandshakeType.key_update;
+            case message_hash:
+                return ExtendedHandshakeType.message_hash;
+            case certificate:
+            case compressed_certificate:
+            case certificate_verify:
+            case finished:
+                throw new IllegalArgumentException("cannot convert ambiguous type " + type);
+            default:
+                throw new IllegalArgumentException("no transcript position for type " + type);
         }
-        return ExtendedHandshakeType.values()[type.ordinal()];
     }
 
     private ExtendedHandshakeType convert(TlsConstants.HandshakeType type, boolean client) {
         if (type == TlsConstants.HandshakeType.finished) {
             return client? ExtendedHandshakeType.client_finished: ExtendedHandshakeType.server_finished;
         }
-        else if (type == TlsConstants.HandshakeType.certificate) {
+        else if (type == TlsConstants.HandshakeType.certificate || type == TlsConstants.HandshakeType.compressed_certificate) {
+            // https://datatracker.ietf.org/doc/html/rfc8879#section-4: a CompressedCertificate message replaces the
+            // Certificate message, so it takes its place in the transcript (as it was sent, i.e. compressed).
             return client? ExtendedHandshakeType.client_certificate: ExtendedHandshakeType.server_certificate;
         }
         else if (type == TlsConstants.HandshakeType.certificate_verify) {
             return client? ExtendedHandshakeType.client_certificate_verify: ExtendedHandshakeType.server_certificate_verify;
         }
-        return ExtendedHandshakeType.values()[type.ordinal()];
+        return convert(type);
     }
 }
@@ -0,0 +1,34 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.alert;
+
+import net.luminis.tls.TlsConstants;
+
+/**
+ * https://datatracker.ietf.org/doc/html/rfc6066#section-3
+ * "If the server understood the ClientHello extension but does not recognize the server name, the server SHOULD take
+ *  one of two actions: either abort the handshake by sending a fatal-level unrecognized_name(112) alert or continue
+ *  the handshake."
+ */
+public class UnrecognizedNameAlert extends ErrorAlert {
+
+    public UnrecognizedNameAlert(String message) {
+        super(message, TlsConstants.AlertDescription.unrecognized_name);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.extension;
+
+import net.luminis.tls.TlsConstants;
+import net.luminis.tls.TlsProtocolException;
+import net.luminis.tls.alert.DecodeErrorException;
+import net.luminis.tls.alert.IllegalParameterAlert;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static net.luminis.tls.TlsConstants.decodeCertificateType;
+
+/**
+ * Base class for the TLS client and server certificate type extensions.
+ * See https://datatracker.ietf.org/doc/html/rfc7250#section-4.2
+ */
+public abstract class CertificateTypeExtension extends Extension {
+
+    private final TlsConstants.ExtensionType extensionType;
+    private final TlsConstants.HandshakeType handshakeType;
+    private final List<TlsConstants.CertificateType> certificateTypes = new ArrayList<>();
+
+    protected CertificateTypeExtension(TlsConstants.ExtensionType extensionType, List<TlsConstants.CertificateType> certificateTypes) {
+        if (certificateTypes.isEmpty()) {
+            throw new IllegalArgumentException("at least one certificate type is required");
+        }
+        this.extensionType = extensionType;
+        this.handshakeType = TlsConstants.HandshakeType.client_hello;
+        this.certificateTypes.addAll(certificateTypes);
+    }
+
+    protected CertificateTypeExtension(TlsConstants.ExtensionType extensionType, TlsConstants.CertificateType certificateType) {
+        this.extensionType = extensionType;
+        this.handshakeType = TlsConstants.HandshakeType.encrypted_extensions;
+        this.certificateTypes.add(certificateType);
+    }
+
+    protected CertificateTypeExtension(ByteBuffer buffer, TlsConstants.ExtensionType extensionType, TlsConstants.HandshakeType handshakeType) throws TlsProtocolException {
+        this.extensionType = extensionType;
+        this.handshakeType = handshakeType;
+        int extensionDataLength = parseExtensionHeader(buffer, extensionType, 1);
+
+        // https://datatracker.ietf.org/doc/html/rfc7250#section-3
+        // "struct {
+        //      select(ClientOrServerExtension) {
+        //          case client:
+        //              CertificateType client_certificate_types<1..2^8-1>;
+        //          case server:
+        //              CertificateType client_certificate_type;
+        //      }
+        //  } ClientCertTypeExtension;"
+        // (and likewise for the server certificate type extension)
+        if (handshakeType == TlsConstants.HandshakeType.client_hello) {
+            int typesLength = buffer.get() & 0xff;
+            if (typesLength < 1 || extensionDataLength != 1 + typesLength) {
+                throw new DecodeErrorException("inconsistent length");
+            }
+            for (int i = 0; i < typesLength; i++) {
+                // Unknown (or deprecated, like OpenPGP) types are ignored; the server will not select them anyway.
+                decodeCertificateType(buffer.get()).ifPresent(certificateTypes::add);
+            }
+        }
+        else if (handshakeType == TlsConstants.HandshakeType.encrypted_extensions || handshakeType == TlsConstants.HandshakeType.server_hello) {
+            // Note that the extensions of encrypted extensions are parsed with the server_hello context.
+            if (extensionDataLength != 1) {
+                throw new DecodeErrorException("inconsistent length");
+            }
+            int type = buffer.get();
+            // A type this implementation does not know cannot have been offered by it.
+            certificateTypes.add(decodeCertificateType(type)
+                    .orElseThrow(() -> new IllegalParameterAlert("unsupported certificate type " + type)));
+        }
+        else {
+            // https://datatracker.ietf.org/doc/html/rfc8446#section-4.2
+            // "If an implementation receives an extension which it recognizes and which is not specified for
+            //  the message in which it appears, it MUST abort the handshake with an "illegal_parameter" alert."
+            throw new IllegalParameterAlert("Extension not allowed in " + handshakeType);
+        }
+    }
+
+    @Override
+    public byte[] getBytes() {
+        boolean list = handshakeType == TlsConstants.HandshakeType.client_hello;
+        short extensionLength = (short) ((list? 1: 0) + certificateTypes.size());
+        ByteBuffer buffer = ByteBuffer.allocate(4 + extensionLength);
+        buffer.putShort(extensionType.value);
+        buffer.putShort(extensionLength);  // Extension data length (in bytes)
+
+        if (list) {
+            buffer.put((byte) certificateTypes.size());
+        }
+        certificateTypes.forEach(type -> buffer.put(type.value));
+
+        return buffer.array();
+    }
+
+    /**
+     * @return  the certificate types offered (in a client hello), in order of preference
+     */
+    public List<TlsConstants.CertificateType> getCertificateTypes() {
+        return certificateTypes;
+    }
+
+    /**
+     * @return  the selected certificate type (in encrypted extensions), or the most preferred one (in a client hello)
+     */
+    public TlsConstants.CertificateType getCertificateType() {
+        return certificateTypes.isEmpty()? null: certificateTypes.get(0);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " " + certificateTypes;
+    }
+}
@@ -18,6 +18,7 @@
  */
 package net.luminis.tls.extension;
 
+import net.luminis.tls.ExternalPsk;
 import net.luminis.tls.NewSessionTicket;
 import net.luminis.tls.TlsConstants;
 import net.luminis.tls.TlsState;
@@ -53,6 +54,15 @@ public class ClientHelloPreSharedKeyExtension extends PreSharedKeyExtension {
         binders.add(new PskBinderEntry(new byte[TlsEngine.hashLength(newSessionTicket.getCipher())]));
     }
 
+    public ClientHelloPreSharedKeyExtension(ExternalPsk externalPsk) {
+        // https://datatracker.ietf.org/doc/html/rfc8446#section-4.2.11
+        // "For identities established externally, an obfuscated_ticket_age of 0 SHOULD be used, and servers MUST
+        //  ignore the value."
+        identities = List.of(new PskIdentity(externalPsk.getIdentity(), 0));
+        binders = new ArrayList<>();
+        binders.add(new PskBinderEntry(new byte[TlsEngine.hashLength(externalPsk.getCipher())]));
+    }
+
     public ClientHelloPreSharedKeyExtension() {
     }
 
@@ -160,8 +170,7 @@ public class ClientHelloPreSharedKeyExtension extends PreSharedKeyExtension {
 
     public void calculateBinder(byte[] clientHello, int pskExtensionStartPosition, TlsState tlsState) {
         int partialHelloSize = pskExtensionStartPosition + binderPosition;
-        byte[] partialHello = new byte[partialHelloSize];
-        ByteBuffer.wrap(clientHello).get(partialHello);
+        ByteBuffer partialHello = ByteBuffer.wrap(clientHello, 0, partialHelloSize);
 
         binders.set(0, new PskBinderEntry(tlsState.computePskBinder(partialHello)));
     }
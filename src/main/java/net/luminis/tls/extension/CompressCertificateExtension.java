@@ -0,0 +1,83 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.extension;
+
+import net.luminis.tls.TlsConstants;
+import net.luminis.tls.alert.DecodeErrorException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static net.luminis.tls.TlsConstants.decodeCertificateCompressionAlgorithm;
+
+/**
+ * TLS Certificate Compression extension.
+ * See https://datatracker.ietf.org/doc/html/rfc8879#section-3
+ */
+public class CompressCertificateExtension extends Extension {
+
+    private final List<TlsConstants.CertificateCompressionAlgorithm> algorithms = new ArrayList<>();
+
+    public CompressCertificateExtension(List<TlsConstants.CertificateCompressionAlgorithm> algorithms) {
+        if (algorithms.isEmpty()) {
+            throw new IllegalArgumentException("at least one algorithm is required");
+        }
+        this.algorithms.addAll(algorithms);
+    }
+
+    public CompressCertificateExtension(ByteBuffer buffer) throws DecodeErrorException {
+        // https://datatracker.ietf.org/doc/html/rfc8879#section-3
+        // "struct {
+        //      CertificateCompressionAlgorithm algorithms<2..2^8-2>;
+        //  } CertificateCompressionAlgorithms;"
+        int extensionDataLength = parseExtensionHeader(buffer, TlsConstants.ExtensionType.compress_certificate, 3);
+        int algorithmsLength = buffer.get() & 0xff;
+        if (extensionDataLength != 1 + algorithmsLength || algorithmsLength < 2 || algorithmsLength % 2 != 0) {
+            throw new DecodeErrorException("inconsistent length");
+        }
+        for (int i = 0; i < algorithmsLength / 2; i++) {
+            int algorithm = buffer.getShort() & 0xffff;
+            // Unknown algorithms are ignored, as the peer may support algorithms this implementation does not know.
+            decodeCertificateCompressionAlgorithm(algorithm).ifPresent(algorithms::add);
+        }
+    }
+
+    @Override
+    public byte[] getBytes() {
+        short extensionLength = (short) (1 + 2 * algorithms.size());
+        ByteBuffer buffer = ByteBuffer.allocate(4 + extensionLength);
+        buffer.putShort(TlsConstants.ExtensionType.compress_certificate.value);
+        buffer.putShort(extensionLength);  // Extension data length (in bytes)
+
+        buffer.put((byte) (2 * algorithms.size()));
+        algorithms.forEach(algorithm -> buffer.putShort(algorithm.value));
+
+        return buffer.array();
+    }
+
+    public List<TlsConstants.CertificateCompressionAlgorithm> getAlgorithms() {
+        return algorithms;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressCertificateExtension " + algorithms;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.extension;
+
+import net.luminis.tls.TlsConstants;
+import net.luminis.tls.alert.DecodeErrorException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The TLS "cookie" extension, that a server can send in a HelloRetryRequest and that the client must echo in its
+ * second ClientHello.
+ * See https://datatracker.ietf.org/doc/html/rfc8446#section-4.2.2
+ */
+public class CookieExtension extends Extension {
+
+    private final byte[] cookie;
+
+    public CookieExtension(byte[] cookie) {
+        if (cookie.length == 0 || cookie.length > 0xffff - 2) {
+            throw new IllegalArgumentException("invalid cookie length");
+        }
+        this.cookie = cookie;
+    }
+
+    public CookieExtension(ByteBuffer buffer) throws DecodeErrorException {
+        // "struct { opaque cookie<1..2^16-1>; } Cookie;"
+        int extensionDataLength = parseExtensionHeader(buffer, TlsConstants.ExtensionType.cookie, 2 + 1);
+        int cookieLength = buffer.getShort() & 0xffff;
+        if (extensionDataLength != 2 + cookieLength || cookieLength == 0) {
+            throw new DecodeErrorException("inconsistent length");
+        }
+        cookie = new byte[cookieLength];
+        buffer.get(cookie);
+    }
+
+    @Override
+    public byte[] getBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 2 + cookie.length);
+        buffer.putShort(TlsConstants.ExtensionType.cookie.value);
+        buffer.putShort((short) (2 + cookie.length));
+        buffer.putShort((short) cookie.length);
+        buffer.put(cookie);
+        return buffer.array();
+    }
+
+    public byte[] getCookie() {
+        return cookie;
+    }
+
+    @Override
+    public String toString() {
+        return "CookieExtension[" + cookie.length + " bytes]";
+    }
+}
@@ -56,6 +56,7 @@ public class KeyShareExtension extends Extension {
     public static final List<TlsConstants.NamedGroup> supportedCurves = List.of(secp256r1, x25519);
 
     private TlsConstants.HandshakeType handshakeType;
+    private boolean helloRetryRequestType;
     private List<KeyShareEntry> keyShareEntries = new ArrayList<>();
 
 
@@ -85,6 +86,18 @@ public class KeyShareExtension extends Extension {
         keyShareEntries.add(new KeyShareEntry(ecCurve, publicKey));
     }
 
+    /**
+     * Assuming KeyShareHelloRetryRequest:
+     * "In a HelloRetryRequest message, the "extension_data" field of this extension contains a KeyShareHelloRetryRequest
+     * value: struct { NamedGroup selected_group; } KeyShareHelloRetryRequest;"
+     * @param selectedGroup  the group the server selected and for which it requests a key share from the client
+     */
+    public KeyShareExtension(TlsConstants.NamedGroup selectedGroup) {
+        this.handshakeType = TlsConstants.HandshakeType.server_hello;
+        this.helloRetryRequestType = true;
+        keyShareEntries.add(new KeyShareEntry(selectedGroup, null));
+    }
+
     /**
      * Assuming KeyShareServerHello:
      * "In a ServerHello message, the "extension_data" field of this extension contains a KeyShareServerHello value..."
@@ -96,6 +109,7 @@ public class KeyShareExtension extends Extension {
     }
 
     public KeyShareExtension(ByteBuffer buffer, TlsConstants.HandshakeType handshakeType, boolean helloRetryRequestType) throws TlsProtocolException {
+        this.helloRetryRequestType = helloRetryRequestType;
         int extensionDataLength = parseExtensionHeader(buffer, TlsConstants.ExtensionType.key_share, 1);
         if (extensionDataLength < 2) {
             throw new DecodeErrorException("extension underflow");
@@ -182,6 +196,13 @@ public class KeyShareExtension extends Extension {
 
     @Override
     public byte[] getBytes() {
+        if (helloRetryRequestType) {
+            ByteBuffer buffer = ByteBuffer.allocate(4 + 2);
+            buffer.putShort(TlsConstants.ExtensionType.key_share.value);
+            buffer.putShort((short) 2);
+            buffer.putShort(keyShareEntries.get(0).getNamedGroup().value);
+            return buffer.array();
+        }
         short keyShareEntryLength = (short) keyShareEntries.stream()
                 .map(ks -> ks.getNamedGroup())
                 .mapToInt(g -> CURVE_KEY_LENGTHS.get(g))
@@ -241,6 +262,13 @@ public class KeyShareExtension extends Extension {
         return keyShareEntries;
     }
 
+    /**
+     * @return  whether this is the key share extension of a HelloRetryRequest, which only contains the selected group
+     */
+    public boolean isHelloRetryRequestType() {
+        return helloRetryRequestType;
+    }
+
     private void writeAffine(ByteBuffer buffer, byte[] affine) {
         if (affine.length == 32) {
             buffer.put(affine);
@@ -308,7 +336,7 @@ public class KeyShareExtension extends Extension {
         }
     }
 
-    static ECParameterSpec ecParameterSpecForCurve(String curveName) {
+    public static ECParameterSpec ecParameterSpecForCurve(String curveName) {
         try {
             AlgorithmParameters params = AlgorithmParameters.getInstance("EC");
             params.init(new ECGenParameterSpec(curveName));
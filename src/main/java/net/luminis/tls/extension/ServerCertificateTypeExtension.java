@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.extension;
+
+import net.luminis.tls.TlsConstants;
+import net.luminis.tls.TlsProtocolException;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * TLS server certificate type extension.
+ * See https://datatracker.ietf.org/doc/html/rfc7250#section-3
+ */
+public class ServerCertificateTypeExtension extends CertificateTypeExtension {
+
+    /**
+     * Creates the extension as sent in a client hello.
+     * @param certificateTypes  the supported certificate types, in order of preference
+     */
+    public ServerCertificateTypeExtension(List<TlsConstants.CertificateType> certificateTypes) {
+        super(TlsConstants.ExtensionType.server_certificate_type, certificateTypes);
+    }
+
+    /**
+     * Creates the extension as sent in encrypted extensions.
+     * @param certificateType  the selected certificate type
+     */
+    public ServerCertificateTypeExtension(TlsConstants.CertificateType certificateType) {
+        super(TlsConstants.ExtensionType.server_certificate_type, certificateType);
+    }
+
+    public ServerCertificateTypeExtension(ByteBuffer buffer, TlsConstants.HandshakeType handshakeType) throws TlsProtocolException {
+        super(buffer, TlsConstants.ExtensionType.server_certificate_type, handshakeType);
+    }
+}
@@ -37,6 +37,13 @@ public class ServerNameExtension extends Extension {
         this.serverName = serverName;
     }
 
+    /**
+     * Creates the (empty) server name extension a server sends to indicate it used the server name sent by the client.
+     */
+    public ServerNameExtension() {
+        this.serverName = null;
+    }
+
     public ServerNameExtension(ByteBuffer buffer) throws DecodeErrorException {
         int extensionDataLength = parseExtensionHeader(buffer, TlsConstants.ExtensionType.server_name, 0);
         if (extensionDataLength > 0) {
@@ -98,6 +105,12 @@ public class ServerNameExtension extends Extension {
 
     @Override
     public byte[] getBytes() {
+        if (serverName == null) {
+            ByteBuffer buffer = ByteBuffer.allocate(4);
+            buffer.putShort(TlsConstants.ExtensionType.server_name.value);
+            buffer.putShort((short) 0);
+            return buffer.array();
+        }
         short hostnameLength = (short) serverName.length();
         short extensionLength = (short) (hostnameLength + 2 + 1 + 2);
 
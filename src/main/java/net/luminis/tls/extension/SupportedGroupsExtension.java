@@ -39,6 +39,13 @@ public class SupportedGroupsExtension extends Extension {
         namedGroups.add(namedGroup);
     }
 
+    /**
+     * @param namedGroups  the supported groups, in order of preference
+     */
+    public SupportedGroupsExtension(List<TlsConstants.NamedGroup> namedGroups) {
+        this.namedGroups.addAll(namedGroups);
+    }
+
     public SupportedGroupsExtension(ByteBuffer buffer) throws DecodeErrorException {
         int extensionDataLength = parseExtensionHeader(buffer, TlsConstants.ExtensionType.supported_groups, 2 + 2);
         int namedGroupsLength = buffer.getShort();
@@ -25,9 +25,22 @@ import java.nio.ByteBuffer;
 public class UnknownExtension extends Extension {
 
     private byte[] data;
+    private ByteBuffer dataView;
     private int type;
 
     public UnknownExtension parse(ByteBuffer buffer) throws DecodeErrorException {
+        return parse(buffer, false);
+    }
+
+    /**
+     * Parses the extension.
+     * @param buffer
+     * @param zeroCopy  when true, the extension data is not copied but kept as a read-only view on the buffer, which
+     *                  implies the content of the buffer may not be changed as long as this extension is in use.
+     * @return
+     * @throws DecodeErrorException
+     */
+    public UnknownExtension parse(ByteBuffer buffer, boolean zeroCopy) throws DecodeErrorException {
         if (buffer.remaining() < 4) {
             throw new DecodeErrorException("Extension must be at least 4 bytes long");
         }
@@ -39,13 +52,24 @@ public class UnknownExtension extends Extension {
             throw new DecodeErrorException("Invalid extension length");
         }
         buffer.reset();
-        data = new byte[4 + length];
-        buffer.get(data);
+        if (zeroCopy) {
+            dataView = buffer.slice().limit(4 + length).asReadOnlyBuffer();
+            buffer.position(buffer.position() + 4 + length);
+        }
+        else {
+            data = new byte[4 + length];
+            buffer.get(data);
+        }
 
         return this;
     }
 
     public byte[] getData() {
+        if (data == null && dataView != null) {
+            byte[] bytes = new byte[dataView.remaining()];
+            dataView.duplicate().get(bytes);
+            data = bytes;
+        }
         return data;
     }
 
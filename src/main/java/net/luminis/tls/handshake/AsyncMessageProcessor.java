@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.ProtectionKeysType;
+import net.luminis.tls.TlsProtocolException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+/**
+ * Processes handshake messages for an engine on an executor, so the thread that receives the messages (e.g. an event
+ * loop) is not blocked by the expensive steps of the handshake, like key generation, key agreement and signing.
+ * Messages (and actions) are processed one at a time, in the order in which they were submitted, so the engine's state
+ * machine sees exactly the same sequence as with synchronous processing. Messages that the engine sends in response
+ * are delivered through the engine's message sender, on the executor's thread; when the sender must run on a specific
+ * thread (e.g. the event loop), it should hand the message over to that thread itself.
+ * Once processing of a message fails, all messages and actions submitted after it fail as well (without being
+ * processed), as the state of the engine is undefined after an error.
+ * With Java 21 or later, a virtual thread executor (<code>Executors.newVirtualThreadPerTaskExecutor()</code>) can be used.
+ */
+public class AsyncMessageProcessor {
+
+    private final MessageProcessor messageProcessor;
+    private final Executor executor;
+    private CompletableFuture<Void> lastTask = CompletableFuture.completedFuture(null);
+
+    /**
+     * @param messageProcessor  the engine processing the messages
+     * @param executor  the executor to process the messages on
+     */
+    public AsyncMessageProcessor(MessageProcessor messageProcessor, Executor executor) {
+        this.messageProcessor = messageProcessor;
+        this.executor = executor;
+    }
+
+    /**
+     * Parses the handshake message in the given buffer (on the caller's thread) and submits it for processing.
+     * The content of the buffer is not used after this method returns.
+     * @param buffer
+     * @param messageParser
+     * @param protectedBy
+     * @return  stage that completes with the parsed message when it has been processed, or exceptionally with the
+     * protocol error (or <code>IOException</code>) that processing raised.
+     * @throws TlsProtocolException  when the message cannot be parsed
+     */
+    public CompletionStage<HandshakeMessage> parseAndProcessHandshakeMessage(ByteBuffer buffer, TlsMessageParser messageParser, ProtectionKeysType protectedBy) throws TlsProtocolException {
+        HandshakeMessage message = messageParser.parseHandshakeMessage(buffer);
+        // Materialize the message bytes, as the content of the buffer may change once this method returns.
+        message.getBytes();
+        return process(message, protectedBy).thenApply(ignored -> message);
+    }
+
+    /**
+     * Submits the given message for processing by the engine.
+     * @param message
+     * @param protectedBy
+     * @return  stage that completes when the message has been processed
+     */
+    public CompletionStage<Void> process(HandshakeMessage message, ProtectionKeysType protectedBy) {
+        return execute(() -> TlsMessageParser.process(message, messageProcessor, protectedBy));
+    }
+
+    /**
+     * Submits an action on the engine, e.g. <code>TlsClientEngine.startHandshake()</code>, which will be executed in
+     * order with the messages that are processed.
+     * @param action
+     * @return  stage that completes when the action has been executed
+     */
+    public synchronized CompletionStage<Void> execute(HandshakeAction action) {
+        lastTask = lastTask.thenRunAsync(() -> {
+            try {
+                action.run();
+            }
+            catch (TlsProtocolException | IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+        // Do not expose the future itself, as completing it would break the ordering
+        return lastTask.minimalCompletionStage();
+    }
+
+    @FunctionalInterface
+    public interface HandshakeAction {
+        void run() throws TlsProtocolException, IOException;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.TlsConstants;
+import net.luminis.tls.alert.BadCertificateAlert;
+
+/**
+ * A certificate compression algorithm (https://datatracker.ietf.org/doc/html/rfc8879). This library provides zlib
+ * (see {@link ZlibCertificateCompressor}); other algorithms (e.g. brotli or zstd) can be added by implementing this
+ * interface. Implementations must be thread-safe, as they are shared by engines.
+ */
+public interface CertificateCompressor {
+
+    TlsConstants.CertificateCompressionAlgorithm getAlgorithm();
+
+    /**
+     * Compresses the given data.
+     * @param data  the (uncompressed) certificate message, without handshake message header
+     * @return  the compressed data
+     */
+    byte[] compress(byte[] data);
+
+    /**
+     * Decompresses the given data, which must result in exactly <code>uncompressedLength</code> bytes. To bound the
+     * memory used, implementations must not produce (or buffer) more than <code>uncompressedLength</code> bytes.
+     * @param compressedData  the compressed data
+     * @param uncompressedLength  the length of the uncompressed data, as declared by the peer (and already checked
+     *                            against the maximum size that is accepted)
+     * @return  the uncompressed data
+     * @throws BadCertificateAlert  if the data cannot be decompressed or does not have the declared length
+     */
+    byte[] decompress(byte[] compressedData, int uncompressedLength) throws BadCertificateAlert;
+}
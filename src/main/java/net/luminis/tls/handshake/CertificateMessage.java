@@ -21,15 +21,23 @@ package net.luminis.tls.handshake;
 import net.luminis.tls.alert.BadCertificateAlert;
 import net.luminis.tls.alert.DecodeErrorException;
 import net.luminis.tls.TlsConstants;
+import net.luminis.tls.util.ByteBufferInputStream;
+import net.luminis.tls.util.CryptoPrimitives;
 
-import java.io.ByteArrayInputStream;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
@@ -39,10 +47,22 @@ import java.util.stream.Collectors;
 public class CertificateMessage extends HandshakeMessage {
 
     private static final int MINIMUM_MESSAGE_SIZE = 1 + 3 + 1 + 3 + 3 + 2;
+    // DER encoded object identifiers (including tag and length) of the public key algorithms supported for raw public keys.
+    private static final byte[] RSA_ENCRYPTION_OID = { 0x06, 0x09, 0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x0d, 0x01, 0x01, 0x01 };
+    private static final byte[] EC_PUBLIC_KEY_OID = { 0x06, 0x07, 0x2a, (byte) 0x86, 0x48, (byte) 0xce, 0x3d, 0x02, 0x01 };
+    private static final byte[] ED25519_OID = { 0x06, 0x03, 0x2b, 0x65, 0x70 };
     private byte[] requestContext;
     private X509Certificate endEntityCertificate;
     private List<X509Certificate> certificateChain = new ArrayList<>();
+    // Offset (relative to the start of the message) and length of the certificates that are not yet decoded.
+    private List<int[]> encodedCertificates = new ArrayList<>();
+    // Offset (relative to the start of the message) and length of all certificates.
+    private List<int[]> certificateEntries = new ArrayList<>();
+    // Offset (relative to the start of the message) and length of the raw public key (SubjectPublicKeyInfo), if present.
+    private int[] rawPublicKeyEntry;
+    private PublicKey rawPublicKey;
     private byte[] raw;
+    private ByteBuffer rawView;
 
     public CertificateMessage(X509Certificate certificate) {
         this.requestContext = new byte[0];
@@ -81,6 +101,23 @@ public class CertificateMessage extends HandshakeMessage {
         serialize();
     }
 
+    /**
+     * Creates a certificate message containing a raw public key, see https://datatracker.ietf.org/doc/html/rfc7250.
+     * @param rawPublicKey
+     */
+    public CertificateMessage(PublicKey rawPublicKey) {
+        this(new byte[0], rawPublicKey);
+    }
+
+    public CertificateMessage(byte[] requestContext, PublicKey rawPublicKey) {
+        Objects.requireNonNull(rawPublicKey);
+        this.requestContext = requestContext;
+        this.rawPublicKey = rawPublicKey;
+        certificateChain = Collections.emptyList();
+
+        serialize(List.of(rawPublicKey.getEncoded()));
+    }
+
     public CertificateMessage() {
     }
 
@@ -90,6 +127,20 @@ public class CertificateMessage extends HandshakeMessage {
     }
 
     public CertificateMessage parse(ByteBuffer buffer) throws DecodeErrorException, BadCertificateAlert {
+        return parse(buffer, false);
+    }
+
+    /**
+     * Parses a certificate message.
+     * @param buffer
+     * @param zeroCopy  when true, the message bytes are not copied but kept as a read-only view on the buffer and only
+     *                  copied into an array when requested, which implies the content of the buffer may not be changed
+     *                  as long as the message is in use.
+     * @return
+     * @throws DecodeErrorException
+     * @throws BadCertificateAlert
+     */
+    public CertificateMessage parse(ByteBuffer buffer, boolean zeroCopy) throws DecodeErrorException, BadCertificateAlert {
         int startPosition = buffer.position();
         int remainingLength = parseHandshakeHeader(buffer, TlsConstants.HandshakeType.certificate, MINIMUM_MESSAGE_SIZE);
 
@@ -102,12 +153,18 @@ public class CertificateMessage extends HandshakeMessage {
             else {
                 requestContext = new byte[0];
             }
-            parseCertificateEntries(buffer);
+            parseCertificateEntries(buffer, startPosition);
 
             // Update state.
-            raw = new byte[4 + remainingLength];
-            buffer.position(startPosition);
-            buffer.get(raw);
+            if (zeroCopy) {
+                rawView = view(buffer, startPosition, 4 + remainingLength);
+                buffer.position(startPosition + 4 + remainingLength);
+            }
+            else {
+                raw = new byte[4 + remainingLength];
+                buffer.position(startPosition);
+                buffer.get(raw);
+            }
 
             return this;
         }
@@ -116,33 +173,49 @@ public class CertificateMessage extends HandshakeMessage {
         }
     }
 
-    private int parseCertificateEntries(ByteBuffer buffer) throws BadCertificateAlert {
+    private int parseCertificateEntries(ByteBuffer buffer, int messageStart) throws BadCertificateAlert {
         int certificateListSize = ((buffer.get() & 0xff) << 16) | ((buffer.get() & 0xff) << 8) | (buffer.get() & 0xff);
         int remainingCertificateBytes = certificateListSize;
         int certCount = 0;
 
         while (remainingCertificateBytes > 0) {
             int certSize = ((buffer.get() & 0xff) << 16) | ((buffer.get() & 0xff) << 8) | (buffer.get() & 0xff);
-            byte[] certificateData = new byte[certSize];
-            buffer.get(certificateData);
+            int certificateStart = buffer.position();
+            skip(buffer, certSize);
 
+            if (rawPublicKeyEntry != null) {
+                // https://tools.ietf.org/html/rfc8446#section-4.4.2
+                // "If the RawPublicKey certificate type was negotiated, then the certificate_list MUST contain no more
+                //  than one CertificateEntry, which contains an ASN1_subjectPublicKeyInfo value as defined in [RFC7250],
+                //  Section 3."
+                throw new BadCertificateAlert("raw public key must be the only certificate entry");
+            }
             if (certSize > 0) {
                 // https://tools.ietf.org/html/rfc8446#section-4.4.2
                 // "If the corresponding certificate type extension ("server_certificate_type" or "client_certificate_type")
                 // was not negotiated in EncryptedExtensions, or the X.509 certificate type was negotiated, then each
                 // CertificateEntry contains a DER-encoded X.509 certificate."
-                // This implementation does not support raw-public-key certificates, so the only type supported is X509.
-                try {
-                    CertificateFactory cf = CertificateFactory.getInstance("X.509");
-                    X509Certificate certificate = (X509Certificate) cf.generateCertificate(new ByteArrayInputStream(certificateData));
+                // The negotiated type is not known while parsing (messages may be parsed before the encrypted extensions
+                // are processed), so a raw public key is recognised by its structure; it is up to the engine to check
+                // the message contains the negotiated type.
+                if (certCount == 0 && isSubjectPublicKeyInfo(view(buffer, certificateStart, certSize))) {
+                    rawPublicKeyEntry = new int[] { certificateStart - messageStart, certSize };
+                }
+                else if (certificateChain.isEmpty()) {
+                    certificateEntries.add(new int[] { certificateStart - messageStart, certSize });
+                    // Only the first certificate is decoded right away, as it is needed for verifying the certificate
+                    // verify message; the others are only needed when the chain is validated.
+                    X509Certificate certificate = decode(view(buffer, certificateStart, certSize));
                     if (certCount == 0) {
                         // https://tools.ietf.org/html/rfc8446#section-4.4.2
                         // "The sender's certificate MUST come in the first CertificateEntry in the list. "
                         endEntityCertificate = certificate;
                     }
                     certificateChain.add(certificate);
-                } catch (CertificateException e) {
-                    throw new BadCertificateAlert("could not parse certificate");
+                }
+                else {
+                    certificateEntries.add(new int[] { certificateStart - messageStart, certSize });
+                    encodedCertificates.add(new int[] { certificateStart - messageStart, certSize });
                 }
             }
 
@@ -153,28 +226,70 @@ public class CertificateMessage extends HandshakeMessage {
             // "Valid extensions for server certificates at present include the OCSP Status extension [RFC6066]
             // and the SignedCertificateTimestamp extension [RFC6962];..."
             // None of them is (yet) supported by this implementation.
-            byte[] extensionData = new byte[extensionsSize];
-            buffer.get(extensionData);
+            skip(buffer, extensionsSize);
             remainingCertificateBytes -= (2 + extensionsSize);
         }
         return certCount;
     }
 
+    /**
+     * Determines whether the given DER encoded data is a SubjectPublicKeyInfo instead of a certificate. Both start with
+     * a SEQUENCE containing a SEQUENCE, but the inner sequence of a SubjectPublicKeyInfo (the AlgorithmIdentifier)
+     * starts with an OBJECT IDENTIFIER, whereas that of a certificate (the TBSCertificate) starts with a version or
+     * serial number.
+     */
+    static boolean isSubjectPublicKeyInfo(ByteBuffer data) {
+        if (!skipSequenceHeader(data) || !skipSequenceHeader(data)) {
+            return false;
+        }
+        return data.hasRemaining() && data.get() == 0x06;
+    }
+
+    private static boolean skipSequenceHeader(ByteBuffer data) {
+        if (data.remaining() < 2 || data.get() != 0x30) {
+            return false;
+        }
+        int length = data.get() & 0xff;
+        if (length >= 0x80) {
+            int lengthBytes = length & 0x7f;
+            if (lengthBytes == 0 || lengthBytes > 3 || data.remaining() < lengthBytes) {
+                return false;
+            }
+            data.position(data.position() + lengthBytes);
+        }
+        return true;
+    }
+
+    private X509Certificate decode(ByteBuffer certificateData) throws BadCertificateAlert {
+        try {
+            CertificateFactory certificateFactory = CryptoPrimitives.getCertificateFactory("X.509");
+            return (X509Certificate) certificateFactory.generateCertificate(new ByteBufferInputStream(certificateData));
+        }
+        catch (CertificateException e) {
+            throw new BadCertificateAlert("could not parse certificate");
+        }
+    }
+
     private void serialize() {
-        int nrOfCerts = certificateChain.size();
-        List<byte[]> encodedCerts = certificateChain.stream()
+        serialize(certificateChain.stream()
                 .map(cert -> encode(cert))
-                .collect(Collectors.toList());
+                .collect(Collectors.toList()));
+    }
 
-        int msgSize = 4 + 1 + 3 + nrOfCerts * (3 + 2) + encodedCerts.stream().mapToInt(bytes -> bytes.length).sum();
+    private void serialize(List<byte[]> encodedCerts) {
+        int nrOfCerts = encodedCerts.size();
+        int certificateListSize = nrOfCerts * (3 + 2) + encodedCerts.stream().mapToInt(bytes -> bytes.length).sum();
+        int msgSize = 4 + 1 + requestContext.length + 3 + certificateListSize;
         ByteBuffer buffer = ByteBuffer.allocate(msgSize);
 
         buffer.putInt((TlsConstants.HandshakeType.certificate.value << 24) | (msgSize - 4));
-        // cert request context size
-        buffer.put((byte) 0x00);
+        // cert request context
+        buffer.put((byte) requestContext.length);
+        buffer.put(requestContext);
         // certificate_list size (3 bytes)
         buffer.put((byte) 0); // assuming < 65535
-        buffer.putShort((short) (msgSize - 4 - 1 - 3));
+        buffer.putShort((short) certificateListSize);
+        certificateEntries.clear();
 
         encodedCerts.forEach(encodedCert -> {
             if (encodedCert.length > 0xfff0) {
@@ -184,6 +299,7 @@ public class CertificateMessage extends HandshakeMessage {
             buffer.put((byte) 0);
             buffer.putShort((short) encodedCert.length);
             // certificate
+            certificateEntries.add(new int[] { buffer.position(), encodedCert.length });
             buffer.put(encodedCert);
             // extensions size
             buffer.putShort((short) 0);
@@ -202,9 +318,17 @@ public class CertificateMessage extends HandshakeMessage {
 
     @Override
     public byte[] getBytes() {
+        if (raw == null && rawView != null) {
+            raw = materialize(rawView);
+        }
         return raw;
     }
 
+    @Override
+    public ByteBuffer getBytesView() {
+        return raw == null && rawView != null? rawView.duplicate(): null;
+    }
+
     public byte[] getRequestContext() {
         return requestContext;
     }
@@ -213,7 +337,123 @@ public class CertificateMessage extends HandshakeMessage {
         return endEntityCertificate;
     }
 
+    /**
+     * @return  whether this message contains a raw public key (https://datatracker.ietf.org/doc/html/rfc7250) instead
+     * of a certificate chain
+     */
+    public boolean containsRawPublicKey() {
+        return rawPublicKey != null || rawPublicKeyEntry != null;
+    }
+
+    /**
+     * Returns the raw public key contained in this message, decoding it when necessary.
+     * @return  the public key, or null if this message does not contain a raw public key
+     * @throws BadCertificateAlert  when the public key cannot be decoded or is of an unsupported type
+     */
+    public PublicKey getRawPublicKey() throws BadCertificateAlert {
+        if (rawPublicKey == null && rawPublicKeyEntry != null) {
+            ByteBuffer message = raw != null? ByteBuffer.wrap(raw): rawView;
+            byte[] encoded = materialize(view(message, rawPublicKeyEntry[0], rawPublicKeyEntry[1]));
+            rawPublicKey = decodePublicKey(encoded);
+        }
+        return rawPublicKey;
+    }
+
+    private static PublicKey decodePublicKey(byte[] subjectPublicKeyInfo) throws BadCertificateAlert {
+        ByteBuffer algorithmIdentifier = ByteBuffer.wrap(subjectPublicKeyInfo);
+        skipSequenceHeader(algorithmIdentifier);
+        skipSequenceHeader(algorithmIdentifier);
+        String algorithm;
+        if (startsWith(algorithmIdentifier, RSA_ENCRYPTION_OID)) {
+            algorithm = "RSA";
+        }
+        else if (startsWith(algorithmIdentifier, EC_PUBLIC_KEY_OID)) {
+            algorithm = "EC";
+        }
+        else if (startsWith(algorithmIdentifier, ED25519_OID)) {
+            algorithm = "Ed25519";
+        }
+        else {
+            throw new BadCertificateAlert("unsupported public key algorithm");
+        }
+        try {
+            return KeyFactory.getInstance(algorithm).generatePublic(new X509EncodedKeySpec(subjectPublicKeyInfo));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new BadCertificateAlert("unsupported public key algorithm");
+        }
+        catch (InvalidKeySpecException e) {
+            throw new BadCertificateAlert("could not parse public key");
+        }
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, byte[] prefix) {
+        if (buffer.remaining() < prefix.length) {
+            return false;
+        }
+        byte[] start = new byte[prefix.length];
+        buffer.duplicate().get(start);
+        return Arrays.equals(start, prefix);
+    }
+
+    /**
+     * Returns the certificate chain, decoding the certificates that have not been decoded yet. When one of these
+     * certificates cannot be decoded, an <code>IllegalStateException</code> is thrown; use
+     * {@link #decodeCertificateChain()} to have this reported as a bad certificate alert.
+     * @return
+     */
     public List<X509Certificate> getCertificateChain() {
+        try {
+            return decodeCertificateChain();
+        }
+        catch (BadCertificateAlert badCertificate) {
+            throw new IllegalStateException(badCertificate.getMessage());
+        }
+    }
+
+    /**
+     * @return  the number of (X.509) certificates in this message, which does not require decoding them
+     */
+    public int getCertificateCount() {
+        return certificateEntries.size();
+    }
+
+    /**
+     * Computes a SHA-256 digest over the DER encoded certificates in this message, that identifies the certificate
+     * chain without decoding it. The certificates are length-prefixed, so different chains cannot have the same digest.
+     * @return
+     */
+    public byte[] digestCertificateEntries() {
+        try {
+            MessageDigest digest = CryptoPrimitives.getMessageDigest("SHA-256");
+            ByteBuffer message = raw != null? ByteBuffer.wrap(raw): rawView;
+            ByteBuffer length = ByteBuffer.allocate(4);
+            for (int[] certificateEntry: certificateEntries) {
+                digest.update(length.clear().putInt(certificateEntry[1]).flip());
+                digest.update(view(message, certificateEntry[0], certificateEntry[1]));
+            }
+            return digest.digest();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Missing SHA-256 support");
+        }
+    }
+
+    /**
+     * Returns the certificate chain, decoding the certificates that have not been decoded yet. When parsing a
+     * certificate message, only the first certificate is decoded; the other certificates are decoded by this method.
+     * @return
+     * @throws BadCertificateAlert  when one of the certificates cannot be decoded
+     */
+    public List<X509Certificate> decodeCertificateChain() throws BadCertificateAlert {
+        if (!encodedCertificates.isEmpty()) {
+            ByteBuffer message = raw != null? ByteBuffer.wrap(raw): rawView;
+            while (!encodedCertificates.isEmpty()) {
+                int[] encodedCertificate = encodedCertificates.get(0);
+                certificateChain.add(decode(view(message, encodedCertificate[0], encodedCertificate[1])));
+                encodedCertificates.remove(0);
+            }
+        }
         return certificateChain;
     }
 }
@@ -55,9 +55,11 @@ public class ClientHello extends HandshakeMessage {
 
     private static Random random = new Random();
     private static SecureRandom secureRandom = new SecureRandom();
-    private final byte[] data;
+    private byte[] data;
+    private ByteBuffer dataView;
     private final int pskExtensionStartPosition;
     private byte[] clientRandom;
+    private byte[] legacySessionId;
 
     private List<TlsConstants.CipherSuite> cipherSuites = new ArrayList<>();
     private List<Extension> extensions;
@@ -69,6 +71,21 @@ public class ClientHello extends HandshakeMessage {
      * @throws IllegalParameterAlert
      */
     public ClientHello(ByteBuffer buffer, ExtensionParser customExtensionParser) throws TlsProtocolException, IllegalParameterAlert {
+        this(buffer, customExtensionParser, false);
+    }
+
+    /**
+     * Parses a ClientHello message from a byte stream.
+     * @param buffer
+     * @param customExtensionParser
+     * @param zeroCopy  when true, the message bytes are not copied but kept as a read-only view on the buffer and only
+     *                  copied into an array when requested with {@link #getBytes()}, which implies the content of the
+     *                  buffer may not be changed as long as the message is in use. The engines use the view (see
+     *                  {@link #getBytesView()}) for checking PSK binders and computing the transcript hash.
+     * @throws TlsProtocolException
+     * @throws IllegalParameterAlert
+     */
+    public ClientHello(ByteBuffer buffer, ExtensionParser customExtensionParser, boolean zeroCopy) throws TlsProtocolException, IllegalParameterAlert {
         int startPosition = buffer.position();
 
         if (buffer.remaining() < 4) {
@@ -97,7 +114,7 @@ public class ClientHello extends HandshakeMessage {
 
         int sessionIdLength = buffer.get();
         if (sessionIdLength > 0) {
-            buffer.get(new byte[sessionIdLength]);
+            skip(buffer, sessionIdLength);
         }
 
         int cipherSuitesLength = buffer.getShort();
@@ -123,7 +140,7 @@ public class ClientHello extends HandshakeMessage {
         }
 
         int extensionStart = buffer.position();
-        extensions = parseExtensions(buffer, TlsConstants.HandshakeType.client_hello, customExtensionParser);
+        extensions = parseExtensions(buffer, TlsConstants.HandshakeType.client_hello, customExtensionParser, zeroCopy);
         if (extensions.stream().anyMatch(ext -> ext instanceof PreSharedKeyExtension)) {
             buffer.position(extensionStart);
             pskExtensionStartPosition = findPositionLastExtension(buffer);
@@ -138,9 +155,14 @@ public class ClientHello extends HandshakeMessage {
             pskExtensionStartPosition = -1;
         }
 
-        data = new byte[buffer.position() - startPosition];
-        buffer.position(startPosition);
-        buffer.get(data);
+        if (zeroCopy) {
+            dataView = view(buffer, startPosition, buffer.position() - startPosition);
+        }
+        else {
+            data = new byte[buffer.position() - startPosition];
+            buffer.position(startPosition);
+            buffer.get(data);
+        }
     }
 
     public ClientHello(String serverName, ECPublicKey publicKey) {
@@ -164,6 +186,30 @@ public class ClientHello extends HandshakeMessage {
      */
     public ClientHello(String serverName, PublicKey publicKey, boolean compatibilityMode, List<TlsConstants.CipherSuite> supportedCiphers,
                        List<TlsConstants.SignatureScheme> supportedSignatures, TlsConstants.NamedGroup ecCurve, List<Extension> extraExtensions, TlsState tlsState, PskKeyEstablishmentMode pskKeyEstablishmentMode) {
+        this(serverName, publicKey, compatibilityMode, supportedCiphers, supportedSignatures, ecCurve, List.of(ecCurve), extraExtensions, tlsState, pskKeyEstablishmentMode, null);
+    }
+
+    /**
+     * @param serverName
+     * @param publicKey
+     * @param compatibilityMode
+     * @param supportedCiphers
+     * @param supportedSignatures
+     * @param ecCurve               the named group of the key share (and thus of the given public key)
+     * @param supportedGroups       the named groups for the supported groups extension, in order of preference; must
+     *                              contain the key share group
+     * @param extraExtensions
+     * @param tlsState              can be null when no ClientHelloPreSharedKeyExtension is present, must be non-null when ClientHelloPreSharedKeyExtension is present.
+     * @param pskKeyEstablishmentMode
+     * @param initialClientHello    when this ClientHello is sent in response to a HelloRetryRequest, the initial
+     *                              ClientHello, whose random and session id are re-used; null otherwise
+     */
+    public ClientHello(String serverName, PublicKey publicKey, boolean compatibilityMode, List<TlsConstants.CipherSuite> supportedCiphers,
+                       List<TlsConstants.SignatureScheme> supportedSignatures, TlsConstants.NamedGroup ecCurve, List<TlsConstants.NamedGroup> supportedGroups,
+                       List<Extension> extraExtensions, TlsState tlsState, PskKeyEstablishmentMode pskKeyEstablishmentMode, ClientHello initialClientHello) {
+        if (!supportedGroups.contains(ecCurve)) {
+            throw new IllegalArgumentException("supported groups must contain key share group " + ecCurve);
+        }
         this.cipherSuites = supportedCiphers;
 
         ByteBuffer buffer = ByteBuffer.allocate(MAX_CLIENT_HELLO_SIZE);
@@ -180,18 +226,32 @@ public class ClientHello extends HandshakeMessage {
         buffer.put((byte) 0x03);
 
         // client random 32 bytes
-        clientRandom = new byte[32];
-        secureRandom.nextBytes(clientRandom);
+        if (initialClientHello != null) {
+            // https://datatracker.ietf.org/doc/html/rfc8446#section-4.1.2
+            // "When a client first connects to a server, it is REQUIRED to send the ClientHello as its first TLS
+            //  message. The client will also send a ClientHello when the server has responded to its ClientHello with a
+            //  HelloRetryRequest. In that case, the client MUST send the same ClientHello without modification, except
+            //  as follows: (...)"
+            clientRandom = initialClientHello.clientRandom;
+        }
+        else {
+            clientRandom = new byte[32];
+            secureRandom.nextBytes(clientRandom);
+        }
         buffer.put(clientRandom);
 
         byte[] sessionId;
-        if (compatibilityMode) {
+        if (initialClientHello != null && initialClientHello.legacySessionId != null) {
+            sessionId = initialClientHello.legacySessionId;
+        }
+        else if (compatibilityMode) {
             sessionId = new byte[32];
             random.nextBytes(sessionId);
         }
         else {
             sessionId = new byte[0];
         }
+        legacySessionId = sessionId;
         buffer.put((byte) sessionId.length);
         if (sessionId.length > 0)
             buffer.put(sessionId);
@@ -211,7 +271,7 @@ public class ClientHello extends HandshakeMessage {
         Extension[] defaultExtensions = new Extension[] {
                 new ServerNameExtension(serverName),
                 new SupportedVersionsExtension(TlsConstants.HandshakeType.client_hello),
-                new SupportedGroupsExtension(ecCurve),
+                new SupportedGroupsExtension(supportedGroups),
                 new SignatureAlgorithmsExtension(supportedSignatures),
                 new KeyShareExtension(publicKey, ecCurve, TlsConstants.HandshakeType.client_hello),
         };
@@ -276,9 +336,17 @@ public class ClientHello extends HandshakeMessage {
 
     @Override
     public byte[] getBytes() {
+        if (data == null) {
+            data = materialize(dataView);
+        }
         return data;
     }
 
+    @Override
+    public ByteBuffer getBytesView() {
+        return data == null? dataView.duplicate(): null;
+    }
+
     public byte[] getClientRandom() {
         return clientRandom;
     }
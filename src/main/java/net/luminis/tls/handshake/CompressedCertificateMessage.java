@@ -0,0 +1,169 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.TlsConstants;
+import net.luminis.tls.alert.BadCertificateAlert;
+import net.luminis.tls.alert.DecodeErrorException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.List;
+
+import static net.luminis.tls.TlsConstants.decodeCertificateCompressionAlgorithm;
+
+/**
+ * A compressed certificate message, that takes the place of the certificate message (also in the transcript hash).
+ * Received messages must be decompressed (see {@link #decompress(List, int)}) before the certificates can be obtained;
+ * after that, the message can be used as a plain certificate message.
+ * https://datatracker.ietf.org/doc/html/rfc8879#section-4
+ */
+public class CompressedCertificateMessage extends CertificateMessage {
+
+    private static final int MINIMUM_MESSAGE_SIZE = 4 + 2 + 3 + 3 + 1;
+    private TlsConstants.CertificateCompressionAlgorithm algorithm;
+    private int uncompressedLength;
+    private byte[] compressedData;
+    private byte[] raw;
+
+    /**
+     * Creates a compressed certificate message for the given certificate chain.
+     * @param certificateChain  the certificate chain, the end entity certificate must be the first in the list
+     * @param compressor  the compression algorithm to use
+     */
+    public CompressedCertificateMessage(List<X509Certificate> certificateChain, CertificateCompressor compressor) {
+        super(certificateChain);
+        algorithm = compressor.getAlgorithm();
+        byte[] certificateMessage = super.getBytes();
+        // https://datatracker.ietf.org/doc/html/rfc8879#section-4
+        // "uncompressed_length:  The length of the Certificate message once it is uncompressed."
+        uncompressedLength = certificateMessage.length - 4;
+        compressedData = compressor.compress(Arrays.copyOfRange(certificateMessage, 4, certificateMessage.length));
+        serialize();
+    }
+
+    public CompressedCertificateMessage() {
+    }
+
+    @Override
+    public TlsConstants.HandshakeType getType() {
+        return TlsConstants.HandshakeType.compressed_certificate;
+    }
+
+    @Override
+    public CompressedCertificateMessage parse(ByteBuffer buffer) throws DecodeErrorException, BadCertificateAlert {
+        // https://datatracker.ietf.org/doc/html/rfc8879#section-4
+        // "struct {
+        //       CertificateCompressionAlgorithm algorithm;
+        //       uint24 uncompressed_length;
+        //       opaque compressed_certificate_message<1..2^24-1>;
+        //  } CompressedCertificate;"
+        int startPosition = buffer.position();
+        int remainingLength = parseHandshakeHeader(buffer, TlsConstants.HandshakeType.compressed_certificate, MINIMUM_MESSAGE_SIZE);
+        try {
+            int algorithmValue = buffer.getShort() & 0xffff;
+            uncompressedLength = ((buffer.get() & 0xff) << 16) | ((buffer.get() & 0xff) << 8) | (buffer.get() & 0xff);
+            int compressedLength = ((buffer.get() & 0xff) << 16) | ((buffer.get() & 0xff) << 8) | (buffer.get() & 0xff);
+            if (compressedLength == 0 || 2 + 3 + 3 + compressedLength != remainingLength) {
+                throw new DecodeErrorException("inconsistent length");
+            }
+            // An algorithm this implementation does not know cannot have been offered, so it is bound to fail.
+            algorithm = decodeCertificateCompressionAlgorithm(algorithmValue)
+                    .orElseThrow(() -> new BadCertificateAlert("unknown certificate compression algorithm"));
+            compressedData = new byte[compressedLength];
+            buffer.get(compressedData);
+
+            raw = new byte[4 + remainingLength];
+            buffer.position(startPosition);
+            buffer.get(raw);
+            return this;
+        }
+        catch (BufferUnderflowException notEnoughBytes) {
+            throw new DecodeErrorException("message underflow");
+        }
+    }
+
+    @Override
+    public CompressedCertificateMessage parse(ByteBuffer buffer, boolean zeroCopy) throws DecodeErrorException, BadCertificateAlert {
+        // The compressed data is needed as an array anyway, so there is nothing to gain with zero copy.
+        return parse(buffer);
+    }
+
+    /**
+     * Decompresses the (received) message, after which the certificates can be obtained like with a plain certificate
+     * message.
+     * @param compressors  the compression algorithms that were offered to the peer
+     * @param maxUncompressedLength  the maximum size of the uncompressed message that is accepted, which limits the
+     *                               memory that can be claimed by a peer
+     * @throws BadCertificateAlert  if the message is compressed with an algorithm that was not offered, is too large
+     * or cannot be decompressed
+     * @throws DecodeErrorException  if the decompressed message cannot be parsed
+     */
+    public void decompress(List<CertificateCompressor> compressors, int maxUncompressedLength) throws BadCertificateAlert, DecodeErrorException {
+        if (compressedData == null) {
+            return;
+        }
+        // https://datatracker.ietf.org/doc/html/rfc8879#section-4
+        // "If the received CompressedCertificate message cannot be decompressed, the connection MUST be terminated with
+        //  the "bad_certificate" alert."
+        CertificateCompressor compressor = compressors.stream()
+                .filter(candidate -> candidate.getAlgorithm() == algorithm)
+                .findFirst()
+                .orElseThrow(() -> new BadCertificateAlert("certificate compressed with algorithm that was not offered: " + algorithm));
+        if (uncompressedLength > maxUncompressedLength) {
+            throw new BadCertificateAlert("uncompressed certificate too large (" + uncompressedLength + " bytes)");
+        }
+        byte[] certificateMessage = compressor.decompress(compressedData, uncompressedLength);
+
+        ByteBuffer buffer = ByteBuffer.allocate(4 + certificateMessage.length);
+        buffer.putInt((TlsConstants.HandshakeType.certificate.value << 24) | certificateMessage.length);
+        buffer.put(certificateMessage);
+        buffer.flip();
+        super.parse(buffer, false);
+        compressedData = null;
+    }
+
+    private void serialize() {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 2 + 3 + 3 + compressedData.length);
+        buffer.putInt((TlsConstants.HandshakeType.compressed_certificate.value << 24) | (buffer.capacity() - 4));
+        buffer.putShort(algorithm.value);
+        buffer.put((byte) (uncompressedLength >> 16));
+        buffer.putShort((short) uncompressedLength);
+        buffer.put((byte) (compressedData.length >> 16));
+        buffer.putShort((short) compressedData.length);
+        buffer.put(compressedData);
+        raw = buffer.array();
+        compressedData = null;
+    }
+
+    @Override
+    public byte[] getBytes() {
+        return raw;
+    }
+
+    public TlsConstants.CertificateCompressionAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getUncompressedLength() {
+        return uncompressedLength;
+    }
+}
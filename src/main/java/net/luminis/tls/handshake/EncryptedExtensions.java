@@ -38,6 +38,7 @@ public class EncryptedExtensions extends HandshakeMessage {
 
     private List<Extension> extensions;
     private byte[] raw;
+    private ByteBuffer rawView;
 
     public EncryptedExtensions() {
         extensions = Collections.emptyList();
@@ -70,6 +71,21 @@ public class EncryptedExtensions extends HandshakeMessage {
     }
     
     public EncryptedExtensions parse(ByteBuffer buffer, int length, ExtensionParser customExtensionParser) throws TlsProtocolException {
+        return parse(buffer, length, customExtensionParser, false);
+    }
+
+    /**
+     * Parses an encrypted extensions message.
+     * @param buffer
+     * @param length
+     * @param customExtensionParser
+     * @param zeroCopy  when true, the message bytes are not copied but kept as a read-only view on the buffer and only
+     *                  copied into an array when requested, which implies the content of the buffer may not be changed
+     *                  as long as the message is in use.
+     * @return
+     * @throws TlsProtocolException
+     */
+    public EncryptedExtensions parse(ByteBuffer buffer, int length, ExtensionParser customExtensionParser, boolean zeroCopy) throws TlsProtocolException {
         if (buffer.remaining() < MINIMAL_MESSAGE_LENGTH) {
             throw new DecodeErrorException("Message too short");
         }
@@ -80,13 +96,20 @@ public class EncryptedExtensions extends HandshakeMessage {
             throw new DecodeErrorException("Incorrect message length");
         }
 
-        extensions = parseExtensions(buffer, TlsConstants.HandshakeType.server_hello, customExtensionParser);
+        extensions = parseExtensions(buffer, TlsConstants.HandshakeType.server_hello, customExtensionParser, zeroCopy);
 
         // Raw bytes are needed for computing the transcript hash
-        buffer.position(start);
-        raw = new byte[length];
-        buffer.mark();
-        buffer.get(raw);
+        if (zeroCopy) {
+            raw = null;
+            rawView = view(buffer, start, length);
+            buffer.position(start + length);
+        }
+        else {
+            buffer.position(start);
+            raw = new byte[length];
+            buffer.mark();
+            buffer.get(raw);
+        }
 
         return this;
     }
@@ -97,6 +120,14 @@ public class EncryptedExtensions extends HandshakeMessage {
 
     @Override
     public byte[] getBytes() {
+        if (raw == null && rawView != null) {
+            raw = materialize(rawView);
+        }
         return raw;
     }
+
+    @Override
+    public ByteBuffer getBytesView() {
+        return raw == null && rawView != null? rawView.duplicate(): null;
+    }
 }
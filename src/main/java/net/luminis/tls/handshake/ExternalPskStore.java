@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.ExternalPsk;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Provides the externally provisioned pre-shared keys a server accepts, e.g. keys distributed by a secret manager.
+ * When a store is set, the server engine looks up the identities offered by the client and, when one is found, uses
+ * that key (instead of a certificate) to authenticate the handshake. Stores are shared between engines, so
+ * implementations must be thread-safe.
+ */
+@FunctionalInterface
+public interface ExternalPskStore {
+
+    /**
+     * Looks up the key with the given identity.
+     * @param identity  an identity offered by the client
+     * @return  the key, or empty when the identity is not known
+     */
+    Optional<ExternalPsk> lookup(byte[] identity);
+
+    /**
+     * Creates a store for a fixed set of keys.
+     * @param psks
+     * @return
+     */
+    static ExternalPskStore of(Collection<ExternalPsk> psks) {
+        List<ExternalPsk> keys = List.copyOf(psks);
+        return identity -> keys.stream().filter(psk -> psk.hasIdentity(identity)).findFirst();
+    }
+}
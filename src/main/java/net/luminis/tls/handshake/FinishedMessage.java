@@ -46,7 +46,7 @@ public class FinishedMessage extends HandshakeMessage {
     }
 
     public FinishedMessage parse(ByteBuffer buffer, int length) throws DecodeErrorException {
-        Logger.debug("Got Finished message (" + length + " bytes)");
+        Logger.debug("Got Finished message (%d bytes)", length);
         buffer.mark();
         int remainingLength = parseHandshakeHeader(buffer, TlsConstants.HandshakeType.finished, 4 + 32);
         verifyData = new byte[remainingLength];
@@ -23,6 +23,7 @@ import net.luminis.tls.alert.DecodeErrorException;
 import net.luminis.tls.alert.IllegalParameterAlert;
 import net.luminis.tls.extension.*;
 
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -55,11 +56,47 @@ public abstract class HandshakeMessage extends Message {
 
     public abstract byte[] getBytes();
 
+    /**
+     * Returns a read-only view on the serialized message when it was parsed in zero-copy mode (and its bytes have not
+     * been copied yet by {@link #getBytes()}), so it can be processed without copying.
+     * @return  the view, or null if the message does not have one, in which case {@link #getBytes()} must be used.
+     */
+    public ByteBuffer getBytesView() {
+        return null;
+    }
+
     static List<Extension> parseExtensions(ByteBuffer buffer, TlsConstants.HandshakeType context) throws TlsProtocolException {
         return parseExtensions(buffer, context, null);
     }
 
     static List<Extension> parseExtensions(ByteBuffer buffer, TlsConstants.HandshakeType context, ExtensionParser customExtensionParser) throws TlsProtocolException {
+        return parseExtensions(buffer, context, customExtensionParser, false);
+    }
+
+    /**
+     * Parses the extensions.
+     * @param buffer
+     * @param context
+     * @param customExtensionParser
+     * @param zeroCopy  when true, the data of unknown extensions is not copied but kept as a (read-only) view on the buffer.
+     * @return
+     * @throws TlsProtocolException
+     */
+    static List<Extension> parseExtensions(ByteBuffer buffer, TlsConstants.HandshakeType context, ExtensionParser customExtensionParser, boolean zeroCopy) throws TlsProtocolException {
+        return parseExtensions(buffer, context, customExtensionParser, zeroCopy, false);
+    }
+
+    /**
+     * Parses the extensions.
+     * @param buffer
+     * @param context
+     * @param customExtensionParser
+     * @param zeroCopy  when true, the data of unknown extensions is not copied but kept as a (read-only) view on the buffer.
+     * @param helloRetryRequest  whether the extensions are part of a HelloRetryRequest (which has context server_hello)
+     * @return
+     * @throws TlsProtocolException
+     */
+    static List<Extension> parseExtensions(ByteBuffer buffer, TlsConstants.HandshakeType context, ExtensionParser customExtensionParser, boolean zeroCopy, boolean helloRetryRequest) throws TlsProtocolException {
         if (buffer.remaining() < 2) {
             throw new DecodeErrorException("Extension field must be at least 2 bytes long");
         }
@@ -120,7 +157,19 @@ public abstract class HandshakeMessage extends Message {
                 extensions.add(new CertificateAuthoritiesExtension(buffer));
             }
             else if (extensionType == TlsConstants.ExtensionType.key_share.value) {
-                extensions.add(new KeyShareExtension(buffer, context));
+                extensions.add(new KeyShareExtension(buffer, context, helloRetryRequest));
+            }
+            else if (extensionType == TlsConstants.ExtensionType.cookie.value) {
+                extensions.add(new CookieExtension(buffer));
+            }
+            else if (extensionType == TlsConstants.ExtensionType.compress_certificate.value) {
+                extensions.add(new CompressCertificateExtension(buffer));
+            }
+            else if (extensionType == TlsConstants.ExtensionType.server_certificate_type.value) {
+                extensions.add(new ServerCertificateTypeExtension(buffer, context));
+            }
+            else if (extensionType == TlsConstants.ExtensionType.client_certificate_type.value) {
+                extensions.add(new ClientCertificateTypeExtension(buffer, context));
             }
             else {
                 Extension extension = null;
@@ -131,8 +180,8 @@ public abstract class HandshakeMessage extends Message {
                     extensions.add(extension);
                 }
                 else {
-                    Logger.debug("Unsupported extension, type is: " + extensionType);
-                    extensions.add(new UnknownExtension().parse(buffer));
+                    Logger.debug("Unsupported extension, type is: %d", extensionType);
+                    extensions.add(new UnknownExtension().parse(buffer, zeroCopy));
                 }
             }
             if (buffer.position() - extensionStartPosition != 4 + extensionLength) {
@@ -157,10 +206,46 @@ public abstract class HandshakeMessage extends Message {
             lastExtensionStart = buffer.position();
             int type = buffer.getShort();
             int length = buffer.getShort() & 0xffff;
-            buffer.get(new byte[length]);
+            skip(buffer, length);
             remaining -= (2 + 2 + length);
         }
         return lastExtensionStart;
     }
 
+    /**
+     * Advances the buffer position over the given number of bytes, without copying them.
+     * @param buffer
+     * @param length
+     * @throws BufferUnderflowException  if the buffer does not have the given number of bytes remaining
+     */
+    static void skip(ByteBuffer buffer, int length) {
+        if (buffer.remaining() < length) {
+            throw new BufferUnderflowException();
+        }
+        buffer.position(buffer.position() + length);
+    }
+
+    /**
+     * Returns a read-only view on the given part of the buffer, sharing the buffer's content. The position of the buffer
+     * is not changed.
+     * @param buffer
+     * @param start  absolute start position
+     * @param length
+     * @return
+     */
+    static ByteBuffer view(ByteBuffer buffer, int start, int length) {
+        return buffer.duplicate().position(start).limit(start + length).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Copies the content of the given view into a new array.
+     * @param view
+     * @return
+     */
+    static byte[] materialize(ByteBuffer view) {
+        byte[] bytes = new byte[view.remaining()];
+        view.duplicate().get(bytes);
+        return bytes;
+    }
+
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.TlsConstants;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache that remembers, per server, the named group the server selected in a HelloRetryRequest, so that the
+ * next connection to that server can send a key share for the right group straight away and avoid the extra round
+ * trip. When the cache is full, the least recently used server is removed.
+ */
+public class KeyShareGroupCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private final int maxEntries;
+    // Selected group, keyed by server name, in access order.
+    private final LinkedHashMap<String, TlsConstants.NamedGroup> selectedGroups;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    public KeyShareGroupCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries  maximum number of servers kept in the cache
+     */
+    public KeyShareGroupCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("max entries must be positive");
+        }
+        this.maxEntries = maxEntries;
+        selectedGroups = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TlsConstants.NamedGroup> eldest) {
+                return size() > KeyShareGroupCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the group the given server selected the last time it sent a HelloRetryRequest.
+     * @param serverName
+     * @return  the selected group, or empty if the server is not in the cache
+     */
+    public Optional<TlsConstants.NamedGroup> get(String serverName) {
+        TlsConstants.NamedGroup namedGroup;
+        synchronized (this) {
+            namedGroup = selectedGroups.get(serverName);
+        }
+        if (namedGroup != null) {
+            hitCount.increment();
+        }
+        else {
+            missCount.increment();
+        }
+        return Optional.ofNullable(namedGroup);
+    }
+
+    /**
+     * Records the group a server selected in a HelloRetryRequest.
+     * @param serverName
+     * @param namedGroup
+     */
+    public synchronized void put(String serverName, TlsConstants.NamedGroup namedGroup) {
+        selectedGroups.put(serverName, namedGroup);
+    }
+
+    public synchronized void clear() {
+        selectedGroups.clear();
+    }
+
+    public synchronized int getSize() {
+        return selectedGroups.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+}
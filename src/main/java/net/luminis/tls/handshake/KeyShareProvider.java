@@ -0,0 +1,38 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.TlsConstants;
+
+import java.security.KeyPair;
+
+/**
+ * Provides the ephemeral key pairs used for the (EC)DHE key exchange, i.e. the key pair of which the public key is sent
+ * in the key share extension.
+ * Implementations must never return the same key pair twice.
+ */
+public interface KeyShareProvider {
+
+    /**
+     * Returns a fresh key pair for the given group.
+     * @param namedGroup
+     * @return
+     */
+    KeyPair getKeyPair(TlsConstants.NamedGroup namedGroup);
+}
@@ -0,0 +1,548 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.Logger;
+import net.luminis.tls.TlsConstants;
+import net.luminis.tls.TlsState;
+import net.luminis.tls.extension.ClientHelloPreSharedKeyExtension;
+import net.luminis.tls.jfr.TlsEvents;
+import net.luminis.tls.metrics.HandshakeMetricsListener;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Session registry that keeps sessions in a memory-mapped file, so that sessions survive a restart of the server (and
+ * clients can still resume after e.g. a rolling deploy) and sessions do not occupy the Java heap.
+ * The file consists of fixed-size slots that form an open-addressing hash table on the ticket id, with a bounded
+ * probe sequence: when all slots in the probe sequence of a new session are taken, the session that expires first is
+ * evicted. Expired sessions are removed lazily and by a background sweep.
+ * State changes that must not be lost (a session becoming available or being used) are single byte writes, so a
+ * process crash at any moment never makes a used session usable again, nor a partially written session usable. Note
+ * that changes are not forced to disk, so these guarantees do not hold when the operating system crashes.
+ * A session's application protocol and additional data together must fit in {@link #MAX_VARIABLE_DATA_SIZE} bytes;
+ * sessions with more data are not stored (and thus cannot be resumed).
+ * The file is created when it does not exist; an existing file with a different slot count or format is cleared.
+ * Note that the file contains the pre-shared keys of the sessions in plain text, so it must be protected like any other
+ * secret: on file systems that support POSIX permissions, it is created (or restricted to be) readable and writable by
+ * the owner only.
+ * The file is locked while the registry is open, so it cannot be used by two registries (in the same or in different
+ * processes) at the same time: opening the registry fails when the file is already in use. In a rolling deploy, the
+ * old process must therefore close the registry (or exit) before the new process opens it.
+ */
+public class MappedTlsSessionRegistry implements TlsSessionRegistry {
+
+    private static final int DEFAULT_TICKET_LIFETIME_HOURS = 24;
+    public static final int DEFAULT_MAX_SESSIONS = 100_000;
+    private static final int TICKET_LENGTH = 128 / 8;
+    private static final int MAX_PROBES = 16;
+
+    private static final int FILE_MAGIC = 0x41313553;  // "A15S"
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+
+    // Slot layout
+    private static final int SLOT_SIZE = 256;
+    private static final int STATE_OFFSET = 0;
+    private static final int CIPHER_OFFSET = 1;
+    private static final int EXPIRY_OFFSET = 3;
+    private static final int TICKET_ID_OFFSET = 11;
+    private static final int PSK_LENGTH_OFFSET = TICKET_ID_OFFSET + TICKET_LENGTH;
+    private static final int PSK_OFFSET = PSK_LENGTH_OFFSET + 1;
+    private static final int MAX_PSK_LENGTH = 48;
+    private static final int VARIABLE_DATA_OFFSET = PSK_OFFSET + MAX_PSK_LENGTH;
+    /** Maximum size of a session's application protocol and (additional) data combined. */
+    public static final int MAX_VARIABLE_DATA_SIZE = SLOT_SIZE - VARIABLE_DATA_OFFSET - 1 - 2;
+    private static final int NULL_PROTOCOL = 0xff;
+    private static final int NULL_DATA = 0xffff;
+
+    // Slot states
+    private static final byte EMPTY = 0;
+    private static final byte AVAILABLE = 1;
+    private static final byte REMOVED = 2;
+
+    private final Random randomGenerator = new SecureRandom();
+    private final Clock clock;
+    private final int ticketLifeTimeInSeconds;
+    private final int slotCount;
+    private final FileChannel fileChannel;
+    private final MappedByteBuffer slots;
+    private final ScheduledExecutorService executorService;
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private volatile HandshakeMetricsListener metricsListener = HandshakeMetricsListener.NONE;
+    // Guarded by this.
+    private int size;
+    private int sweepPosition;
+
+    public MappedTlsSessionRegistry(Path file) throws IOException {
+        this(file, (int) TimeUnit.HOURS.toSeconds(DEFAULT_TICKET_LIFETIME_HOURS), DEFAULT_MAX_SESSIONS);
+    }
+
+    /**
+     * @param file  the file to store the sessions in
+     * @param ticketLifeTimeInSeconds  the lifetime of the tickets issued
+     * @param maxSessions  the number of sessions the registry is sized for; the file has room for at least twice as many
+     *                     sessions (so probe sequences stay short), which amounts to (at most) 1 KB per session
+     * @throws IOException  when the file cannot be created or mapped
+     */
+    public MappedTlsSessionRegistry(Path file, int ticketLifeTimeInSeconds, int maxSessions) throws IOException {
+        this(file, ticketLifeTimeInSeconds, maxSessions, Clock.systemUTC(), true);
+    }
+
+    MappedTlsSessionRegistry(Path file, int ticketLifeTimeInSeconds, int maxSessions, Clock clock, boolean startSweep) throws IOException {
+        if (maxSessions < 1) {
+            throw new IllegalArgumentException("max sessions must be positive");
+        }
+        // Keep the load factor at or below 50%, so probe sequences stay short.
+        long requiredSlots = Long.highestOneBit(Integer.max(MAX_PROBES, maxSessions) * 2L - 1) * 2;
+        if (HEADER_SIZE + requiredSlots * SLOT_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("max sessions too large");
+        }
+        this.ticketLifeTimeInSeconds = ticketLifeTimeInSeconds;
+        this.clock = clock;
+        slotCount = (int) requiredSlots;
+        int fileSize = HEADER_SIZE + slotCount * SLOT_SIZE;
+
+        fileChannel = openOwnerOnly(file);
+        try {
+            // Without the lock, two processes could hand out the same session and corrupt each other's slots.
+            FileLock lock;
+            try {
+                lock = fileChannel.tryLock();
+            }
+            catch (OverlappingFileLockException inUseInThisProcess) {
+                lock = null;
+            }
+            if (lock == null) {
+                throw new IOException("Session registry file " + file + " is in use by another registry");
+            }
+            boolean compatible = fileChannel.size() == fileSize && isCompatible(fileChannel);
+            if (!compatible) {
+                if (fileChannel.size() > 0) {
+                    Logger.debug("Session registry file " + file + " has a different format or size; sessions in it are discarded");
+                }
+                fileChannel.truncate(0);
+            }
+            slots = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            if (!compatible) {
+                slots.putInt(0, FILE_MAGIC);
+                slots.putInt(4, FILE_VERSION);
+                slots.putInt(8, slotCount);
+                slots.putInt(12, SLOT_SIZE);
+            }
+        }
+        catch (IOException e) {
+            fileChannel.close();
+            throw e;
+        }
+        size = removeExpiredAndCount();
+
+        if (startSweep) {
+            executorService = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "cleanup-expired-psks");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // Each run sweeps a part of the slots, so all slots are visited about once per minute.
+            executorService.scheduleAtFixedRate(() -> sweepExpired(Integer.max(1024, slotCount / 60)), 1, 1, TimeUnit.SECONDS);
+        }
+        else {
+            executorService = null;
+        }
+    }
+
+    private static FileChannel openOwnerOnly(Path file) throws IOException {
+        Set<StandardOpenOption> options = Set.of(StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (!file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            return FileChannel.open(file, options);
+        }
+        Set<PosixFilePermission> ownerOnly = PosixFilePermissions.fromString("rw-------");
+        FileChannel channel = FileChannel.open(file, options, PosixFilePermissions.asFileAttribute(ownerOnly));
+        try {
+            // The permissions passed to open are only applied when the file is created.
+            if (!ownerOnly.containsAll(Files.getPosixFilePermissions(file))) {
+                Files.setPosixFilePermissions(file, ownerOnly);
+            }
+        }
+        catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    private boolean isCompatible(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(16);
+        channel.read(header, 0);
+        header.flip();
+        return header.remaining() == 16 && header.getInt() == FILE_MAGIC && header.getInt() == FILE_VERSION
+                && header.getInt() == slotCount && header.getInt() == SLOT_SIZE;
+    }
+
+    /**
+     * Sets the listener to report the number of sessions to, whenever sessions are added or removed.
+     * @param metricsListener
+     */
+    @Override
+    public void setMetricsListener(HandshakeMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+        if (fileChannel.isOpen()) {
+            slots.force();
+            fileChannel.close();
+        }
+    }
+
+    @Override
+    public NewSessionTicketMessage createNewSessionTicketMessage(byte ticketNonce, TlsConstants.CipherSuite cipher, TlsState tlsState, String applicationProtocol) {
+        return createNewSessionTicketMessage(ticketNonce, cipher, tlsState, applicationProtocol, null, null);
+    }
+
+    @Override
+    public NewSessionTicketMessage createNewSessionTicketMessage(byte ticketNonce, TlsConstants.CipherSuite cipher, TlsState tlsState, String applicationProtocol, Long maxEarlyDataSize, byte[] data) {
+        byte[] psk = tlsState.computePSK(new byte[] { ticketNonce });
+        long ageAdd = randomGenerator.nextLong();
+        byte[] ticketId = new byte[TICKET_LENGTH];
+        randomGenerator.nextBytes(ticketId);
+        long expiry = clock.millis() + TimeUnit.SECONDS.toMillis(ticketLifeTimeInSeconds);
+        add(ticketId, psk, cipher, expiry, applicationProtocol, data);
+        if (maxEarlyDataSize != null) {
+            return new NewSessionTicketMessage(ticketLifeTimeInSeconds, ageAdd, new byte[]{ ticketNonce }, ticketId, maxEarlyDataSize);
+        }
+        else {
+            return new NewSessionTicketMessage(ticketLifeTimeInSeconds, ageAdd, new byte[]{ ticketNonce }, ticketId);
+        }
+    }
+
+    @Override
+    public synchronized Integer selectIdentity(List<ClientHelloPreSharedKeyExtension.PskIdentity> identities, TlsConstants.CipherSuite cipher) {
+        for (int i = 0; i < identities.size(); i++) {
+            int slot = find(identities.get(i).getIdentity());
+            // See TlsSessionRegistryImpl for why the cipher must match.
+            if (slot >= 0 && slots.getShort(slotOffset(slot) + CIPHER_OFFSET) == cipher.value) {
+                return i;
+            }
+            // "Any unknown PSKs (e.g., ones not in the PSK database or encrypted with an unknown key) SHOULD simply be ignored."
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized TlsSession useSession(ClientHelloPreSharedKeyExtension.PskIdentity pskIdentity) {
+        int slot = find(pskIdentity.getIdentity());
+        Session session = null;
+        if (slot >= 0) {
+            session = readSession(slot);
+            // Mark as used before the session is returned, to avoid psk being used more than once.
+            slots.put(slotOffset(slot) + STATE_OFFSET, REMOVED);
+            size--;
+            metricsListener.sessionRegistrySizeChanged(size);
+        }
+        TlsEvents.sessionRegistryOperation("use", session != null, size);
+        return session;
+    }
+
+    @Override
+    public synchronized TlsSession peekSession(ClientHelloPreSharedKeyExtension.PskIdentity pskIdentity) {
+        int slot = find(pskIdentity.getIdentity());
+        return slot >= 0? readSession(slot): null;
+    }
+
+    @Override
+    public synchronized byte[] peekSessionData(ClientHelloPreSharedKeyExtension.PskIdentity pskIdentity) {
+        int slot = find(pskIdentity.getIdentity());
+        if (slot >= 0) {
+            return readSession(slot).getData();
+        }
+        else {
+            throw new NoSuchElementException();
+        }
+    }
+
+    /**
+     * @return  the number of sessions currently kept
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * @return  the number of sessions that were removed (before they expired) because there was no room for a new session
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return  the number of sessions that were removed because they expired
+     */
+    public long getExpiryCount() {
+        return expirations.sum();
+    }
+
+    private synchronized void add(byte[] ticketId, byte[] psk, TlsConstants.CipherSuite cipher, long expiry, String applicationProtocol, byte[] data) {
+        byte[] protocolBytes = applicationProtocol != null? applicationProtocol.getBytes(StandardCharsets.UTF_8): null;
+        int variableDataSize = (protocolBytes != null? protocolBytes.length: 0) + (data != null? data.length: 0);
+        if (psk.length > MAX_PSK_LENGTH || variableDataSize > MAX_VARIABLE_DATA_SIZE || (protocolBytes != null && protocolBytes.length >= NULL_PROTOCOL)) {
+            Logger.debug("Session data too large for session registry, session is not stored");
+            return;
+        }
+        if (!fileChannel.isOpen()) {
+            return;
+        }
+
+        long now = clock.millis();
+        int home = homeSlot(ticketId);
+        int selected = -1;
+        int firstExpiring = -1;
+        long firstExpiry = Long.MAX_VALUE;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int slot = (home + probe) & (slotCount - 1);
+            int offset = slotOffset(slot);
+            byte state = slots.get(offset + STATE_OFFSET);
+            if (state != AVAILABLE) {
+                selected = slot;
+                break;
+            }
+            long slotExpiry = slots.getLong(offset + EXPIRY_OFFSET);
+            if (slotExpiry <= now) {
+                expirations.increment();
+                size--;
+                TlsEvents.sessionRegistryOperation("expire", true, size);
+                selected = slot;
+                break;
+            }
+            if (slotExpiry < firstExpiry) {
+                firstExpiry = slotExpiry;
+                firstExpiring = slot;
+            }
+        }
+        if (selected < 0) {
+            evictions.increment();
+            size--;
+            TlsEvents.sessionRegistryOperation("evict", true, size);
+            selected = firstExpiring;
+        }
+
+        int offset = slotOffset(selected);
+        // Write the state last, so a partially written slot is never available.
+        slots.put(offset + STATE_OFFSET, REMOVED);
+        slots.putShort(offset + CIPHER_OFFSET, cipher.value);
+        slots.putLong(offset + EXPIRY_OFFSET, expiry);
+        putBytes(offset + TICKET_ID_OFFSET, ticketId);
+        slots.put(offset + PSK_LENGTH_OFFSET, (byte) psk.length);
+        putBytes(offset + PSK_OFFSET, psk);
+        int position = offset + VARIABLE_DATA_OFFSET;
+        if (protocolBytes != null) {
+            slots.put(position++, (byte) protocolBytes.length);
+            putBytes(position, protocolBytes);
+            position += protocolBytes.length;
+        }
+        else {
+            slots.put(position++, (byte) NULL_PROTOCOL);
+        }
+        if (data != null) {
+            slots.putShort(position, (short) data.length);
+            putBytes(position + 2, data);
+        }
+        else {
+            slots.putShort(position, (short) NULL_DATA);
+        }
+        slots.put(offset + STATE_OFFSET, AVAILABLE);
+        size++;
+        metricsListener.sessionRegistrySizeChanged(size);
+        TlsEvents.sessionRegistryOperation("add", true, size);
+    }
+
+    /**
+     * Finds the slot of the available, not expired, session with the given ticket id.
+     * @param ticketId
+     * @return  the slot, or -1 if there is no such session
+     */
+    private int find(byte[] ticketId) {
+        if (ticketId.length != TICKET_LENGTH || !fileChannel.isOpen()) {
+            return -1;
+        }
+        int home = homeSlot(ticketId);
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int slot = (home + probe) & (slotCount - 1);
+            int offset = slotOffset(slot);
+            byte state = slots.get(offset + STATE_OFFSET);
+            if (state == EMPTY) {
+                return -1;
+            }
+            if (state == AVAILABLE && ticketIdEquals(offset, ticketId)) {
+                return slots.getLong(offset + EXPIRY_OFFSET) > clock.millis()? slot: -1;
+            }
+        }
+        return -1;
+    }
+
+    private boolean ticketIdEquals(int offset, byte[] ticketId) {
+        for (int i = 0; i < TICKET_LENGTH; i++) {
+            if (slots.get(offset + TICKET_ID_OFFSET + i) != ticketId[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Session readSession(int slot) {
+        int offset = slotOffset(slot);
+        byte[] psk = new byte[slots.get(offset + PSK_LENGTH_OFFSET) & 0xff];
+        getBytes(offset + PSK_OFFSET, psk);
+        int position = offset + VARIABLE_DATA_OFFSET;
+        int protocolLength = slots.get(position++) & 0xff;
+        String applicationProtocol = null;
+        if (protocolLength != NULL_PROTOCOL) {
+            byte[] protocolBytes = new byte[protocolLength];
+            getBytes(position, protocolBytes);
+            position += protocolLength;
+            applicationProtocol = new String(protocolBytes, StandardCharsets.UTF_8);
+        }
+        int dataLength = slots.getShort(position) & 0xffff;
+        byte[] data = null;
+        if (dataLength != NULL_DATA) {
+            data = new byte[dataLength];
+            getBytes(position + 2, data);
+        }
+        return new Session(psk, applicationProtocol, data);
+    }
+
+    private int removeExpiredAndCount() {
+        long now = clock.millis();
+        int count = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            int offset = slotOffset(slot);
+            if (slots.get(offset + STATE_OFFSET) == AVAILABLE) {
+                if (slots.getLong(offset + EXPIRY_OFFSET) <= now) {
+                    slots.put(offset + STATE_OFFSET, REMOVED);
+                }
+                else {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    synchronized void sweepExpired(int slotsToVisit) {
+        if (!fileChannel.isOpen()) {
+            return;
+        }
+        long now = clock.millis();
+        int removed = 0;
+        for (int i = 0; i < Integer.min(slotsToVisit, slotCount); i++) {
+            int offset = slotOffset(sweepPosition);
+            if (slots.get(offset + STATE_OFFSET) == AVAILABLE && slots.getLong(offset + EXPIRY_OFFSET) <= now) {
+                slots.put(offset + STATE_OFFSET, REMOVED);
+                expirations.increment();
+                removed++;
+                TlsEvents.sessionRegistryOperation("expire", true, size - removed);
+            }
+            sweepPosition = (sweepPosition + 1) & (slotCount - 1);
+        }
+        if (removed > 0) {
+            size -= removed;
+            metricsListener.sessionRegistrySizeChanged(size);
+        }
+    }
+
+    private int homeSlot(byte[] ticketId) {
+        // Ticket ids are random, but identities are chosen by the client, so mix the bits before taking the index.
+        long hash = ByteBuffer.wrap(ticketId).getLong() ^ ByteBuffer.wrap(ticketId).getLong(8);
+        hash ^= (hash >>> 33);
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= (hash >>> 33);
+        return (int) hash & (slotCount - 1);
+    }
+
+    private void putBytes(int index, byte[] bytes) {
+        // Absolute bulk put is only available since Java 13.
+        ByteBuffer buffer = slots.duplicate();
+        buffer.position(index);
+        buffer.put(bytes);
+    }
+
+    private void getBytes(int index, byte[] bytes) {
+        ByteBuffer buffer = slots.duplicate();
+        buffer.position(index);
+        buffer.get(bytes);
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static class Session implements TlsSession {
+        private final byte[] psk;
+        private final String applicationProtocol;
+        private final byte[] data;
+
+        Session(byte[] psk, String applicationProtocol, byte[] data) {
+            this.psk = psk;
+            this.applicationProtocol = applicationProtocol;
+            this.data = data;
+        }
+
+        @Override
+        public byte[] getPsk() {
+            return psk;
+        }
+
+        @Override
+        public String getApplicationLayerProtocol() {
+            return applicationProtocol;
+        }
+
+        @Override
+        public byte[] getData() {
+            return data;
+        }
+    }
+}
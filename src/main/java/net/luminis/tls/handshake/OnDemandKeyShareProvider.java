@@ -0,0 +1,63 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.TlsConstants;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.NamedParameterSpec;
+
+import static net.luminis.tls.TlsConstants.NamedGroup.*;
+
+/**
+ * Key share provider that generates a new key pair each time one is requested.
+ */
+public class OnDemandKeyShareProvider implements KeyShareProvider {
+
+    @Override
+    public KeyPair getKeyPair(TlsConstants.NamedGroup namedGroup) {
+        try {
+            KeyPairGenerator keyPairGenerator;
+            if (namedGroup == secp256r1 || namedGroup == secp384r1 || namedGroup == secp521r1) {
+                keyPairGenerator = KeyPairGenerator.getInstance("EC");
+                keyPairGenerator.initialize(new ECGenParameterSpec(namedGroup.toString()));
+            }
+            else if (namedGroup == x25519 || namedGroup == x448) {
+                keyPairGenerator = KeyPairGenerator.getInstance("XDH");
+                NamedParameterSpec paramSpec = new NamedParameterSpec(namedGroup.toString().toUpperCase());  // x25519 => X25519
+                keyPairGenerator.initialize(paramSpec);
+            }
+            else {
+                throw new RuntimeException("unsupported group " + namedGroup);
+            }
+
+            return keyPairGenerator.genKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            // Invalid runtime
+            throw new RuntimeException("missing key pair generator algorithm EC");
+        } catch (InvalidAlgorithmParameterException e) {
+            // Impossible, would be programming error
+            throw new RuntimeException();
+        }
+    }
+}
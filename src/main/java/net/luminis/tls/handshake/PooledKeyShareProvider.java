@@ -0,0 +1,142 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.Logger;
+import net.luminis.tls.TlsConstants;
+
+import java.io.Closeable;
+import java.security.KeyPair;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Key share provider that keeps a bounded pool of pre-generated key pairs for each of the configured groups, so that
+ * key generation is taken off the handshake's critical path. Pools are (re)filled by background threads, one per group.
+ * When a pool is empty (or a group is requested that is not pooled), a key pair is generated on demand.
+ * As the provider starts threads, it must be closed when no longer used.
+ */
+public class PooledKeyShareProvider implements KeyShareProvider, Closeable {
+
+    public static final int DEFAULT_POOL_SIZE = 16;
+
+    private final KeyShareProvider generator;
+    private final Map<TlsConstants.NamedGroup, BlockingQueue<KeyPair>> pools = new ConcurrentHashMap<>();
+    private final ExecutorService executorService;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates a provider with pools of default size for the given groups.
+     * @param namedGroups  the groups to keep pre-generated key pairs for
+     */
+    public PooledKeyShareProvider(List<TlsConstants.NamedGroup> namedGroups) {
+        this(namedGroups, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Creates a provider with pools for the given groups.
+     * @param namedGroups  the groups to keep pre-generated key pairs for
+     * @param poolSize  the maximum number of pre-generated key pairs per group
+     */
+    public PooledKeyShareProvider(List<TlsConstants.NamedGroup> namedGroups, int poolSize) {
+        this(namedGroups, poolSize, new OnDemandKeyShareProvider());
+    }
+
+    PooledKeyShareProvider(List<TlsConstants.NamedGroup> namedGroups, int poolSize, KeyShareProvider generator) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("pool size must be positive");
+        }
+        this.generator = generator;
+        executorService = Executors.newFixedThreadPool(Integer.max(namedGroups.size(), 1), r -> {
+            Thread thread = new Thread(r, "key-share-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (TlsConstants.NamedGroup namedGroup: namedGroups) {
+            BlockingQueue<KeyPair> pool = new LinkedBlockingQueue<>(poolSize);
+            pools.put(namedGroup, pool);
+            executorService.submit(() -> fill(namedGroup, pool));
+        }
+    }
+
+    @Override
+    public KeyPair getKeyPair(TlsConstants.NamedGroup namedGroup) {
+        BlockingQueue<KeyPair> pool = pools.get(namedGroup);
+        KeyPair keyPair = pool != null? pool.poll(): null;
+        if (keyPair != null) {
+            hits.increment();
+            return keyPair;
+        }
+        else {
+            misses.increment();
+            return generator.getKeyPair(namedGroup);
+        }
+    }
+
+    /**
+     * @return  the number of times a pre-generated key pair could be returned
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return  the number of times a key pair had to be generated on demand, because none was available
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @param namedGroup
+     * @return  the number of pre-generated key pairs currently available for the given group
+     */
+    public int available(TlsConstants.NamedGroup namedGroup) {
+        BlockingQueue<KeyPair> pool = pools.get(namedGroup);
+        return pool != null? pool.size(): 0;
+    }
+
+    @Override
+    public void close() {
+        executorService.shutdownNow();
+    }
+
+    private void fill(TlsConstants.NamedGroup namedGroup, BlockingQueue<KeyPair> pool) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                // Blocks while the pool is full, so a new key pair is generated as soon as one is taken.
+                pool.put(generator.getKeyPair(namedGroup));
+            }
+        }
+        catch (InterruptedException e) {
+            // Closed
+        }
+        catch (RuntimeException e) {
+            // Generation will fail again, so stop filling; key pairs for this group are generated on demand from now on.
+            Logger.debug("Generating key pair for " + namedGroup + " failed (" + e + "); stopped pre-generating key pairs for this group");
+        }
+    }
+}
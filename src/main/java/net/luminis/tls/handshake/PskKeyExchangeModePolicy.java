@@ -0,0 +1,56 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.TlsConstants;
+
+import java.util.List;
+import java.util.Optional;
+
+import static net.luminis.tls.TlsConstants.PskKeyExchangeMode.psk_dhe_ke;
+import static net.luminis.tls.TlsConstants.PskKeyExchangeMode.psk_ke;
+
+/**
+ * Decides, per handshake, which key exchange mode the server uses with a pre-shared key, based on the modes offered by
+ * the client in its "psk_key_exchange_modes" extension.
+ * With psk_ke, the server skips key generation and the (EC)DHE computation, which makes resumption very cheap. The
+ * keys are then derived from the PSK only, so there is no forward secrecy with respect to the PSK (and the ticket key
+ * protecting it); only use it with trusted clients. A policy can take the server's load into account, e.g.
+ * <code>offered -> isOverloaded()? PREFER_PSK_ONLY.select(offered): DHE_ONLY.select(offered)</code>.
+ */
+@FunctionalInterface
+public interface PskKeyExchangeModePolicy {
+
+    /**
+     * Only accepts PSK with (EC)DHE key establishment; this is the default.
+     */
+    PskKeyExchangeModePolicy DHE_ONLY = offered -> offered.contains(psk_dhe_ke)? Optional.of(psk_dhe_ke): Optional.empty();
+
+    /**
+     * Uses PSK-only key establishment when the client offers it, and PSK with (EC)DHE otherwise.
+     */
+    PskKeyExchangeModePolicy PREFER_PSK_ONLY = offered -> offered.contains(psk_ke)? Optional.of(psk_ke): DHE_ONLY.select(offered);
+
+    /**
+     * Selects the key exchange mode for a handshake in which the client offers a pre-shared key.
+     * @param offeredModes  the modes offered by the client, never empty
+     * @return  the mode to use, or empty when the pre-shared key must not be accepted
+     */
+    Optional<TlsConstants.PskKeyExchangeMode> select(List<TlsConstants.PskKeyExchangeMode> offeredModes);
+}
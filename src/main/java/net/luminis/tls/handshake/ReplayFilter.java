@@ -0,0 +1,147 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.util.CryptoPrimitives;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+
+/**
+ * Compact structure for detecting whether a value (e.g. a session ticket) has been seen before, within a given time
+ * window. It consists of two generations of Bloom filters: values are recorded in the current generation, lookups check
+ * both. Each time the window has elapsed, the current generation becomes the previous one (and the previous one is
+ * discarded), so a recorded value is remembered for at least the duration of the window.
+ * Like any Bloom filter, it can produce false positives (a value is considered seen while it was not), but never false
+ * negatives; the false positive rate stays near the configured rate as long as no more than the expected number of
+ * values is recorded per window.
+ * See also https://datatracker.ietf.org/doc/html/rfc8446#section-8.2
+ */
+public class ReplayFilter {
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final Clock clock;
+    private final long windowMillis;
+    private final int numberOfBits;
+    private final int numberOfHashes;
+    private long[] current;
+    private long[] previous;
+    private long currentGenerationStart;
+
+    /**
+     * @param expectedEntries  the expected maximum number of values recorded per window
+     * @param window  the minimum time a recorded value is remembered
+     */
+    public ReplayFilter(int expectedEntries, Duration window) {
+        this(expectedEntries, window, Clock.systemUTC());
+    }
+
+    ReplayFilter(int expectedEntries, Duration window, Clock clock) {
+        if (expectedEntries < 1) {
+            throw new IllegalArgumentException("expected entries must be positive");
+        }
+        this.clock = clock;
+        windowMillis = window.toMillis();
+        // Optimal Bloom filter parameters: m = -n ln(p) / (ln 2)^2, k = m/n ln 2
+        long bits = (long) Math.ceil(-expectedEntries * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2)));
+        numberOfBits = (int) Long.min(Integer.MAX_VALUE - 63, Long.max(64, bits));
+        numberOfHashes = Integer.max(1, (int) Math.round((double) numberOfBits / expectedEntries * Math.log(2)));
+        current = new long[(numberOfBits + 63) / 64];
+        previous = new long[current.length];
+        currentGenerationStart = clock.millis();
+    }
+
+    /**
+     * Records the given value and returns whether it was already present.
+     * @param value
+     * @return  true if the value was (most probably) recorded before, false if it definitely was not
+     */
+    public synchronized boolean checkAndRecord(byte[] value) {
+        rotateIfNeeded();
+        long[] hashes = hash(value);
+        boolean present = contains(current, hashes) || contains(previous, hashes);
+        if (!present) {
+            for (int i = 0; i < numberOfHashes; i++) {
+                int bit = bitIndex(hashes, i);
+                current[bit >>> 6] |= 1L << bit;
+            }
+        }
+        return present;
+    }
+
+    /**
+     * @param value
+     * @return  true if the value was (most probably) recorded before, false if it definitely was not
+     */
+    public synchronized boolean mightContain(byte[] value) {
+        rotateIfNeeded();
+        long[] hashes = hash(value);
+        return contains(current, hashes) || contains(previous, hashes);
+    }
+
+    /**
+     * @return  the number of bytes used by the filter
+     */
+    public int size() {
+        return 2 * current.length * Long.BYTES;
+    }
+
+    private void rotateIfNeeded() {
+        long now = clock.millis();
+        if (now - currentGenerationStart >= windowMillis) {
+            if (now - currentGenerationStart >= 2 * windowMillis) {
+                // Nothing recorded in the current generation is within the window anymore
+                current = new long[current.length];
+            }
+            previous = current;
+            current = new long[previous.length];
+            currentGenerationStart = now;
+        }
+    }
+
+    private boolean contains(long[] bits, long[] hashes) {
+        for (int i = 0; i < numberOfHashes; i++) {
+            int bit = bitIndex(hashes, i);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int bitIndex(long[] hashes, int i) {
+        // Double hashing, see Kirsch and Mitzenmacher, "Less Hashing, Same Performance: Building a Better Bloom Filter"
+        return (int) Long.remainderUnsigned(hashes[0] + i * hashes[1], numberOfBits);
+    }
+
+    private long[] hash(byte[] value) {
+        try {
+            MessageDigest digest = CryptoPrimitives.getMessageDigest("SHA-256");
+            ByteBuffer hash = ByteBuffer.wrap(digest.digest(value));
+            return new long[] { hash.getLong(), hash.getLong() };
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Missing SHA-256 support");
+        }
+    }
+}
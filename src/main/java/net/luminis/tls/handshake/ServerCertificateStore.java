@@ -0,0 +1,300 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.TlsProtocolException;
+
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Server credentials for many host names, of which the credentials for a handshake are selected based on the server
+ * name (SNI) sent by the client. Host names can be exact names (e.g. "www.example.com") or wildcard names
+ * (e.g. "*.example.com", which matches "www.example.com", but not "example.com" or "a.www.example.com"); an exact
+ * name takes precedence over a wildcard name. When the client does not send a server name, or the name does not
+ * match any host name, the default credentials are used (if set).
+ * The host names are kept in a trie of the reversed labels (so "www.example.com" is found via "com", "example",
+ * "www"), which makes lookup time independent of the number of host names. The trie is immutable: every change
+ * creates a new version (copying only the path to the changed node) that replaces the current one atomically, so
+ * handshakes never wait for a change and always see either the old or the new credentials.
+ */
+public class ServerCertificateStore {
+
+    private final AtomicReference<Node> root = new AtomicReference<>(Node.EMPTY);
+    private volatile ServerCredentialsSelector defaultSelector;
+
+    /**
+     * Adds (or replaces) the credentials for the given host name.
+     * @param hostName  the host name, or a wildcard name starting with "*."
+     * @param selector  the credentials to use for the host name; the selector is precomputed before it is added
+     * @throws IllegalArgumentException  if the host name is not valid or the credentials are of an unsupported type
+     */
+    public void put(String hostName, ServerCredentialsSelector selector) {
+        Objects.requireNonNull(selector);
+        List<String> labels = reversedLabels(hostName, true);
+        precompute(selector);
+        root.updateAndGet(current -> current.with(labels, 0, selector));
+    }
+
+    /**
+     * Adds (or replaces) the credentials for all DNS names in the subject alternative names of the (first) server
+     * certificate.
+     * @param selector  the credentials
+     * @return  the host names that were added
+     * @throws IllegalArgumentException  if the certificate does not contain any DNS name, the credentials have no
+     * certificate or are of an unsupported type
+     */
+    public List<String> put(ServerCredentialsSelector selector) {
+        if (!selector.getServerCredentials().get(0).hasCertificateChain()) {
+            throw new IllegalArgumentException("credentials have no certificate");
+        }
+        List<String> hostNames = dnsNames(selector.getServerCredentials().get(0).getCertificateChain().get(0));
+        if (hostNames.isEmpty()) {
+            throw new IllegalArgumentException("certificate has no DNS names");
+        }
+        List<List<String>> labelsPerName = new ArrayList<>();
+        for (String hostName: hostNames) {
+            labelsPerName.add(reversedLabels(hostName, true));
+        }
+        precompute(selector);
+        root.updateAndGet(current -> {
+            Node updated = current;
+            for (List<String> labels: labelsPerName) {
+                updated = updated.with(labels, 0, selector);
+            }
+            return updated;
+        });
+        return hostNames;
+    }
+
+    /**
+     * Replaces all host names and their credentials at once, e.g. when reloading the complete configuration.
+     * @param selectors  the credentials per host name
+     * @throws IllegalArgumentException  if one of the host names is not valid or one of the credentials is of an
+     * unsupported type
+     */
+    public void replaceAll(Map<String, ServerCredentialsSelector> selectors) {
+        // Build the new trie in place (instead of with path copying for every host name), as it is not shared yet.
+        Map<List<String>, ServerCredentialsSelector> entries = new HashMap<>();
+        for (Map.Entry<String, ServerCredentialsSelector> entry: selectors.entrySet()) {
+            precompute(entry.getValue());
+            entries.put(reversedLabels(entry.getKey(), true), entry.getValue());
+        }
+        root.set(Node.build(entries, 0));
+    }
+
+    /**
+     * Removes the credentials for the given host name.
+     * @param hostName  the host name, or a wildcard name starting with "*."
+     * @return  whether credentials for the host name were present
+     */
+    public boolean remove(String hostName) {
+        List<String> labels = reversedLabels(hostName, true);
+        Node previous = root.getAndUpdate(current -> current.with(labels, 0, null));
+        return previous.find(labels, 0, false) != null;
+    }
+
+    /**
+     * Sets the credentials that are used when the client does not send a server name or the name is not found.
+     * @param selector  the credentials, or null to reject handshakes for unknown server names
+     */
+    public void setDefault(ServerCredentialsSelector selector) {
+        if (selector != null) {
+            precompute(selector);
+        }
+        defaultSelector = selector;
+    }
+
+    /**
+     * Finds the credentials for the given server name.
+     * @param serverName  the server name sent by the client, or null when the client did not send one
+     * @return  the credentials for the server name, the default credentials if the server name is not found, or
+     * empty if there are no default credentials either
+     */
+    public Optional<ServerCredentialsSelector> select(String serverName) {
+        return lookup(serverName).or(() -> Optional.ofNullable(defaultSelector));
+    }
+
+    /**
+     * Finds the credentials for the given server name, without falling back to the default credentials.
+     * @param serverName  the server name sent by the client
+     * @return  the credentials for the server name (by exact or wildcard match), or empty if not found
+     */
+    public Optional<ServerCredentialsSelector> lookup(String serverName) {
+        if (serverName == null) {
+            return Optional.empty();
+        }
+        List<String> labels;
+        try {
+            labels = reversedLabels(serverName, false);
+        }
+        catch (IllegalArgumentException invalidName) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(root.get().find(labels, 0, true));
+    }
+
+    public ServerCredentialsSelector getDefault() {
+        return defaultSelector;
+    }
+
+    /**
+     * @return  the number of host names (including wildcard names)
+     */
+    public int size() {
+        return root.get().size;
+    }
+
+    private static void precompute(ServerCredentialsSelector selector) {
+        try {
+            selector.precompute();
+        }
+        catch (TlsProtocolException unsupportedCertificate) {
+            throw new IllegalArgumentException(unsupportedCertificate.getMessage());
+        }
+    }
+
+    private static List<String> dnsNames(X509Certificate certificate) {
+        try {
+            Collection<List<?>> subjectAlternativeNames = certificate.getSubjectAlternativeNames();
+            List<String> names = new ArrayList<>();
+            if (subjectAlternativeNames != null) {
+                for (List<?> name: subjectAlternativeNames) {
+                    // https://datatracker.ietf.org/doc/html/rfc5280#section-4.2.1.6: dNSName is [2]
+                    if (name.size() == 2 && Integer.valueOf(2).equals(name.get(0)) && name.get(1) instanceof String) {
+                        names.add((String) name.get(1));
+                    }
+                }
+            }
+            return names;
+        }
+        catch (CertificateParsingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Splits the host name into labels, in reversed order. A wildcard name yields "*" as last label.
+     */
+    static List<String> reversedLabels(String hostName, boolean allowWildcard) {
+        String name = hostName.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("empty host name");
+        }
+        String[] labels = name.split("\\.", -1);
+        List<String> reversed = new ArrayList<>(labels.length);
+        for (int i = labels.length - 1; i >= 0; i--) {
+            String label = labels[i];
+            if (label.isEmpty()) {
+                throw new IllegalArgumentException("invalid host name: " + hostName);
+            }
+            if (label.contains("*") && !(allowWildcard && i == 0 && label.equals("*") && labels.length > 2)) {
+                // Only a complete left-most label can be a wildcard, and not directly below a top level domain.
+                throw new IllegalArgumentException("invalid wildcard name: " + hostName);
+            }
+            reversed.add(label);
+        }
+        return reversed;
+    }
+
+    private static class Node {
+
+        static final Node EMPTY = new Node(Collections.emptyMap(), null, 0);
+
+        final Map<String, Node> children;
+        final ServerCredentialsSelector selector;
+        final int size;
+
+        Node(Map<String, Node> children, ServerCredentialsSelector selector, int size) {
+            this.children = children;
+            this.selector = selector;
+            this.size = size;
+        }
+
+        /**
+         * Returns a copy of this (sub)trie in which the given labels (from the given index on) map to the given
+         * selector, or are removed when the selector is null. Nodes that are not on the path are shared.
+         */
+        Node with(List<String> labels, int index, ServerCredentialsSelector newSelector) {
+            if (index == labels.size()) {
+                int sizeChange = (newSelector != null? 1: 0) - (selector != null? 1: 0);
+                return new Node(children, newSelector, size + sizeChange);
+            }
+            String label = labels.get(index);
+            Node child = children.getOrDefault(label, EMPTY);
+            Node newChild = child.with(labels, index + 1, newSelector);
+            Map<String, Node> newChildren = new HashMap<>(children);
+            if (newChild.size == 0) {
+                newChildren.remove(label);
+            }
+            else {
+                newChildren.put(label, newChild);
+            }
+            return new Node(newChildren.isEmpty()? Collections.emptyMap(): newChildren, selector, size - child.size + newChild.size);
+        }
+
+        /**
+         * Builds a trie for the given entries, of which all labels before the given index are equal.
+         */
+        static Node build(Map<List<String>, ServerCredentialsSelector> entries, int index) {
+            ServerCredentialsSelector selector = null;
+            Map<String, Map<List<String>, ServerCredentialsSelector>> entriesPerLabel = new HashMap<>();
+            for (Map.Entry<List<String>, ServerCredentialsSelector> entry: entries.entrySet()) {
+                if (entry.getKey().size() == index) {
+                    selector = entry.getValue();
+                }
+                else {
+                    entriesPerLabel.computeIfAbsent(entry.getKey().get(index), label -> new HashMap<>()).put(entry.getKey(), entry.getValue());
+                }
+            }
+            if (entriesPerLabel.isEmpty()) {
+                return selector == null? EMPTY: new Node(Collections.emptyMap(), selector, 1);
+            }
+            Map<String, Node> children = new HashMap<>();
+            int size = selector != null? 1: 0;
+            for (Map.Entry<String, Map<List<String>, ServerCredentialsSelector>> labelEntries: entriesPerLabel.entrySet()) {
+                Node child = build(labelEntries.getValue(), index + 1);
+                children.put(labelEntries.getKey(), child);
+                size += child.size;
+            }
+            return new Node(children, selector, size);
+        }
+
+        ServerCredentialsSelector find(List<String> labels, int index, boolean matchWildcard) {
+            if (index == labels.size()) {
+                return selector;
+            }
+            Node child = children.get(labels.get(index));
+            ServerCredentialsSelector found = child != null? child.find(labels, index + 1, matchWildcard): null;
+            if (found == null && matchWildcard && index == labels.size() - 1) {
+                // A wildcard matches exactly one (the left-most) label.
+                Node wildcard = children.get("*");
+                if (wildcard != null) {
+                    found = wildcard.selector;
+                }
+            }
+            return found;
+        }
+    }
+}
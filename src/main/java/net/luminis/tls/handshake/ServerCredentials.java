@@ -0,0 +1,187 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.TlsConstants;
+import net.luminis.tls.TlsProtocolException;
+
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A server certificate chain with its private key, together with what is derived from the chain in every full
+ * handshake: the (serialized, possibly compressed) certificate message and the signature schemes for the certificate
+ * verify message. As these only depend on the (immutable) chain, they are computed once and shared by all engines
+ * using the same credentials.
+ * Credentials can also consist of just a key pair, for use with raw public keys
+ * (https://datatracker.ietf.org/doc/html/rfc7250) only.
+ */
+public class ServerCredentials {
+
+    private final List<X509Certificate> certificateChain;
+    private final PublicKey publicKey;
+    private final PrivateKey privateKey;
+    private volatile CertificateMessage certificateMessage;
+    private volatile CertificateMessage rawPublicKeyCertificateMessage;
+    private final Map<TlsConstants.CertificateCompressionAlgorithm, CertificateMessage> compressedCertificateMessages = new ConcurrentHashMap<>();
+    private volatile List<TlsConstants.SignatureScheme> signatureSchemes;
+
+    /**
+     * @param certificateChain  the server certificate chain, the server certificate must be the first in the list
+     * @param privateKey  the private key of the server certificate
+     */
+    public ServerCredentials(List<X509Certificate> certificateChain, PrivateKey privateKey) {
+        Objects.requireNonNull(certificateChain);
+        Objects.requireNonNull(privateKey);
+        if (certificateChain.isEmpty()) {
+            throw new IllegalArgumentException("certificate chain must not be empty");
+        }
+        this.certificateChain = List.copyOf(certificateChain);
+        this.publicKey = certificateChain.get(0).getPublicKey();
+        this.privateKey = privateKey;
+    }
+
+    /**
+     * Creates credentials without certificate, which can only be used when the raw public key certificate type is
+     * negotiated.
+     * @param publicKey  the server's public key
+     * @param privateKey  the corresponding private key
+     */
+    public ServerCredentials(PublicKey publicKey, PrivateKey privateKey) {
+        Objects.requireNonNull(publicKey);
+        Objects.requireNonNull(privateKey);
+        this.certificateChain = List.of();
+        this.publicKey = publicKey;
+        this.privateKey = privateKey;
+    }
+
+    /**
+     * Computes the derived values upfront, so the first handshake does not have to.
+     * @return  this
+     */
+    public ServerCredentials precompute() {
+        if (hasCertificateChain()) {
+            getCertificateMessage();
+        }
+        try {
+            getSignatureSchemes();
+        }
+        catch (TlsProtocolException unsupportedCertificate) {
+            // Will be reported when a handshake needs the signature scheme.
+        }
+        return this;
+    }
+
+    public List<X509Certificate> getCertificateChain() {
+        return certificateChain;
+    }
+
+    /**
+     * @return  whether these credentials contain a certificate chain, i.e. can be used with the X.509 certificate type
+     */
+    public boolean hasCertificateChain() {
+        return !certificateChain.isEmpty();
+    }
+
+    public PublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    public PrivateKey getPrivateKey() {
+        return privateKey;
+    }
+
+    /**
+     * @return  the certificate message for the certificate chain; this message is shared and must not be modified
+     */
+    public CertificateMessage getCertificateMessage() {
+        if (!hasCertificateChain()) {
+            throw new IllegalStateException("credentials have no certificate chain");
+        }
+        // Computing it more than once in case of concurrent access is harmless, as the result is always the same.
+        if (certificateMessage == null) {
+            certificateMessage = new CertificateMessage(certificateChain);
+        }
+        return certificateMessage;
+    }
+
+    /**
+     * Returns the certificate message compressed with the given algorithm, which is computed only once per algorithm.
+     * @param compressor  the compression algorithm
+     * @return  the compressed certificate message, or the (uncompressed) certificate message if compression does not
+     * make it smaller; this message is shared and must not be modified
+     */
+    public CertificateMessage getCertificateMessage(CertificateCompressor compressor) {
+        if (!hasCertificateChain()) {
+            throw new IllegalStateException("credentials have no certificate chain");
+        }
+        return compressedCertificateMessages.computeIfAbsent(compressor.getAlgorithm(), algorithm -> {
+            CertificateMessage compressed = new CompressedCertificateMessage(certificateChain, compressor);
+            return compressed.getBytes().length < getCertificateMessage().getBytes().length? compressed: getCertificateMessage();
+        });
+    }
+
+    /**
+     * @return  the certificate message containing the raw public key; this message is shared and must not be modified
+     */
+    public CertificateMessage getRawPublicKeyCertificateMessage() {
+        if (rawPublicKeyCertificateMessage == null) {
+            rawPublicKeyCertificateMessage = new CertificateMessage(publicKey);
+        }
+        return rawPublicKeyCertificateMessage;
+    }
+
+    /**
+     * @return  the signature schemes that can be used for signing with the private key of the server certificate, in
+     * order of preference
+     * @throws TlsProtocolException  if the server certificate is of an unsupported type
+     */
+    public List<TlsConstants.SignatureScheme> getSignatureSchemes() throws TlsProtocolException {
+        if (signatureSchemes == null) {
+            signatureSchemes = List.copyOf(TlsServerEngine.determineSignatureSchemes(publicKey, hasCertificateChain()? certificateChain.get(0): null));
+        }
+        return signatureSchemes;
+    }
+
+    /**
+     * @return  the preferred signature scheme for signing with the private key of the server certificate
+     * @throws TlsProtocolException  if the server certificate is of an unsupported type
+     */
+    public TlsConstants.SignatureScheme getSignatureScheme() throws TlsProtocolException {
+        return getSignatureSchemes().get(0);
+    }
+
+    /**
+     * Selects the signature scheme for the certificate verify message, given the schemes supported by the peer.
+     * @param peerSignatureSchemes  the signature schemes supported by the peer, in the peer's order of preference
+     * @return  the first scheme (in the server's order of preference) that is supported by both, or empty if there is none
+     * @throws TlsProtocolException  if the server certificate is of an unsupported type
+     */
+    public Optional<TlsConstants.SignatureScheme> selectSignatureScheme(List<TlsConstants.SignatureScheme> peerSignatureSchemes) throws TlsProtocolException {
+        return getSignatureSchemes().stream()
+                .filter(peerSignatureSchemes::contains)
+                .findFirst();
+    }
+}
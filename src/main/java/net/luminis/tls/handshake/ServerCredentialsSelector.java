@@ -0,0 +1,162 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.TlsConstants;
+import net.luminis.tls.TlsProtocolException;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+import static net.luminis.tls.TlsConstants.SignatureScheme.*;
+
+/**
+ * One or more sets of server credentials for the same server identity, for example an ECDSA and an RSA certificate
+ * chain. For each handshake, the credentials that are cheapest to sign with and that have a signature scheme offered
+ * by the client are selected, so that clients supporting ECDSA get the faster handshake while clients that only
+ * support RSA can still connect.
+ * The selection uses a table of (signature scheme, credentials) pairs in order of preference, which is computed once
+ * and shared by all engines using the same selector.
+ */
+public class ServerCredentialsSelector {
+
+    // Signature schemes in order of (server side) signing cost, cheapest first.
+    private static final List<TlsConstants.SignatureScheme> SIGNING_COST_ORDER = List.of(
+            ecdsa_secp256r1_sha256,
+            ed25519,
+            ecdsa_secp384r1_sha384,
+            ecdsa_secp521r1_sha512,
+            rsa_pss_rsae_sha256,
+            rsa_pss_rsae_sha384,
+            rsa_pss_rsae_sha512);
+
+    private final List<ServerCredentials> serverCredentials;
+    private volatile List<Selection> preferenceTable;
+
+    /**
+     * @param serverCredentials  the credentials to select from; when credentials are equally expensive, the order
+     *                           of this list determines the preference
+     */
+    public ServerCredentialsSelector(List<ServerCredentials> serverCredentials) {
+        Objects.requireNonNull(serverCredentials);
+        if (serverCredentials.isEmpty()) {
+            throw new IllegalArgumentException("at least one set of credentials is required");
+        }
+        this.serverCredentials = List.copyOf(serverCredentials);
+    }
+
+    public ServerCredentialsSelector(ServerCredentials serverCredentials) {
+        this(List.of(serverCredentials));
+    }
+
+    /**
+     * Computes the preference table (and the derived values of all credentials) upfront, so the first handshake does
+     * not have to.
+     * @return  this
+     * @throws TlsProtocolException  if one of the server certificates is of an unsupported type
+     */
+    public ServerCredentialsSelector precompute() throws TlsProtocolException {
+        serverCredentials.forEach(ServerCredentials::precompute);
+        getPreferenceTable();
+        return this;
+    }
+
+    public List<ServerCredentials> getServerCredentials() {
+        return serverCredentials;
+    }
+
+    /**
+     * Selects the credentials and signature scheme to use for a handshake.
+     * @param peerSignatureSchemes  the signature schemes offered by the peer
+     * @return  the cheapest credentials that support a signature scheme offered by the peer, together with that
+     * scheme, or empty if none of the credentials supports any of the offered schemes
+     * @throws TlsProtocolException  if one of the server certificates is of an unsupported type
+     */
+    public Optional<Selection> select(List<TlsConstants.SignatureScheme> peerSignatureSchemes) throws TlsProtocolException {
+        return getPreferenceTable().stream()
+                .filter(selection -> peerSignatureSchemes.contains(selection.getSignatureScheme()))
+                .findFirst();
+    }
+
+    /**
+     * @return  all signature schemes supported by the credentials, in order of preference
+     * @throws TlsProtocolException  if one of the server certificates is of an unsupported type
+     */
+    public List<TlsConstants.SignatureScheme> getSignatureSchemes() throws TlsProtocolException {
+        List<TlsConstants.SignatureScheme> signatureSchemes = new ArrayList<>();
+        for (Selection selection: getPreferenceTable()) {
+            if (!signatureSchemes.contains(selection.getSignatureScheme())) {
+                signatureSchemes.add(selection.getSignatureScheme());
+            }
+        }
+        return signatureSchemes;
+    }
+
+    private List<Selection> getPreferenceTable() throws TlsProtocolException {
+        // Computing it more than once in case of concurrent access is harmless, as the result is always the same.
+        if (preferenceTable == null) {
+            List<List<Selection>> selectionsPerCredentials = new ArrayList<>();
+            for (ServerCredentials credentials: serverCredentials) {
+                List<Selection> selections = new ArrayList<>();
+                for (TlsConstants.SignatureScheme signatureScheme: credentials.getSignatureSchemes()) {
+                    selections.add(new Selection(credentials, signatureScheme));
+                }
+                selectionsPerCredentials.add(selections);
+            }
+            // The cost of credentials is determined by their preferred signature scheme. As the sort is stable,
+            // equally expensive credentials keep the order in which they were given.
+            selectionsPerCredentials.sort(Comparator.comparingInt(selections -> signingCost(selections.get(0).getSignatureScheme())));
+
+            List<Selection> table = new ArrayList<>();
+            selectionsPerCredentials.forEach(table::addAll);
+            preferenceTable = List.copyOf(table);
+        }
+        return preferenceTable;
+    }
+
+    private static int signingCost(TlsConstants.SignatureScheme signatureScheme) {
+        int index = SIGNING_COST_ORDER.indexOf(signatureScheme);
+        return index >= 0? index: SIGNING_COST_ORDER.size();
+    }
+
+    /**
+     * Credentials together with the signature scheme to use for signing with their private key.
+     */
+    public static class Selection {
+
+        private final ServerCredentials serverCredentials;
+        private final TlsConstants.SignatureScheme signatureScheme;
+
+        Selection(ServerCredentials serverCredentials, TlsConstants.SignatureScheme signatureScheme) {
+            this.serverCredentials = serverCredentials;
+            this.signatureScheme = signatureScheme;
+        }
+
+        public ServerCredentials getServerCredentials() {
+            return serverCredentials;
+        }
+
+        public TlsConstants.SignatureScheme getSignatureScheme() {
+            return signatureScheme;
+        }
+    }
+}
@@ -64,8 +64,26 @@ public class ServerHello extends HandshakeMessage {
     }
 
     public ServerHello(TlsConstants.CipherSuite cipher, List<Extension> extensions) {
-        random = new byte[32];
-        secureRandom.nextBytes(random);
+        this(cipher, extensions, false);
+    }
+
+    /**
+     * @param cipher
+     * @param extensions
+     * @param helloRetryRequest  whether to create a HelloRetryRequest, which is a ServerHello with a special random value
+     */
+    public ServerHello(TlsConstants.CipherSuite cipher, List<Extension> extensions, boolean helloRetryRequest) {
+        if (helloRetryRequest) {
+            // https://datatracker.ietf.org/doc/html/rfc8446#section-4.1.3
+            // "For reasons of backward compatibility with middleboxes (see Appendix D.4), the HelloRetryRequest message
+            //  uses the same structure as the ServerHello, but with Random set to the special value of the SHA-256 of
+            //  "HelloRetryRequest""
+            random = Arrays.copyOf(HelloRetryRequest_SHA256, 32);
+        }
+        else {
+            random = new byte[32];
+            secureRandom.nextBytes(random);
+        }
         cipherSuite = cipher;
         this.extensions = extensions;
 
@@ -105,7 +123,8 @@ public class ServerHello extends HandshakeMessage {
 
         random = new byte[32];
         buffer.get(random);
-        if (Arrays.equals(random, HelloRetryRequest_SHA256)) {
+        boolean helloRetryRequest = isHelloRetryRequest();
+        if (helloRetryRequest) {
             Logger.debug("HelloRetryRequest!");
         }
 
@@ -132,7 +151,7 @@ public class ServerHello extends HandshakeMessage {
             throw new DecodeErrorException("Legacy compression method must have the value 0");
         }
 
-        extensions = EncryptedExtensions.parseExtensions(buffer, TlsConstants.HandshakeType.server_hello);
+        extensions = parseExtensions(buffer, TlsConstants.HandshakeType.server_hello, null, false, helloRetryRequest);
 
         // Update state.
         raw = new byte[length];
@@ -151,6 +170,13 @@ public class ServerHello extends HandshakeMessage {
         return random;
     }
 
+    /**
+     * @return  whether this message is a HelloRetryRequest
+     */
+    public boolean isHelloRetryRequest() {
+        return Arrays.equals(random, HelloRetryRequest_SHA256);
+    }
+
     public TlsConstants.CipherSuite getCipherSuite() {
         return cipherSuite;
     }
@@ -0,0 +1,425 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.Logger;
+import net.luminis.tls.NewSessionTicket;
+import net.luminis.tls.TlsConstants;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Clock;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Client side cache of session tickets, keyed by server name, application protocol and cipher, so that the client
+ * can resume sessions without the application having to store and select tickets itself.
+ * Tickets are single use: a ticket that is taken from the cache is removed from it. Tickets are removed when their
+ * lifetime (as indicated by the server, but never more than 7 days) has passed. Per key, only the most recent tickets
+ * are kept; when the cache is full, the least recently used key (with its tickets) is removed.
+ * Optionally, the cache is backed by an append-only file, so that tickets survive a restart of the application: see
+ * {@link #open(Path, int)}.
+ */
+public class SessionTicketCache implements Closeable {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    public static final int MAX_TICKETS_PER_ENTRY = 4;
+
+    // https://datatracker.ietf.org/doc/html/rfc8446#section-4.6.1
+    // "Servers MUST NOT use any value greater than 604800 seconds (7 days)."
+    private static final long MAX_TICKET_LIFETIME_MILLIS = 604800 * 1000L;
+    private static final int FILE_MAGIC = 0x41313554;  // "A15T"
+    private static final int FILE_VERSION = 1;
+    private static final byte RECORD_ADD = 'A';
+    private static final byte RECORD_USED = 'U';
+    private static final int MIN_RECORDS_BEFORE_COMPACTION = 64;
+
+    private final Clock clock;
+    private final int maxEntries;
+    // Tickets (oldest first), keyed by server name, protocol and cipher, in access order.
+    private final LinkedHashMap<Key, ArrayDeque<NewSessionTicket>> tickets;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final Path file;
+    private DataOutputStream fileOutput;
+    private int recordsInFile;
+
+    public SessionTicketCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries  maximum number of (server name, protocol, cipher) combinations kept in the cache
+     */
+    public SessionTicketCache(int maxEntries) {
+        this(maxEntries, null, Clock.systemUTC());
+    }
+
+    SessionTicketCache(int maxEntries, Path file, Clock clock) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("max entries must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.file = file;
+        this.clock = clock;
+        tickets = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, ArrayDeque<NewSessionTicket>> eldest) {
+                return size() > SessionTicketCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Creates a cache that is backed by the given file. Tickets already present in the file (and not used or expired)
+     * are loaded; new and used tickets are appended to the file. A file that does not exist is created.
+     * Note that the file contains the pre-shared keys of the tickets, so it must be protected like any other secret.
+     * Where the file system supports POSIX permissions, the file is (re)written so that only its owner can read it.
+     * @param file
+     * @param maxEntries  maximum number of (server name, protocol, cipher) combinations kept in the cache
+     * @return
+     * @throws IOException  when the file cannot be read or written
+     */
+    public static SessionTicketCache open(Path file, int maxEntries) throws IOException {
+        return open(file, maxEntries, Clock.systemUTC());
+    }
+
+    static SessionTicketCache open(Path file, int maxEntries, Clock clock) throws IOException {
+        SessionTicketCache cache = new SessionTicketCache(maxEntries, Objects.requireNonNull(file), clock);
+        if (Files.exists(file)) {
+            cache.load();
+        }
+        cache.compact();
+        return cache;
+    }
+
+    /**
+     * Adds a ticket received from the given server.
+     * @param serverName
+     * @param applicationProtocol  the application protocol negotiated with ALPN, or null when ALPN was not used
+     * @param ticket
+     */
+    public synchronized void add(String serverName, String applicationProtocol, NewSessionTicket ticket) {
+        if (isExpired(ticket)) {
+            return;
+        }
+        Key key = new Key(serverName, applicationProtocol, ticket.getCipher());
+        addToMemory(key, ticket);
+        appendRecord(output -> {
+            output.writeByte(RECORD_ADD);
+            writeAddRecord(output, key, ticket);
+        });
+    }
+
+    /**
+     * Takes a ticket for resuming a session with the given server. The ticket is removed from the cache, as a ticket
+     * should not be used more than once. Ciphers are tried in the given order; for each cipher, the most recent ticket
+     * for the first of the given protocols that has one is selected, or else a ticket for which the protocol is not
+     * known.
+     * @param serverName
+     * @param applicationProtocols  the application protocols the client will offer, empty when ALPN is not used
+     * @param ciphers  the ciphers the client will offer
+     * @return  a ticket that has not been used and is not expired, or empty if the cache does not contain one
+     */
+    public synchronized Optional<NewSessionTicket> take(String serverName, List<String> applicationProtocols, List<TlsConstants.CipherSuite> ciphers) {
+        // Tickets for which no application protocol is known can be used with any protocol.
+        List<String> protocols = new ArrayList<>(applicationProtocols);
+        protocols.add(null);
+        for (TlsConstants.CipherSuite cipher: ciphers) {
+            for (String protocol: protocols) {
+                Key key = new Key(serverName, protocol, cipher);
+                ArrayDeque<NewSessionTicket> candidates = tickets.get(key);
+                while (candidates != null && !candidates.isEmpty()) {
+                    NewSessionTicket ticket = candidates.pollLast();
+                    if (candidates.isEmpty()) {
+                        tickets.remove(key);
+                    }
+                    if (!isExpired(ticket)) {
+                        appendRecord(output -> {
+                            output.writeByte(RECORD_USED);
+                            writeBytes(output, ticket.getTicket());
+                        });
+                        hitCount.increment();
+                        return Optional.of(ticket);
+                    }
+                }
+            }
+        }
+        missCount.increment();
+        return Optional.empty();
+    }
+
+    /**
+     * Removes all tickets for the given server.
+     * @param serverName
+     */
+    public synchronized void remove(String serverName) {
+        List<NewSessionTicket> removed = new ArrayList<>();
+        tickets.entrySet().removeIf(entry -> {
+            if (entry.getKey().serverName.equals(serverName)) {
+                removed.addAll(entry.getValue());
+                return true;
+            }
+            return false;
+        });
+        removed.forEach(ticket -> appendRecord(output -> {
+            output.writeByte(RECORD_USED);
+            writeBytes(output, ticket.getTicket());
+        }));
+    }
+
+    public synchronized void clear() {
+        tickets.clear();
+        if (fileOutput != null) {
+            try {
+                compact();
+            }
+            catch (IOException e) {
+                disablePersistence(e);
+            }
+        }
+    }
+
+    /**
+     * @return  the number of tickets currently kept (including tickets that have expired but are not removed yet)
+     */
+    public synchronized int getSize() {
+        return tickets.values().stream().mapToInt(Collection::size).sum();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * Rewrites the backing file so that it only contains the tickets currently in the cache. The file is replaced
+     * atomically, so a crash during compaction does not lose the tickets in the old file. This is done automatically
+     * when the file contains many more records than there are tickets.
+     * @throws IOException
+     */
+    public synchronized void compact() throws IOException {
+        if (file == null) {
+            return;
+        }
+        if (fileOutput != null) {
+            fileOutput.close();
+            fileOutput = null;
+        }
+        removeExpired();
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        int records = 0;
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(newOwnerOnlyOutputStream(tempFile)))) {
+            output.writeInt(FILE_MAGIC);
+            output.writeByte(FILE_VERSION);
+            // Write least recently used first, so that a reload yields the same access order.
+            for (Map.Entry<Key, ArrayDeque<NewSessionTicket>> entry: tickets.entrySet()) {
+                for (NewSessionTicket ticket: entry.getValue()) {
+                    output.writeByte(RECORD_ADD);
+                    writeAddRecord(output, entry.getKey(), ticket);
+                    records++;
+                }
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        recordsInFile = records;
+        fileOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND)));
+    }
+
+    private static OutputStream newOwnerOnlyOutputStream(Path file) throws IOException {
+        // Permissions are only applied when the file is created, so a file left behind by an earlier run is removed.
+        Files.deleteIfExists(file);
+        if (!file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            return Files.newOutputStream(file, StandardOpenOption.CREATE_NEW);
+        }
+        FileAttribute<Set<PosixFilePermission>> ownerOnly = PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"));
+        return Channels.newOutputStream(Files.newByteChannel(file, Set.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), ownerOnly));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (fileOutput != null) {
+            fileOutput.close();
+            fileOutput = null;
+        }
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (input.readInt() != FILE_MAGIC || input.readUnsignedByte() != FILE_VERSION) {
+                throw new IOException("not a session ticket cache file: " + file);
+            }
+            while (true) {
+                int recordType = input.read();
+                if (recordType == -1) {
+                    break;
+                }
+                if (recordType == RECORD_ADD) {
+                    String serverName = input.readUTF();
+                    String protocol = input.readBoolean()? input.readUTF(): null;
+                    NewSessionTicket ticket = NewSessionTicket.deserialize(readBytes(input));
+                    if (!isExpired(ticket)) {
+                        addToMemory(new Key(serverName, protocol, ticket.getCipher()), ticket);
+                    }
+                }
+                else if (recordType == RECORD_USED) {
+                    removeFromMemory(readBytes(input));
+                }
+                else {
+                    throw new IOException("corrupt session ticket cache file: " + file);
+                }
+            }
+        }
+        catch (EOFException e) {
+            // Last record is incomplete, e.g. because the application was killed while writing it; ignore the record.
+        }
+    }
+
+    private void addToMemory(Key key, NewSessionTicket ticket) {
+        ArrayDeque<NewSessionTicket> keyTickets = tickets.computeIfAbsent(key, k -> new ArrayDeque<>());
+        keyTickets.addLast(ticket);
+        if (keyTickets.size() > MAX_TICKETS_PER_ENTRY) {
+            keyTickets.pollFirst();
+        }
+    }
+
+    private void removeFromMemory(byte[] ticketIdentity) {
+        Iterator<ArrayDeque<NewSessionTicket>> entries = tickets.values().iterator();
+        while (entries.hasNext()) {
+            ArrayDeque<NewSessionTicket> keyTickets = entries.next();
+            if (keyTickets.removeIf(ticket -> Arrays.equals(ticket.getTicket(), ticketIdentity))) {
+                if (keyTickets.isEmpty()) {
+                    entries.remove();
+                }
+                return;
+            }
+        }
+    }
+
+    private void removeExpired() {
+        Iterator<ArrayDeque<NewSessionTicket>> entries = tickets.values().iterator();
+        while (entries.hasNext()) {
+            ArrayDeque<NewSessionTicket> keyTickets = entries.next();
+            keyTickets.removeIf(this::isExpired);
+            if (keyTickets.isEmpty()) {
+                entries.remove();
+            }
+        }
+    }
+
+    private boolean isExpired(NewSessionTicket ticket) {
+        long lifetime = Long.min(ticket.getTicketLifeTime() * 1000L, MAX_TICKET_LIFETIME_MILLIS);
+        return ticket.getTicketCreationDate().getTime() + lifetime <= clock.millis();
+    }
+
+    private void appendRecord(RecordWriter writer) {
+        if (fileOutput == null) {
+            return;
+        }
+        try {
+            writer.write(fileOutput);
+            fileOutput.flush();
+            recordsInFile++;
+            if (recordsInFile > Integer.max(MIN_RECORDS_BEFORE_COMPACTION, 2 * maxEntries * MAX_TICKETS_PER_ENTRY)) {
+                compact();
+            }
+        }
+        catch (IOException e) {
+            disablePersistence(e);
+        }
+    }
+
+    private void disablePersistence(IOException cause) {
+        // Failing to persist a ticket must not fail the connection; the cache just continues in memory only.
+        Logger.debug("Writing session ticket cache file " + file + " failed (" + cause + "); continuing without persistence");
+        try {
+            if (fileOutput != null) {
+                fileOutput.close();
+            }
+        }
+        catch (IOException e) {
+            // Ignore, already failed.
+        }
+        fileOutput = null;
+    }
+
+    private static void writeAddRecord(DataOutputStream output, Key key, NewSessionTicket ticket) throws IOException {
+        output.writeUTF(key.serverName);
+        output.writeBoolean(key.applicationProtocol != null);
+        if (key.applicationProtocol != null) {
+            output.writeUTF(key.applicationProtocol);
+        }
+        writeBytes(output, ticket.serialize());
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] data) throws IOException {
+        output.writeInt(data.length);
+        output.write(data);
+    }
+
+    private static byte[] readBytes(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0 || length > 0x20000) {
+            throw new IOException("invalid record length");
+        }
+        byte[] data = new byte[length];
+        input.readFully(data);
+        return data;
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream output) throws IOException;
+    }
+
+    private static class Key {
+        private final String serverName;
+        private final String applicationProtocol;
+        private final TlsConstants.CipherSuite cipher;
+
+        Key(String serverName, String applicationProtocol, TlsConstants.CipherSuite cipher) {
+            this.serverName = Objects.requireNonNull(serverName);
+            this.applicationProtocol = applicationProtocol;
+            this.cipher = cipher;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return serverName.equals(other.serverName) && Objects.equals(applicationProtocol, other.applicationProtocol) && cipher == other.cipher;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(serverName, applicationProtocol, cipher);
+        }
+    }
+}
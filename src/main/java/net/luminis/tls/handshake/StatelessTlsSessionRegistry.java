@@ -0,0 +1,350 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import at.favre.lib.hkdf.HKDF;
+import net.luminis.tls.TlsConstants;
+import net.luminis.tls.TlsState;
+import net.luminis.tls.extension.ClientHelloPreSharedKeyExtension;
+import net.luminis.tls.jfr.TlsEvents;
+import net.luminis.tls.util.CryptoPrimitives;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session registry that does not store sessions, but seals all session state (PSK, cipher, ALPN, creation time and
+ * additional session data) into the ticket itself, encrypted and authenticated (AES-GCM) with a server key. As a result,
+ * memory usage does not depend on the number of tickets issued and, when all servers share the same ticket key secret,
+ * a ticket issued by one server can be used to resume the session with another.
+ * The key used for sealing tickets is derived from the ticket key secret and the current time period; it changes every
+ * period (with the length of the ticket lifetime), so keys are rotated without any coordination between servers.
+ * To prevent a ticket from being used more than once, used tickets are recorded in a compact replay filter. Note that
+ * this filter is local to the server, so in a cluster, a ticket could still be used once on each server; see
+ * https://datatracker.ietf.org/doc/html/rfc8446#section-8 for a discussion of the (replay) risks involved.
+ */
+public class StatelessTlsSessionRegistry implements TlsSessionRegistry {
+
+    private static final int DEFAULT_TICKET_LIFETIME_HOURS = 24;
+    private static final int DEFAULT_EXPECTED_TICKETS = 1_000_000;
+    private static final int KEY_ID_LENGTH = 4;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+    private static final int MAX_TICKET_LENGTH = 0xffff;
+
+    private final Random randomGenerator = new SecureRandom();
+    private final byte[] ticketKeySecret;
+    private final int ticketLifeTimeInSeconds;
+    private final long keyPeriodMillis;
+    private final Clock clock;
+    private final Map<Integer, SecretKeySpec> ticketKeys = new ConcurrentHashMap<>();
+    private final ReplayFilter usedTickets;
+
+    /**
+     * Creates a registry with a random ticket key secret; tickets can only be used with this registry instance.
+     */
+    public StatelessTlsSessionRegistry() {
+        this(randomSecret());
+    }
+
+    /**
+     * Creates a registry with the given ticket key secret; tickets can be used with every registry using the same secret.
+     * @param ticketKeySecret  the secret from which ticket keys are derived, should be at least 32 bytes
+     */
+    public StatelessTlsSessionRegistry(byte[] ticketKeySecret) {
+        this(ticketKeySecret, (int) TimeUnit.HOURS.toSeconds(DEFAULT_TICKET_LIFETIME_HOURS), DEFAULT_EXPECTED_TICKETS);
+    }
+
+    /**
+     * @param ticketKeySecret  the secret from which ticket keys are derived, should be at least 32 bytes
+     * @param ticketLifeTimeInSeconds  the lifetime of the tickets issued
+     * @param expectedTickets  the expected maximum number of tickets used within a ticket lifetime, determines the size
+     *                         of the replay filter
+     */
+    public StatelessTlsSessionRegistry(byte[] ticketKeySecret, int ticketLifeTimeInSeconds, int expectedTickets) {
+        this(ticketKeySecret, ticketLifeTimeInSeconds, expectedTickets, Clock.systemUTC());
+    }
+
+    StatelessTlsSessionRegistry(byte[] ticketKeySecret, int ticketLifeTimeInSeconds, int expectedTickets, Clock clock) {
+        if (ticketKeySecret.length < 16) {
+            throw new IllegalArgumentException("ticket key secret too short");
+        }
+        // https://datatracker.ietf.org/doc/html/rfc8446#section-4.6.1
+        // "Servers MUST NOT use any value greater than 604800 seconds (7 days)."
+        if (ticketLifeTimeInSeconds < 1 || ticketLifeTimeInSeconds > 604800) {
+            throw new IllegalArgumentException("invalid ticket lifetime");
+        }
+        this.ticketKeySecret = ticketKeySecret.clone();
+        this.ticketLifeTimeInSeconds = ticketLifeTimeInSeconds;
+        this.keyPeriodMillis = TimeUnit.SECONDS.toMillis(ticketLifeTimeInSeconds);
+        this.clock = clock;
+        usedTickets = new ReplayFilter(expectedTickets, Duration.ofSeconds(ticketLifeTimeInSeconds), clock);
+    }
+
+    @Override
+    public NewSessionTicketMessage createNewSessionTicketMessage(byte ticketNonce, TlsConstants.CipherSuite cipher, TlsState tlsState, String applicationProtocol) {
+        return createNewSessionTicketMessage(ticketNonce, cipher, tlsState, applicationProtocol, null, null);
+    }
+
+    @Override
+    public NewSessionTicketMessage createNewSessionTicketMessage(byte ticketNonce, TlsConstants.CipherSuite cipher, TlsState tlsState, String applicationProtocol, Long maxEarlyDataSize, byte[] data) {
+        byte[] psk = tlsState.computePSK(new byte[] { ticketNonce });
+        long now = clock.millis();
+        byte[] ticket = seal(new SealedSession(psk, cipher, now, now + keyPeriodMillis, applicationProtocol, data), now);
+        long ageAdd = randomGenerator.nextLong();
+        TlsEvents.sessionRegistryOperation("add", true, -1);
+        if (maxEarlyDataSize != null) {
+            return new NewSessionTicketMessage(ticketLifeTimeInSeconds, ageAdd, new byte[]{ ticketNonce }, ticket, maxEarlyDataSize);
+        }
+        else {
+            return new NewSessionTicketMessage(ticketLifeTimeInSeconds, ageAdd, new byte[]{ ticketNonce }, ticket);
+        }
+    }
+
+    @Override
+    public Integer selectIdentity(List<ClientHelloPreSharedKeyExtension.PskIdentity> identities, TlsConstants.CipherSuite cipher) {
+        for (int i = 0; i < identities.size(); i++) {
+            byte[] ticket = identities.get(i).getIdentity();
+            SealedSession candidateSession = unseal(ticket);
+            // See TlsSessionRegistryImpl for why the cipher must match.
+            if (candidateSession != null && candidateSession.cipher == cipher && !usedTickets.mightContain(ticket)) {
+                return i;
+            }
+            // "Any unknown PSKs (e.g., ones not in the PSK database or encrypted with an unknown key) SHOULD simply be ignored."
+        }
+        return null;
+    }
+
+    @Override
+    public TlsSession useSession(ClientHelloPreSharedKeyExtension.PskIdentity pskIdentity) {
+        byte[] ticket = pskIdentity.getIdentity();
+        SealedSession session = unseal(ticket);
+        // Record the ticket as used, to avoid psk being used more than once.
+        if (session != null && !usedTickets.checkAndRecord(ticket)) {
+            TlsEvents.sessionRegistryOperation("use", true, -1);
+            return session;
+        }
+        TlsEvents.sessionRegistryOperation("use", false, -1);
+        return null;
+    }
+
+    @Override
+    public TlsSession peekSession(ClientHelloPreSharedKeyExtension.PskIdentity pskIdentity) {
+        byte[] ticket = pskIdentity.getIdentity();
+        return usedTickets.mightContain(ticket)? null: unseal(ticket);
+    }
+
+    @Override
+    public byte[] peekSessionData(ClientHelloPreSharedKeyExtension.PskIdentity pskIdentity) {
+        SealedSession session = unseal(pskIdentity.getIdentity());
+        if (session != null) {
+            return session.getData();
+        }
+        else {
+            throw new NoSuchElementException();
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    byte[] seal(SealedSession session, long now) {
+        byte[] applicationProtocol = session.applicationProtocol != null? session.applicationProtocol.getBytes(StandardCharsets.UTF_8): null;
+        int plainLength = 8 + 8 + 2 + 1 + session.psk.length
+                + 1 + (applicationProtocol != null? 1 + applicationProtocol.length: 0)
+                + 1 + (session.data != null? 2 + session.data.length: 0);
+        int ticketLength = KEY_ID_LENGTH + IV_LENGTH + plainLength + TAG_LENGTH;
+        if (ticketLength > MAX_TICKET_LENGTH || (applicationProtocol != null && applicationProtocol.length > 255)) {
+            throw new IllegalArgumentException("session data too large for ticket");
+        }
+
+        ByteBuffer plain = ByteBuffer.allocate(plainLength);
+        plain.putLong(session.created);
+        plain.putLong(session.expiry);
+        plain.putShort(session.cipher.value);
+        plain.put((byte) session.psk.length);
+        plain.put(session.psk);
+        plain.put((byte) (applicationProtocol != null? 1: 0));
+        if (applicationProtocol != null) {
+            plain.put((byte) applicationProtocol.length);
+            plain.put(applicationProtocol);
+        }
+        plain.put((byte) (session.data != null? 1: 0));
+        if (session.data != null) {
+            plain.putShort((short) session.data.length);
+            plain.put(session.data);
+        }
+
+        int keyId = keyPeriod(now);
+        byte[] iv = new byte[IV_LENGTH];
+        randomGenerator.nextBytes(iv);
+        ByteBuffer ticket = ByteBuffer.allocate(ticketLength);
+        ticket.putInt(keyId);
+        ticket.put(iv);
+        try {
+            Cipher aead = CryptoPrimitives.getCipher("AES/GCM/NoPadding");
+            aead.init(Cipher.ENCRYPT_MODE, ticketKey(keyId), new GCMParameterSpec(TAG_LENGTH * 8, iv));
+            aead.updateAAD(ticket.array(), 0, KEY_ID_LENGTH);
+            aead.doFinal(plain.flip(), ticket);
+        }
+        catch (GeneralSecurityException e) {
+            throw new RuntimeException("Missing AES-GCM support");
+        }
+        return ticket.array();
+    }
+
+    /**
+     * Decrypts and parses the given ticket.
+     * @param ticket
+     * @return  the session sealed in the ticket, or null when the ticket is invalid or expired
+     */
+    SealedSession unseal(byte[] ticket) {
+        if (ticket.length < KEY_ID_LENGTH + IV_LENGTH + TAG_LENGTH) {
+            return null;
+        }
+        long now = clock.millis();
+        ByteBuffer buffer = ByteBuffer.wrap(ticket);
+        int keyId = buffer.getInt();
+        int currentPeriod = keyPeriod(now);
+        // Accept keys from the previous period (the ticket may have been issued just before rotation) and the next
+        // (small clock differences between servers sharing the secret).
+        if (keyId < currentPeriod - 1 || keyId > currentPeriod + 1) {
+            return null;
+        }
+        try {
+            Cipher aead = CryptoPrimitives.getCipher("AES/GCM/NoPadding");
+            aead.init(Cipher.DECRYPT_MODE, ticketKey(keyId), new GCMParameterSpec(TAG_LENGTH * 8, ticket, KEY_ID_LENGTH, IV_LENGTH));
+            aead.updateAAD(ticket, 0, KEY_ID_LENGTH);
+            ByteBuffer plain = ByteBuffer.wrap(aead.doFinal(ticket, KEY_ID_LENGTH + IV_LENGTH, ticket.length - KEY_ID_LENGTH - IV_LENGTH));
+
+            long created = plain.getLong();
+            long expiry = plain.getLong();
+            if (expiry <= now) {
+                return null;
+            }
+            TlsConstants.CipherSuite cipher = cipherSuite(plain.getShort());
+            byte[] psk = new byte[plain.get() & 0xff];
+            plain.get(psk);
+            String applicationProtocol = null;
+            if (plain.get() != 0) {
+                byte[] protocol = new byte[plain.get() & 0xff];
+                plain.get(protocol);
+                applicationProtocol = new String(protocol, StandardCharsets.UTF_8);
+            }
+            byte[] data = null;
+            if (plain.get() != 0) {
+                data = new byte[plain.getShort() & 0xffff];
+                plain.get(data);
+            }
+            return cipher != null? new SealedSession(psk, cipher, created, expiry, applicationProtocol, data): null;
+        }
+        catch (AEADBadTagException invalidTicket) {
+            // Not issued by a server with the same secret, or modified.
+            return null;
+        }
+        catch (BufferUnderflowException invalidContent) {
+            // Can only happen with a (valid) ticket created by another implementation
+            return null;
+        }
+        catch (GeneralSecurityException e) {
+            throw new RuntimeException("Missing AES-GCM support");
+        }
+    }
+
+    private int keyPeriod(long time) {
+        return (int) (time / keyPeriodMillis);
+    }
+
+    private SecretKeySpec ticketKey(int keyId) {
+        SecretKeySpec key = ticketKeys.get(keyId);
+        if (key == null) {
+            byte[] info = ByteBuffer.allocate(10 + KEY_ID_LENGTH).put("ticket key".getBytes(StandardCharsets.US_ASCII)).putInt(keyId).array();
+            HKDF hkdf = CryptoPrimitives.getHkdf("HmacSHA256");
+            key = new SecretKeySpec(hkdf.expand(hkdf.extract(new byte[32], ticketKeySecret), info, 32), "AES");
+            ticketKeys.put(keyId, key);
+            // Keys of periods that are no longer accepted are not needed anymore.
+            ticketKeys.keySet().removeIf(id -> id < keyId - 2);
+        }
+        return key;
+    }
+
+    private static TlsConstants.CipherSuite cipherSuite(short value) {
+        for (TlsConstants.CipherSuite cipherSuite: TlsConstants.CipherSuite.values()) {
+            if (cipherSuite.value == value) {
+                return cipherSuite;
+            }
+        }
+        return null;
+    }
+
+    private static byte[] randomSecret() {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        return secret;
+    }
+
+    static class SealedSession implements TlsSession {
+        final byte[] psk;
+        final TlsConstants.CipherSuite cipher;
+        final long created;
+        final long expiry;
+        final String applicationProtocol;
+        final byte[] data;
+
+        SealedSession(byte[] psk, TlsConstants.CipherSuite cipher, long created, long expiry, String applicationProtocol, byte[] data) {
+            this.psk = psk;
+            this.cipher = cipher;
+            this.created = created;
+            this.expiry = expiry;
+            this.applicationProtocol = applicationProtocol;
+            this.data = data;
+        }
+
+        @Override
+        public byte[] getPsk() {
+            return psk;
+        }
+
+        @Override
+        public String getApplicationLayerProtocol() {
+            return applicationProtocol;
+        }
+
+        @Override
+        public byte[] getData() {
+            return data;
+        }
+    }
+}
@@ -21,6 +21,9 @@ package net.luminis.tls.handshake;
 import net.luminis.tls.*;
 import net.luminis.tls.alert.*;
 import net.luminis.tls.extension.*;
+import net.luminis.tls.jfr.TlsEvents;
+import net.luminis.tls.metrics.HandshakeOutcome;
+import net.luminis.tls.metrics.HandshakePhase;
 
 import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
@@ -38,6 +41,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -47,13 +51,12 @@ import static net.luminis.tls.TlsConstants.SignatureScheme.*;
 
 public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor {
 
-    public static final List<TlsConstants.SignatureScheme> AVAILABLE_SIGNATURES = List.of(
-            rsa_pss_rsae_sha256,
-            rsa_pss_rsae_sha384,
-            rsa_pss_rsae_sha512,
-            ecdsa_secp256r1_sha256);
+    public static final List<TlsConstants.SignatureScheme> AVAILABLE_SIGNATURES = availableSignatures();
+    public static final int DEFAULT_MAX_UNCOMPRESSED_CERTIFICATE_SIZE = 64 * 1024;
 
     private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final ValidatedChainCache defaultValidatedChainCache = new ValidatedChainCache();
+    private static final KeyShareGroupCache defaultKeyShareGroupCache = new KeyShareGroupCache();
 
     // https://www.rfc-editor.org/rfc/rfc8446.html#appendix-A.1
     enum Status {
@@ -73,6 +76,10 @@ public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor
     private boolean compatibilityMode;
     private List<TlsConstants.CipherSuite> supportedCiphers;
     private TlsConstants.NamedGroup ecCurve;
+    private List<TlsConstants.NamedGroup> supportedGroups;
+    private List<TlsConstants.NamedGroup> offeredGroups;
+    private KeyShareGroupCache keyShareGroupCache = defaultKeyShareGroupCache;
+    private ServerHello helloRetryRequest;
     private TlsConstants.CipherSuite selectedCipher;
     private List<Extension> requestedExtensions;
     private List<Extension> sentExtensions;
@@ -81,12 +88,26 @@ public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor
     private TranscriptHash transcriptHash;
     private List<TlsConstants.SignatureScheme> supportedSignatures;
     private X509Certificate serverCertificate;
+    private PublicKey serverPublicKey;
+    private CertificateMessage serverCertificateMessage;
+    private List<TlsConstants.CertificateType> serverCertificateTypes = List.of(TlsConstants.CertificateType.X509);
+    private TlsConstants.CertificateType serverCertificateType;
+    private PublicKeyVerifier publicKeyVerifier;
+    private List<CertificateCompressor> certificateCompressors = Collections.emptyList();
+    private int maxUncompressedCertificateSize = DEFAULT_MAX_UNCOMPRESSED_CERTIFICATE_SIZE;
+    // Null when the chain was found in the validated chain cache and has not been decoded (yet).
     private List<X509Certificate> serverCertificateChain = Collections.emptyList();
     private X509TrustManager customTrustManager;
+    private ValidatedChainCache validatedChainCache = defaultValidatedChainCache;
     private NewSessionTicket newSessionTicket;
+    private ExternalPsk externalPsk;
+    private SessionTicketCache sessionTicketCache;
+    private String negotiatedApplicationProtocol;
     private HostnameVerifier hostnameVerifier;
     private List<NewSessionTicket> obtainedNewSessionTickets;
+    private ClientHello.PskKeyEstablishmentMode pskKeyEstablishmentMode = ClientHello.PskKeyEstablishmentMode.PSKwithDHE;
     private boolean pskAccepted = false;
+    private boolean earlyDataAccepted = false;
     private boolean clientAuthRequested;
     private List<X500Principal> clientCertificateAuthorities;
     private Function<List<X500Principal>, CertificateWithPrivateKey> clientCertificateSelector;
@@ -103,6 +124,80 @@ public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor
         clientCertificateSelector = l -> null;
     }
 
+    private void addCertificateCompressionExtension(List<Extension> extensions) {
+        if (!certificateCompressors.isEmpty()) {
+            extensions.add(new CompressCertificateExtension(certificateCompressors.stream()
+                    .map(CertificateCompressor::getAlgorithm)
+                    .collect(Collectors.toList())));
+        }
+    }
+
+    /**
+     * @return  the cipher of the PSK the client offers (an external PSK takes precedence over a session ticket), or
+     * null when no PSK is offered
+     */
+    private TlsConstants.CipherSuite offeredPskCipher() {
+        if (externalPsk != null) {
+            return externalPsk.getCipher();
+        }
+        return newSessionTicket != null? newSessionTicket.getCipher(): null;
+    }
+
+    private TlsState addPreSharedKeyExtension(List<Extension> extensions, TlsConstants.CipherSuite cipher) {
+        if (externalPsk != null) {
+            extensions.add(new ClientHelloPreSharedKeyExtension(externalPsk));
+            return createTlsState(transcriptHash, externalPsk.getKey(), true, keyLength(cipher), hashLength(cipher));
+        }
+        else {
+            extensions.add(new ClientHelloPreSharedKeyExtension(newSessionTicket));
+            return createTlsState(transcriptHash, newSessionTicket.getPSK(), keyLength(cipher), hashLength(cipher));
+        }
+    }
+
+    private boolean offersPskOnly() {
+        return pskKeyEstablishmentMode == ClientHello.PskKeyEstablishmentMode.PSKonly
+                || pskKeyEstablishmentMode == ClientHello.PskKeyEstablishmentMode.both;
+    }
+
+    private boolean offersServerCertificateTypes() {
+        return !serverCertificateTypes.equals(List.of(TlsConstants.CertificateType.X509));
+    }
+
+    private void addServerCertificateTypeExtension(List<Extension> extensions) {
+        // https://datatracker.ietf.org/doc/html/rfc7250#section-4.1: the extension is omitted when the client only
+        // supports X.509, as that is the default.
+        if (offersServerCertificateTypes()) {
+            extensions.add(new ServerCertificateTypeExtension(serverCertificateTypes));
+        }
+    }
+
+    private List<String> offeredApplicationProtocols() {
+        return requestedExtensions.stream()
+                .filter(ext -> ext instanceof ApplicationLayerProtocolNegotiationExtension)
+                .map(ext -> ((ApplicationLayerProtocolNegotiationExtension) ext).getProtocols())
+                .findFirst()
+                .orElse(Collections.emptyList());
+    }
+
+    private static List<TlsConstants.SignatureScheme> availableSignatures() {
+        List<TlsConstants.SignatureScheme> signatures = new ArrayList<>(List.of(
+                rsa_pss_rsae_sha256,
+                rsa_pss_rsae_sha384,
+                rsa_pss_rsae_sha512,
+                ecdsa_secp256r1_sha256,
+                ecdsa_secp384r1_sha384,
+                ecdsa_secp521r1_sha512));
+        try {
+            // Ed25519 is only available in the JDK since Java 15
+            Signature.getInstance("Ed25519");
+            signatures.add(ed25519);
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Not available on this platform
+        }
+        return List.copyOf(signatures);
+    }
+
     public void startHandshake() throws IOException {
         startHandshake(TlsConstants.NamedGroup.secp256r1, List.of(rsa_pss_rsae_sha256, ecdsa_secp256r1_sha256));
     }
@@ -131,34 +226,58 @@ public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor
             unsupportedSignatures.removeAll(AVAILABLE_SIGNATURES);
             throw new IllegalArgumentException("Unsupported signature scheme(s): " + unsupportedSignatures);
         }
+        if (externalPsk == null && newSessionTicket == null && sessionTicketCache != null && serverName != null) {
+            newSessionTicket = sessionTicketCache.take(serverName, offeredApplicationProtocols(), supportedCiphers).orElse(null);
+        }
         if (newSessionTicket != null && !supportedCiphers.contains(newSessionTicket.getCipher())) {
             throw new IllegalStateException("For session resumption, support ciphers should contain the cipher used with the session-to-resume (" + newSessionTicket.getCipher().toString() + ")");
         }
+        if (externalPsk != null && !supportedCiphers.contains(externalPsk.getCipher())) {
+            throw new IllegalStateException("Supported ciphers should contain the cipher of the external PSK (" + externalPsk.getCipher() + ")");
+        }
 
         supportedSignatures = signatureSchemes;
-        this.ecCurve = ecCurve;
-        generateKeys(ecCurve);
         if (serverName == null || supportedCiphers.isEmpty()) {
             throw new IllegalStateException("not all mandatory properties are set");
         }
+        if (serverCertificateTypes.contains(TlsConstants.CertificateType.RawPublicKey) && publicKeyVerifier == null) {
+            throw new IllegalStateException("a public key verifier is required for raw public keys");
+        }
+        offeredGroups = new ArrayList<>();
+        offeredGroups.add(ecCurve);
+        if (supportedGroups != null) {
+            supportedGroups.stream().filter(group -> !offeredGroups.contains(group)).forEach(offeredGroups::add);
+        }
+        if (offeredGroups.size() > 1) {
+            // When the server selected another group before, send a key share for that group to avoid a HelloRetryRequest.
+            ecCurve = keyShareGroupCache.get(serverName).filter(offeredGroups::contains).orElse(ecCurve);
+        }
+        this.ecCurve = ecCurve;
+        generateKeys(ecCurve);
 
         List<Extension> extensions;
-        if (newSessionTicket != null) {
+        TlsConstants.CipherSuite pskCipher = offeredPskCipher();
+        if (pskCipher != null) {
             extensions = new ArrayList<>();
             extensions.addAll(requestedExtensions);
-            extensions.add(new ClientHelloPreSharedKeyExtension(newSessionTicket));
+            addCertificateCompressionExtension(extensions);
+            addServerCertificateTypeExtension(extensions);
 
-            TlsConstants.CipherSuite cipher = newSessionTicket.getCipher();
-            transcriptHash = new TranscriptHash(hashLength(cipher));
-            state = new TlsState(transcriptHash, newSessionTicket.getPSK(), keyLength(cipher), hashLength(cipher));
+            transcriptHash = createTranscriptHash(hashLength(pskCipher));
+            state = addPreSharedKeyExtension(extensions, pskCipher);
         }
         else {
             extensions = requestedExtensions;
+            if (!certificateCompressors.isEmpty() || offersServerCertificateTypes()) {
+                extensions = new ArrayList<>(requestedExtensions);
+                addCertificateCompressionExtension(extensions);
+                addServerCertificateTypeExtension(extensions);
+            }
             // Defer initialization of TlsState until selected cipher is known.
         }
 
         clientHello = new ClientHello(serverName, publicKey, compatibilityMode, supportedCiphers, supportedSignatures,
-                ecCurve, extensions, state, ClientHello.PskKeyEstablishmentMode.PSKwithDHE);
+                ecCurve, offeredGroups, extensions, state, pskKeyEstablishmentMode, null);
         sentExtensions = clientHello.getExtensions();
 
         if (state != null) {
@@ -167,6 +286,7 @@ public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor
             statusHandler.earlySecretsKnown();
         }
         sender.send(clientHello);
+        TlsEvents.messageSent(clientHello);
         status = Status.WaitServerHello;
     }
 
@@ -177,10 +297,14 @@ public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor
      * @throws MissingExtensionAlert
      */
     @Override
-    public void received(ServerHello serverHello, ProtectionKeysType protectedBy) throws MissingExtensionAlert, IllegalParameterAlert {
+    public void received(ServerHello serverHello, ProtectionKeysType protectedBy) throws TlsProtocolException, IOException {
         if (status != Status.WaitServerHello) {
             return;
         }
+        if (serverHello.isHelloRetryRequest()) {
+            receivedHelloRetryRequest(serverHello);
+            return;
+        }
         boolean containsSupportedVersionExt = serverHello.getExtensions().stream().anyMatch(ext -> ext instanceof SupportedVersionsExtension);
         boolean containsKeyExt = serverHello.getExtensions().stream().anyMatch(ext -> ext instanceof PreSharedKeyExtension || ext instanceof KeyShareExtension);
         // https://tools.ietf.org/html/rfc8446#section-4.1.3
@@ -261,12 +385,20 @@ public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor
             // "A client which receives a cipher suite that was not offered MUST abort the handshake with an "illegal_parameter" alert."
             throw new IllegalParameterAlert("cipher suite does not match");
         }
+        if (helloRetryRequest != null && serverHello.getCipherSuite() != helloRetryRequest.getCipherSuite()) {
+            // https://datatracker.ietf.org/doc/html/rfc8446#section-4.1.4
+            // "Upon receiving the ServerHello, clients MUST check that the cipher suite supplied in the ServerHello is
+            //  the same as that in the HelloRetryRequest and otherwise abort the handshake with an "illegal_parameter" alert."
+            throw new IllegalParameterAlert("cipher suite does not match HelloRetryRequest");
+        }
         selectedCipher = serverHello.getCipherSuite();
 
         if (state == null) {
-            transcriptHash = new TranscriptHash(hashLength(selectedCipher));
-            state = new TlsState(transcriptHash, keyLength(selectedCipher), hashLength(selectedCipher));
-            transcriptHash.record(clientHello);
+            if (transcriptHash == null) {
+                transcriptHash = createTranscriptHash(hashLength(selectedCipher));
+                transcriptHash.record(clientHello);
+            }
+            state = createTlsState(transcriptHash, null, keyLength(selectedCipher), hashLength(selectedCipher));
             state.computeEarlyTrafficSecret();
             statusHandler.earlySecretsKnown();
         }
@@ -283,12 +415,119 @@ public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor
             state.setPeerKey(keyShare.get().getKey());
             state.computeSharedSecret();
         }
+        else if (offersPskOnly()) {
+            // https://datatracker.ietf.org/doc/html/rfc8446#section-4.2.9
+            // "psk_ke:  PSK-only key establishment.  In this mode, the server MUST NOT supply a "key_share" value."
+            state.setNoSharedSecret();
+        }
+        else {
+            throw new MissingExtensionAlert("key share extension required, as PSK-only key establishment was not offered");
+        }
         transcriptHash.record(serverHello);
         state.computeHandshakeSecrets();
         status = Status.WaitEncryptedExtensions;
         statusHandler.handshakeSecretsKnown();
     }
 
+    private void receivedHelloRetryRequest(ServerHello helloRetryRequest) throws TlsProtocolException, IOException {
+        if (this.helloRetryRequest != null) {
+            // https://datatracker.ietf.org/doc/html/rfc8446#section-4.1.4
+            // "If a client receives a second HelloRetryRequest in the same connection (i.e., where the ClientHello was
+            //  itself in response to a HelloRetryRequest), it MUST abort the handshake with an "unexpected_message" alert."
+            throw new UnexpectedMessageAlert("second HelloRetryRequest");
+        }
+
+        // https://datatracker.ietf.org/doc/html/rfc8446#section-4.1.4
+        // "Upon receipt of a HelloRetryRequest, the client MUST check the legacy_version, legacy_session_id_echo,
+        //  cipher_suite, and legacy_compression_method as specified in Section 4.1.3 and then process the extensions,
+        //  starting with determining the version using "supported_versions"."
+        short tlsVersion = helloRetryRequest.getExtensions().stream()
+                .filter(extension -> extension instanceof SupportedVersionsExtension)
+                .map(extension -> ((SupportedVersionsExtension) extension).getTlsVersion())
+                .findFirst()
+                .orElseThrow(() -> new MissingExtensionAlert("supported versions extension is required in HelloRetryRequest"));
+        if (tlsVersion != 0x0304) {
+            throw new IllegalParameterAlert("invalid tls version");
+        }
+        if (! supportedCiphers.contains(helloRetryRequest.getCipherSuite())) {
+            throw new IllegalParameterAlert("cipher suite does not match");
+        }
+        // https://datatracker.ietf.org/doc/html/rfc8446#section-4.2
+        // "If an implementation receives an extension which it recognizes and which is not specified for the message in
+        //  which it appears, it MUST abort the handshake with an "illegal_parameter" alert."
+        if (helloRetryRequest.getExtensions().stream()
+                .filter(this::recognizedExtension)
+                .anyMatch(ext ->
+                        ! (ext instanceof SupportedVersionsExtension) &&
+                        ! (ext instanceof KeyShareExtension) &&
+                        ! (ext instanceof CookieExtension)
+                )) {
+            throw new IllegalParameterAlert("illegal extension in HelloRetryRequest");
+        }
+
+        Optional<TlsConstants.NamedGroup> selectedGroup = helloRetryRequest.getExtensions().stream()
+                .filter(extension -> extension instanceof KeyShareExtension)
+                .map(extension -> ((KeyShareExtension) extension).getKeyShareEntries())
+                .findFirst()
+                .map(entries -> entries.isEmpty()? null: entries.get(0).getNamedGroup());
+        Optional<Extension> cookie = helloRetryRequest.getExtensions().stream()
+                .filter(extension -> extension instanceof CookieExtension)
+                .findFirst();
+        if (selectedGroup.isPresent()) {
+            // "Upon receipt of this extension in a HelloRetryRequest, the client MUST verify that (1) the selected_group
+            //  field corresponds to a group which was provided in the "supported_groups" extension in the original
+            //  ClientHello and (2) the selected_group field does not correspond to a group which was provided in the
+            //  "key_share" extension in the original ClientHello. If either of these checks fails, then the client
+            //  MUST abort the handshake with an "illegal_parameter" alert."
+            if (!offeredGroups.contains(selectedGroup.get()) || selectedGroup.get() == ecCurve) {
+                throw new IllegalParameterAlert("invalid group selected in HelloRetryRequest");
+            }
+        }
+        else if (cookie.isEmpty()) {
+            // "Clients MUST abort the handshake with an "illegal_parameter" alert if the HelloRetryRequest would not
+            //  result in any change in the ClientHello."
+            throw new IllegalParameterAlert("HelloRetryRequest would not result in any change");
+        }
+        this.helloRetryRequest = helloRetryRequest;
+
+        TlsConstants.CipherSuite cipher = helloRetryRequest.getCipherSuite();
+        transcriptHash = createTranscriptHash(hashLength(cipher));
+        transcriptHash.record(clientHello);
+        transcriptHash.recordHelloRetryRequest(helloRetryRequest);
+
+        if (selectedGroup.isPresent()) {
+            ecCurve = selectedGroup.get();
+            keyShareGroupCache.put(serverName, ecCurve);
+            generateKeys(ecCurve);
+        }
+
+        // "The client will also send a ClientHello when the server has responded to its ClientHello with a
+        //  HelloRetryRequest. In that case, the client MUST send the same ClientHello without modification, except as
+        //  follows: (...) Removing the "early_data" extension (Section 4.2.10) if one was present. (...)
+        //  Including a "cookie" extension if one was provided in the HelloRetryRequest. (...)
+        //  Updating the "pre_shared_key" extension if present by recomputing the "obfuscated_ticket_age" and binder
+        //  values and (optionally) removing any PSKs which are incompatible with the server's indicated cipher suite."
+        List<Extension> extensions = new ArrayList<>();
+        requestedExtensions.stream()
+                .filter(extension -> !(extension instanceof EarlyDataExtension))
+                .forEach(extensions::add);
+        addCertificateCompressionExtension(extensions);
+        addServerCertificateTypeExtension(extensions);
+        cookie.ifPresent(extensions::add);
+        state = null;
+        TlsConstants.CipherSuite pskCipher = offeredPskCipher();
+        if (pskCipher != null && hashLength(pskCipher) == hashLength(cipher)) {
+            state = addPreSharedKeyExtension(extensions, cipher);
+        }
+
+        clientHello = new ClientHello(serverName, publicKey, compatibilityMode, supportedCiphers, supportedSignatures,
+                ecCurve, offeredGroups, extensions, state, pskKeyEstablishmentMode, clientHello);
+        sentExtensions = clientHello.getExtensions();
+        transcriptHash.record(clientHello);
+        sender.send(clientHello);
+        TlsEvents.messageSent(clientHello);
+    }
+
     @Override
     public void received(EncryptedExtensions encryptedExtensions, ProtectionKeysType protectedBy) throws TlsProtocolException {
         if (protectedBy != ProtectionKeysType.Handshake) {
@@ -322,6 +561,27 @@ public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor
             throw new UnsupportedExtensionAlert("duplicate extensions not allowed");
         }
 
+        negotiatedApplicationProtocol = encryptedExtensions.getExtensions().stream()
+                .filter(ext -> ext instanceof ApplicationLayerProtocolNegotiationExtension)
+                .map(ext -> ((ApplicationLayerProtocolNegotiationExtension) ext).getProtocols().get(0))
+                .findFirst()
+                .orElse(null);
+        earlyDataAccepted = pskAccepted && encryptedExtensions.getExtensions().stream().anyMatch(ext -> ext instanceof EarlyDataExtension);
+        Optional<TlsConstants.CertificateType> selectedCertificateType = encryptedExtensions.getExtensions().stream()
+                .filter(ext -> ext instanceof ServerCertificateTypeExtension)
+                .map(ext -> ((ServerCertificateTypeExtension) ext).getCertificateType())
+                .findFirst();
+        if (selectedCertificateType.isPresent() && !serverCertificateTypes.contains(selectedCertificateType.get())) {
+            throw new IllegalParameterAlert("server selected certificate type that was not offered");
+        }
+        if (!pskAccepted) {
+            // https://datatracker.ietf.org/doc/html/rfc7250#section-4.2: when the server does not send the extension,
+            // it will use an X.509 certificate.
+            serverCertificateType = selectedCertificateType.orElse(TlsConstants.CertificateType.X509);
+            if (!serverCertificateTypes.contains(serverCertificateType)) {
+                throw new UnsupportedCertificateAlert("server does not support offered certificate types");
+            }
+        }
         transcriptHash.record(encryptedExtensions);
         status = pskAccepted? Status.WaitFinished: Status.WaitCertificateRequest;
         statusHandler.extensionsReceived(encryptedExtensions.getExtensions());
@@ -340,6 +600,10 @@ public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor
             throw new UnexpectedMessageAlert("unexpected certificate message");
         }
 
+        long start = System.nanoTime();
+        if (certificateMessage instanceof CompressedCertificateMessage) {
+            ((CompressedCertificateMessage) certificateMessage).decompress(certificateCompressors, maxUncompressedCertificateSize);
+        }
         if (certificateMessage.getRequestContext().length > 0) {
             // https://tools.ietf.org/html/rfc8446#section-4.4.2
             // "If this message is in response to a CertificateRequest, the value of certificate_request_context in that
@@ -350,12 +614,26 @@ public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor
             // so SHALL is the same as MUST
             throw new IllegalParameterAlert("certificate request context should be zero length");
         }
-        if (certificateMessage.getEndEntityCertificate() == null) {
-            throw new IllegalParameterAlert("missing certificate");
+        if (serverCertificateType == TlsConstants.CertificateType.RawPublicKey) {
+            if (!certificateMessage.containsRawPublicKey()) {
+                throw new BadCertificateAlert("raw public key expected");
+            }
+            serverPublicKey = certificateMessage.getRawPublicKey();
+            metricsListener.phaseCompleted(HandshakePhase.CertificateParse, System.nanoTime() - start);
+        }
+        else {
+            if (certificateMessage.containsRawPublicKey()) {
+                throw new BadCertificateAlert("X.509 certificate expected");
+            }
+            serverCertificate = certificateMessage.getEndEntityCertificate();
+            metricsListener.phaseCompleted(HandshakePhase.CertificateParse, System.nanoTime() - start);
+            if (serverCertificate == null) {
+                throw new IllegalParameterAlert("missing certificate");
+            }
+            serverPublicKey = serverCertificate.getPublicKey();
         }
 
-        serverCertificate = certificateMessage.getEndEntityCertificate();
-        serverCertificateChain = certificateMessage.getCertificateChain();
+        serverCertificateMessage = certificateMessage;
         transcriptHash.recordServer(certificateMessage);
         status = Status.WaitCertificateVerify;
     }
@@ -381,13 +659,78 @@ public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor
         }
 
         byte[] signature = certificateVerifyMessage.getSignature();
-        if (!verifySignature(signature, signatureScheme, serverCertificate, transcriptHash.getServerHash(TlsConstants.HandshakeType.certificate))) {
+        byte[] certificateHash = transcriptHash.getServerHash(TlsConstants.HandshakeType.certificate);
+        long start = System.nanoTime();
+        Object signatureEvent = TlsEvents.beginSignature();
+        boolean signatureValid = false;
+        try {
+            if (serverCertificateType == TlsConstants.CertificateType.RawPublicKey) {
+                signatureValid = verifySignature(signature, signatureScheme, serverPublicKey, certificateHash);
+            }
+            else {
+                signatureValid = verifySignature(signature, signatureScheme, serverCertificate, certificateHash);
+            }
+        }
+        finally {
+            TlsEvents.endSignature(signatureEvent, "verify", signatureScheme, signatureValid);
+        }
+        metricsListener.phaseCompleted(HandshakePhase.Verify, System.nanoTime() - start);
+        if (!signatureValid) {
             throw new DecryptErrorAlert("signature verification fails");
         }
 
-        // Now the certificate signature has been validated, check the certificate validity
-        checkCertificateValidity(serverCertificateChain);
-        if (!hostnameVerifier.verify(serverName, serverCertificate)) {
+        if (serverCertificateType == TlsConstants.CertificateType.RawPublicKey) {
+            // Without certificate, there is no chain or host name to check; the verifier decides whether the key is trusted.
+            start = System.nanoTime();
+            Object validationEvent = TlsEvents.beginCertificateValidation();
+            boolean publicKeyTrusted = false;
+            try {
+                publicKeyTrusted = publicKeyVerifier.verify(serverName, serverPublicKey);
+            }
+            finally {
+                TlsEvents.endCertificateValidation(validationEvent, serverName, 0, publicKeyTrusted);
+            }
+            metricsListener.phaseCompleted(HandshakePhase.TrustValidation, System.nanoTime() - start);
+            if (!publicKeyTrusted) {
+                throw new BadCertificateAlert("server public key not trusted");
+            }
+            transcriptHash.recordServer(certificateVerifyMessage);
+            status = Status.WaitFinished;
+            return;
+        }
+
+        // Now the certificate signature has been validated, check the certificate validity. A chain that has been
+        // validated before is recognised by the digest of its encoding, so it is neither validated nor decoded again.
+        // Otherwise, only now the rest of the chain is decoded, so a handshake with an invalid signature fails without
+        // the cost of parsing the whole chain.
+        byte[] chainDigest = customTrustManager == null && validatedChainCache != null? serverCertificateMessage.digestCertificateEntries(): null;
+        boolean validatedBefore = chainDigest != null && validatedChainCache.contains(chainDigest);
+        if (validatedBefore) {
+            // Decoded when requested, see getServerCertificateChain()
+            serverCertificateChain = null;
+        }
+        else {
+            start = System.nanoTime();
+            serverCertificateChain = serverCertificateMessage.decodeCertificateChain();
+            metricsListener.phaseCompleted(HandshakePhase.CertificateParse, System.nanoTime() - start);
+        }
+        start = System.nanoTime();
+        Object validationEvent = TlsEvents.beginCertificateValidation();
+        boolean hostnameValid = false;
+        try {
+            if (!validatedBefore) {
+                checkCertificateValidity(serverCertificateChain);
+                if (chainDigest != null) {
+                    validatedChainCache.add(chainDigest, serverCertificateChain);
+                }
+            }
+            hostnameValid = hostnameVerifier.verify(serverName, serverCertificate);
+        }
+        finally {
+            TlsEvents.endCertificateValidation(validationEvent, serverName, serverCertificateMessage.getCertificateCount(), hostnameValid);
+        }
+        metricsListener.phaseCompleted(HandshakePhase.TrustValidation, System.nanoTime() - start);
+        if (!hostnameValid) {
             throw new CertificateUnknownAlert("servername does not match");
         }
 
@@ -439,12 +782,16 @@ public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor
         byte[] clientHmac = computeFinishedVerifyData(transcriptHash.getClientHash(TlsConstants.HandshakeType.certificate_verify), state.getClientHandshakeTrafficSecret());
         FinishedMessage clientFinished = new FinishedMessage(clientHmac);
         sender.send(clientFinished);
+        TlsEvents.messageSent(clientFinished);
 
         transcriptHash.recordClient(clientFinished);
         state.computeApplicationSecrets();
         state.computeResumptionMasterSecret();
         status = Status.Connected;
+        reportHandshakeEnded(earlyDataAccepted? HandshakeOutcome.EarlyDataAccepted:
+                pskAccepted? (externalPsk != null? HandshakeOutcome.ExternalPsk: HandshakeOutcome.Resumed): HandshakeOutcome.Full);
         statusHandler.handshakeFinished();
+        compactIfEnabled();
     }
 
     @Override
@@ -454,6 +801,9 @@ public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor
         }
         NewSessionTicket ticket = new NewSessionTicket(state, nst, selectedCipher);
         obtainedNewSessionTickets.add(ticket);
+        if (sessionTicketCache != null) {
+            sessionTicketCache.add(serverName, negotiatedApplicationProtocol, ticket);
+        }
         statusHandler.newSessionTicketReceived(ticket);
     }
 
@@ -487,6 +837,14 @@ public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor
     }
 
     protected boolean verifySignature(byte[] signatureToVerify, TlsConstants.SignatureScheme signatureScheme, Certificate certificate, byte[] transcriptHash) throws HandshakeFailureAlert {
+        return verifySignature(signatureToVerify, signatureScheme, transcriptHash, signature -> signature.initVerify(certificate));
+    }
+
+    protected boolean verifySignature(byte[] signatureToVerify, TlsConstants.SignatureScheme signatureScheme, PublicKey publicKey, byte[] transcriptHash) throws HandshakeFailureAlert {
+        return verifySignature(signatureToVerify, signatureScheme, transcriptHash, signature -> signature.initVerify(publicKey));
+    }
+
+    private boolean verifySignature(byte[] signatureToVerify, TlsConstants.SignatureScheme signatureScheme, byte[] transcriptHash, VerifyInitializer verifyInitializer) throws HandshakeFailureAlert {
         // https://tools.ietf.org/html/rfc8446#section-4.4.3
         // "The digital signature is then computed over the concatenation of:
         //   -  A string that consists of octet 32 (0x20) repeated 64 times
@@ -510,7 +868,7 @@ public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor
         boolean verified = false;
         try {
             Signature signatureAlgorithm = getSignatureAlgorithm(signatureScheme);
-            signatureAlgorithm.initVerify(certificate);
+            verifyInitializer.initVerify(signatureAlgorithm);
             signatureAlgorithm.update(contentToSign.array());
             verified = signatureAlgorithm.verify(signatureToVerify);
         } catch (InvalidKeyException e) {
@@ -527,20 +885,8 @@ public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor
                 customTrustManager.checkServerTrusted(certificates.toArray(new X509Certificate[certificates.size()]), "RSA");
             }
             else {
-                // https://docs.oracle.com/en/java/javase/11/docs/specs/security/standard-names.html#trustmanagerfactory-algorithms
-                // "...that validate certificate chains according to the rules defined by the IETF PKIX working group in RFC 5280 or its successor"
-                TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance("PKIX");
-                trustManagerFactory.init((KeyStore) null);
-                X509TrustManager trustMgr = (X509TrustManager) trustManagerFactory.getTrustManagers()[0];
-                trustMgr.checkServerTrusted(certificates.toArray(new X509Certificate[certificates.size()]), "UNKNOWN");
-                // If it gets here, the certificates are ok.
+                DefaultTrustManager.get().checkServerTrusted(certificates.toArray(new X509Certificate[certificates.size()]), "UNKNOWN");
             }
-        } catch (NoSuchAlgorithmException e) {
-            // Impossible, as we're using the trust managers default algorithm
-            throw new RuntimeException("unsupported trust manager algorithm");
-        } catch (KeyStoreException e) {
-            // Impossible, as we're using the default (JVM) keystore
-            throw new RuntimeException("keystore exception");
         } catch (CertificateException e) {
             throw new BadCertificateAlert(extractReason(e).orElse("certificate validation failed"));
         }
@@ -553,6 +899,7 @@ public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor
         CertificateMessage certificateMessage =
                 new CertificateMessage(certificateWithKey != null? certificateWithKey.getCertificate(): null);
         sender.send(certificateMessage);
+        TlsEvents.messageSent(certificateMessage);
         transcriptHash.recordClient(certificateMessage);
 
         // When certificate is sent, also send a certificate verify message
@@ -568,6 +915,7 @@ public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor
             byte[] signature = computeSignature(hash, privateKey, selectedSignatureScheme, true);
             CertificateVerifyMessage certificateVerify = new CertificateVerifyMessage(selectedSignatureScheme, signature);
             sender.send(certificateVerify);
+            TlsEvents.messageSent(certificateVerify);
             transcriptHash.recordClient(certificateVerify);
         }
     }
@@ -622,6 +970,134 @@ public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor
         this.customTrustManager = customTrustManager;
     }
 
+    /**
+     * Sets the named groups the client supports, in order of preference. The key share in the ClientHello is only for
+     * the group passed to <code>startHandshake</code> (or for the group the server selected in an earlier handshake,
+     * see {@link #setKeyShareGroupCache(KeyShareGroupCache)}); the server can request a key share for any of the other
+     * groups by sending a HelloRetryRequest. By default, only the group passed to <code>startHandshake</code> is supported.
+     * @param supportedGroups
+     */
+    public void setSupportedGroups(List<TlsConstants.NamedGroup> supportedGroups) {
+        List<TlsConstants.NamedGroup> unsupported = supportedGroups.stream()
+                .filter(group -> !KeyShareExtension.supportedCurves.contains(group))
+                .collect(Collectors.toList());
+        if (!unsupported.isEmpty()) {
+            throw new IllegalArgumentException("Named group(s) " + unsupported + " not supported");
+        }
+        this.supportedGroups = List.copyOf(supportedGroups);
+    }
+
+    /**
+     * Sets the certificate compression algorithms (RFC 8879) the client offers, in order of preference. A server
+     * supporting one of them can send a compressed certificate message, which saves bytes (and with QUIC, possibly a
+     * round trip) in every full handshake. By default, certificate compression is not offered.
+     * @param certificateCompressors  the algorithms to offer, e.g. a {@link ZlibCertificateCompressor}
+     */
+    public void setCertificateCompressors(List<CertificateCompressor> certificateCompressors) {
+        this.certificateCompressors = List.copyOf(certificateCompressors);
+    }
+
+    /**
+     * Sets the maximum size of a (server) certificate message after decompression; a compressed certificate message
+     * that would exceed this size is rejected before it is decompressed. The default is
+     * {@link #DEFAULT_MAX_UNCOMPRESSED_CERTIFICATE_SIZE}.
+     * @param maxUncompressedCertificateSize
+     */
+    public void setMaxUncompressedCertificateSize(int maxUncompressedCertificateSize) {
+        if (maxUncompressedCertificateSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.maxUncompressedCertificateSize = maxUncompressedCertificateSize;
+    }
+
+    /**
+     * Sets the cache that remembers the group each server selected in a HelloRetryRequest. By default, a cache shared
+     * by all engines is used.
+     * @param keyShareGroupCache
+     */
+    public void setKeyShareGroupCache(KeyShareGroupCache keyShareGroupCache) {
+        this.keyShareGroupCache = Objects.requireNonNull(keyShareGroupCache);
+    }
+
+    public KeyShareGroupCache getKeyShareGroupCache() {
+        return keyShareGroupCache;
+    }
+
+    /**
+     * Sets the cache that session tickets received from the server are added to. When no ticket is set with
+     * {@link #setNewSessionTicket(NewSessionTicket)}, the handshake will try to resume a session with a ticket taken
+     * from this cache. By default, no cache is used.
+     * @param sessionTicketCache  the cache, or null to disable caching
+     */
+    public void setSessionTicketCache(SessionTicketCache sessionTicketCache) {
+        this.sessionTicketCache = sessionTicketCache;
+    }
+
+    public SessionTicketCache getSessionTicketCache() {
+        return sessionTicketCache;
+    }
+
+    /**
+     * @return  the ticket used for resuming a session (either set explicitly or taken from the session ticket cache),
+     * or null when no session is being resumed
+     */
+    public NewSessionTicket getNewSessionTicket() {
+        return newSessionTicket;
+    }
+
+    /**
+     * @return  whether the server sent a HelloRetryRequest
+     */
+    public boolean isHelloRetryRequested() {
+        return helloRetryRequest != null;
+    }
+
+    /**
+     * Sets the cache for certificate chains that are validated with the default (JVM) trust manager; by default, a
+     * cache shared by all client engines is used. A chain that is found in the cache is not validated again.
+     * Set to null to validate every chain.
+     * Note that chains validated by a custom trust manager (see {@link #setTrustManager(X509TrustManager)}) are never cached.
+     * @param validatedChainCache
+     */
+    public void setValidatedChainCache(ValidatedChainCache validatedChainCache) {
+        this.validatedChainCache = validatedChainCache;
+    }
+
+    public ValidatedChainCache getValidatedChainCache() {
+        return validatedChainCache;
+    }
+
+    /**
+     * Sets the PSK key exchange modes the client offers when resuming a session. By default, only PSK with (EC)DHE is
+     * offered; offering PSK-only key establishment (psk_ke) lets the server skip the key exchange, at the cost of
+     * forward secrecy with respect to the PSK. A key share is always sent, so the server can fall back to a full
+     * handshake.
+     * @param pskKeyEstablishmentMode
+     */
+    public void setPskKeyEstablishmentMode(ClientHello.PskKeyEstablishmentMode pskKeyEstablishmentMode) {
+        if (pskKeyEstablishmentMode == ClientHello.PskKeyEstablishmentMode.none) {
+            throw new IllegalArgumentException("a PSK key exchange mode is required for resumption");
+        }
+        this.pskKeyEstablishmentMode = pskKeyEstablishmentMode;
+    }
+
+    /**
+     * Sets an externally provisioned pre-shared key to offer to the server; when the server accepts it, the handshake
+     * is authenticated with the key and the server does not send a certificate. When the server does not accept the
+     * key, a full (certificate based) handshake is done. An external PSK takes precedence over a session ticket.
+     * @param externalPsk  the key, or null to not offer an external PSK
+     */
+    public void setExternalPsk(ExternalPsk externalPsk) {
+        this.externalPsk = externalPsk;
+    }
+
+    /**
+     * @return  whether the server accepted the external PSK
+     */
+    public boolean isExternalPskAccepted() {
+        return externalPsk != null && pskAccepted;
+    }
+
     /**
      * Add ticket to use for a new session.
      * @param newSessionTicket
@@ -648,10 +1124,55 @@ public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor
         return obtainedNewSessionTickets;
     }
 
+    /**
+     * @return  the certificate chain sent by the server; empty when the server did not send a chain, or when the engine
+     * has been compacted (see {@link #compact()})
+     */
     public List<X509Certificate> getServerCertificateChain() {
+        if (serverCertificateChain == null) {
+            // The chain was found in the validated chain cache, so it was not decoded during the handshake.
+            serverCertificateChain = serverCertificateMessage.getCertificateChain();
+        }
         return serverCertificateChain;
     }
 
+    /**
+     * Sets the certificate types (RFC 7250) the client accepts for the server certificate, in order of preference.
+     * When the raw public key type is accepted, a public key verifier must be set as well. By default, only X.509 is
+     * accepted.
+     * @param certificateTypes
+     */
+    public void setServerCertificateTypes(List<TlsConstants.CertificateType> certificateTypes) {
+        if (certificateTypes.isEmpty()) {
+            throw new IllegalArgumentException("at least one certificate type is required");
+        }
+        serverCertificateTypes = List.copyOf(certificateTypes);
+    }
+
+    /**
+     * Sets the verifier that decides whether a server's raw public key is trusted; it replaces the trust manager and
+     * host name verifier when the raw public key certificate type is negotiated.
+     * @param publicKeyVerifier  the verifier, e.g. a {@link PinnedPublicKeyVerifier}
+     */
+    public void setPublicKeyVerifier(PublicKeyVerifier publicKeyVerifier) {
+        this.publicKeyVerifier = publicKeyVerifier;
+    }
+
+    /**
+     * @return  the negotiated type of the server certificate, or null when not (yet) negotiated
+     */
+    public TlsConstants.CertificateType getServerCertificateType() {
+        return serverCertificateType;
+    }
+
+    /**
+     * @return  the public key the server authenticated with (either from its certificate or as raw public key), or
+     * null when the server did not (yet) authenticate
+     */
+    public PublicKey getServerPublicKey() {
+        return serverPublicKey;
+    }
+
     public void setHostnameVerifier(HostnameVerifier hostnameVerifier) {
         if (hostnameVerifier != null) {
             this.hostnameVerifier = hostnameVerifier;
@@ -662,7 +1183,54 @@ public class TlsClientEngine extends TlsEngine implements ClientMessageProcessor
         return status == Status.Connected;
     }
 
+    @Override
+    protected void releaseHandshakeState() {
+        super.releaseHandshakeState();
+        transcriptHash = null;
+        clientHello = null;
+        sentExtensions = null;
+        offeredGroups = null;
+        serverCertificateMessage = null;
+        serverCertificate = null;
+        serverCertificateChain = Collections.emptyList();
+        clientCertificateAuthorities = null;
+        serverSupportedSignatureSchemes = null;
+    }
+
     public void setClientCertificateCallback(Function<List<X500Principal>, CertificateWithPrivateKey> callback) {
         clientCertificateSelector = callback;
     }
+
+    private interface VerifyInitializer {
+        void initVerify(Signature signature) throws InvalidKeyException;
+    }
+
+    /**
+     * Holder for the default trust manager, which is created when first used and shared by all client engines, to
+     * avoid loading the JVM trust store for every handshake.
+     */
+    private static class DefaultTrustManager {
+
+        private static final X509TrustManager INSTANCE = create();
+
+        static X509TrustManager get() {
+            return INSTANCE;
+        }
+
+        private static X509TrustManager create() {
+            try {
+                // https://docs.oracle.com/en/java/javase/11/docs/specs/security/standard-names.html#trustmanagerfactory-algorithms
+                // "...that validate certificate chains according to the rules defined by the IETF PKIX working group in RFC 5280 or its successor"
+                TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance("PKIX");
+                trustManagerFactory.init((KeyStore) null);
+                return (X509TrustManager) trustManagerFactory.getTrustManagers()[0];
+            } catch (NoSuchAlgorithmException e) {
+                // Impossible, as we're using the trust managers default algorithm
+                throw new RuntimeException("unsupported trust manager algorithm");
+            } catch (KeyStoreException e) {
+                // Impossible, as we're using the default (JVM) keystore
+                throw new RuntimeException("keystore exception");
+            }
+        }
+    }
 }
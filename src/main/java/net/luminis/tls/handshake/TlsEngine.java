@@ -20,6 +20,7 @@ package net.luminis.tls.handshake;
 
 import net.luminis.tls.TlsConstants;
 import net.luminis.tls.TlsState;
+import net.luminis.tls.TranscriptHash;
 import net.luminis.tls.TrafficSecrets;
 import net.luminis.tls.alert.ErrorAlert;
 import net.luminis.tls.alert.HandshakeFailureAlert;
@@ -28,6 +29,11 @@ import net.luminis.tls.env.AlgorithmMapping;
 import net.luminis.tls.env.PlatformMapping;
 import net.luminis.tls.extension.Extension;
 import net.luminis.tls.extension.UnknownExtension;
+import net.luminis.tls.jfr.TlsEvents;
+import net.luminis.tls.metrics.HandshakeMetricsListener;
+import net.luminis.tls.metrics.HandshakeOutcome;
+import net.luminis.tls.metrics.HandshakePhase;
+import net.luminis.tls.util.CryptoPrimitives;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -35,12 +41,9 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.*;
-import java.security.spec.ECGenParameterSpec;
 import java.security.spec.MGF1ParameterSpec;
-import java.security.spec.NamedParameterSpec;
 import java.security.spec.PSSParameterSpec;
 
-import static net.luminis.tls.TlsConstants.NamedGroup.*;
 import static net.luminis.tls.TlsConstants.SignatureScheme.*;
 
 public abstract class TlsEngine implements MessageProcessor, TrafficSecrets {
@@ -49,9 +52,16 @@ public abstract class TlsEngine implements MessageProcessor, TrafficSecrets {
     protected PrivateKey privateKey;
     protected TlsState state;
     protected AlgorithmMapping algorithmMapping;
+    protected KeyShareProvider keyShareProvider;
+    protected HandshakeMetricsListener metricsListener = HandshakeMetricsListener.NONE;
+    private boolean handshakeEnded;
+    private boolean handshakeSucceeded;
+    private boolean compactAfterHandshake;
+    private boolean compacted;
 
     public TlsEngine() {
         algorithmMapping = PlatformMapping.algorithmMapping();
+        keyShareProvider = new OnDemandKeyShareProvider();
     }
 
     public abstract TlsConstants.CipherSuite getSelectedCipher();
@@ -93,33 +103,110 @@ public abstract class TlsEngine implements MessageProcessor, TrafficSecrets {
     }
 
     protected void generateKeys(TlsConstants.NamedGroup namedGroup) {
-        try {
-            KeyPairGenerator keyPairGenerator;
-            if (namedGroup == secp256r1 || namedGroup == secp384r1 || namedGroup == secp521r1) {
-                keyPairGenerator = KeyPairGenerator.getInstance("EC");
-                keyPairGenerator.initialize(new ECGenParameterSpec(namedGroup.toString()));
-            }
-            else if (namedGroup == x25519 || namedGroup == x448) {
-                keyPairGenerator = KeyPairGenerator.getInstance("XDH");
-                NamedParameterSpec paramSpec = new NamedParameterSpec(namedGroup.toString().toUpperCase());  // x25519 => X25519
-                keyPairGenerator.initialize(paramSpec);
-            }
-            else {
-                throw new RuntimeException("unsupported group " + namedGroup);
-            }
+        long start = System.nanoTime();
+        KeyPair keyPair = keyShareProvider.getKeyPair(namedGroup);
+        privateKey = keyPair.getPrivate();
+        publicKey = keyPair.getPublic();
+        metricsListener.phaseCompleted(HandshakePhase.KeyGeneration, System.nanoTime() - start);
+    }
 
-            KeyPair keyPair = keyPairGenerator.genKeyPair();
-            privateKey = keyPair.getPrivate();
-            publicKey = keyPair.getPublic();
-        } catch (NoSuchAlgorithmException e) {
-            // Invalid runtime
-            throw new RuntimeException("missing key pair generator algorithm EC");
-        } catch (InvalidAlgorithmParameterException e) {
-            // Impossible, would be programming error
-            throw new RuntimeException();
+    /**
+     * Sets the listener to report handshake metrics to: time spent per handshake phase, the handshake outcome and
+     * the alerts raised. Alerts (and failed handshakes) are only reported for messages that are processed with
+     * <code>TlsMessageParser</code> (or <code>AsyncMessageProcessor</code>).
+     * @param metricsListener
+     */
+    public void setMetricsListener(HandshakeMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    protected TranscriptHash createTranscriptHash(int hashLength) {
+        TranscriptHash transcriptHash = new TranscriptHash(hashLength);
+        transcriptHash.setMetricsListener(metricsListener);
+        return transcriptHash;
+    }
+
+    protected TlsState createTlsState(TranscriptHash transcriptHash, byte[] psk, int keyLength, int hashLength) {
+        return createTlsState(transcriptHash, psk, false, keyLength, hashLength);
+    }
+
+    protected TlsState createTlsState(TranscriptHash transcriptHash, byte[] psk, boolean externalPsk, int keyLength, int hashLength) {
+        TlsState tlsState = new TlsState(transcriptHash, psk, externalPsk, keyLength, hashLength);
+        tlsState.setMetricsListener(metricsListener);
+        return tlsState;
+    }
+
+    protected void reportHandshakeEnded(HandshakeOutcome outcome) {
+        if (!handshakeEnded) {
+            handshakeEnded = true;
+            handshakeSucceeded = outcome != HandshakeOutcome.Failed;
+            metricsListener.handshakeEnded(outcome);
+        }
+    }
+
+    /**
+     * Releases the state that is only needed during the handshake, like the transcript hash, the handshake messages,
+     * the peer's certificates and the ephemeral key pair, to reduce the memory retained by an established connection.
+     * What remains are the application traffic secrets, the resumption master secret (so session tickets can still be
+     * sent or received) and the negotiated parameters; the early and handshake traffic secrets are no longer available.
+     * @throws IllegalStateException  when the handshake has not (successfully) finished
+     */
+    public void compact() {
+        if (!handshakeSucceeded) {
+            throw new IllegalStateException("Handshake not finished");
+        }
+        if (!compacted) {
+            compacted = true;
+            releaseHandshakeState();
+        }
+    }
+
+    /**
+     * Sets whether the engine should compact itself (see {@link #compact()}) automatically, as soon as the handshake
+     * has finished. The status handler's handshakeFinished callback is called before compaction takes place.
+     * By default, the engine is not compacted.
+     * @param compactAfterHandshake
+     */
+    public void setCompactAfterHandshake(boolean compactAfterHandshake) {
+        this.compactAfterHandshake = compactAfterHandshake;
+    }
+
+    protected void compactIfEnabled() {
+        if (compactAfterHandshake) {
+            compact();
         }
     }
 
+    /**
+     * Drops the references to state that is only needed during the handshake; subclasses that override this method
+     * must call it too.
+     */
+    protected void releaseHandshakeState() {
+        state.compact();
+        publicKey = null;
+        privateKey = null;
+    }
+
+    /**
+     * Reports an error alert raised while processing a handshake message; if the handshake was still in progress, it
+     * is counted as failed.
+     * @param alert
+     */
+    void reportAlert(ErrorAlert alert) {
+        metricsListener.alertRaised(alert.alertDescription());
+        reportHandshakeEnded(HandshakeOutcome.Failed);
+    }
+
+    /**
+     * Sets the provider for the ephemeral key pairs used in the key exchange. By default, key pairs are generated
+     * when needed; use a <code>PooledKeyShareProvider</code> (shared between engines) to take key generation off the
+     * handshake's critical path.
+     * @param keyShareProvider
+     */
+    public void setKeyShareProvider(KeyShareProvider keyShareProvider) {
+        this.keyShareProvider = keyShareProvider;
+    }
+
     /**
      * Compute the signature used in certificate verify message to proof possession of private key.
      * @param content  the content to be signed (transcript hash)
@@ -149,10 +236,14 @@ public abstract class TlsEngine implements MessageProcessor, TrafficSecrets {
         }
 
         try {
+            long start = System.nanoTime();
+            Object event = TlsEvents.beginSignature();
             Signature signatureAlgorithm = getSignatureAlgorithm(signatureScheme);
             signatureAlgorithm.initSign(certificatePrivateKey);
             signatureAlgorithm.update(signatureInput.toByteArray());
             byte[] digitalSignature = signatureAlgorithm.sign();
+            metricsListener.phaseCompleted(HandshakePhase.Sign, System.nanoTime() - start);
+            TlsEvents.endSignature(event, "sign", signatureScheme, true);
             return digitalSignature;
         }
         catch (SignatureException e) {
@@ -172,7 +263,7 @@ public abstract class TlsEngine implements MessageProcessor, TrafficSecrets {
         SecretKeySpec hmacKey = new SecretKeySpec(finishedKey, macAlgorithmName);
 
         try {
-            Mac hmacAlgorithm = Mac.getInstance(macAlgorithmName);
+            Mac hmacAlgorithm = CryptoPrimitives.getMac(macAlgorithmName);
             hmacAlgorithm.init(hmacKey);
             hmacAlgorithm.update(transcriptHash);
             byte[] hmac = hmacAlgorithm.doFinal();
@@ -191,8 +282,7 @@ public abstract class TlsEngine implements MessageProcessor, TrafficSecrets {
         // rsa_pss_rsae_sha256 (for CertificateVerify and certificates), and ecdsa_secp256r1_sha256."
         if (signatureScheme.equals(rsa_pss_rsae_sha256)) {
             try {
-                signatureAlgorithm = Signature.getInstance(algorithmMapping.get("RSASSA-PSS"));
-                signatureAlgorithm.setParameter(new PSSParameterSpec("SHA-256", "MGF1", new MGF1ParameterSpec("SHA-256"), 32, 1));
+                signatureAlgorithm = CryptoPrimitives.getSignature(algorithmMapping.get("RSASSA-PSS"), new PSSParameterSpec("SHA-256", "MGF1", new MGF1ParameterSpec("SHA-256"), 32, 1));
             } catch (NoSuchAlgorithmException e) {
                 throw new RuntimeException("Missing RSASSA-PSS support");
             } catch (InvalidAlgorithmParameterException e) {
@@ -202,8 +292,7 @@ public abstract class TlsEngine implements MessageProcessor, TrafficSecrets {
         }
         else if (signatureScheme.equals(rsa_pss_rsae_sha384)) {
             try {
-                signatureAlgorithm = Signature.getInstance(algorithmMapping.get("RSASSA-PSS"));
-                signatureAlgorithm.setParameter(new PSSParameterSpec("SHA-384", "MGF1", new MGF1ParameterSpec("SHA-384"), 48, 1));
+                signatureAlgorithm = CryptoPrimitives.getSignature(algorithmMapping.get("RSASSA-PSS"), new PSSParameterSpec("SHA-384", "MGF1", new MGF1ParameterSpec("SHA-384"), 48, 1));
             } catch (NoSuchAlgorithmException e) {
                 throw new RuntimeException("Missing RSASSA-PSS support");
             } catch (InvalidAlgorithmParameterException e) {
@@ -213,8 +302,7 @@ public abstract class TlsEngine implements MessageProcessor, TrafficSecrets {
         }
         else if (signatureScheme.equals(rsa_pss_rsae_sha512)) {
             try {
-                signatureAlgorithm = Signature.getInstance(algorithmMapping.get("RSASSA-PSS"));
-                signatureAlgorithm.setParameter(new PSSParameterSpec("SHA-512", "MGF1", new MGF1ParameterSpec("SHA-512"), 64, 1));
+                signatureAlgorithm = CryptoPrimitives.getSignature(algorithmMapping.get("RSASSA-PSS"), new PSSParameterSpec("SHA-512", "MGF1", new MGF1ParameterSpec("SHA-512"), 64, 1));
             } catch (NoSuchAlgorithmException e) {
                 throw new RuntimeException("Missing RSASSA-PSS support");
             } catch (InvalidAlgorithmParameterException e) {
@@ -224,11 +312,32 @@ public abstract class TlsEngine implements MessageProcessor, TrafficSecrets {
         }
         else if (signatureScheme.equals(ecdsa_secp256r1_sha256)) {
             try {
-                signatureAlgorithm = Signature.getInstance("SHA256withECDSA");
+                signatureAlgorithm = CryptoPrimitives.getSignature("SHA256withECDSA");
             } catch (NoSuchAlgorithmException e) {
                 throw new RuntimeException("Missing SHA256withECDSA support");
             }
         }
+        else if (signatureScheme.equals(ecdsa_secp384r1_sha384)) {
+            try {
+                signatureAlgorithm = CryptoPrimitives.getSignature("SHA384withECDSA");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("Missing SHA384withECDSA support");
+            }
+        }
+        else if (signatureScheme.equals(ecdsa_secp521r1_sha512)) {
+            try {
+                signatureAlgorithm = CryptoPrimitives.getSignature("SHA512withECDSA");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("Missing SHA512withECDSA support");
+            }
+        }
+        else if (signatureScheme.equals(ed25519)) {
+            try {
+                signatureAlgorithm = CryptoPrimitives.getSignature("Ed25519");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("Missing Ed25519 support");
+            }
+        }
         else {
             // Bad luck, not (yet) supported.
             throw new HandshakeFailureAlert("Signature algorithm not supported " + signatureScheme);
@@ -238,7 +347,10 @@ public abstract class TlsEngine implements MessageProcessor, TrafficSecrets {
 
     @Override
     public byte[] getClientEarlyTrafficSecret() {
-        if (state != null) {
+        if (compacted) {
+            throw new IllegalStateException("Traffic secret no longer available");
+        }
+        else if (state != null) {
             return state.getClientEarlyTrafficSecret();
         }
         else {
@@ -248,7 +360,10 @@ public abstract class TlsEngine implements MessageProcessor, TrafficSecrets {
 
     @Override
     public byte[] getClientHandshakeTrafficSecret() {
-        if (state != null) {
+        if (compacted) {
+            throw new IllegalStateException("Traffic secret no longer available");
+        }
+        else if (state != null) {
             return state.getClientHandshakeTrafficSecret();
         }
         else {
@@ -258,7 +373,10 @@ public abstract class TlsEngine implements MessageProcessor, TrafficSecrets {
 
     @Override
     public byte[] getServerHandshakeTrafficSecret() {
-        if (state != null) {
+        if (compacted) {
+            throw new IllegalStateException("Traffic secret no longer available");
+        }
+        else if (state != null) {
             return state.getServerHandshakeTrafficSecret();
         }
         else {
@@ -20,7 +20,9 @@ package net.luminis.tls.handshake;
 
 import net.luminis.tls.ProtectionKeysType;
 import net.luminis.tls.TlsProtocolException;
+import net.luminis.tls.alert.ErrorAlert;
 import net.luminis.tls.extension.ExtensionParser;
+import net.luminis.tls.jfr.TlsEvents;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -30,16 +32,51 @@ import static net.luminis.tls.TlsConstants.HandshakeType.*;
 public class TlsMessageParser {
 
     private final ExtensionParser customExtensionParser;
+    private final boolean zeroCopy;
 
     public TlsMessageParser() {
-        customExtensionParser = null;
+        this(null, false);
     }
 
     public TlsMessageParser(ExtensionParser customExtensionParser) {
+        this(customExtensionParser, false);
+    }
+
+    /**
+     * Creates a message parser that, when <code>zeroCopy</code> is true, does not copy the (larger) parts of received
+     * messages into new arrays, but keeps read-only views on the buffer that is passed to
+     * <code>parseAndProcessHandshakeMessage</code>; arrays are only created when the data is actually requested.
+     * In this mode, the caller must not change the content of the buffer as long as the parsed messages are in use.
+     * The engines request the message bytes (for the transcript hash) while processing the message, so for them it
+     * suffices to leave the buffer untouched until <code>parseAndProcessHandshakeMessage</code> returns.
+     * @param customExtensionParser
+     * @param zeroCopy
+     */
+    public TlsMessageParser(ExtensionParser customExtensionParser, boolean zeroCopy) {
         this.customExtensionParser = customExtensionParser;
+        this.zeroCopy = zeroCopy;
     }
 
     public HandshakeMessage parseAndProcessHandshakeMessage(ByteBuffer buffer, MessageProcessor messageProcessor, ProtectionKeysType protectedBy) throws TlsProtocolException, IOException {
+        HandshakeMessage parsedMessage;
+        try {
+            parsedMessage = parseHandshakeMessage(buffer);
+        }
+        catch (ErrorAlert alert) {
+            reportAlert(messageProcessor, alert);
+            throw alert;
+        }
+        process(parsedMessage, messageProcessor, protectedBy);
+        return parsedMessage;
+    }
+
+    /**
+     * Parses a handshake message, without processing it.
+     * @param buffer
+     * @return
+     * @throws TlsProtocolException
+     */
+    public HandshakeMessage parseHandshakeMessage(ByteBuffer buffer) throws TlsProtocolException {
         // https://tools.ietf.org/html/rfc8446#section-4
         // "      struct {
         //          HandshakeType msg_type;    /* handshake type */
@@ -51,51 +88,94 @@ public class TlsMessageParser {
         int length = ((buffer.get() & 0xff) << 16) | ((buffer.get() & 0xff) << 8) | (buffer.get() & 0xff);
         buffer.reset();
 
-        HandshakeMessage parsedMessage;
         if (messageType == client_hello.value) {
-            ClientHello ch = new ClientHello(buffer, customExtensionParser);
-            parsedMessage = ch;
-            messageProcessor.received(ch, protectedBy);
+            return new ClientHello(buffer, customExtensionParser, zeroCopy);
         }
         else if (messageType == server_hello.value) {
-            ServerHello sh = new ServerHello().parse(buffer, length + 4);
-            parsedMessage = sh;
-            messageProcessor.received(sh, protectedBy);
+            return new ServerHello().parse(buffer, length + 4);
         }
         else if (messageType == encrypted_extensions.value) {
-            EncryptedExtensions ee = new EncryptedExtensions().parse(buffer, length + 4, customExtensionParser);
-            parsedMessage = ee;
-            messageProcessor.received(ee, protectedBy);
+            return new EncryptedExtensions().parse(buffer, length + 4, customExtensionParser, zeroCopy);
         }
         else if (messageType == certificate.value) {
-            CertificateMessage cm = new CertificateMessage().parse(buffer);
-            parsedMessage = cm;
-            messageProcessor.received(cm, protectedBy);
+            return new CertificateMessage().parse(buffer, zeroCopy);
+        }
+        else if (messageType == compressed_certificate.value) {
+            return new CompressedCertificateMessage().parse(buffer);
         }
         else if (messageType == certificate_request.value) {
-            CertificateRequestMessage cr = new CertificateRequestMessage().parse(buffer);
-            parsedMessage = cr;
-            messageProcessor.received(cr, protectedBy);
+            return new CertificateRequestMessage().parse(buffer);
         }
         else if (messageType == certificate_verify.value) {
-            CertificateVerifyMessage cv = new CertificateVerifyMessage().parse(buffer, length + 4);
-            parsedMessage = cv;
-            messageProcessor.received(cv, protectedBy);
+            return new CertificateVerifyMessage().parse(buffer, length + 4);
         }
         else if (messageType == finished.value) {
-            FinishedMessage fm = new FinishedMessage().parse(buffer, length + 4);
-            parsedMessage = fm;
-            messageProcessor.received(fm, protectedBy);
+            return new FinishedMessage().parse(buffer, length + 4);
         }
         else if (messageType == new_session_ticket.value) {
-            NewSessionTicketMessage nst = new NewSessionTicketMessage().parse(buffer);
-            parsedMessage = nst;
-            messageProcessor.received(nst, protectedBy);
+            return new NewSessionTicketMessage().parse(buffer);
         }
         else {
             throw new TlsProtocolException("Invalid/unsupported message type (" + messageType + ")");
         }
-        return parsedMessage;
+    }
+
+    /**
+     * Lets the given processor process the (parsed) handshake message.
+     * @param message
+     * @param messageProcessor
+     * @param protectedBy
+     * @throws TlsProtocolException
+     * @throws IOException
+     */
+    public static void process(HandshakeMessage message, MessageProcessor messageProcessor, ProtectionKeysType protectedBy) throws TlsProtocolException, IOException {
+        Object event = TlsEvents.beginMessageReceived();
+        try {
+            dispatch(message, messageProcessor, protectedBy);
+        }
+        catch (ErrorAlert alert) {
+            reportAlert(messageProcessor, alert);
+            throw alert;
+        }
+        finally {
+            TlsEvents.endMessageReceived(event, message);
+        }
+    }
+
+    private static void reportAlert(MessageProcessor messageProcessor, ErrorAlert alert) {
+        if (messageProcessor instanceof TlsEngine) {
+            ((TlsEngine) messageProcessor).reportAlert(alert);
+        }
+    }
+
+    private static void dispatch(HandshakeMessage message, MessageProcessor messageProcessor, ProtectionKeysType protectedBy) throws TlsProtocolException, IOException {
+        if (message instanceof ClientHello) {
+            messageProcessor.received((ClientHello) message, protectedBy);
+        }
+        else if (message instanceof ServerHello) {
+            messageProcessor.received((ServerHello) message, protectedBy);
+        }
+        else if (message instanceof EncryptedExtensions) {
+            messageProcessor.received((EncryptedExtensions) message, protectedBy);
+        }
+        else if (message instanceof CertificateMessage) {
+            messageProcessor.received((CertificateMessage) message, protectedBy);
+        }
+        else if (message instanceof CertificateRequestMessage) {
+            messageProcessor.received((CertificateRequestMessage) message, protectedBy);
+        }
+        else if (message instanceof CertificateVerifyMessage) {
+            messageProcessor.received((CertificateVerifyMessage) message, protectedBy);
+        }
+        else if (message instanceof FinishedMessage) {
+            messageProcessor.received((FinishedMessage) message, protectedBy);
+        }
+        else if (message instanceof NewSessionTicketMessage) {
+            messageProcessor.received((NewSessionTicketMessage) message, protectedBy);
+        }
+        else {
+            throw new IllegalArgumentException("Unsupported message type " + message.getType());
+        }
     }
 
 }
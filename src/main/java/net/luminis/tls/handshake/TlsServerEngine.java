@@ -18,6 +18,7 @@
  */
 package net.luminis.tls.handshake;
 
+import net.luminis.tls.ExternalPsk;
 import net.luminis.tls.ProtectionKeysType;
 import net.luminis.tls.TlsConstants;
 import net.luminis.tls.TlsProtocolException;
@@ -28,19 +29,25 @@ import net.luminis.tls.alert.HandshakeFailureAlert;
 import net.luminis.tls.alert.IllegalParameterAlert;
 import net.luminis.tls.alert.MissingExtensionAlert;
 import net.luminis.tls.alert.UnexpectedMessageAlert;
+import net.luminis.tls.alert.UnrecognizedNameAlert;
+import net.luminis.tls.alert.UnsupportedCertificateAlert;
 import net.luminis.tls.extension.*;
+import net.luminis.tls.jfr.TlsEvents;
+import net.luminis.tls.metrics.HandshakeOutcome;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.PrivateKey;
+import java.security.PublicKey;
 import java.security.cert.X509Certificate;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECParameterSpec;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static net.luminis.tls.TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256;
-import static net.luminis.tls.TlsConstants.NamedGroup.x25519;
-import static net.luminis.tls.TlsConstants.PskKeyExchangeMode.psk_dhe_ke;
+import static net.luminis.tls.TlsConstants.PskKeyExchangeMode.psk_ke;
 import static net.luminis.tls.TlsConstants.SignatureScheme.*;
 
 public class TlsServerEngine extends TlsEngine implements ServerMessageProcessor {
@@ -54,17 +61,34 @@ public class TlsServerEngine extends TlsEngine implements ServerMessageProcessor
         Connected
     }
 
+    private static final List<CertificateCompressor> DEFAULT_CERTIFICATE_COMPRESSORS = List.of(new ZlibCertificateCompressor());
+
     private final Set<TlsConstants.CipherSuite> supportedCiphers;
     private final ArrayList<Extension> extensions;
     private ServerMessageSender serverMessageSender;
     protected TlsStatusEventHandler statusHandler;
     private Status status = Status.Start;
-    private List<X509Certificate> serverCertificateChain;
-    private PrivateKey certificatePrivateKey;
+    private final ServerCredentialsSelector serverCredentialsSelector;
+    private final ServerCertificateStore serverCertificateStore;
+    private ServerCredentials serverCredentials;
     private TranscriptHash transcriptHash;
     private TlsConstants.CipherSuite selectedCipher;
+    private TlsConstants.SignatureScheme selectedSignatureScheme;
+    private List<CertificateCompressor> certificateCompressors = DEFAULT_CERTIFICATE_COMPRESSORS;
+    private CertificateCompressor selectedCertificateCompressor;
+    private List<TlsConstants.CertificateType> serverCertificateTypes = List.of(TlsConstants.CertificateType.X509);
+    private TlsConstants.CertificateType selectedCertificateType;
+    private List<TlsConstants.NamedGroup> serverSupportedGroups = KeyShareExtension.supportedCurves;
+    private ServerHello helloRetryRequest;
+    private HandshakeOutcome handshakeOutcome;
+    private TlsConstants.NamedGroup helloRetryGroup;
     private List<Extension> serverExtensions;
     private List<TlsConstants.PskKeyExchangeMode> clientSupportedKeyExchangeModes;
+    private PskKeyExchangeModePolicy pskKeyExchangeModePolicy = PskKeyExchangeModePolicy.DHE_ONLY;
+    private TlsConstants.PskKeyExchangeMode selectedPskKeyExchangeMode;
+    private ExternalPskStore externalPskStore;
+    private byte[] externalPskIdentity;
+    private TlsSession resumedSession;
     private TlsSessionRegistry sessionRegistry;
     private byte currentTicketNumber = 0;
     private String selectedApplicationLayerProtocol;
@@ -74,8 +98,49 @@ public class TlsServerEngine extends TlsEngine implements ServerMessageProcessor
 
 
     public TlsServerEngine(List<X509Certificate> certificates, PrivateKey certificateKey, ServerMessageSender serverMessageSender, TlsStatusEventHandler tlsStatusHandler, TlsSessionRegistry tlsSessionRegistry) {
-        this.serverCertificateChain = certificates;
-        this.certificatePrivateKey = certificateKey;
+        this(new ServerCredentials(certificates, certificateKey), serverMessageSender, tlsStatusHandler, tlsSessionRegistry);
+    }
+
+    public TlsServerEngine(X509Certificate serverCertificate, PrivateKey certificateKey, ServerMessageSender serverMessageSender, TlsStatusEventHandler tlsStatusHandler, TlsSessionRegistry tlsSessionRegistry) {
+        this(List.of(serverCertificate), certificateKey, serverMessageSender, tlsStatusHandler, tlsSessionRegistry);
+    }
+
+    /**
+     * Creates a server engine using the given credentials. Credentials can (and should) be shared by engines, as the
+     * certificate message and signature scheme derived from the certificate chain are computed only once.
+     */
+    public TlsServerEngine(ServerCredentials serverCredentials, ServerMessageSender serverMessageSender, TlsStatusEventHandler tlsStatusHandler, TlsSessionRegistry tlsSessionRegistry) {
+        this(new ServerCredentialsSelector(serverCredentials), serverMessageSender, tlsStatusHandler, tlsSessionRegistry);
+    }
+
+    /**
+     * Creates a server engine that selects the credentials to use (e.g. an ECDSA or an RSA certificate chain) based on
+     * the signature schemes offered by the client. The selector can (and should) be shared by engines.
+     */
+    public TlsServerEngine(ServerCredentialsSelector serverCredentialsSelector, ServerMessageSender serverMessageSender, TlsStatusEventHandler tlsStatusHandler, TlsSessionRegistry tlsSessionRegistry) {
+        this(Objects.requireNonNull(serverCredentialsSelector), null, serverMessageSender, tlsStatusHandler, tlsSessionRegistry);
+    }
+
+    /**
+     * Creates a server engine that selects the credentials to use based on the server name sent by the client (and
+     * then on the signature schemes offered by the client). The store can (and should) be shared by engines.
+     */
+    public TlsServerEngine(ServerCertificateStore serverCertificateStore, ServerMessageSender serverMessageSender, TlsStatusEventHandler tlsStatusHandler, TlsSessionRegistry tlsSessionRegistry) {
+        this(null, Objects.requireNonNull(serverCertificateStore), serverMessageSender, tlsStatusHandler, tlsSessionRegistry);
+    }
+
+    /**
+     * Creates a server engine without a certificate, that only accepts handshakes authenticated with an externally
+     * provisioned pre-shared key (see {@link #setExternalPskStore(ExternalPskStore)}) or resumptions thereof.
+     */
+    public TlsServerEngine(ExternalPskStore externalPskStore, ServerMessageSender serverMessageSender, TlsStatusEventHandler tlsStatusHandler, TlsSessionRegistry tlsSessionRegistry) {
+        this((ServerCredentialsSelector) null, null, serverMessageSender, tlsStatusHandler, tlsSessionRegistry);
+        this.externalPskStore = Objects.requireNonNull(externalPskStore);
+    }
+
+    private TlsServerEngine(ServerCredentialsSelector serverCredentialsSelector, ServerCertificateStore serverCertificateStore, ServerMessageSender serverMessageSender, TlsStatusEventHandler tlsStatusHandler, TlsSessionRegistry tlsSessionRegistry) {
+        this.serverCredentialsSelector = serverCredentialsSelector;
+        this.serverCertificateStore = serverCertificateStore;
         this.serverMessageSender = serverMessageSender;
         this.statusHandler = tlsStatusHandler;
         supportedCiphers = new HashSet<>();
@@ -86,16 +151,13 @@ public class TlsServerEngine extends TlsEngine implements ServerMessageProcessor
         sessionRegistry = tlsSessionRegistry;
     }
 
-    public TlsServerEngine(X509Certificate serverCertificate, PrivateKey certificateKey, ServerMessageSender serverMessageSender, TlsStatusEventHandler tlsStatusHandler, TlsSessionRegistry tlsSessionRegistry) {
-        this(List.of(serverCertificate), certificateKey, serverMessageSender, tlsStatusHandler, tlsSessionRegistry);
-    }
-
     @Override
     public void received(ClientHello clientHello, ProtectionKeysType protectedBy) throws TlsProtocolException, IOException {
         if (status != Status.Start) {
             return;
         }
         status = Status.ReceivedClientHello;
+        boolean secondClientHello = helloRetryRequest != null;
 
         // Find first cipher that server supports
         selectedCipher = clientHello.getCipherSuites().stream()
@@ -105,49 +167,112 @@ public class TlsServerEngine extends TlsEngine implements ServerMessageProcessor
                 // "If the server is unable to negotiate a supported set of parameters (...) it MUST abort the handshake
                 // with either a "handshake_failure" or "insufficient_security" fatal alert "
                 .orElseThrow(() -> new HandshakeFailureAlert("Failed to negotiate a cipher (server only supports " + supportedCiphers.stream().map(c -> c.toString()).collect(Collectors.joining(", ")) + ")"));
-
-        SupportedGroupsExtension supportedGroupsExt = (SupportedGroupsExtension) clientHello.getExtensions().stream()
-                .filter(ext -> ext instanceof SupportedGroupsExtension)
-                .findFirst()
-                .orElseThrow(() -> new MissingExtensionAlert("supported groups extension is required in Client Hello"));
-
-        // This implementation (yet) only supports secp256r1 and x25519
-        List<TlsConstants.NamedGroup> serverSupportedGroups = List.of(TlsConstants.NamedGroup.secp256r1, x25519);
-        if (supportedGroupsExt.getNamedGroups().stream()
-                .filter(serverSupportedGroups::contains)
-                .findFirst()
-                .isEmpty()) {
-            throw new HandshakeFailureAlert(String.format("Failed to negotiate supported group (server only supports %s)", serverSupportedGroups));
+        if (secondClientHello && selectedCipher != helloRetryRequest.getCipherSuite()) {
+            // https://datatracker.ietf.org/doc/html/rfc8446#section-4.1.4
+            // "Servers MUST ensure that they negotiate the same cipher suite when receiving a conformant updated ClientHello"
+            throw new IllegalParameterAlert("cipher suite does not match HelloRetryRequest");
         }
 
-        KeyShareExtension keyShareExtension = (KeyShareExtension) clientHello.getExtensions().stream()
-                .filter(ext -> ext instanceof KeyShareExtension)
+        clientSupportedKeyExchangeModes.clear();
+        clientHello.getExtensions().stream()
+                .filter(ext -> ext instanceof PskKeyExchangeModesExtension)
                 .findFirst()
-                .orElseThrow(() -> new MissingExtensionAlert("key share extension is required in Client Hello"));
+                .ifPresent(extension -> {
+                    clientSupportedKeyExchangeModes.addAll(((PskKeyExchangeModesExtension) extension).getKeyExchangeModes());
+                });
 
-        KeyShareExtension.KeyShareEntry keyShareEntry = keyShareExtension.getKeyShareEntries().stream()
-                .filter(entry -> serverSupportedGroups.contains(entry.getNamedGroup()))
-                .findFirst()
-                .orElseThrow(() -> new IllegalParameterAlert("key share named group not supported (and no HelloRetryRequest support)"));
+        Optional<Extension> pskExtension = clientHello.getExtensions().stream().filter(ext -> ext instanceof ClientHelloPreSharedKeyExtension).findFirst();
+        Optional<TlsConstants.PskKeyExchangeMode> pskKeyExchangeMode = Optional.empty();
+        if (pskExtension.isPresent()) {
+            // "If clients offer "pre_shared_key" without a "psk_key_exchange_modes" extension, servers MUST abort the handshake."
+            if (clientSupportedKeyExchangeModes.isEmpty()) {
+                throw new MissingExtensionAlert("psk_key_exchange_modes extension required with pre_shared_key");
+            }
+            // Check for PSK Exchange mode; by default, the server only supports psk_dhe_ke
+            pskKeyExchangeMode = pskKeyExchangeModePolicy.select(List.copyOf(clientSupportedKeyExchangeModes));
+        }
 
-       SignatureAlgorithmsExtension signatureAlgorithmsExtension = (SignatureAlgorithmsExtension) clientHello.getExtensions().stream()
-                .filter(ext -> ext instanceof SignatureAlgorithmsExtension)
-                .findFirst()
-                .orElseThrow(() -> new MissingExtensionAlert("signature algorithms extension is required in Client Hello"));
+        // https://datatracker.ietf.org/doc/html/rfc8446#section-9.2
+        // With psk_ke, no (EC)DHE key exchange takes place, so a client that only offers psk_ke does not need to send
+        // "supported_groups" and "key_share". Hence, the PSK must be accepted before deciding on the key share.
+        // An external PSK is always accepted first, as it authenticates the server instead of a certificate.
+        Integer selectedIdentity = null;
+        if (pskKeyExchangeMode.isPresent()) {
+            ClientHelloPreSharedKeyExtension preSharedKeyExtension = (ClientHelloPreSharedKeyExtension) pskExtension.get();
+            selectedIdentity = acceptExternalPsk(preSharedKeyExtension, pskKeyExchangeMode.get(), clientHello);
+            if (selectedIdentity == null && pskKeyExchangeMode.get() == psk_ke) {
+                selectedIdentity = selectResumption(preSharedKeyExtension, psk_ke, clientHello);
+            }
+        }
+        boolean pskOnly = selectedPskKeyExchangeMode == psk_ke;
+
+        SupportedGroupsExtension supportedGroupsExt = null;
+        Optional<KeyShareExtension.KeyShareEntry> keyShareEntry = Optional.empty();
+        if (!pskOnly) {
+            supportedGroupsExt = (SupportedGroupsExtension) clientHello.getExtensions().stream()
+                    .filter(ext -> ext instanceof SupportedGroupsExtension)
+                    .findFirst()
+                    .orElseThrow(() -> new MissingExtensionAlert("supported groups extension is required in Client Hello"));
+
+            if (supportedGroupsExt.getNamedGroups().stream()
+                    .filter(serverSupportedGroups::contains)
+                    .findFirst()
+                    .isEmpty()) {
+                throw new HandshakeFailureAlert(String.format("Failed to negotiate supported group (server only supports %s)", serverSupportedGroups));
+            }
 
-       clientHello.getExtensions().stream()
-               .filter(ext -> ext instanceof PskKeyExchangeModesExtension)
-               .findFirst()
-               .ifPresent(extension -> {
-                   clientSupportedKeyExchangeModes.addAll(((PskKeyExchangeModesExtension) extension).getKeyExchangeModes());
-               });
+            KeyShareExtension keyShareExtension = (KeyShareExtension) clientHello.getExtensions().stream()
+                    .filter(ext -> ext instanceof KeyShareExtension)
+                    .findFirst()
+                    .orElseThrow(() -> new MissingExtensionAlert("key share extension is required in Client Hello"));
+
+            keyShareEntry = keyShareExtension.getKeyShareEntries().stream()
+                    .filter(entry -> serverSupportedGroups.contains(entry.getNamedGroup()))
+                    .findFirst();
+            // https://datatracker.ietf.org/doc/html/rfc8446#section-4.2.8
+            // "If using (EC)DHE key establishment and a HelloRetryRequest containing a "key_share" extension was
+            //  received by the client, the client MUST verify that the selected NamedGroup in the ServerHello is the
+            //  same as that in the HelloRetryRequest." The updated ClientHello must therefore contain a key share for it.
+            if (secondClientHello && (keyShareEntry.isEmpty() || keyShareEntry.get().getNamedGroup() != helloRetryGroup)) {
+                throw new IllegalParameterAlert("key share for group selected in HelloRetryRequest missing");
+            }
+        }
+        if (secondClientHello) {
+            // "Removing the "early_data" extension (Section 4.2.10) if one was present. Early data is not permitted
+            //  after a HelloRetryRequest."
+            if (clientHello.getExtensions().stream().anyMatch(ext -> ext instanceof EarlyDataExtension)) {
+                throw new IllegalParameterAlert("early data not permitted after HelloRetryRequest");
+            }
+        }
 
-        // This implementation (yet) only supports rsa_pss_rsae_sha256 (non compliant, see https://tools.ietf.org/html/rfc8446#section-9.1)
-        if (!signatureAlgorithmsExtension.getSignatureAlgorithms().contains(rsa_pss_rsae_sha256)) {
-            throw new HandshakeFailureAlert("Failed to negotiate signature algorithm (server only supports rsa_pss_rsae_sha256");
+        // With an external PSK, the server does not authenticate with a certificate, so none is selected. Without
+        // credentials (server that only accepts external PSKs), the handshake fails unless a PSK is accepted.
+        ServerCredentialsSelector credentialsSelector = externalPskIdentity == null? selectCredentials(clientHello): null;
+        if (credentialsSelector != null) {
+            SignatureAlgorithmsExtension signatureAlgorithmsExtension = (SignatureAlgorithmsExtension) clientHello.getExtensions().stream()
+                    .filter(ext -> ext instanceof SignatureAlgorithmsExtension)
+                    .findFirst()
+                    .orElseThrow(() -> new MissingExtensionAlert("signature algorithms extension is required in Client Hello"));
+            selectCertificate(clientHello, credentialsSelector, signatureAlgorithmsExtension);
         }
 
-        Optional<Extension> pskExtension = clientHello.getExtensions().stream().filter(ext -> ext instanceof ClientHelloPreSharedKeyExtension).findFirst();
+        if (!pskOnly && keyShareEntry.isEmpty()) {
+            // https://datatracker.ietf.org/doc/html/rfc8446#section-4.2.8
+            // "If the server selects an (EC)DHE group and the client did not offer a compatible "key_share" extension
+            //  in the initial ClientHello, the server MUST respond with a HelloRetryRequest (HRR) message."
+            TlsConstants.NamedGroup selectedGroup = supportedGroupsExt.getNamedGroups().stream()
+                    .filter(serverSupportedGroups::contains)
+                    .findFirst()
+                    .get();
+            if (externalPskIdentity != null) {
+                // The binder must be validated (again) with the updated ClientHello, as it covers the HelloRetryRequest.
+                state = null;
+                externalPskIdentity = null;
+                selectedPskKeyExchangeMode = null;
+            }
+            sendHelloRetryRequest(clientHello, selectedGroup);
+            return;
+        }
 
         // So: ClientHello is valid and negotiation was successful, as far as this engine is concerned.
         // Use callback to let context check other prerequisites, for example appropriate ALPN extension
@@ -155,122 +280,385 @@ public class TlsServerEngine extends TlsEngine implements ServerMessageProcessor
 
         status = Status.Negotiated;
 
-        // Start building TLS state and prepare response. First check whether client wants to use PSK (resumption)
-        boolean earlyDataAccepted = false;
-        Integer selectedIdentity = null;
-        if (pskExtension.isPresent()) {
-            // "If clients offer "pre_shared_key" without a "psk_key_exchange_modes" extension, servers MUST abort the handshake."
-            if (clientSupportedKeyExchangeModes.isEmpty()) {
-                throw new MissingExtensionAlert("psk_key_exchange_modes extension required with pre_shared_key");
+        // Start building TLS state and prepare response. With psk_dhe_ke, the resumption ticket is only selected now
+        // that it is certain no HelloRetryRequest is sent. In any case, the ticket is only used now that the ClientHello
+        // has been accepted, so a rejected ClientHello does not make the ticket unusable.
+        if (selectedIdentity == null && pskKeyExchangeMode.isPresent() && pskKeyExchangeMode.get() != psk_ke) {
+            selectedIdentity = selectResumption((ClientHelloPreSharedKeyExtension) pskExtension.get(), pskKeyExchangeMode.get(), clientHello);
+        }
+        if (resumedSession != null && sessionRegistry.useSession(((ClientHelloPreSharedKeyExtension) pskExtension.get()).getIdentities().get(selectedIdentity)) == null) {
+            // Ticket has been used by another handshake in the meantime.
+            if (pskOnly) {
+                throw new HandshakeFailureAlert("Resumption ticket already used");
             }
-            // Check for PSK Exchange mode; server only supports psk_dhe_ke
-            if (clientSupportedKeyExchangeModes.contains(psk_dhe_ke)) {
-                ClientHelloPreSharedKeyExtension preSharedKeyExtension = (ClientHelloPreSharedKeyExtension) pskExtension.get();
-                selectedIdentity = sessionRegistry.selectIdentity(preSharedKeyExtension.getIdentities(), selectedCipher);
-                if (selectedIdentity != null) {
-                    if (isAcceptable(sessionRegistry.peekSessionData(preSharedKeyExtension.getIdentities().get(selectedIdentity)))) {
-                        // https://datatracker.ietf.org/doc/html/rfc8446#section-4.2.11
-                        // "Prior to accepting PSK key establishment, the server MUST validate the corresponding binder value.
-                        //  If this value is not present or does not validate, the server MUST abort the handshake.
-                        //  Servers SHOULD NOT attempt to validate multiple binders; rather, they SHOULD select a single PSK
-                        //  and validate solely the binder that corresponds to that PSK."
-                        TlsSession resumedSession = sessionRegistry.useSession(preSharedKeyExtension.getIdentities().get(selectedIdentity));
-                        if (resumedSession != null) {
-                            transcriptHash = new TranscriptHash(hashLength(selectedCipher));
-                            state = new TlsState(transcriptHash, resumedSession.getPsk(), keyLength(selectedCipher), hashLength(selectedCipher));
-                            if (!validateBinder(preSharedKeyExtension.getBinders().get(selectedIdentity), preSharedKeyExtension.getBinderPosition(), clientHello)) {
-                                state = null;
-                                throw new DecryptErrorAlert("Invalid PSK binder");
-                            }
-                            // Now PSK is accepted, check for early-data-indication
-                            if (clientHello.getExtensions().stream().filter(ext -> ext instanceof EarlyDataExtension).findAny().isPresent()) {
-                                // Client intends to send early data, first check whether application layer protocols match
-                                // https://datatracker.ietf.org/doc/html/rfc8446#section-4.2.11
-                                // "In order to accept early data, the server MUST have accepted a PSK cipher suite and selected
-                                //  the first key offered in the client's "pre_shared_key" extension. In addition, it MUST verify that the
-                                //   following values are the same as those associated with the selected PSK: (...)
-                                //   -  The selected cipher suite
-                                //   -  The selected ALPN [RFC7301] protocol, if any"
-                                // Check for non-null selectedApplicationLayerProtocol ensures it has been set (possibly to empty string, which is allowed)
-                                if (selectedIdentity == 0 && selectedApplicationLayerProtocol != null
-                                        && selectedApplicationLayerProtocol.equals(resumedSession.getApplicationLayerProtocol())) {
-                                    // From TLS point of view, early data is acceptable, use callback to determine if it will be accepted.
-                                    earlyDataAccepted = statusHandler.isEarlyDataAccepted();
-                                }
-                            }
-                        }
-                    }
-                }
+            state = null;
+            resumedSession = null;
+            selectedPskKeyExchangeMode = null;
+        }
+        boolean earlyDataAccepted = false;
+        // Now PSK is accepted, check for early-data-indication
+        if (resumedSession != null && clientHello.getExtensions().stream().filter(ext -> ext instanceof EarlyDataExtension).findAny().isPresent()) {
+            // Client intends to send early data, first check whether application layer protocols match
+            // https://datatracker.ietf.org/doc/html/rfc8446#section-4.2.11
+            // "In order to accept early data, the server MUST have accepted a PSK cipher suite and selected
+            //  the first key offered in the client's "pre_shared_key" extension. In addition, it MUST verify that the
+            //   following values are the same as those associated with the selected PSK: (...)
+            //   -  The selected cipher suite
+            //   -  The selected ALPN [RFC7301] protocol, if any"
+            // Check for non-null selectedApplicationLayerProtocol ensures it has been set (possibly to empty string, which is allowed)
+            if (selectedIdentity == 0 && selectedApplicationLayerProtocol != null
+                    && selectedApplicationLayerProtocol.equals(resumedSession.getApplicationLayerProtocol())) {
+                // From TLS point of view, early data is acceptable, use callback to determine if it will be accepted.
+                earlyDataAccepted = statusHandler.isEarlyDataAccepted();
             }
         }
         if (state == null) {
             // Resumption was not requested or not successful; init TLS state without PSK.
-            transcriptHash = new TranscriptHash(hashLength(selectedCipher));
-            state = new TlsState(transcriptHash, keyLength(selectedCipher), hashLength(selectedCipher));
+            if (transcriptHash == null) {
+                transcriptHash = createTranscriptHash(hashLength(selectedCipher));
+            }
+            state = createTlsState(transcriptHash, null, keyLength(selectedCipher), hashLength(selectedCipher));
             // The selectedIdentity indicates which PSK was used to resume the session; it must be null when session is not resumed.
             selectedIdentity = null;
+            if (serverCredentials == null) {
+                throw new HandshakeFailureAlert("Failed to authenticate (server has no certificate and no pre-shared key is accepted)");
+            }
         }
         transcriptHash.record(clientHello);
 
-        generateKeys(keyShareEntry.getNamedGroup());
-        state.setOwnKey(privateKey);
+        if (!pskOnly) {
+            generateKeys(keyShareEntry.get().getNamedGroup());
+            state.setOwnKey(privateKey);
+        }
         state.computeEarlyTrafficSecret();
         statusHandler.earlySecretsKnown();
 
-        List<Extension> extensions = List.of(
-                new SupportedVersionsExtension(TlsConstants.HandshakeType.server_hello),
-                new KeyShareExtension(publicKey, keyShareEntry.getNamedGroup(), TlsConstants.HandshakeType.server_hello));
+        List<Extension> extensions = new ArrayList<>();
+        extensions.add(new SupportedVersionsExtension(TlsConstants.HandshakeType.server_hello));
+        // https://datatracker.ietf.org/doc/html/rfc8446#section-4.2.9
+        // "psk_ke:  PSK-only key establishment.  In this mode, the server MUST NOT supply a "key_share" value."
+        if (!pskOnly) {
+            extensions.add(new KeyShareExtension(publicKey, keyShareEntry.get().getNamedGroup(), TlsConstants.HandshakeType.server_hello));
+        }
         if (selectedIdentity != null) {
-            extensions = new ArrayList<>(extensions);
             extensions.add(new ServerPreSharedKeyExtension(selectedIdentity.shortValue()));
         }
         ServerHello serverHello = new ServerHello(selectedCipher, extensions);
 
         // Send server hello back to client
         serverMessageSender.send(serverHello);
+        TlsEvents.messageSent(serverHello);
 
         // Update state
         transcriptHash.record(serverHello);
-        state.setPeerKey(keyShareEntry.getKey());
 
         // Compute keys
-        state.computeSharedSecret();
+        if (pskOnly) {
+            state.setNoSharedSecret();
+        }
+        else {
+            state.setPeerKey(keyShareEntry.get().getKey());
+            state.computeSharedSecret();
+        }
         state.computeHandshakeSecrets();
         statusHandler.handshakeSecretsKnown();
 
         if (earlyDataAccepted) {
             serverExtensions.add(new EarlyDataExtension());
         }
+        if (selectedIdentity == null && clientHello.getExtensions().stream().anyMatch(ext -> ext instanceof ServerCertificateTypeExtension)) {
+            // https://datatracker.ietf.org/doc/html/rfc7250#section-4.2: the selected type is only sent when the
+            // client sent the extension.
+            serverExtensions.add(new ServerCertificateTypeExtension(selectedCertificateType));
+        }
+        handshakeOutcome = earlyDataAccepted? HandshakeOutcome.EarlyDataAccepted:
+                externalPskIdentity != null? HandshakeOutcome.ExternalPsk:
+                selectedIdentity != null? HandshakeOutcome.Resumed: HandshakeOutcome.Full;
         EncryptedExtensions encryptedExtensions = new EncryptedExtensions(serverExtensions);
         serverMessageSender.send(encryptedExtensions);
+        TlsEvents.messageSent(encryptedExtensions);
         transcriptHash.record(encryptedExtensions);
 
         // Only if session is not started with a PSK resumption, send certificate and certificate verify
         if (selectedIdentity == null) {
-            CertificateMessage certificate = new CertificateMessage(serverCertificateChain);
+            CertificateMessage certificate;
+            if (selectedCertificateType == TlsConstants.CertificateType.RawPublicKey) {
+                certificate = serverCredentials.getRawPublicKeyCertificateMessage();
+            }
+            else {
+                certificate = selectedCertificateCompressor != null?
+                        serverCredentials.getCertificateMessage(selectedCertificateCompressor): serverCredentials.getCertificateMessage();
+            }
             serverMessageSender.send(certificate);
+            TlsEvents.messageSent(certificate);
             transcriptHash.recordServer(certificate);
 
             // "The content that is covered under the signature is the hash output as described in Section 4.4.1, namely:
             //      Transcript-Hash(Handshake Context, Certificate)
             byte[] hash = transcriptHash.getServerHash(TlsConstants.HandshakeType.certificate);
 
-            TlsConstants.SignatureScheme signatureScheme = determineSignatureScheme(serverCertificateChain.get(0));
-            byte[] signature = computeSignature(hash, certificatePrivateKey, signatureScheme, false);
-            CertificateVerifyMessage certificateVerify = new CertificateVerifyMessage(signatureScheme, signature);
+            byte[] signature = computeSignature(hash, serverCredentials.getPrivateKey(), selectedSignatureScheme, false);
+            CertificateVerifyMessage certificateVerify = new CertificateVerifyMessage(selectedSignatureScheme, signature);
             serverMessageSender.send(certificateVerify);
+            TlsEvents.messageSent(certificateVerify);
             transcriptHash.recordServer(certificateVerify);
         }
 
         byte[] hmac = computeFinishedVerifyData(transcriptHash.getServerHash(TlsConstants.HandshakeType.certificate_verify), state.getServerHandshakeTrafficSecret());
         FinishedMessage finished = new FinishedMessage(hmac);
         serverMessageSender.send(finished);
+        TlsEvents.messageSent(finished);
         transcriptHash.recordServer(finished);
         state.computeApplicationSecrets();
 
         status = Status.WaitFinished;
     }
 
+    /**
+     * Selects the resumption ticket offered by the client when it is known by the session registry. Before the ticket
+     * is selected, its binder is validated and the TLS state is initialized with its PSK. The ticket is not used yet,
+     * i.e. it is not removed from the session registry.
+     * @return  the index of the selected identity, or null when no ticket is selected
+     */
+    private Integer selectResumption(ClientHelloPreSharedKeyExtension preSharedKeyExtension, TlsConstants.PskKeyExchangeMode pskKeyExchangeMode, ClientHello clientHello) throws DecryptErrorAlert {
+        Integer selectedIdentity = null;
+        if (sessionRegistry != null) {
+            selectedIdentity = sessionRegistry.selectIdentity(preSharedKeyExtension.getIdentities(), selectedCipher);
+            if (selectedIdentity != null) {
+                TlsSession session = sessionRegistry.peekSession(preSharedKeyExtension.getIdentities().get(selectedIdentity));
+                if (session == null || !isAcceptable(session.getData())) {
+                    return null;
+                }
+                resumedSession = session;
+                // https://datatracker.ietf.org/doc/html/rfc8446#section-4.2.11
+                // "Prior to accepting PSK key establishment, the server MUST validate the corresponding binder value.
+                //  If this value is not present or does not validate, the server MUST abort the handshake.
+                //  Servers SHOULD NOT attempt to validate multiple binders; rather, they SHOULD select a single PSK
+                //  and validate solely the binder that corresponds to that PSK."
+                if (transcriptHash == null) {
+                    transcriptHash = createTranscriptHash(hashLength(selectedCipher));
+                }
+                state = createTlsState(transcriptHash, resumedSession.getPsk(), keyLength(selectedCipher), hashLength(selectedCipher));
+                if (!validateBinder(preSharedKeyExtension.getBinders().get(selectedIdentity), preSharedKeyExtension.getBinderPosition(), clientHello)) {
+                    state = null;
+                    resumedSession = null;
+                    throw new DecryptErrorAlert("Invalid PSK binder");
+                }
+            }
+        }
+        if (selectedIdentity != null) {
+            selectedPskKeyExchangeMode = pskKeyExchangeMode;
+        }
+        return selectedIdentity;
+    }
+
+    /**
+     * Looks up the identities offered by the client in the external PSK store; when a key is found that can be used
+     * with the selected cipher, its binder is validated and the TLS state is initialized with the key.
+     * @return  the index of the selected identity, or null when no external PSK is selected
+     */
+    private Integer acceptExternalPsk(ClientHelloPreSharedKeyExtension preSharedKeyExtension, TlsConstants.PskKeyExchangeMode pskKeyExchangeMode, ClientHello clientHello) throws DecryptErrorAlert {
+        if (externalPskStore == null) {
+            return null;
+        }
+        List<ClientHelloPreSharedKeyExtension.PskIdentity> identities = preSharedKeyExtension.getIdentities();
+        for (int index = 0; index < identities.size(); index++) {
+            byte[] identity = identities.get(index).getIdentity();
+            // https://datatracker.ietf.org/doc/html/rfc8446#section-4.2.11: each PSK is associated with a single hash
+            // algorithm, so the key can only be used when the selected cipher suite has the same hash.
+            Optional<ExternalPsk> externalPsk = externalPskStore.lookup(identity)
+                    .filter(psk -> hashLength(psk.getCipher()) == hashLength(selectedCipher));
+            if (externalPsk.isPresent()) {
+                if (transcriptHash == null) {
+                    transcriptHash = createTranscriptHash(hashLength(selectedCipher));
+                }
+                state = createTlsState(transcriptHash, externalPsk.get().getKey(), true, keyLength(selectedCipher), hashLength(selectedCipher));
+                if (!validateBinder(preSharedKeyExtension.getBinders().get(index), preSharedKeyExtension.getBinderPosition(), clientHello)) {
+                    state = null;
+                    throw new DecryptErrorAlert("Invalid PSK binder");
+                }
+                externalPskIdentity = identity;
+                selectedPskKeyExchangeMode = pskKeyExchangeMode;
+                return index;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Selects the server credentials and signature scheme, the certificate compression algorithm and the server
+     * certificate type to use for authenticating with a certificate.
+     */
+    private void selectCertificate(ClientHello clientHello, ServerCredentialsSelector credentialsSelector, SignatureAlgorithmsExtension signatureAlgorithmsExtension) throws TlsProtocolException {
+        // https://datatracker.ietf.org/doc/html/rfc8446#section-4.4.3
+        // "If the CertificateVerify message is sent by a server, the signature algorithm MUST be one offered in the
+        //  client's "signature_algorithms" extension unless no valid certificate chain can be produced without
+        //  unsupported algorithms"
+        Optional<ServerCredentialsSelector.Selection> selection = credentialsSelector.select(signatureAlgorithmsExtension.getSignatureAlgorithms());
+        if (selection.isEmpty()) {
+            throw new HandshakeFailureAlert("Failed to negotiate signature algorithm (server certificates support " + credentialsSelector.getSignatureSchemes() + ")");
+        }
+        serverCredentials = selection.get().getServerCredentials();
+        selectedSignatureScheme = selection.get().getSignatureScheme();
+
+        // https://datatracker.ietf.org/doc/html/rfc8879#section-3: the server can compress its certificate with any of
+        // the algorithms offered in the client's "compress_certificate" extension.
+        selectedCertificateCompressor = clientHello.getExtensions().stream()
+                .filter(ext -> ext instanceof CompressCertificateExtension)
+                .map(ext -> ((CompressCertificateExtension) ext).getAlgorithms())
+                .findFirst()
+                .flatMap(offered -> certificateCompressors.stream()
+                        .filter(compressor -> offered.contains(compressor.getAlgorithm()))
+                        .findFirst())
+                .orElse(null);
+
+        // https://datatracker.ietf.org/doc/html/rfc7250#section-4.2: the server selects one of the certificate types
+        // offered in the client's "server_certificate_type" extension (X.509 when absent) and aborts the handshake
+        // with an "unsupported_certificate" alert when there is no type in common.
+        List<TlsConstants.CertificateType> offeredCertificateTypes = clientHello.getExtensions().stream()
+                .filter(ext -> ext instanceof ServerCertificateTypeExtension)
+                .map(ext -> ((ServerCertificateTypeExtension) ext).getCertificateTypes())
+                .findFirst()
+                .orElse(List.of(TlsConstants.CertificateType.X509));
+        boolean hasCertificateChain = serverCredentials.hasCertificateChain();
+        selectedCertificateType = serverCertificateTypes.stream()
+                .filter(offeredCertificateTypes::contains)
+                .filter(type -> type != TlsConstants.CertificateType.X509 || hasCertificateChain)
+                .findFirst()
+                .orElseThrow(() -> new UnsupportedCertificateAlert("Failed to negotiate server certificate type (server only supports " + serverCertificateTypes + ")"));
+    }
+
+    private ServerCredentialsSelector selectCredentials(ClientHello clientHello) throws UnrecognizedNameAlert {
+        if (serverCertificateStore == null) {
+            return serverCredentialsSelector;
+        }
+        String serverName = clientHello.getExtensions().stream()
+                .filter(ext -> ext instanceof ServerNameExtension)
+                .map(ext -> ((ServerNameExtension) ext).getHostName())
+                .findFirst()
+                .orElse(null);
+        Optional<ServerCredentialsSelector> selector = serverCertificateStore.lookup(serverName);
+        if (selector.isPresent()) {
+            // https://datatracker.ietf.org/doc/html/rfc6066#section-3
+            // "A server that receives a client hello containing the "server_name" extension MAY use the information
+            //  contained in the extension to guide its selection of an appropriate certificate to return to the client
+            //  (...). In this event, the server SHALL include an extension of type "server_name" in the (extended)
+            //  server hello. The "extension_data" field of this extension SHALL be empty."
+            if (serverExtensions.stream().noneMatch(ext -> ext instanceof ServerNameExtension)) {
+                serverExtensions.add(new ServerNameExtension());
+            }
+            return selector.get();
+        }
+        else if (serverCertificateStore.getDefault() != null) {
+            return serverCertificateStore.getDefault();
+        }
+        else {
+            throw new UnrecognizedNameAlert("no certificate for server name " + serverName);
+        }
+    }
+
+    private void sendHelloRetryRequest(ClientHello clientHello, TlsConstants.NamedGroup selectedGroup) throws TlsProtocolException, IOException {
+        helloRetryGroup = selectedGroup;
+        helloRetryRequest = new ServerHello(selectedCipher, List.of(
+                new SupportedVersionsExtension(TlsConstants.HandshakeType.server_hello),
+                new KeyShareExtension(selectedGroup)), true);
+
+        // https://datatracker.ietf.org/doc/html/rfc8446#section-4.4.1
+        // "When the server responds to a ClientHello with a HelloRetryRequest, the value of ClientHello1 is replaced
+        //  with a special synthetic handshake message of handshake type "message_hash" containing Hash(ClientHello1)."
+        transcriptHash = createTranscriptHash(hashLength(selectedCipher));
+        transcriptHash.record(clientHello);
+        transcriptHash.recordHelloRetryRequest(helloRetryRequest);
+
+        serverMessageSender.send(helloRetryRequest);
+        TlsEvents.messageSent(helloRetryRequest);
+        // https://www.rfc-editor.org/rfc/rfc8446.html#appendix-A.2: after sending HelloRetryRequest, wait for a new ClientHello
+        status = Status.Start;
+    }
+
+    /**
+     * Restricts the named groups the server accepts for key exchange. When the client does not send a key share for any
+     * of these groups, the server sends a HelloRetryRequest for the first group in the client's supported groups that
+     * the server accepts. By default, all groups supported by this implementation (secp256r1 and x25519) are accepted.
+     * @param groups
+     */
+    public void setSupportedGroups(List<TlsConstants.NamedGroup> groups) {
+        if (groups.isEmpty() || !KeyShareExtension.supportedCurves.containsAll(groups)) {
+            throw new IllegalArgumentException("Only " + KeyShareExtension.supportedCurves + " are supported");
+        }
+        serverSupportedGroups = List.copyOf(groups);
+    }
+
+    /**
+     * Sets the certificate compression algorithms (RFC 8879) the server supports, in order of preference. When the
+     * client offers one of them, the certificate message is sent compressed. By default, zlib is supported.
+     * @param certificateCompressors  the algorithms, or an empty list to never compress the certificate message
+     */
+    public void setCertificateCompressors(List<CertificateCompressor> certificateCompressors) {
+        this.certificateCompressors = List.copyOf(certificateCompressors);
+    }
+
+    /**
+     * Sets the certificate types (RFC 7250) the server supports for its own certificate, in order of preference. The
+     * raw public key type is only selected when the client offers it in its "server_certificate_type" extension. By
+     * default, only X.509 is supported.
+     * @param certificateTypes
+     */
+    public void setServerCertificateTypes(List<TlsConstants.CertificateType> certificateTypes) {
+        if (certificateTypes.isEmpty()) {
+            throw new IllegalArgumentException("at least one certificate type is required");
+        }
+        serverCertificateTypes = List.copyOf(certificateTypes);
+    }
+
+    /**
+     * @return  the negotiated type of the server certificate, or null when not (yet) negotiated
+     */
+    public TlsConstants.CertificateType getSelectedCertificateType() {
+        return selectedCertificateType;
+    }
+
+    /**
+     * @return  whether the server sent a HelloRetryRequest
+     */
+    public boolean isHelloRetryRequested() {
+        return helloRetryRequest != null;
+    }
+
+    /**
+     * Sets the policy that determines which PSK key exchange mode is used when a client offers a pre-shared key.
+     * By default, only PSK with (EC)DHE (psk_dhe_ke) is accepted; use {@link PskKeyExchangeModePolicy#PREFER_PSK_ONLY}
+     * (or a custom policy) to let resumption skip the key exchange.
+     * @param pskKeyExchangeModePolicy
+     */
+    public void setPskKeyExchangeModePolicy(PskKeyExchangeModePolicy pskKeyExchangeModePolicy) {
+        this.pskKeyExchangeModePolicy = Objects.requireNonNull(pskKeyExchangeModePolicy);
+    }
+
+    /**
+     * Sets the store with externally provisioned pre-shared keys. When a client offers the identity of a key in the
+     * store, the handshake is authenticated with that key instead of the server certificate. Session tickets are
+     * still used for resumption; early data is not accepted with an external PSK.
+     * @param externalPskStore  the store, or null to not accept external PSKs (the default)
+     */
+    public void setExternalPskStore(ExternalPskStore externalPskStore) {
+        this.externalPskStore = externalPskStore;
+    }
+
+    /**
+     * @return  the identity of the external PSK that authenticated the handshake, or null when no external PSK was used
+     */
+    public byte[] getExternalPskIdentity() {
+        return externalPskIdentity != null? externalPskIdentity.clone(): null;
+    }
+
+    /**
+     * @return  the key exchange mode used with the pre-shared key, or null when no pre-shared key was accepted
+     */
+    public TlsConstants.PskKeyExchangeMode getSelectedPskKeyExchangeMode() {
+        return selectedPskKeyExchangeMode;
+    }
+
     static TlsConstants.SignatureScheme determineSignatureScheme(X509Certificate certificate) throws TlsProtocolException {
         switch (certificate.getSigAlgName()) {
             case "SHA256withRSA":
@@ -298,6 +686,86 @@ public class TlsServerEngine extends TlsEngine implements ServerMessageProcessor
         }
     }
 
+    /**
+     * Determines the signature schemes that can be used for signing with the private key that belongs to the given
+     * certificate, in order of preference. As the signature scheme must match the key, it is determined by the type
+     * (and for EC keys, the curve) of the certificate's public key; for RSA keys, the hash algorithm of the
+     * certificate's own signature is preferred.
+     * @param certificate
+     * @return
+     * @throws TlsProtocolException  if the type of the certificate key is not supported
+     */
+    static List<TlsConstants.SignatureScheme> determineSignatureSchemes(X509Certificate certificate) throws TlsProtocolException {
+        return determineSignatureSchemes(certificate.getPublicKey(), certificate);
+    }
+
+    /**
+     * @param publicKey  the public key to determine the signature schemes for
+     * @param certificate  the certificate containing the public key (only used to determine the preferred RSA scheme),
+     *                     or null if the key is used as raw public key
+     */
+    static List<TlsConstants.SignatureScheme> determineSignatureSchemes(PublicKey publicKey, X509Certificate certificate) throws TlsProtocolException {
+        switch (publicKey.getAlgorithm()) {
+            case "RSA":
+                List<TlsConstants.SignatureScheme> rsaSchemes = new ArrayList<>(List.of(rsa_pss_rsae_sha256, rsa_pss_rsae_sha384, rsa_pss_rsae_sha512));
+                if (certificate == null) {
+                    return rsaSchemes;
+                }
+                try {
+                    TlsConstants.SignatureScheme preferred = determineSignatureScheme(certificate);
+                    if (rsaSchemes.remove(preferred)) {
+                        rsaSchemes.add(0, preferred);
+                    }
+                }
+                catch (TlsProtocolException unknownCertificateSignature) {
+                    // Does not matter, as it is only used to determine the preference.
+                }
+                return rsaSchemes;
+            case "EC":
+                // https://datatracker.ietf.org/doc/html/rfc8446#section-4.2.3
+                // "ECDSA algorithms:  Indicates a signature algorithm using ECDSA [ECDSA], the corresponding curve as
+                //  defined in ANSI X9.62 [ECDSA] and FIPS 186-4 [DSS], and the corresponding hash algorithm"
+                // The field size alone does not determine the curve (e.g. secp256k1 has the same size as secp256r1).
+                ECParameterSpec keyParams = ((ECPublicKey) publicKey).getParams();
+                if (isNamedCurve(keyParams, "secp256r1")) {
+                    return List.of(ecdsa_secp256r1_sha256);
+                }
+                else if (isNamedCurve(keyParams, "secp384r1")) {
+                    return List.of(ecdsa_secp384r1_sha384);
+                }
+                else if (isNamedCurve(keyParams, "secp521r1")) {
+                    return List.of(ecdsa_secp521r1_sha512);
+                }
+                else {
+                    throw new TlsProtocolException("Unsupported curve for certificate key (field size " + keyParams.getCurve().getField().getFieldSize() + ")");
+                }
+            case "EdDSA":
+            case "Ed25519":
+                if (isEd25519Key(publicKey)) {
+                    return List.of(ed25519);
+                }
+                throw new TlsProtocolException("Unsupported EdDSA certificate key (only Ed25519 is supported)");
+            default:
+                throw new TlsProtocolException("Unsupported certificate key type " + publicKey.getAlgorithm());
+        }
+    }
+
+    private static boolean isNamedCurve(ECParameterSpec params, String curveName) {
+        ECParameterSpec namedCurveParams = KeyShareExtension.ecParameterSpecForCurve(curveName);
+        return params.getCurve().equals(namedCurveParams.getCurve())
+                && params.getGenerator().equals(namedCurveParams.getGenerator())
+                && params.getOrder().equals(namedCurveParams.getOrder())
+                && params.getCofactor() == namedCurveParams.getCofactor();
+    }
+
+    private static boolean isEd25519Key(PublicKey publicKey) {
+        // https://datatracker.ietf.org/doc/html/rfc8410#section-3: id-Ed25519 OBJECT IDENTIFIER ::= { 1 3 101 112 }
+        byte[] ed25519Oid = new byte[] { 0x06, 0x03, 0x2b, 0x65, 0x70 };
+        byte[] encoded = publicKey.getEncoded();
+        return encoded != null && encoded.length >= 4 + ed25519Oid.length
+                && Arrays.equals(encoded, 4, 4 + ed25519Oid.length, ed25519Oid, 0, ed25519Oid.length);
+    }
+
     private boolean isAcceptable(byte[] sessionData) {
         if (sessionDataVerificationCallback == null || sessionData == null) {
             return true;
@@ -336,20 +804,28 @@ public class TlsServerEngine extends TlsEngine implements ServerMessageProcessor
         }
 
         state.computeResumptionMasterSecret();
+        reportHandshakeEnded(handshakeOutcome);
         statusHandler.handshakeFinished();
 
         status = Status.Connected;
 
-        if (sessionRegistry != null && clientSupportedKeyExchangeModes.contains(psk_dhe_ke)) {  // Server only supports psk_dhe_ke
+        // Only send a ticket when the client offers a PSK key exchange mode the server (currently) accepts.
+        if (sessionRegistry != null && pskKeyExchangeModePolicy.select(List.copyOf(clientSupportedKeyExchangeModes)).isPresent()) {
             NewSessionTicketMessage newSessionTicketMessage =
                     sessionRegistry.createNewSessionTicketMessage(currentTicketNumber++, selectedCipher, state, selectedApplicationLayerProtocol, maxEarlyDataSize, additionalSessionData);
             serverMessageSender.send(newSessionTicketMessage);
+            TlsEvents.messageSent(newSessionTicketMessage);
         }
+        compactIfEnabled();
     }
 
     protected boolean validateBinder(ClientHelloPreSharedKeyExtension.PskBinderEntry pskBinderEntry, int binderPosition, ClientHello clientHello) {
         // https://datatracker.ietf.org/doc/html/rfc8446#section-4.2.11, section 4.2.11.2
-        byte[] partialCH = Arrays.copyOfRange(clientHello.getBytes(), 0, clientHello.getPskExtensionStartPosition() + binderPosition);
+        ByteBuffer partialCH = clientHello.getBytesView();
+        if (partialCH == null) {
+            partialCH = ByteBuffer.wrap(clientHello.getBytes());
+        }
+        partialCH.limit(partialCH.position() + clientHello.getPskExtensionStartPosition() + binderPosition);
         byte[] binder = state.computePskBinder(partialCH);
         boolean valid = Arrays.equals(pskBinderEntry.getHmac(), binder);
         return valid;
@@ -376,6 +852,16 @@ public class TlsServerEngine extends TlsEngine implements ServerMessageProcessor
         return serverExtensions;
     }
 
+    @Override
+    protected void releaseHandshakeState() {
+        super.releaseHandshakeState();
+        transcriptHash = null;
+        resumedSession = null;
+        serverCredentials = null;
+        selectedCertificateCompressor = null;
+        serverExtensions = Collections.emptyList();
+    }
+
     public void addServerExtensions(Extension extension) {
         serverExtensions.add(extension);
     }
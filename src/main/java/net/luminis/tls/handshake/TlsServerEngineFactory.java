@@ -19,7 +19,9 @@
 package net.luminis.tls.handshake;
 
 import net.luminis.tls.TlsConstants;
+import net.luminis.tls.TlsProtocolException;
 import net.luminis.tls.compat.InputStreamCompat;
+import net.luminis.tls.metrics.HandshakeMetricsListener;
 
 import java.io.ByteArrayInputStream;
 import java.io.Closeable;
@@ -38,13 +40,21 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.List;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 public class TlsServerEngineFactory implements Closeable {
 
-    private List<X509Certificate> serverCertificates;
-    private PrivateKey certificateKey;
+    private volatile ServerCredentialsSelector serverCredentialsSelector;
+    private ServerCertificateStore serverCertificateStore;
     private TlsSessionRegistry tlsSessionRegistry = new TlsSessionRegistryImpl();
+    private KeyShareProvider keyShareProvider = new OnDemandKeyShareProvider();
+    private HandshakeMetricsListener metricsListener = HandshakeMetricsListener.NONE;
+    private List<CertificateCompressor> certificateCompressors;
+    private List<TlsConstants.CertificateType> serverCertificateTypes;
+    private boolean compactAfterHandshake;
+    private PskKeyExchangeModePolicy pskKeyExchangeModePolicy = PskKeyExchangeModePolicy.DHE_ONLY;
+    private ExternalPskStore externalPskStore;
 
     /**
      * Creates a tls server engine factory, given a RSA certificate and its private key.
@@ -57,8 +67,7 @@ public class TlsServerEngineFactory implements Closeable {
      */
     @Deprecated
     public TlsServerEngineFactory(InputStream certificateFile, InputStream certificateKeyFile) throws IOException, CertificateException, InvalidKeySpecException {
-        this.serverCertificates = readCertificates(certificateFile);
-        this.certificateKey = readPrivateKey(certificateKeyFile);
+        serverCredentialsSelector = new ServerCredentialsSelector(new ServerCredentials(readCertificates(certificateFile), readPrivateKey(certificateKeyFile)).precompute());
     }
 
     /**
@@ -71,8 +80,75 @@ public class TlsServerEngineFactory implements Closeable {
      * @throws InvalidKeySpecException
      */
     public TlsServerEngineFactory(KeyStore keyStore, String alias, char[] keyPassword) throws IOException, CertificateException, InvalidKeySpecException {
-        this.serverCertificates = getCertificates(keyStore, alias);
-        this.certificateKey = getPrivateKey(keyStore, alias, keyPassword);
+        serverCredentialsSelector = new ServerCredentialsSelector(new ServerCredentials(getCertificates(keyStore, alias), getPrivateKey(keyStore, alias, keyPassword)).precompute());
+    }
+
+    /**
+     * Creates a tls server engine factory for multiple server identities, of which the certificate for a handshake is
+     * selected based on the server name sent by the client. Changes to the store take effect immediately, also for
+     * engines already created.
+     * @param serverCertificateStore  the certificates and private keys per server name
+     */
+    public TlsServerEngineFactory(ServerCertificateStore serverCertificateStore) {
+        this.serverCertificateStore = Objects.requireNonNull(serverCertificateStore);
+    }
+
+    /**
+     * Creates a tls server engine factory for a server without certificate, that only accepts handshakes authenticated
+     * with an externally provisioned pre-shared key, see {@link TlsServerEngine#setExternalPskStore(ExternalPskStore)}.
+     * @param externalPskStore  the pre-shared keys per identity
+     */
+    public TlsServerEngineFactory(ExternalPskStore externalPskStore) {
+        this.externalPskStore = Objects.requireNonNull(externalPskStore);
+    }
+
+    /**
+     * Adds another certificate (chain) and private key for the same server identity, for example an ECDSA certificate
+     * in addition to an RSA certificate. For each handshake, the certificate that is cheapest to sign with and that has
+     * a signature scheme offered by the client is used.
+     * @param keyStore      keystore containing the server certificate and its private key
+     * @param alias         the alias of the certificate
+     * @param keyPassword   the password for the private key
+     * @throws IllegalArgumentException  if the certificate is of an unsupported type
+     */
+    public void addServerCredentials(KeyStore keyStore, String alias, char[] keyPassword) {
+        addServerCredentials(getCertificates(keyStore, alias), getPrivateKey(keyStore, alias, keyPassword));
+    }
+
+    /**
+     * Adds another certificate chain and private key for the same server identity, see
+     * {@link #addServerCredentials(KeyStore, String, char[])}.
+     * @param certificateChain  the certificate chain, the server certificate must be the first in the list
+     * @param privateKey        the private key of the server certificate
+     * @throws IllegalArgumentException  if the certificate is of an unsupported type
+     */
+    public synchronized void addServerCredentials(List<X509Certificate> certificateChain, PrivateKey privateKey) {
+        if (serverCertificateStore != null) {
+            throw new IllegalStateException("credentials must be added to the server certificate store");
+        }
+        List<ServerCredentials> credentials = new ArrayList<>(getServerCredentials());
+        credentials.add(new ServerCredentials(certificateChain, privateKey));
+        try {
+            // Engines that are already created keep using the selector they were created with.
+            serverCredentialsSelector = new ServerCredentialsSelector(credentials).precompute();
+        }
+        catch (TlsProtocolException unsupportedCertificate) {
+            throw new IllegalArgumentException(unsupportedCertificate.getMessage());
+        }
+    }
+
+    /**
+     * @return  the certificate chains and private keys the engines created by this factory select from
+     */
+    public List<ServerCredentials> getServerCredentials() {
+        return serverCredentialsSelector != null? serverCredentialsSelector.getServerCredentials(): List.of();
+    }
+
+    /**
+     * @return  the server certificate store, or null when this factory serves a single server identity
+     */
+    public ServerCertificateStore getServerCertificateStore() {
+        return serverCertificateStore;
     }
 
     private static List<X509Certificate> getCertificates(KeyStore keyStore, String alias) {
@@ -99,11 +175,117 @@ public class TlsServerEngineFactory implements Closeable {
     }
 
     public TlsServerEngine createServerEngine(ServerMessageSender serverMessageSender, TlsStatusEventHandler tlsStatusHandler) {
-        TlsServerEngine tlsServerEngine = new TlsServerEngine(serverCertificates, certificateKey, serverMessageSender, tlsStatusHandler, tlsSessionRegistry);
+        ServerCredentialsSelector credentialsSelector = serverCredentialsSelector;
+        TlsServerEngine tlsServerEngine = serverCertificateStore != null?
+                new TlsServerEngine(serverCertificateStore, serverMessageSender, tlsStatusHandler, tlsSessionRegistry):
+                credentialsSelector != null?
+                new TlsServerEngine(credentialsSelector, serverMessageSender, tlsStatusHandler, tlsSessionRegistry):
+                new TlsServerEngine(externalPskStore, serverMessageSender, tlsStatusHandler, tlsSessionRegistry);
         tlsServerEngine.addSupportedCiphers(List.of(TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256));
+        tlsServerEngine.setKeyShareProvider(keyShareProvider);
+        tlsServerEngine.setMetricsListener(metricsListener);
+        if (certificateCompressors != null) {
+            tlsServerEngine.setCertificateCompressors(certificateCompressors);
+        }
+        if (serverCertificateTypes != null) {
+            tlsServerEngine.setServerCertificateTypes(serverCertificateTypes);
+        }
+        tlsServerEngine.setCompactAfterHandshake(compactAfterHandshake);
+        tlsServerEngine.setPskKeyExchangeModePolicy(pskKeyExchangeModePolicy);
+        tlsServerEngine.setExternalPskStore(externalPskStore);
         return tlsServerEngine;
     }
 
+    /**
+     * Sets the certificate compression algorithms for the engines created by this factory, see
+     * {@link TlsServerEngine#setCertificateCompressors(List)}. Compressed certificate messages are cached with the
+     * credentials, so each chain is compressed only once per algorithm.
+     * @param certificateCompressors
+     */
+    public void setCertificateCompressors(List<CertificateCompressor> certificateCompressors) {
+        this.certificateCompressors = List.copyOf(certificateCompressors);
+    }
+
+    /**
+     * Sets the server certificate types for the engines created by this factory, see
+     * {@link TlsServerEngine#setServerCertificateTypes(List)}.
+     * @param certificateTypes
+     */
+    public void setServerCertificateTypes(List<TlsConstants.CertificateType> certificateTypes) {
+        if (certificateTypes.isEmpty()) {
+            throw new IllegalArgumentException("at least one certificate type is required");
+        }
+        this.serverCertificateTypes = List.copyOf(certificateTypes);
+    }
+
+    /**
+     * Sets the store with externally provisioned pre-shared keys for the engines created by this factory, see
+     * {@link TlsServerEngine#setExternalPskStore(ExternalPskStore)}.
+     * @param externalPskStore
+     */
+    public void setExternalPskStore(ExternalPskStore externalPskStore) {
+        this.externalPskStore = externalPskStore;
+    }
+
+    /**
+     * Sets the PSK key exchange mode policy for the engines created by this factory, see
+     * {@link TlsServerEngine#setPskKeyExchangeModePolicy(PskKeyExchangeModePolicy)}.
+     * @param pskKeyExchangeModePolicy
+     */
+    public void setPskKeyExchangeModePolicy(PskKeyExchangeModePolicy pskKeyExchangeModePolicy) {
+        this.pskKeyExchangeModePolicy = Objects.requireNonNull(pskKeyExchangeModePolicy);
+    }
+
+    /**
+     * Sets whether the engines created by this factory compact themselves when the handshake has finished, see
+     * {@link TlsEngine#setCompactAfterHandshake(boolean)}.
+     * @param compactAfterHandshake
+     */
+    public void setCompactAfterHandshake(boolean compactAfterHandshake) {
+        this.compactAfterHandshake = compactAfterHandshake;
+    }
+
+    /**
+     * Sets the listener for handshake metrics of the engines created by this factory and of the factory's session
+     * registry.
+     * @param metricsListener
+     */
+    public void setMetricsListener(HandshakeMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+        tlsSessionRegistry.setMetricsListener(metricsListener);
+    }
+
+    /**
+     * Sets the session registry for the engines created by this factory, for example a
+     * {@link MappedTlsSessionRegistry} to keep sessions across restarts. By default, a {@link TlsSessionRegistryImpl}
+     * is used. The registry is closed when the factory is closed.
+     * @param tlsSessionRegistry
+     * @throws IOException  when closing the current registry fails
+     */
+    public void setSessionRegistry(TlsSessionRegistry tlsSessionRegistry) throws IOException {
+        TlsSessionRegistry previousRegistry = this.tlsSessionRegistry;
+        this.tlsSessionRegistry = Objects.requireNonNull(tlsSessionRegistry);
+        previousRegistry.close();
+        setMetricsListener(metricsListener);
+    }
+
+    /**
+     * Sets the key share provider for the engines created by this factory. By default, key pairs are generated on
+     * demand; use a {@link PooledKeyShareProvider} to take key generation off the handshake's critical path (the caller
+     * is responsible for closing it).
+     * @param keyShareProvider
+     */
+    public void setKeyShareProvider(KeyShareProvider keyShareProvider) {
+        this.keyShareProvider = Objects.requireNonNull(keyShareProvider);
+    }
+
+    /**
+     * @return  the key share provider used for the engines created by this factory
+     */
+    public KeyShareProvider getKeyShareProvider() {
+        return keyShareProvider;
+    }
+
     private static List<X509Certificate> readCertificates(InputStream file) throws IOException, CertificateException {
         String fileContent = new String(InputStreamCompat.readAllBytes(file), Charset.defaultCharset());
         String[] chunks = fileContent.split("-----END CERTIFICATE-----\n");
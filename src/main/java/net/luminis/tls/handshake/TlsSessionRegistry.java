@@ -21,6 +21,7 @@ package net.luminis.tls.handshake;
 import net.luminis.tls.TlsConstants;
 import net.luminis.tls.TlsState;
 import net.luminis.tls.extension.ClientHelloPreSharedKeyExtension;
+import net.luminis.tls.metrics.HandshakeMetricsListener;
 
 import java.io.Closeable;
 import java.util.List;
@@ -38,5 +39,20 @@ public interface TlsSessionRegistry extends Closeable {
 
     TlsSession useSession(ClientHelloPreSharedKeyExtension.PskIdentity pskIdentity);
 
+    /**
+     * Returns the session for the given identity without using it, i.e. the session can still be used afterwards.
+     * @param pskIdentity
+     * @return  the session, or null when the identity is unknown
+     */
+    TlsSession peekSession(ClientHelloPreSharedKeyExtension.PskIdentity pskIdentity);
+
     byte[] peekSessionData(ClientHelloPreSharedKeyExtension.PskIdentity pskIdentity) throws NoSuchElementException;
+
+    /**
+     * Sets the listener to report the number of sessions to, whenever sessions are added or removed. Registries that
+     * do not report metrics can ignore the listener, which is what the default implementation does.
+     * @param metricsListener
+     */
+    default void setMetricsListener(HandshakeMetricsListener metricsListener) {
+    }
 }
@@ -21,6 +21,8 @@ package net.luminis.tls.handshake;
 import net.luminis.tls.TlsConstants;
 import net.luminis.tls.TlsState;
 import net.luminis.tls.extension.ClientHelloPreSharedKeyExtension;
+import net.luminis.tls.jfr.TlsEvents;
+import net.luminis.tls.metrics.HandshakeMetricsListener;
 
 import java.security.SecureRandom;
 import java.time.Instant;
@@ -29,37 +31,72 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.LongAdder;
 
 
+/**
+ * Session registry that keeps sessions in memory. Sessions are indexed by expiry time (in buckets of one second), so
+ * removing expired sessions only takes time proportional to the number of expired sessions. The number of sessions is
+ * bounded; when the maximum is reached, the sessions that expire first are evicted.
+ */
 public class TlsSessionRegistryImpl implements TlsSessionRegistry {
 
     private static final int DEFAULT_TICKET_LIFETIME_HOURS = 24;
     private static final int DEFAULT_TICKET_LENGTH = 128 / 8;
+    public static final int DEFAULT_MAX_SESSIONS = 1_000_000;
+    private static final long EXPIRY_BUCKET_MILLIS = 1000;
 
     private final Random randomGenerator = new SecureRandom();
     private final Map<BytesKey, Session> sessions = new ConcurrentHashMap<>();
-    private int ticketLifeTimeInSeconds;
+    // Keys of the sessions, grouped by expiry time (in buckets of EXPIRY_BUCKET_MILLIS) and in order of creation within
+    // a bucket; guarded by this.
+    private final NavigableMap<Long, Set<BytesKey>> expiryIndex = new TreeMap<>();
+    private final int ticketLifeTimeInSeconds;
+    private final int maxSessions;
     private final ScheduledExecutorService executorService;
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private volatile HandshakeMetricsListener metricsListener = HandshakeMetricsListener.NONE;
 
     public TlsSessionRegistryImpl() {
-        ticketLifeTimeInSeconds = (int) TimeUnit.HOURS.toSeconds(DEFAULT_TICKET_LIFETIME_HOURS);
+        this((int) TimeUnit.HOURS.toSeconds(DEFAULT_TICKET_LIFETIME_HOURS));
+    }
+
+    public TlsSessionRegistryImpl(int ticketLifeTimeInSeconds) {
+        this(ticketLifeTimeInSeconds, DEFAULT_MAX_SESSIONS);
+    }
+
+    /**
+     * @param ticketLifeTimeInSeconds  the lifetime of the tickets issued
+     * @param maxSessions  the maximum number of sessions kept
+     */
+    public TlsSessionRegistryImpl(int ticketLifeTimeInSeconds, int maxSessions) {
+        if (maxSessions < 1) {
+            throw new IllegalArgumentException("max sessions must be positive");
+        }
+        this.ticketLifeTimeInSeconds = ticketLifeTimeInSeconds;
+        this.maxSessions = maxSessions;
         executorService = Executors.newSingleThreadScheduledExecutor(r -> {
             Thread thread = new Thread(r, "cleanup-expired-psks");
             thread.setDaemon(true);
             return thread;
         });
-        executorService.scheduleAtFixedRate(this::cleanupExpiredPsks, 1, 1, TimeUnit.MINUTES);
+        // As cleanup only visits expired sessions, it can run often, so expired sessions don't linger.
+        executorService.scheduleAtFixedRate(this::cleanupExpiredPsks, 1, 1, TimeUnit.SECONDS);
     }
 
+    /**
+     * Sets the listener to report the number of sessions to, whenever sessions are added or removed.
+     * @param metricsListener
+     */
     @Override
-    public void close() {
-        executorService.shutdownNow();
+    public void setMetricsListener(HandshakeMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
     }
 
-    public TlsSessionRegistryImpl(int ticketLifeTimeInSeconds) {
-        this();
-        this.ticketLifeTimeInSeconds = ticketLifeTimeInSeconds;
+    @Override
+    public void close() {
+        executorService.shutdownNow();
     }
 
     @Override
@@ -74,7 +111,7 @@ public class TlsSessionRegistryImpl implements TlsSessionRegistry {
         byte[] ticketId = new byte[DEFAULT_TICKET_LENGTH];
         randomGenerator.nextBytes(ticketId);
         Instant expiry = Instant.now().plusMillis(TimeUnit.SECONDS.toMillis(ticketLifeTimeInSeconds));
-        sessions.put(new BytesKey(ticketId), new Session(ticketId, ticketNonce, ageAdd, psk, cipher, Instant.now(), expiry, applicationProtocol, data));
+        add(new Session(ticketId, ticketNonce, ageAdd, psk, cipher, Instant.now(), expiry, applicationProtocol, data));
         if (maxEarlyDataSize != null) {
             return new NewSessionTicketMessage(ticketLifeTimeInSeconds, ageAdd, new byte[]{ ticketNonce }, ticketId, maxEarlyDataSize);
         }
@@ -108,7 +145,19 @@ public class TlsSessionRegistryImpl implements TlsSessionRegistry {
     @Override
     public TlsSession useSession(ClientHelloPreSharedKeyExtension.PskIdentity pskIdentity) {
         // Remove session immediately, to avoid psk being used more than once.
-        return sessions.remove(new BytesKey(pskIdentity.getIdentity()));
+        BytesKey key = new BytesKey(pskIdentity.getIdentity());
+        Session session = sessions.remove(key);
+        if (session != null) {
+            removeFromIndex(key, session);
+            metricsListener.sessionRegistrySizeChanged(sessions.size());
+        }
+        TlsEvents.sessionRegistryOperation("use", session != null, sessions.size());
+        return session;
+    }
+
+    @Override
+    public TlsSession peekSession(ClientHelloPreSharedKeyExtension.PskIdentity pskIdentity) {
+        return sessions.get(new BytesKey(pskIdentity.getIdentity()));
     }
 
     @Override
@@ -121,13 +170,99 @@ public class TlsSessionRegistryImpl implements TlsSessionRegistry {
         }
     }
 
-    void cleanupExpiredPsks() {
+    /**
+     * @return  the number of sessions currently kept
+     */
+    public int getSize() {
+        return sessions.size();
+    }
+
+    /**
+     * @return  the number of sessions that were removed (before they expired) because the maximum number of sessions was reached
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return  the number of sessions that were removed because they expired
+     */
+    public long getExpiryCount() {
+        return expirations.sum();
+    }
+
+    synchronized void cleanupExpiredPsks() {
         Instant now = Instant.now();
-        List<BytesKey> expired = sessions.entrySet().stream()
-                .filter(entry -> entry.getValue().expiry.isBefore(now))
-                .map(entry -> entry.getKey())
-                .collect(Collectors.toList());
-        expired.forEach(key -> sessions.remove(key));
+        long currentBucket = bucket(now);
+        // All sessions in buckets before the current one have expired
+        Map<Long, Set<BytesKey>> expiredBuckets = expiryIndex.headMap(currentBucket);
+        for (Set<BytesKey> bucket: expiredBuckets.values()) {
+            bucket.forEach(key -> {
+                if (sessions.remove(key) != null) {
+                    expirations.increment();
+                    TlsEvents.sessionRegistryOperation("expire", true, sessions.size());
+                }
+            });
+        }
+        expiredBuckets.clear();
+        // Of the current bucket, only some sessions might have expired.
+        Set<BytesKey> bucket = expiryIndex.get(currentBucket);
+        if (bucket != null) {
+            bucket.removeIf(key -> {
+                Session session = sessions.get(key);
+                if (session == null) {
+                    return true;
+                }
+                if (!session.expiry.isAfter(now) && sessions.remove(key, session)) {
+                    expirations.increment();
+                    TlsEvents.sessionRegistryOperation("expire", true, sessions.size());
+                    return true;
+                }
+                return false;
+            });
+        }
+        metricsListener.sessionRegistrySizeChanged(sessions.size());
+    }
+
+    private synchronized void add(Session session) {
+        while (sessions.size() >= maxSessions) {
+            if (!evictFirstExpiring()) {
+                break;
+            }
+        }
+        BytesKey key = new BytesKey(session.ticketId);
+        sessions.put(key, session);
+        expiryIndex.computeIfAbsent(bucket(session.expiry), k -> new LinkedHashSet<>()).add(key);
+        metricsListener.sessionRegistrySizeChanged(sessions.size());
+        TlsEvents.sessionRegistryOperation("add", true, sessions.size());
+    }
+
+    private boolean evictFirstExpiring() {
+        while (!expiryIndex.isEmpty()) {
+            Iterator<BytesKey> keys = expiryIndex.firstEntry().getValue().iterator();
+            while (keys.hasNext()) {
+                BytesKey key = keys.next();
+                keys.remove();
+                if (sessions.remove(key) != null) {
+                    evictions.increment();
+                    TlsEvents.sessionRegistryOperation("evict", true, sessions.size());
+                    return true;
+                }
+            }
+            expiryIndex.pollFirstEntry();
+        }
+        return false;
+    }
+
+    private synchronized void removeFromIndex(BytesKey key, Session session) {
+        Set<BytesKey> bucket = expiryIndex.get(bucket(session.expiry));
+        if (bucket != null) {
+            bucket.remove(key);
+        }
+    }
+
+    private static long bucket(Instant time) {
+        return time.toEpochMilli() / EXPIRY_BUCKET_MILLIS;
     }
 
     private class Session implements TlsSession {
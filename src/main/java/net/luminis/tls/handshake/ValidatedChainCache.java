@@ -0,0 +1,180 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.util.CryptoPrimitives;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of certificate chains that have passed trust validation, so that a chain that is received again (e.g.
+ * because the client connects to the same server again) does not have to be validated again.
+ * Chains are identified by a digest of their DER encoding (see {@link CertificateMessage#digestCertificateEntries()}),
+ * so a received chain can be looked up without decoding its certificates. A chain is remembered for the configured time
+ * to live, but never beyond the moment the first of its certificates expires. When the cache is full, the least
+ * recently used chain is removed.
+ */
+public class ValidatedChainCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    public static final Duration DEFAULT_TIME_TO_LIVE = Duration.ofHours(1);
+
+    private final Clock clock;
+    private final int maxEntries;
+    private final long timeToLiveMillis;
+    // Expiry time (in millis) of validated chains, keyed by chain digest, in access order.
+    private final LinkedHashMap<ByteBuffer, Long> validatedChains;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    public ValidatedChainCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * @param maxEntries  maximum number of chains kept in the cache
+     * @param timeToLive  maximum time a validated chain is remembered
+     */
+    public ValidatedChainCache(int maxEntries, Duration timeToLive) {
+        this(maxEntries, timeToLive, Clock.systemUTC());
+    }
+
+    ValidatedChainCache(int maxEntries, Duration timeToLive, Clock clock) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("max entries must be positive");
+        }
+        if (timeToLive.isNegative() || timeToLive.isZero()) {
+            throw new IllegalArgumentException("time to live must be positive");
+        }
+        this.clock = clock;
+        this.maxEntries = maxEntries;
+        timeToLiveMillis = timeToLive.toMillis();
+        validatedChains = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Long> eldest) {
+                return size() > ValidatedChainCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns whether the given chain has been validated before (and that validation has not yet expired).
+     * @param certificateChain
+     * @return
+     */
+    public boolean contains(List<X509Certificate> certificateChain) {
+        return contains(digest(certificateChain));
+    }
+
+    /**
+     * Returns whether the chain with the given digest has been validated before (and that validation has not yet expired).
+     * @param chainDigest  the digest of the chain, see {@link CertificateMessage#digestCertificateEntries()}
+     * @return
+     */
+    public boolean contains(byte[] chainDigest) {
+        ByteBuffer key = ByteBuffer.wrap(chainDigest);
+        synchronized (this) {
+            Long expiry = validatedChains.get(key);
+            if (expiry != null && expiry > clock.millis()) {
+                hitCount.increment();
+                return true;
+            }
+            if (expiry != null) {
+                validatedChains.remove(key);
+            }
+        }
+        missCount.increment();
+        return false;
+    }
+
+    /**
+     * Records that the given chain has successfully been validated.
+     * @param certificateChain
+     */
+    public void add(List<X509Certificate> certificateChain) {
+        add(digest(certificateChain), certificateChain);
+    }
+
+    /**
+     * Records that the given chain, with the given digest, has successfully been validated.
+     * @param chainDigest  the digest of the chain, see {@link CertificateMessage#digestCertificateEntries()}
+     * @param certificateChain
+     */
+    public void add(byte[] chainDigest, List<X509Certificate> certificateChain) {
+        long now = clock.millis();
+        long expiry = now + timeToLiveMillis;
+        for (X509Certificate certificate: certificateChain) {
+            expiry = Long.min(expiry, certificate.getNotAfter().getTime());
+        }
+        if (expiry > now) {
+            ByteBuffer key = ByteBuffer.wrap(chainDigest);
+            synchronized (this) {
+                validatedChains.put(key, expiry);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        validatedChains.clear();
+    }
+
+    public synchronized int getSize() {
+        return validatedChains.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    // Must yield the same digest as CertificateMessage.digestCertificateEntries() for the same chain.
+    private static byte[] digest(List<X509Certificate> certificateChain) {
+        try {
+            MessageDigest digest = CryptoPrimitives.getMessageDigest("SHA-256");
+            ByteBuffer length = ByteBuffer.allocate(4);
+            for (X509Certificate certificate: certificateChain) {
+                byte[] encoded = certificate.getEncoded();
+                // Include the length, so different chains cannot have the same concatenated encoding.
+                digest.update(length.clear().putInt(encoded.length).flip());
+                digest.update(encoded);
+            }
+            return digest.digest();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Missing SHA-256 support");
+        }
+        catch (CertificateEncodingException e) {
+            // Impossible with a certificate that has been decoded from its encoding
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.TlsConstants;
+import net.luminis.tls.alert.BadCertificateAlert;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Certificate compression with zlib (https://datatracker.ietf.org/doc/html/rfc1950), the algorithm every
+ * implementation of certificate compression can be expected to support.
+ */
+public class ZlibCertificateCompressor implements CertificateCompressor {
+
+    @Override
+    public TlsConstants.CertificateCompressionAlgorithm getAlgorithm() {
+        return TlsConstants.CertificateCompressionAlgorithm.zlib;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        // Certificates are compressed only once per chain (see ServerCredentials), so use the best compression.
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(data.length);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                output.write(buffer, 0, count);
+            }
+            return output.toByteArray();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] compressedData, int uncompressedLength) throws BadCertificateAlert {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressedData);
+            // The output buffer is never larger than the declared length, which bounds the memory used; when it is full,
+            // a single byte is inflated to check whether the stream really ends (only the checksum may be left).
+            byte[] result = new byte[uncompressedLength];
+            byte[] excess = new byte[1];
+            int length = 0;
+            while (!inflater.finished()) {
+                int count = length < uncompressedLength?
+                        inflater.inflate(result, length, uncompressedLength - length): inflater.inflate(excess);
+                if (length == uncompressedLength && count > 0) {
+                    throw new BadCertificateAlert("uncompressed certificate is larger than declared");
+                }
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new BadCertificateAlert("compressed certificate data is truncated");
+                }
+                length += count;
+            }
+            if (length != uncompressedLength) {
+                throw new BadCertificateAlert("uncompressed certificate is smaller than declared");
+            }
+            if (inflater.getRemaining() > 0) {
+                throw new BadCertificateAlert("trailing data after compressed certificate");
+            }
+            return result;
+        }
+        catch (DataFormatException invalidData) {
+            throw new BadCertificateAlert("invalid compressed certificate data");
+        }
+        finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.jfr;
+
+import jdk.jfr.*;
+
+@Name("net.luminis.tls.CertificateValidation")
+@Label("TLS Certificate Validation")
+@Category({ "Agent15", "TLS" })
+@Description("Validation of the peer's certificate chain (trust and hostname)")
+@StackTrace(false)
+@Enabled(false)
+class CertificateValidationEvent extends Event {
+
+    private static final EventType EVENT_TYPE = EventType.getEventType(CertificateValidationEvent.class);
+
+    @Label("Server Name")
+    String serverName;
+
+    @Label("Chain Length")
+    int chainLength;
+
+    @Label("Valid")
+    boolean valid;
+
+    static CertificateValidationEvent beginIfEnabled() {
+        if (EVENT_TYPE.isEnabled()) {
+            CertificateValidationEvent event = new CertificateValidationEvent();
+            event.begin();
+            return event;
+        }
+        return null;
+    }
+
+    void complete(String serverName, int chainLength, boolean valid) {
+        end();
+        if (shouldCommit()) {
+            this.serverName = serverName;
+            this.chainLength = chainLength;
+            this.valid = valid;
+            commit();
+        }
+    }
+}
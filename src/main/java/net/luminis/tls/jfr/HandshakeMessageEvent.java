@@ -0,0 +1,72 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.jfr;
+
+import net.luminis.tls.handshake.HandshakeMessage;
+
+import jdk.jfr.*;
+
+import java.nio.ByteBuffer;
+
+@Name("net.luminis.tls.HandshakeMessage")
+@Label("TLS Handshake Message")
+@Category({ "Agent15", "TLS" })
+@Description("Handshake message received (duration is the processing time) or sent")
+@StackTrace(false)
+@Enabled(false)
+class HandshakeMessageEvent extends Event {
+
+    private static final EventType EVENT_TYPE = EventType.getEventType(HandshakeMessageEvent.class);
+
+    @Label("Direction")
+    String direction;
+
+    @Label("Message Type")
+    String messageType;
+
+    @Label("Size")
+    @DataAmount
+    int size;
+
+    static HandshakeMessageEvent beginIfEnabled() {
+        if (EVENT_TYPE.isEnabled()) {
+            HandshakeMessageEvent event = new HandshakeMessageEvent();
+            event.begin();
+            return event;
+        }
+        return null;
+    }
+
+    static void emitIfEnabled(String direction, HandshakeMessage message) {
+        if (EVENT_TYPE.isEnabled()) {
+            new HandshakeMessageEvent().complete(direction, message);
+        }
+    }
+
+    void complete(String direction, HandshakeMessage message) {
+        end();
+        if (shouldCommit()) {
+            this.direction = direction;
+            messageType = message.getType().name();
+            ByteBuffer view = message.getBytesView();
+            size = view != null? view.remaining(): message.getBytes().length;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.jfr;
+
+import jdk.jfr.*;
+
+@Name("net.luminis.tls.KeySchedule")
+@Label("TLS Key Schedule")
+@Category({ "Agent15", "TLS" })
+@Description("Step in the TLS key schedule, or the (EC)DHE key exchange")
+@StackTrace(false)
+@Enabled(false)
+class KeyScheduleEvent extends Event {
+
+    private static final EventType EVENT_TYPE = EventType.getEventType(KeyScheduleEvent.class);
+
+    @Label("Step")
+    String step;
+
+    static KeyScheduleEvent beginIfEnabled() {
+        if (EVENT_TYPE.isEnabled()) {
+            KeyScheduleEvent event = new KeyScheduleEvent();
+            event.begin();
+            return event;
+        }
+        return null;
+    }
+
+    void complete(String step) {
+        end();
+        if (shouldCommit()) {
+            this.step = step;
+            commit();
+        }
+    }
+}
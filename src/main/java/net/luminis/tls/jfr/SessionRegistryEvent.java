@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.jfr;
+
+import jdk.jfr.*;
+
+@Name("net.luminis.tls.SessionRegistry")
+@Label("TLS Session Registry")
+@Category({ "Agent15", "TLS" })
+@Description("Operation on a (server) session registry")
+@StackTrace(false)
+@Enabled(false)
+class SessionRegistryEvent extends Event {
+
+    private static final EventType EVENT_TYPE = EventType.getEventType(SessionRegistryEvent.class);
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Success")
+    boolean success;
+
+    @Label("Registry Size")
+    @Description("Number of sessions in the registry, -1 when the registry does not keep sessions")
+    int size;
+
+    static void emitIfEnabled(String operation, boolean success, int size) {
+        if (EVENT_TYPE.isEnabled()) {
+            SessionRegistryEvent event = new SessionRegistryEvent();
+            if (event.shouldCommit()) {
+                event.operation = operation;
+                event.success = success;
+                event.size = size;
+                event.commit();
+            }
+        }
+    }
+}
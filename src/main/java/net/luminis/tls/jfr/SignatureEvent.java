@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.jfr;
+
+import net.luminis.tls.TlsConstants;
+
+import jdk.jfr.*;
+
+@Name("net.luminis.tls.Signature")
+@Label("TLS Signature")
+@Category({ "Agent15", "TLS" })
+@Description("Creation or verification of a CertificateVerify signature")
+@StackTrace(false)
+@Enabled(false)
+class SignatureEvent extends Event {
+
+    private static final EventType EVENT_TYPE = EventType.getEventType(SignatureEvent.class);
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Signature Scheme")
+    String signatureScheme;
+
+    @Label("Success")
+    boolean success;
+
+    static SignatureEvent beginIfEnabled() {
+        if (EVENT_TYPE.isEnabled()) {
+            SignatureEvent event = new SignatureEvent();
+            event.begin();
+            return event;
+        }
+        return null;
+    }
+
+    void complete(String operation, TlsConstants.SignatureScheme signatureScheme, boolean success) {
+        end();
+        if (shouldCommit()) {
+            this.operation = operation;
+            this.signatureScheme = String.valueOf(signatureScheme);
+            this.success = success;
+            commit();
+        }
+    }
+}
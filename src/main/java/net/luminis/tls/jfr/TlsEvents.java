@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.jfr;
+
+import net.luminis.tls.TlsConstants;
+import net.luminis.tls.handshake.HandshakeMessage;
+
+/**
+ * Emits Java Flight Recorder events for the handshake, so handshake stalls can be correlated with GC pauses and
+ * safepoints in (continuous) recordings. The events are in the "Agent15 / TLS" category and are named
+ * <code>net.luminis.tls.HandshakeMessage</code>, <code>net.luminis.tls.KeySchedule</code>,
+ * <code>net.luminis.tls.Signature</code>, <code>net.luminis.tls.CertificateValidation</code> and
+ * <code>net.luminis.tls.SessionRegistry</code>.
+ * All events are disabled by default, so a recording with the default settings does not include them; enable them
+ * explicitly, e.g. with <code>jfr configure</code>, a custom .jfc file or <code>Recording.enable(String)</code>.
+ * When an event is not enabled (or JFR is not available on the platform, e.g. Android), the methods only check a flag
+ * and do not allocate. Duration events are started with a <code>begin</code> method, that returns a token (null when
+ * the event is disabled), which must be passed to the corresponding <code>end</code> method.
+ */
+public final class TlsEvents {
+
+    // When JFR is not available, the event classes (which extend jdk.jfr.Event) must never be loaded.
+    private static final boolean jfrAvailable = isJfrAvailable();
+
+    private TlsEvents() {
+    }
+
+    public static Object beginMessageReceived() {
+        return jfrAvailable? HandshakeMessageEvent.beginIfEnabled(): null;
+    }
+
+    public static void endMessageReceived(Object event, HandshakeMessage message) {
+        if (event != null) {
+            ((HandshakeMessageEvent) event).complete("received", message);
+        }
+    }
+
+    public static void messageSent(HandshakeMessage message) {
+        if (jfrAvailable) {
+            HandshakeMessageEvent.emitIfEnabled("sent", message);
+        }
+    }
+
+    public static Object beginKeySchedule() {
+        return jfrAvailable? KeyScheduleEvent.beginIfEnabled(): null;
+    }
+
+    public static void endKeySchedule(Object event, String step) {
+        if (event != null) {
+            ((KeyScheduleEvent) event).complete(step);
+        }
+    }
+
+    public static Object beginSignature() {
+        return jfrAvailable? SignatureEvent.beginIfEnabled(): null;
+    }
+
+    public static void endSignature(Object event, String operation, TlsConstants.SignatureScheme signatureScheme, boolean success) {
+        if (event != null) {
+            ((SignatureEvent) event).complete(operation, signatureScheme, success);
+        }
+    }
+
+    public static Object beginCertificateValidation() {
+        return jfrAvailable? CertificateValidationEvent.beginIfEnabled(): null;
+    }
+
+    public static void endCertificateValidation(Object event, String serverName, int chainLength, boolean valid) {
+        if (event != null) {
+            ((CertificateValidationEvent) event).complete(serverName, chainLength, valid);
+        }
+    }
+
+    /**
+     * @param operation  the operation, e.g. "add" or "use"
+     * @param success  whether the operation succeeded, e.g. for "use", whether the session was found
+     * @param size  the number of sessions in the registry after the operation, -1 if the registry does not keep sessions
+     */
+    public static void sessionRegistryOperation(String operation, boolean success, int size) {
+        if (jfrAvailable) {
+            SessionRegistryEvent.emitIfEnabled(operation, success, size);
+        }
+    }
+
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, TlsEvents.class.getClassLoader());
+            return true;
+        }
+        catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.metrics;
+
+import net.luminis.tls.TlsConstants;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Default metrics listener, that keeps a latency histogram per handshake phase and counts handshakes (per outcome) and
+ * alerts (per alert description). All recording is lock-free, so one instance can (and should) be shared by all
+ * engines and registries.
+ */
+public class HandshakeMetrics implements HandshakeMetricsListener {
+
+    private final Map<HandshakePhase, LatencyHistogram> phaseLatencies = new EnumMap<>(HandshakePhase.class);
+    private final Map<HandshakeOutcome, LongAdder> handshakeCounts = new EnumMap<>(HandshakeOutcome.class);
+    private final Map<TlsConstants.AlertDescription, LongAdder> alertCounts = new EnumMap<>(TlsConstants.AlertDescription.class);
+    private volatile int sessionRegistrySize;
+
+    public HandshakeMetrics() {
+        // Maps are filled upfront and never modified afterwards, so they can be read concurrently without locking.
+        for (HandshakePhase phase: HandshakePhase.values()) {
+            phaseLatencies.put(phase, new LatencyHistogram());
+        }
+        for (HandshakeOutcome outcome: HandshakeOutcome.values()) {
+            handshakeCounts.put(outcome, new LongAdder());
+        }
+        for (TlsConstants.AlertDescription alertDescription: TlsConstants.AlertDescription.values()) {
+            alertCounts.put(alertDescription, new LongAdder());
+        }
+    }
+
+    @Override
+    public void phaseCompleted(HandshakePhase phase, long durationNanos) {
+        phaseLatencies.get(phase).record(durationNanos);
+    }
+
+    @Override
+    public void handshakeEnded(HandshakeOutcome outcome) {
+        handshakeCounts.get(outcome).increment();
+    }
+
+    @Override
+    public void alertRaised(TlsConstants.AlertDescription alertDescription) {
+        alertCounts.get(alertDescription).increment();
+    }
+
+    @Override
+    public void sessionRegistrySizeChanged(int size) {
+        sessionRegistrySize = size;
+    }
+
+    /**
+     * @param phase
+     * @return  the latency histogram (in nanoseconds) for the given phase
+     */
+    public LatencyHistogram getLatencies(HandshakePhase phase) {
+        return phaseLatencies.get(phase);
+    }
+
+    /**
+     * @param outcome
+     * @return  the number of handshakes that ended with the given outcome
+     */
+    public long getHandshakeCount(HandshakeOutcome outcome) {
+        return handshakeCounts.get(outcome).sum();
+    }
+
+    /**
+     * @param alertDescription
+     * @return  the number of times the given alert was raised
+     */
+    public long getAlertCount(TlsConstants.AlertDescription alertDescription) {
+        return alertCounts.get(alertDescription).sum();
+    }
+
+    /**
+     * @return  the number of sessions in the session registry, as last reported
+     */
+    public int getSessionRegistrySize() {
+        return sessionRegistrySize;
+    }
+
+    /**
+     * Resets all histograms and counters (but not the session registry size).
+     */
+    public void reset() {
+        phaseLatencies.values().forEach(LatencyHistogram::reset);
+        handshakeCounts.values().forEach(LongAdder::reset);
+        alertCounts.values().forEach(LongAdder::reset);
+    }
+}
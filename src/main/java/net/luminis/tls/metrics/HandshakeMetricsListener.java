@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.metrics;
+
+import net.luminis.tls.TlsConstants;
+
+/**
+ * Listener for handshake metrics, reported by the engines, the TLS state, the transcript hash and the session registry.
+ * Methods are called on the thread that executes the handshake, so implementations must be thread-safe and fast; they
+ * should not block or do any I/O.
+ * All methods have an empty default implementation, so implementations only need to override the ones they are
+ * interested in.
+ */
+public interface HandshakeMetricsListener {
+
+    /**
+     * Listener that ignores all metrics; used when no listener is set.
+     */
+    HandshakeMetricsListener NONE = new HandshakeMetricsListener() {};
+
+    /**
+     * Called when a (part of a) phase has completed. A phase can be reported more than once per handshake, e.g. the
+     * key schedule is reported for each set of secrets that is derived.
+     * @param phase
+     * @param durationNanos  time spent in the phase, in nanoseconds
+     */
+    default void phaseCompleted(HandshakePhase phase, long durationNanos) {}
+
+    /**
+     * Called once per handshake, when the handshake completed or failed.
+     * @param outcome
+     */
+    default void handshakeEnded(HandshakeOutcome outcome) {}
+
+    /**
+     * Called when processing a handshake message raised an error alert.
+     * @param alertDescription
+     */
+    default void alertRaised(TlsConstants.AlertDescription alertDescription) {}
+
+    /**
+     * Called when the number of sessions in a session registry has changed.
+     * @param size  the current number of sessions
+     */
+    default void sessionRegistrySizeChanged(int size) {}
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.metrics;
+
+/**
+ * The way a handshake ended.
+ */
+public enum HandshakeOutcome {
+    /** Completed full handshake (certificate based authentication). */
+    Full,
+    /** Completed handshake that resumed a session (PSK), without early data. */
+    Resumed,
+    /** Completed handshake that resumed a session and in which early data (0-RTT) was accepted. */
+    EarlyDataAccepted,
+    /** Completed handshake authenticated with an externally provisioned PSK (without certificates). */
+    ExternalPsk,
+    /** Handshake aborted with an error alert. */
+    Failed
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.metrics;
+
+/**
+ * The (computationally) expensive parts of a handshake, for which the engines report the time spent.
+ */
+public enum HandshakePhase {
+    /** Generating (or obtaining) the ephemeral key pair for the key exchange. */
+    KeyGeneration,
+    /** Computing the (EC)DHE shared secret. */
+    Ecdh,
+    /** Deriving secrets in the key schedule (early, handshake and application secrets, PSK binders). */
+    KeySchedule,
+    /** Computing transcript hashes. */
+    TranscriptHash,
+    /** Signing the CertificateVerify message. */
+    Sign,
+    /** Verifying the peer's CertificateVerify signature. */
+    Verify,
+    /** Decoding the peer's certificates. */
+    CertificateParse,
+    /** Validating the peer's certificate chain (trust manager and hostname verification). */
+    TrustValidation
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies (in nanoseconds), with log-linear buckets in the style of HdrHistogram: values below
+ * 128 are counted exactly, larger values in buckets whose width is 1/64 of the value's power of two, so any recorded
+ * value is reported with a relative error of less than 1.6%. Memory use is fixed (about 30 KB), independent of the
+ * number of values recorded.
+ * Recording is wait-free and can be done concurrently from any number of threads; reading while recording gives a
+ * consistent-enough view for monitoring purposes, but not an atomic snapshot.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // Values up to 2 * SUB_BUCKET_COUNT are counted exactly; every next power of two adds SUB_BUCKET_COUNT buckets.
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalValue = new LongAdder();
+    private final LongAccumulator maxValue = new LongAccumulator(Long::max, 0);
+
+    /**
+     * Records a value.
+     * @param value  the value, in nanoseconds; negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(indexOf(value));
+        totalCount.increment();
+        totalValue.add(value);
+        maxValue.accumulate(value);
+    }
+
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    public long getMaxValue() {
+        return maxValue.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.sum();
+        return count > 0? (double) totalValue.sum() / count: 0.0;
+    }
+
+    /**
+     * Returns the value at the given percentile, i.e. the (upper bound of the bucket of the) smallest recorded value
+     * that is greater than or equal to the given percentage of all recorded values.
+     * @param percentile  percentile, between 0 and 100 (e.g. 99.9)
+     * @return  the value at the percentile, or 0 if no values have been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        long[] snapshot = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long threshold = Long.max(1, (long) Math.ceil(percentile / 100 * count));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulative += snapshot[i];
+            if (cumulative >= threshold) {
+                return Long.min(highestValueIn(i), getMaxValue());
+            }
+        }
+        return getMaxValue();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.reset();
+        totalValue.reset();
+        maxValue.reset();
+    }
+
+    static int indexOf(long value) {
+        int highestBit = 63 - Long.numberOfLeadingZeros(value | 1);
+        if (highestBit <= SUB_BUCKET_BITS) {
+            return (int) value;
+        }
+        int shift = highestBit - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+    }
+
+    static long highestValueIn(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index >> SUB_BUCKET_BITS) - 1;
+        long subBucket = (index & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram[count=" + getCount() + ", p50=" + getValueAtPercentile(50) + ", p99=" + getValueAtPercentile(99)
+                + ", max=" + getMaxValue() + "]";
+    }
+}
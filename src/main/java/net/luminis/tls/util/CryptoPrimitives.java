@@ -0,0 +1,210 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.util;
+
+import at.favre.lib.hkdf.HKDF;
+import at.favre.lib.hkdf.HkdfMacFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Signature;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.spec.PSSParameterSpec;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache for crypto primitives, to avoid the (relatively expensive) provider lookup that is performed with every
+ * <code>getInstance</code> call on the JCA classes.
+ * Only primitives that do not retain key material are cached per thread: message digests (which are reset before
+ * they are returned) and certificate factories. These can be used without synchronization; callers must finish using
+ * an instance before (indirectly) requesting the same primitive again and must not keep a reference to it; use
+ * {@link #newMessageDigest(String)} to obtain a message digest that can be kept.
+ * Macs and ciphers, which hold on to the key they are initialized with, are created for each call, but from the
+ * provider that was found by the first lookup, which is shared by all threads. Key agreements and signatures are
+ * created for each call with a regular lookup, so the JCA can select the provider based on the key that is used.
+ * Note that the per-thread cache is of no use when every handshake runs on a new (e.g. virtual) thread: the first
+ * request for a primitive on a thread always performs a full lookup.
+ */
+public class CryptoPrimitives {
+
+    private static final ThreadLocal<Map<String, MessageDigest>> messageDigests = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<Map<String, CertificateFactory>> certificateFactories = ThreadLocal.withInitial(HashMap::new);
+    // Providers are thread-safe and do not hold key material, so they can be shared between threads.
+    private static final Map<String, Provider> macProviders = new ConcurrentHashMap<>();
+    private static final Map<String, Provider> cipherProviders = new ConcurrentHashMap<>();
+    // HKDF instances are immutable and can be shared between threads.
+    private static final Map<String, HKDF> hkdfs = new ConcurrentHashMap<>();
+
+    /**
+     * Returns a message digest for the given algorithm, which is reset and cached for the current thread.
+     * @param algorithm  the digest algorithm, e.g. "SHA-256"
+     * @return
+     * @throws NoSuchAlgorithmException
+     */
+    public static MessageDigest getMessageDigest(String algorithm) throws NoSuchAlgorithmException {
+        MessageDigest messageDigest = messageDigests.get().get(algorithm);
+        if (messageDigest == null) {
+            messageDigest = MessageDigest.getInstance(algorithm);
+            messageDigests.get().put(algorithm, messageDigest);
+        }
+        else {
+            messageDigest.reset();
+        }
+        return messageDigest;
+    }
+
+    /**
+     * Returns a new message digest instance for the given algorithm, that can be used exclusively by the caller.
+     * The instance is cloned from the one cached for the current thread, which is cheaper than a provider lookup.
+     * @param algorithm  the digest algorithm, e.g. "SHA-256"
+     * @return
+     * @throws NoSuchAlgorithmException
+     */
+    public static MessageDigest newMessageDigest(String algorithm) throws NoSuchAlgorithmException {
+        MessageDigest prototype = getMessageDigest(algorithm);
+        try {
+            return (MessageDigest) prototype.clone();
+        }
+        catch (CloneNotSupportedException e) {
+            // Not all providers support cloning, so fall back to the lookup.
+            return MessageDigest.getInstance(algorithm);
+        }
+    }
+
+    /**
+     * Returns a new (not initialized) mac for the given algorithm, created by the provider found with the first lookup.
+     * @param algorithm  the mac algorithm, e.g. "HmacSHA256"
+     * @return
+     * @throws NoSuchAlgorithmException
+     */
+    public static Mac getMac(String algorithm) throws NoSuchAlgorithmException {
+        Provider provider = macProviders.get(algorithm);
+        if (provider == null) {
+            Mac mac = Mac.getInstance(algorithm);
+            macProviders.put(algorithm, mac.getProvider());
+            return mac;
+        }
+        return Mac.getInstance(algorithm, provider);
+    }
+
+    /**
+     * Returns a new (not initialized) cipher for the given transformation, created by the provider found with the
+     * first lookup.
+     * @param transformation  the cipher transformation, e.g. "AES/GCM/NoPadding"
+     * @return
+     * @throws NoSuchAlgorithmException
+     * @throws NoSuchPaddingException
+     */
+    public static Cipher getCipher(String transformation) throws NoSuchAlgorithmException, NoSuchPaddingException {
+        Provider provider = cipherProviders.get(transformation);
+        if (provider == null) {
+            Cipher cipher = Cipher.getInstance(transformation);
+            cipherProviders.put(transformation, cipher.getProvider());
+            return cipher;
+        }
+        return Cipher.getInstance(transformation, provider);
+    }
+
+    /**
+     * Returns a new (not initialized) key agreement for the given algorithm. Not cached, because an initialized key
+     * agreement keeps a reference to the (ephemeral) private key, and because the provider is selected when the key
+     * agreement is initialized with the key.
+     * @param algorithm  the key agreement algorithm, e.g. "ECDH" or "XDH"
+     * @return
+     * @throws NoSuchAlgorithmException
+     */
+    public static KeyAgreement getKeyAgreement(String algorithm) throws NoSuchAlgorithmException {
+        return KeyAgreement.getInstance(algorithm);
+    }
+
+    /**
+     * Returns a new (not initialized) signature for the given algorithm. Not cached, because an initialized signature
+     * keeps a reference to the key, and because the provider is selected when the signature is initialized with the
+     * key (which might for example be held by a hardware token).
+     * @param algorithm  the signature algorithm, e.g. "SHA256withECDSA"
+     * @return
+     * @throws NoSuchAlgorithmException
+     */
+    public static Signature getSignature(String algorithm) throws NoSuchAlgorithmException {
+        return Signature.getInstance(algorithm);
+    }
+
+    /**
+     * Returns a new (not initialized) signature for the given algorithm with the given PSS parameters.
+     * See {@link #getSignature(String)} for why signatures are not cached.
+     * @param algorithm  the signature algorithm, e.g. "RSASSA-PSS"
+     * @param parameters  the PSS parameters
+     * @return
+     * @throws NoSuchAlgorithmException
+     * @throws InvalidAlgorithmParameterException
+     */
+    public static Signature getSignature(String algorithm, PSSParameterSpec parameters) throws NoSuchAlgorithmException, InvalidAlgorithmParameterException {
+        Signature signature = Signature.getInstance(algorithm);
+        signature.setParameter(parameters);
+        return signature;
+    }
+
+    /**
+     * Returns a certificate factory for the given certificate type, cached for the current thread.
+     * @param type  the certificate type, e.g. "X.509"
+     * @return
+     * @throws CertificateException
+     */
+    public static CertificateFactory getCertificateFactory(String type) throws CertificateException {
+        CertificateFactory certificateFactory = certificateFactories.get().get(type);
+        if (certificateFactory == null) {
+            certificateFactory = CertificateFactory.getInstance(type);
+            certificateFactories.get().put(type, certificateFactory);
+        }
+        return certificateFactory;
+    }
+
+    /**
+     * Returns a HKDF instance for the given mac algorithm, shared by all threads. The macs it creates for each extract
+     * and expand operation are created by the provider found with the first lookup (see {@link #getMac(String)}).
+     * @param macAlgorithm  the mac algorithm, e.g. "HmacSHA256"
+     * @return
+     */
+    public static HKDF getHkdf(String macAlgorithm) {
+        return hkdfs.computeIfAbsent(macAlgorithm, algorithm -> HKDF.from(new HkdfMacFactory.Default(algorithm, getMacProvider(algorithm))));
+    }
+
+    private static Provider getMacProvider(String algorithm) {
+        Provider provider = macProviders.get(algorithm);
+        if (provider == null) {
+            try {
+                provider = getMac(algorithm).getProvider();
+            }
+            catch (NoSuchAlgorithmException e) {
+                // Without provider, the HKDF performs the lookup itself, and fails on first use.
+                return null;
+            }
+        }
+        return provider;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ExternalPskTest {
+
+    @Test
+    void externalPskWithoutHashShouldDefaultToSha256() {
+        // When
+        ExternalPsk externalPsk = new ExternalPsk(new byte[] { 0x0a, 0x0b }, new byte[32]);
+
+        // Then
+        assertThat(externalPsk.getCipher()).isEqualTo(TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256);
+        assertThat(externalPsk.hasIdentity(new byte[] { 0x0a, 0x0b })).isTrue();
+    }
+
+    @Test
+    void emptyIdentityShouldBeRejected() {
+        assertThatThrownBy(() ->
+                // When
+                new ExternalPsk(new byte[0], new byte[32]))
+                // Then
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
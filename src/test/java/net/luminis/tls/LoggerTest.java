@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LoggerTest {
+
+    @AfterEach
+    void restoreDefaultOutput() {
+        Logger.setOutput(null);
+    }
+
+    @Test
+    void messageSupplierShouldNotBeCalledWhenDebugIsDisabled() {
+        // Given
+        CollectingOutput output = new CollectingOutput(false);
+        Logger.setOutput(output);
+        boolean[] called = new boolean[1];
+
+        // When
+        Logger.debug(() -> {
+            called[0] = true;
+            return "message";
+        });
+
+        // Then
+        assertThat(called[0]).isFalse();
+        assertThat(output.messages).isEmpty();
+    }
+
+    @Test
+    void messageSupplierShouldBeUsedWhenDebugIsEnabled() {
+        // Given
+        CollectingOutput output = new CollectingOutput(true);
+        Logger.setOutput(output);
+
+        // When
+        Logger.debug(() -> "message");
+
+        // Then
+        assertThat(output.messages).containsExactly("message");
+    }
+
+    @Test
+    void byteArrayArgumentsShouldBeFormattedAsHex() {
+        // Given
+        CollectingOutput output = new CollectingOutput(true);
+        Logger.setOutput(output);
+
+        // When
+        Logger.debug("Secret: %s (%d bytes)", new byte[] { 0x0a, (byte) 0xff }, 2);
+
+        // Then
+        assertThat(output.messages).containsExactly("Secret: 0aff (2 bytes)");
+    }
+
+    @Test
+    void debugEnabledShouldBeDeterminedByOutput() {
+        Logger.setOutput(new CollectingOutput(true));
+        assertThat(Logger.isDebugEnabled()).isTrue();
+
+        Logger.setOutput(new CollectingOutput(false));
+        assertThat(Logger.isDebugEnabled()).isFalse();
+    }
+
+    static class CollectingOutput implements Logger.Output {
+        private final boolean enabled;
+        final List<String> messages = new ArrayList<>();
+
+        CollectingOutput(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return enabled;
+        }
+
+        @Override
+        public void debug(String message) {
+            messages.add(message);
+        }
+    }
+}
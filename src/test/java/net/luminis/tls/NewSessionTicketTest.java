@@ -42,4 +42,18 @@ class NewSessionTicketTest {
         assertThat(deserializedTicket).isNotNull();
         assertThat(deserializedTicket.getCipher()).isEqualTo(TlsConstants.CipherSuite.TLS_CHACHA20_POLY1305_SHA256);
     }
-}
\ No newline at end of file
+
+    @Test
+    void earlyDataMaxSizeShouldSurviveSerialization() {
+        TlsState tlsState = mock(TlsState.class);
+        when(tlsState.computePSK(any())).thenReturn(new byte[32]);
+        NewSessionTicketMessage ticketMsg = new NewSessionTicketMessage(3600, 0, new byte[8], new byte[1200], 0xffffffffL);
+        NewSessionTicket newSessionTicket = new NewSessionTicket(tlsState, ticketMsg, TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256);
+
+        NewSessionTicket deserializedTicket = NewSessionTicket.deserialize(newSessionTicket.serialize());
+
+        assertThat(deserializedTicket.getTicket()).hasSize(1200);
+        assertThat(deserializedTicket.hasEarlyDataExtension()).isTrue();
+        assertThat(deserializedTicket.getEarlyDataMaxSize()).isEqualTo(0xffffffffL);
+    }
+}
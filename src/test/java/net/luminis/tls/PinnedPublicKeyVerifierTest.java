@@ -0,0 +1,56 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PinnedPublicKeyVerifierTest {
+
+    @Test
+    void pinnedKeyShouldBeAccepted() throws Exception {
+        // Given
+        PublicKey publicKey = KeyPairGenerator.getInstance("EC").generateKeyPair().getPublic();
+        PinnedPublicKeyVerifier verifier = new PinnedPublicKeyVerifier(publicKey);
+
+        // When
+        PublicKey decodedKey = KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(publicKey.getEncoded()));
+
+        // Then
+        assertThat(verifier.verify("example.com", decodedKey)).isTrue();
+    }
+
+    @Test
+    void otherKeyShouldBeRejected() throws Exception {
+        // Given
+        PinnedPublicKeyVerifier verifier = new PinnedPublicKeyVerifier(KeyPairGenerator.getInstance("EC").generateKeyPair().getPublic());
+
+        // When
+        PublicKey otherKey = KeyPairGenerator.getInstance("EC").generateKeyPair().getPublic();
+
+        // Then
+        assertThat(verifier.verify("example.com", otherKey)).isFalse();
+    }
+}
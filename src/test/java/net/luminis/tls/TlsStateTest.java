@@ -55,4 +55,22 @@ class TlsStateTest {
         // Then
         assertThat(result).isEqualTo(ByteUtils.hexToBytes("0bd79c1626379ee8b7704a25406f03202cb6dff67e6236ce2308711d83539530"));
     }
+
+    @Test
+    void binderKeyForExternalPskShouldUseExtBinderLabel() {
+        // Given
+        byte[] psk = new byte[32];
+
+        // When
+        TlsState externalPskState = new TlsState(mock(TranscriptHash.class), psk, true, 16, 32);
+        TlsState resumptionPskState = new TlsState(mock(TranscriptHash.class), psk, false, 16, 32);
+
+        // Then
+        byte[] earlySecret = (byte[]) FieldGetter.getField(externalPskState, "earlySecret");
+        byte[] emptyHash = (byte[]) FieldGetter.getField(externalPskState, "emptyHash");
+        assertThat(FieldGetter.getField(externalPskState, "binderKey"))
+                .isEqualTo(externalPskState.hkdfExpandLabel(earlySecret, "ext binder", emptyHash, (short) 32));
+        assertThat(FieldGetter.getField(resumptionPskState, "binderKey"))
+                .isEqualTo(resumptionPskState.hkdfExpandLabel(earlySecret, "res binder", emptyHash, (short) 32));
+    }
 }
\ No newline at end of file
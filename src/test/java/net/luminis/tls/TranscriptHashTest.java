@@ -19,12 +19,17 @@
 package net.luminis.tls;
 
 import net.luminis.tls.handshake.*;
+import net.luminis.tls.util.FieldGetter;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -105,6 +110,160 @@ class TranscriptHashTest {
         assertThat(transcriptHash.getServerHash(TlsConstants.HandshakeType.finished)).isEqualTo(expected);
     }
 
+    @Test
+    void hashesForEarlierMessagesShouldBeAvailableAfterLaterMessagesAreHashed() throws Exception {
+        // Given
+        transcriptHash.record(mockMessage(ClientHello.class, TlsConstants.HandshakeType.client_hello, 0x01));
+        transcriptHash.record(mockMessage(ServerHello.class, TlsConstants.HandshakeType.server_hello, 0x02));
+        transcriptHash.record(mockMessage(EncryptedExtensions.class, TlsConstants.HandshakeType.encrypted_extensions, 0x03));
+        transcriptHash.recordServer(mockMessage(FinishedMessage.class, TlsConstants.HandshakeType.finished, 0x06));
+
+        // When
+        byte[] finishedHash = transcriptHash.getServerHash(TlsConstants.HandshakeType.finished);
+        byte[] serverHelloHash = transcriptHash.getHash(TlsConstants.HandshakeType.server_hello);
+        byte[] clientHelloHash = transcriptHash.getHash(TlsConstants.HandshakeType.client_hello);
+
+        // Then
+        assertThat(finishedHash).isEqualTo(computeHash(new byte[]{ 0x01 }, new byte[]{ 0x02 }, new byte[]{ 0x03 }, new byte[]{ 0x06 }));
+        assertThat(serverHelloHash).isEqualTo(computeHash(new byte[]{ 0x01 }, new byte[]{ 0x02 }));
+        assertThat(clientHelloHash).isEqualTo(computeHash(new byte[]{ 0x01 }));
+    }
+
+    @Test
+    void hashShouldBeComputedIncrementallyWhenMessagesAreAddedAfterHashing() throws Exception {
+        // Given
+        transcriptHash.record(mockMessage(ClientHello.class, TlsConstants.HandshakeType.client_hello, 0x01));
+        transcriptHash.record(mockMessage(ServerHello.class, TlsConstants.HandshakeType.server_hello, 0x02));
+        byte[] serverHelloHash = transcriptHash.getHash(TlsConstants.HandshakeType.server_hello);
+
+        // When
+        transcriptHash.record(mockMessage(EncryptedExtensions.class, TlsConstants.HandshakeType.encrypted_extensions, 0x03));
+        byte[] certificateVerifyHash = transcriptHash.getServerHash(TlsConstants.HandshakeType.certificate_verify);
+
+        // Then
+        assertThat(serverHelloHash).isEqualTo(computeHash(new byte[]{ 0x01 }, new byte[]{ 0x02 }));
+        assertThat(certificateVerifyHash).isEqualTo(computeHash(new byte[]{ 0x01 }, new byte[]{ 0x02 }, new byte[]{ 0x03 }));
+    }
+
+    @Test
+    void messagesRecordedOutOfOrderShouldBeHashedInTranscriptOrder() throws Exception {
+        // Given
+        transcriptHash.record(mockMessage(ServerHello.class, TlsConstants.HandshakeType.server_hello, 0x02));
+        transcriptHash.record(mockMessage(ClientHello.class, TlsConstants.HandshakeType.client_hello, 0x01));
+
+        // When
+        byte[] hash = transcriptHash.getHash(TlsConstants.HandshakeType.server_hello);
+
+        // Then
+        assertThat(hash).isEqualTo(computeHash(new byte[]{ 0x01 }, new byte[]{ 0x02 }));
+    }
+
+    @Test
+    void recordingMessageThatPrecedesAlreadyHashedMessageShouldFail() throws Exception {
+        // Given
+        transcriptHash.record(mockMessage(ServerHello.class, TlsConstants.HandshakeType.server_hello, 0x02));
+        transcriptHash.getHash(TlsConstants.HandshakeType.server_hello);
+
+        assertThatThrownBy(() ->
+                // When
+                transcriptHash.record(mockMessage(ClientHello.class, TlsConstants.HandshakeType.client_hello, 0x01)))
+                // Then
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void messageDataShouldNotBeRetainedOnceHashed() throws Exception {
+        // Given
+        transcriptHash.record(mockMessage(ClientHello.class, TlsConstants.HandshakeType.client_hello, 0x01));
+        transcriptHash.record(mockMessage(ServerHello.class, TlsConstants.HandshakeType.server_hello, 0x02));
+
+        // When
+        transcriptHash.getHash(TlsConstants.HandshakeType.server_hello);
+
+        // Then
+        assertThat((Map<?, ?>) FieldGetter.getField(transcriptHash, "msgData")).isEmpty();
+    }
+
+    @Test
+    void afterHelloRetryRequestFirstClientHelloShouldBeReplacedByMessageHash() throws Exception {
+        // Given
+        transcriptHash.record(mockMessage(ClientHello.class, TlsConstants.HandshakeType.client_hello, 0x01));
+        transcriptHash.recordHelloRetryRequest(mockMessage(ServerHello.class, TlsConstants.HandshakeType.server_hello, 0x02));
+
+        // When
+        transcriptHash.record(mockMessage(ClientHello.class, TlsConstants.HandshakeType.client_hello, 0x03));
+        transcriptHash.record(mockMessage(ServerHello.class, TlsConstants.HandshakeType.server_hello, 0x04));
+        byte[] hash = transcriptHash.getHash(TlsConstants.HandshakeType.server_hello);
+
+        // Then
+        byte[] messageHash = new byte[] { (byte) 0xfe, 0x00, 0x00, 0x20 };
+        assertThat(hash).isEqualTo(computeHash(messageHash, computeHash(new byte[] { 0x01 }), new byte[] { 0x02 }, new byte[] { 0x03 }, new byte[] { 0x04 }));
+        assertThat(transcriptHash.getHelloRetryTranscript()).startsWith(messageHash).endsWith(0x02);
+    }
+
+    @Test
+    void recordingHelloRetryRequestWithoutClientHelloShouldFail() throws Exception {
+        assertThatThrownBy(() ->
+                // When
+                transcriptHash.recordHelloRetryRequest(mockMessage(ServerHello.class, TlsConstants.HandshakeType.server_hello, 0x02)))
+                // Then
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void messageParsedWithoutCopyingShouldBeHashedBeforeReceiveBufferIsReused() throws Exception {
+        // Given
+        byte[] receiveBuffer = new byte[] { 0x01 };
+        ClientHello ch = mock(ClientHello.class);
+        when(ch.getType()).thenReturn(TlsConstants.HandshakeType.client_hello);
+        when(ch.getBytesView()).thenReturn(ByteBuffer.wrap(receiveBuffer).asReadOnlyBuffer());
+
+        // When
+        transcriptHash.record(ch);
+        receiveBuffer[0] = 0x7f;
+
+        // Then
+        assertThat(transcriptHash.getHash(TlsConstants.HandshakeType.client_hello)).isEqualTo(computeHash(new byte[] { 0x01 }));
+    }
+
+    @Test
+    void messageParsedWithoutCopyingThatIsRecordedOutOfOrderShouldBeCopied() throws Exception {
+        // Given
+        transcriptHash.record(mockMessage(ServerHello.class, TlsConstants.HandshakeType.server_hello, 0x02));
+        byte[] receiveBuffer = new byte[] { 0x01 };
+        ClientHello ch = mock(ClientHello.class);
+        when(ch.getType()).thenReturn(TlsConstants.HandshakeType.client_hello);
+        when(ch.getBytesView()).thenReturn(ByteBuffer.wrap(receiveBuffer).asReadOnlyBuffer());
+
+        // When
+        transcriptHash.record(ch);
+        receiveBuffer[0] = 0x7f;
+
+        // Then
+        assertThat(transcriptHash.getHash(TlsConstants.HandshakeType.server_hello)).isEqualTo(computeHash(new byte[] { 0x01 }, new byte[] { 0x02 }));
+    }
+
+    @Test
+    void everyUnambiguousHandshakeTypeShouldMapToTypeWithSameName() {
+        List<TlsConstants.HandshakeType> ambiguousTypes = List.of(TlsConstants.HandshakeType.certificate,
+                TlsConstants.HandshakeType.compressed_certificate, TlsConstants.HandshakeType.certificate_verify,
+                TlsConstants.HandshakeType.finished);
+        for (TlsConstants.HandshakeType type: TlsConstants.HandshakeType.values()) {
+            if (!ambiguousTypes.contains(type)) {
+                TranscriptHash.ExtendedHandshakeType converted = TranscriptHash.convert(type);
+
+                assertThat(converted.name()).isEqualTo(type.name());
+            }
+        }
+    }
+
+    private <T extends HandshakeMessage> T mockMessage(Class<T> messageClass, TlsConstants.HandshakeType type, int content) {
+        T message = mock(messageClass);
+        when(message.getType()).thenReturn(type);
+        when(message.getBytes()).thenReturn(new byte[] { (byte) content });
+        return message;
+    }
+
     private byte[] computeHash(byte[]... elements) throws Exception {
         String hashAlgorithm = "SHA-256";
         MessageDigest hashFunction = MessageDigest.getInstance(hashAlgorithm);
@@ -1,5 +1,6 @@
 package net.luminis.tls.extension;
 
+import net.luminis.tls.ExternalPsk;
 import net.luminis.tls.NewSessionTicket;
 import net.luminis.tls.TlsConstants;
 import net.luminis.tls.TlsState;
@@ -26,6 +27,14 @@ class ClientHelloPreSharedKeyExtensionTest {
         assertThat(data).isEqualTo(ByteUtils.hexToBytes("0029 002f 000a 0004 00010203 ffffffff 0021 20 0000000000000000000000000000000000000000000000000000000000000000"));
     }
 
+    @Test
+    void externalPskShouldBeSerializedWithZeroTicketAge() throws Exception {
+        var extension = new ClientHelloPreSharedKeyExtension(new ExternalPsk(new byte[]{ 0x0a, 0x0b }, new byte[32]));
+        byte[] data = extension.getBytes();
+
+        assertThat(data).isEqualTo(ByteUtils.hexToBytes("0029 002d 0008 0002 0a0b 00000000 0021 20 0000000000000000000000000000000000000000000000000000000000000000"));
+    }
+
     @Test
     void parseSerializedExtension() throws Exception {
 
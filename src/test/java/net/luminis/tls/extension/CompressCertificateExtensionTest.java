@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.extension;
+
+import net.luminis.tls.TlsConstants;
+import net.luminis.tls.alert.DecodeErrorException;
+import net.luminis.tls.util.ByteUtils;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static net.luminis.tls.TlsConstants.CertificateCompressionAlgorithm.brotli;
+import static net.luminis.tls.TlsConstants.CertificateCompressionAlgorithm.zlib;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CompressCertificateExtensionTest {
+
+    @Test
+    void testSerialize() {
+        byte[] bytes = new CompressCertificateExtension(List.of(zlib, brotli)).getBytes();
+
+        assertThat(bytes).isEqualTo(ByteUtils.hexToBytes("001b00050400010002"));
+    }
+
+    @Test
+    void testParse() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(ByteUtils.hexToBytes("001b00050400020001"));
+
+        CompressCertificateExtension extension = new CompressCertificateExtension(buffer);
+
+        assertThat(extension.getAlgorithms()).containsExactly(brotli, zlib);
+    }
+
+    @Test
+    void unknownAlgorithmsShouldBeIgnored() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(ByteUtils.hexToBytes("001b000504ff010001"));
+
+        CompressCertificateExtension extension = new CompressCertificateExtension(buffer);
+
+        assertThat(extension.getAlgorithms()).containsExactly(TlsConstants.CertificateCompressionAlgorithm.zlib);
+    }
+
+    @Test
+    void oddAlgorithmsLengthShouldLeadToDecodeError() {
+        ByteBuffer buffer = ByteBuffer.wrap(ByteUtils.hexToBytes("001b0004030001ff"));
+
+        assertThatThrownBy(() -> new CompressCertificateExtension(buffer))
+                .isInstanceOf(DecodeErrorException.class);
+    }
+
+    @Test
+    void inconsistentLengthShouldLeadToDecodeError() {
+        ByteBuffer buffer = ByteBuffer.wrap(ByteUtils.hexToBytes("001b000504000100020000"));
+        buffer.put(3, (byte) 0x07);
+
+        assertThatThrownBy(() -> new CompressCertificateExtension(buffer))
+                .isInstanceOf(DecodeErrorException.class);
+    }
+}
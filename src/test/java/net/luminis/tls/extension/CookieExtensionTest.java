@@ -0,0 +1,50 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.extension;
+
+import net.luminis.tls.alert.DecodeErrorException;
+import net.luminis.tls.util.ByteUtils;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CookieExtensionTest {
+
+    @Test
+    void serializeCookieExtension() {
+        var cookieExtension = new CookieExtension(new byte[] { 0x0c, 0x00, 0x0c, 0x1e });
+        assertThat(cookieExtension.getBytes()).isEqualTo(ByteUtils.hexToBytes("002c 0006 0004 0c000c1e"));
+    }
+
+    @Test
+    void parseCookieExtension() throws Exception {
+        var cookieExtension = new CookieExtension(ByteBuffer.wrap(ByteUtils.hexToBytes("002c 0006 0004 0c000c1e")));
+        assertThat(cookieExtension.getCookie()).isEqualTo(new byte[] { 0x0c, 0x00, 0x0c, 0x1e });
+    }
+
+    @Test
+    void parsingCookieExtensionWithInconsistentLengthShouldFail() {
+        assertThatThrownBy(() ->
+                new CookieExtension(ByteBuffer.wrap(ByteUtils.hexToBytes("002c 0006 0005 0c000c1e")))
+        ).isInstanceOf(DecodeErrorException.class);
+    }
+}
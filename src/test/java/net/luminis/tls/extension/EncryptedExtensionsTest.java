@@ -43,6 +43,20 @@ public class EncryptedExtensionsTest {
         assertThat(ee.getExtensions()).isEmpty();
     }
 
+    @Test
+    void parseEncryptedExtensionsWithoutCopyingData() throws Exception {
+        // Given
+        //                                         msg type msg lenth  extenions list size  early data extension
+        byte[] data = ByteUtils.hexToBytes("08" +    "000006" + "0004" +               "002a0000");
+
+        // When
+        EncryptedExtensions ee = new EncryptedExtensions().parse(ByteBuffer.wrap(data), data.length, null, true);
+
+        // Then
+        assertThat(ee.getExtensions()).hasOnlyElementsOfType(EarlyDataExtension.class);
+        assertThat(ee.getBytes()).isEqualTo(data);
+    }
+
     @Test
     void parseEncryptedExtensionsWithIncorrectMsgLength() throws Exception {
         //                                         msg type msg lenth  extenions list size
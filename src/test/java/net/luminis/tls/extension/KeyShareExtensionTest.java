@@ -111,6 +111,13 @@ class KeyShareExtensionTest {
         assertThat(keyShareExtension.getKeyShareEntries().get(0).getKey()).isNull();
     }
 
+    @Test
+    void serializeHelloRetryRequestKeyShareExtension() throws Exception {
+        KeyShareExtension keyShareExtension = new KeyShareExtension(TlsConstants.NamedGroup.x25519);
+
+        assertThat(keyShareExtension.getBytes()).isEqualTo(ByteUtils.hexToBytes("00330002001d"));
+    }
+
     @Test
     void parsingDataMissingExtensionLengthThrows() {
         ByteBuffer buffer = ByteBuffer.wrap(ByteUtils.hexToBytes("003300"));
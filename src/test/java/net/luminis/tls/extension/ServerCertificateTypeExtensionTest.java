@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.extension;
+
+import net.luminis.tls.TlsConstants;
+import net.luminis.tls.alert.DecodeErrorException;
+import net.luminis.tls.alert.IllegalParameterAlert;
+import net.luminis.tls.util.ByteUtils;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static net.luminis.tls.TlsConstants.CertificateType.RawPublicKey;
+import static net.luminis.tls.TlsConstants.CertificateType.X509;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ServerCertificateTypeExtensionTest {
+
+    @Test
+    void testSerializeClientHelloExtension() {
+        byte[] bytes = new ServerCertificateTypeExtension(List.of(RawPublicKey, X509)).getBytes();
+
+        assertThat(bytes).isEqualTo(ByteUtils.hexToBytes("00140003020200"));
+    }
+
+    @Test
+    void testSerializeEncryptedExtensionsExtension() {
+        byte[] bytes = new ServerCertificateTypeExtension(RawPublicKey).getBytes();
+
+        assertThat(bytes).isEqualTo(ByteUtils.hexToBytes("0014000102"));
+    }
+
+    @Test
+    void testParseClientHelloExtension() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(ByteUtils.hexToBytes("00140003020200"));
+
+        ServerCertificateTypeExtension extension = new ServerCertificateTypeExtension(buffer, TlsConstants.HandshakeType.client_hello);
+
+        assertThat(extension.getCertificateTypes()).containsExactly(RawPublicKey, X509);
+    }
+
+    @Test
+    void testParseEncryptedExtensionsExtension() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(ByteUtils.hexToBytes("0014000102"));
+
+        ServerCertificateTypeExtension extension = new ServerCertificateTypeExtension(buffer, TlsConstants.HandshakeType.encrypted_extensions);
+
+        assertThat(extension.getCertificateType()).isEqualTo(RawPublicKey);
+    }
+
+    @Test
+    void unknownTypesInClientHelloShouldBeIgnored() throws Exception {
+        // OpenPGP (1) is deprecated and not supported
+        ByteBuffer buffer = ByteBuffer.wrap(ByteUtils.hexToBytes("00140004030102ff"));
+
+        ServerCertificateTypeExtension extension = new ServerCertificateTypeExtension(buffer, TlsConstants.HandshakeType.client_hello);
+
+        assertThat(extension.getCertificateTypes()).containsExactly(RawPublicKey);
+    }
+
+    @Test
+    void unknownSelectedTypeShouldLeadToIllegalParameter() {
+        ByteBuffer buffer = ByteBuffer.wrap(ByteUtils.hexToBytes("0014000101"));
+
+        assertThatThrownBy(() -> new ServerCertificateTypeExtension(buffer, TlsConstants.HandshakeType.encrypted_extensions))
+                .isInstanceOf(IllegalParameterAlert.class);
+    }
+
+    @Test
+    void inconsistentLengthShouldLeadToDecodeError() {
+        ByteBuffer buffer = ByteBuffer.wrap(ByteUtils.hexToBytes("00140003030200"));
+
+        assertThatThrownBy(() -> new ServerCertificateTypeExtension(buffer, TlsConstants.HandshakeType.client_hello))
+                .isInstanceOf(DecodeErrorException.class);
+    }
+
+    @Test
+    void extensionInCertificateRequestShouldLeadToIllegalParameter() {
+        ByteBuffer buffer = ByteBuffer.wrap(ByteUtils.hexToBytes("0014000102"));
+
+        assertThatThrownBy(() -> new ServerCertificateTypeExtension(buffer, TlsConstants.HandshakeType.certificate_request))
+                .isInstanceOf(IllegalParameterAlert.class);
+    }
+}
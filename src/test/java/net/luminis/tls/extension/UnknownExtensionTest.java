@@ -25,6 +25,7 @@ import org.junit.jupiter.api.Test;
 
 import java.nio.ByteBuffer;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class UnknownExtensionTest {
@@ -35,4 +36,18 @@ class UnknownExtensionTest {
                 new UnknownExtension().parse(ByteBuffer.wrap(ByteUtils.hexToBytes("00ba 8000")))
         ).isInstanceOf(DecodeErrorException.class);
     }
-}
\ No newline at end of file
+
+    @Test
+    void parseWithoutCopyingDataKeepsViewOnBuffer() throws Exception {
+        // Given
+        ByteBuffer buffer = ByteBuffer.wrap(ByteUtils.hexToBytes("00ba 0002 cafe 0000"));
+
+        // When
+        UnknownExtension extension = new UnknownExtension().parse(buffer, true);
+
+        // Then
+        assertThat(buffer.position()).isEqualTo(6);
+        assertThat(extension.getType()).isEqualTo(0xba);
+        assertThat(extension.getData()).isEqualTo(ByteUtils.hexToBytes("00ba 0002 cafe"));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.ProtectionKeysType;
+import net.luminis.tls.alert.DecryptErrorAlert;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static net.luminis.tls.TlsConstants.SignatureScheme.rsa_pss_rsae_sha256;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class AsyncMessageProcessorTest {
+
+    private ExecutorService executor;
+    private MessageProcessor engine;
+    private AsyncMessageProcessor asyncProcessor;
+
+    @BeforeEach
+    void initProcessor() {
+        executor = Executors.newFixedThreadPool(4);
+        engine = mock(MessageProcessor.class);
+        asyncProcessor = new AsyncMessageProcessor(engine, executor);
+    }
+
+    @AfterEach
+    void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void messagesShouldBeProcessedInOrderOfSubmission() throws Exception {
+        // Given
+        EncryptedExtensions encryptedExtensions = new EncryptedExtensions();
+        CertificateVerifyMessage certificateVerify = new CertificateVerifyMessage(rsa_pss_rsae_sha256, new byte[256]);
+        FinishedMessage finished = new FinishedMessage(new byte[32]);
+        doAnswer(invocation -> { Thread.sleep(50); return null; }).when(engine).received(any(EncryptedExtensions.class), any());
+
+        // When
+        asyncProcessor.process(encryptedExtensions, ProtectionKeysType.Handshake);
+        asyncProcessor.process(certificateVerify, ProtectionKeysType.Handshake);
+        asyncProcessor.process(finished, ProtectionKeysType.Handshake).toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+        // Then
+        InOrder inOrder = inOrder(engine);
+        inOrder.verify(engine).received(encryptedExtensions, ProtectionKeysType.Handshake);
+        inOrder.verify(engine).received(certificateVerify, ProtectionKeysType.Handshake);
+        inOrder.verify(engine).received(finished, ProtectionKeysType.Handshake);
+    }
+
+    @Test
+    void messagesShouldNotBeProcessedOnCallersThread() throws Exception {
+        // Given
+        Thread caller = Thread.currentThread();
+        Thread[] processingThread = new Thread[1];
+        doAnswer(invocation -> { processingThread[0] = Thread.currentThread(); return null; }).when(engine).received(any(FinishedMessage.class), any());
+
+        // When
+        asyncProcessor.process(new FinishedMessage(new byte[32]), ProtectionKeysType.Handshake).toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+        // Then
+        assertThat(processingThread[0]).isNotNull().isNotSameAs(caller);
+    }
+
+    @Test
+    void failureShouldBeReportedAndPreventProcessingOfLaterMessages() throws Exception {
+        // Given
+        doThrow(new DecryptErrorAlert("signature verification fails")).when(engine).received(any(CertificateVerifyMessage.class), any());
+
+        // When
+        CompletionStage<Void> failed = asyncProcessor.process(new CertificateVerifyMessage(rsa_pss_rsae_sha256, new byte[256]), ProtectionKeysType.Handshake);
+        CompletionStage<Void> next = asyncProcessor.process(new FinishedMessage(new byte[32]), ProtectionKeysType.Handshake);
+
+        // Then
+        assertThatThrownBy(() -> failed.toCompletableFuture().get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(DecryptErrorAlert.class);
+        assertThatThrownBy(() -> next.toCompletableFuture().get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(DecryptErrorAlert.class);
+        verify(engine, never()).received(any(FinishedMessage.class), any());
+    }
+
+    @Test
+    void actionsShouldBeExecutedInOrderWithMessages() throws Exception {
+        // Given
+        FinishedMessage finished = new FinishedMessage(new byte[32]);
+        Runnable action = mock(Runnable.class);
+
+        // When
+        asyncProcessor.process(finished, ProtectionKeysType.Handshake);
+        asyncProcessor.execute(() -> action.run()).toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+        // Then
+        InOrder inOrder = inOrder(engine, action);
+        inOrder.verify(engine).received(finished, ProtectionKeysType.Handshake);
+        inOrder.verify(action).run();
+    }
+}
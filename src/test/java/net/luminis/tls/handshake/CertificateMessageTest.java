@@ -26,7 +26,10 @@ import net.luminis.tls.util.ByteUtils;
 import org.junit.jupiter.api.Test;
 
 import java.nio.ByteBuffer;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -53,6 +56,22 @@ public class CertificateMessageTest {
         assertThat(names).contains("gmail.com");
     }
 
+    @Test
+    void parseCertificateMessageWithoutCopyingData() throws Exception {
+        // Given
+        byte[] rawData = ByteUtils.hexToBytes(gmailCertificateMessageBytes);
+        ByteBuffer buffer = ByteBuffer.wrap(rawData);
+
+        // When
+        CertificateMessage cm = new CertificateMessage().parse(buffer, true);
+
+        // Then
+        assertThat(buffer.position()).isEqualTo(rawData.length);
+        assertThat(cm.getCertificateChain()).hasSizeGreaterThan(1);
+        assertThat(cm.getEndEntityCertificate().getSubjectX500Principal().getName()).contains("gmail.com");
+        assertThat(cm.getBytes()).isEqualTo(rawData);
+    }
+
     @Test
     void parseNoMessage() throws Exception {
         byte[] rawData = ByteUtils.hexToBytes("0b00");
@@ -90,6 +109,70 @@ public class CertificateMessageTest {
         ).isInstanceOf(BadCertificateAlert.class);
     }
 
+    @Test
+    void invalidIntermediateCertificateIsReportedWhenChainIsDecoded() throws Exception {
+        // Given
+        byte[] rawData = ByteUtils.hexToBytes("0b0004ef" + "00"
+                // cert list size cert data size
+                + "0004eb" +      "0004d1" + gmailCertificateBytes + "0000"
+                + "000010" + "00000000000000000000000000000000" + "0000");
+
+        // When
+        CertificateMessage cm = new CertificateMessage().parse(ByteBuffer.wrap(rawData));
+
+        // Then
+        assertThat(cm.getEndEntityCertificate()).isNotNull();
+        assertThatThrownBy(() ->
+                cm.decodeCertificateChain()
+        ).isInstanceOf(BadCertificateAlert.class);
+    }
+
+    @Test
+    void digestOfCertificatesShouldNotRequireDecodingChain() throws Exception {
+        // Given
+        byte[] rawData = ByteUtils.hexToBytes("0b0004ef" + "00"
+                // cert list size cert data size
+                + "0004eb" +      "0004d1" + gmailCertificateBytes + "0000"
+                + "000010" + "00000000000000000000000000000000" + "0000");
+        CertificateMessage cm = new CertificateMessage().parse(ByteBuffer.wrap(rawData));
+
+        // When
+        byte[] digest = cm.digestCertificateEntries();
+
+        // Then
+        assertThat(digest).hasSize(32);
+        assertThat(cm.getCertificateCount()).isEqualTo(2);
+    }
+
+    @Test
+    void digestOfParsedCertificatesShouldEqualDigestOfSerializedCertificates() throws Exception {
+        // Given
+        byte[] rawData = ByteUtils.hexToBytes(gmailCertificateMessageBytes);
+        byte[] digest = new CertificateMessage().parse(ByteBuffer.wrap(rawData), true).digestCertificateEntries();
+
+        // When
+        CertificateMessage cm = new CertificateMessage(new CertificateMessage().parse(ByteBuffer.wrap(rawData)).getCertificateChain());
+
+        // Then
+        assertThat(cm.digestCertificateEntries()).isEqualTo(digest);
+        assertThat(new CertificateMessage(cm.getEndEntityCertificate()).digestCertificateEntries()).isNotEqualTo(digest);
+    }
+
+    @Test
+    void certificateChainIsDecodedFromCopyWhenBufferIsReused() throws Exception {
+        // Given
+        byte[] rawData = ByteUtils.hexToBytes(gmailCertificateMessageBytes);
+        CertificateMessage cm = new CertificateMessage().parse(ByteBuffer.wrap(rawData), true);
+        byte[] messageBytes = cm.getBytes();
+
+        // When
+        Arrays.fill(rawData, (byte) 0);
+
+        // Then
+        assertThat(cm.decodeCertificateChain()).hasSizeGreaterThan(1);
+        assertThat(cm.getBytes()).isEqualTo(messageBytes);
+    }
+
     @Test
     void parseMessageWithoutCertificate() throws Exception {
         byte[] rawData = ByteUtils.hexToBytes("0b000009" + "00" + "000005" + "000000" + "0000");
@@ -171,6 +254,76 @@ public class CertificateMessageTest {
         assertThat(parsedCertificateMessage.getEndEntityCertificate()).isEqualTo(cert);
     }
 
+    @Test
+    void serializeAndDeserializeRawPublicKey() throws Exception {
+        // Given
+        PublicKey publicKey = CertificateUtils.getTestCertificate().getPublicKey();
+        CertificateMessage certificateMessage = new CertificateMessage(publicKey);
+
+        // When
+        CertificateMessage parsedCertificateMessage = new CertificateMessage().parse(ByteBuffer.wrap(certificateMessage.getBytes()));
+
+        // Then
+        assertThat(parsedCertificateMessage.containsRawPublicKey()).isTrue();
+        assertThat(parsedCertificateMessage.getEndEntityCertificate()).isNull();
+        assertThat(parsedCertificateMessage.getRawPublicKey()).isEqualTo(publicKey);
+    }
+
+    @Test
+    void parseEcAndEd25519RawPublicKeys() throws Exception {
+        for (String algorithm: List.of("EC", "Ed25519")) {
+            // Given
+            PublicKey publicKey = KeyPairGenerator.getInstance(algorithm).generateKeyPair().getPublic();
+            byte[] data = new CertificateMessage(publicKey).getBytes();
+
+            // When
+            CertificateMessage parsedCertificateMessage = new CertificateMessage().parse(ByteBuffer.wrap(data), true);
+
+            // Then
+            assertThat(parsedCertificateMessage.getRawPublicKey()).isEqualTo(publicKey);
+        }
+    }
+
+    @Test
+    void certificateMessageDoesNotContainRawPublicKey() throws Exception {
+        byte[] rawData = ByteUtils.hexToBytes(gmailCertificateMessageBytes);
+
+        CertificateMessage cm = new CertificateMessage().parse(ByteBuffer.wrap(rawData));
+
+        assertThat(cm.containsRawPublicKey()).isFalse();
+        assertThat(cm.getRawPublicKey()).isNull();
+    }
+
+    @Test
+    void rawPublicKeyMustBeOnlyEntry() throws Exception {
+        byte[] encodedKey = CertificateUtils.getTestCertificate().getPublicKey().getEncoded();
+        String entry = String.format("%06x", encodedKey.length) + ByteUtils.bytesToHex(encodedKey) + "0000";
+        String certificateList = entry + entry;
+        String message = "00" + String.format("%06x", certificateList.length() / 2) + certificateList;
+        byte[] rawData = ByteUtils.hexToBytes("0b" + String.format("%06x", message.length() / 2) + message);
+
+        assertThatThrownBy(() ->
+                new CertificateMessage().parse(ByteBuffer.wrap(rawData))
+        ).isInstanceOf(BadCertificateAlert.class);
+    }
+
+    @Test
+    void rawPublicKeyWithUnsupportedAlgorithmIsReportedWhenDecoded() throws Exception {
+        // Given
+        // SubjectPublicKeyInfo with a DSA algorithm identifier (1.2.840.10040.4.1) and bogus key
+        byte[] encodedKey = ByteUtils.hexToBytes("3010300b06072a8648ce3804010500030100");
+        String entry = String.format("%06x", encodedKey.length) + ByteUtils.bytesToHex(encodedKey) + "0000";
+        String message = "00" + String.format("%06x", entry.length() / 2) + entry;
+        byte[] rawData = ByteUtils.hexToBytes("0b" + String.format("%06x", message.length() / 2) + message);
+
+        // When
+        CertificateMessage cm = new CertificateMessage().parse(ByteBuffer.wrap(rawData));
+
+        // Then
+        assertThat(cm.containsRawPublicKey()).isTrue();
+        assertThatThrownBy(() -> cm.getRawPublicKey()).isInstanceOf(BadCertificateAlert.class);
+    }
+
     @Test
     void parseMessageWithVeryLargeExtensionSize() throws Exception {
         byte[] rawData = ByteUtils.hexToBytes("0b000400" + "00"
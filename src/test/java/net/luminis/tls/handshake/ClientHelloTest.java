@@ -76,6 +76,42 @@ class ClientHelloTest {
         assertThat(ch.getExtensions()).hasSize(0);
     }
 
+    @Test
+    void parseClientHelloWithoutCopyingData() throws Exception {
+        // Given
+        byte[] data = ByteUtils.hexToBytes(("01 000037 0303 2411ec38adb041713ca81a04182a655b567ecc8c4935e082ec20bb233d57aff2"
+                //  session id   cipher    comp ext's length  unknown extension
+                + "04 aabbccdd 0002 1301 0100 0008            ffa5 0004 01020304").replaceAll(" ", ""));
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+
+        // When
+        ClientHello ch = new ClientHello(buffer, null, true);
+
+        // Then
+        assertThat(buffer.position()).isEqualTo(data.length);
+        assertThat(ch.getCipherSuites()).containsExactly(TLS_AES_128_GCM_SHA256);
+        assertThat(ch.getExtensions()).hasOnlyElementsOfType(UnknownExtension.class);
+        assertThat(((UnknownExtension) ch.getExtensions().get(0)).getData()).isEqualTo(ByteUtils.hexToBytes("ffa5000401020304"));
+        assertThat(ch.getBytes()).isEqualTo(data);
+    }
+
+    @Test
+    void clientHelloParsedWithoutCopyingDataShouldProvideViewOnReceivedBytes() throws Exception {
+        // Given
+        byte[] data = ByteUtils.hexToBytes(("01 000037 0303 2411ec38adb041713ca81a04182a655b567ecc8c4935e082ec20bb233d57aff2"
+                + "04 aabbccdd 0002 1301 0100 0008 ffa5 0004 01020304").replaceAll(" ", ""));
+        ClientHello ch = new ClientHello(ByteBuffer.wrap(data), null, true);
+
+        // When
+        ByteBuffer view = ch.getBytesView();
+
+        // Then
+        assertThat(view.isReadOnly()).isTrue();
+        byte[] viewContent = new byte[view.remaining()];
+        view.get(viewContent);
+        assertThat(viewContent).isEqualTo(data);
+    }
+
     @Test
     void parseClientHelloWithInvalidLength() throws Exception {
         byte[] data = ByteUtils.hexToBytes(("01 00092b 0303 2411ec38adb041713ca81a04182a655b567ecc8c4935e082ec20bb233d57aff2"
@@ -0,0 +1,125 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.TlsConstants;
+import net.luminis.tls.alert.BadCertificateAlert;
+import net.luminis.tls.alert.DecodeErrorException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+import static net.luminis.tls.CertificateUtils.encodedKwikDotTechRsaCertificate;
+import static net.luminis.tls.CertificateUtils.inflateCertificate;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CompressedCertificateMessageTest {
+
+    private X509Certificate certificate;
+    private CertificateCompressor compressor;
+
+    @BeforeEach
+    void initCertificate() throws Exception {
+        certificate = inflateCertificate(encodedKwikDotTechRsaCertificate);
+        compressor = new ZlibCertificateCompressor();
+    }
+
+    @Test
+    void serializedMessageShouldBeSmallerThanCertificateMessage() {
+        // When
+        CompressedCertificateMessage message = new CompressedCertificateMessage(List.of(certificate, certificate), compressor);
+
+        // Then
+        byte[] bytes = message.getBytes();
+        assertThat(bytes[0]).isEqualTo(TlsConstants.HandshakeType.compressed_certificate.value);
+        assertThat(bytes.length).isLessThan(new CertificateMessage(List.of(certificate, certificate)).getBytes().length);
+        assertThat(message.getUncompressedLength()).isEqualTo(new CertificateMessage(List.of(certificate, certificate)).getBytes().length - 4);
+    }
+
+    @Test
+    void parsedMessageShouldDecompressToCertificateChain() throws Exception {
+        // Given
+        byte[] bytes = new CompressedCertificateMessage(List.of(certificate, certificate), compressor).getBytes();
+        CompressedCertificateMessage message = new CompressedCertificateMessage().parse(ByteBuffer.wrap(bytes));
+
+        // When
+        message.decompress(List.of(compressor), 65536);
+
+        // Then
+        assertThat(message.getAlgorithm()).isEqualTo(TlsConstants.CertificateCompressionAlgorithm.zlib);
+        assertThat(message.getEndEntityCertificate()).isEqualTo(certificate);
+        assertThat(message.getCertificateChain()).hasSize(2);
+        assertThat(message.getBytes()).isEqualTo(bytes);
+    }
+
+    @Test
+    void messageParserShouldParseCompressedCertificateMessage() throws Exception {
+        // Given
+        byte[] bytes = new CompressedCertificateMessage(List.of(certificate), compressor).getBytes();
+
+        // When
+        HandshakeMessage message = new TlsMessageParser().parseHandshakeMessage(ByteBuffer.wrap(bytes));
+
+        // Then
+        assertThat(message).isInstanceOf(CompressedCertificateMessage.class);
+    }
+
+    @Test
+    void algorithmNotOfferedShouldLeadToBadCertificate() throws Exception {
+        byte[] bytes = new CompressedCertificateMessage(List.of(certificate), compressor).getBytes();
+        CompressedCertificateMessage message = new CompressedCertificateMessage().parse(ByteBuffer.wrap(bytes));
+
+        assertThatThrownBy(() -> message.decompress(List.of(), 65536))
+                .isInstanceOf(BadCertificateAlert.class);
+    }
+
+    @Test
+    void uncompressedLengthExceedingMaximumShouldLeadToBadCertificate() throws Exception {
+        byte[] bytes = new CompressedCertificateMessage(List.of(certificate), compressor).getBytes();
+        CompressedCertificateMessage message = new CompressedCertificateMessage().parse(ByteBuffer.wrap(bytes));
+
+        assertThatThrownBy(() -> message.decompress(List.of(compressor), 100))
+                .isInstanceOf(BadCertificateAlert.class);
+    }
+
+    @Test
+    void unknownAlgorithmShouldLeadToBadCertificate() {
+        byte[] bytes = new CompressedCertificateMessage(List.of(certificate), compressor).getBytes();
+        bytes[5] = 0x7f;
+
+        assertThatThrownBy(() -> new CompressedCertificateMessage().parse(ByteBuffer.wrap(bytes)))
+                .isInstanceOf(BadCertificateAlert.class);
+    }
+
+    @Test
+    void inconsistentLengthShouldLeadToDecodeError() {
+        byte[] bytes = new CompressedCertificateMessage(List.of(certificate), compressor).getBytes();
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 1).put(bytes);
+        buffer.put(3, (byte) (bytes[3] + 1));
+        buffer.flip();
+        buffer.limit(bytes.length + 1);
+
+        assertThatThrownBy(() -> new CompressedCertificateMessage().parse(buffer))
+                .isInstanceOf(DecodeErrorException.class);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import org.junit.jupiter.api.Test;
+
+import static net.luminis.tls.TlsConstants.NamedGroup.secp256r1;
+import static net.luminis.tls.TlsConstants.NamedGroup.x25519;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KeyShareGroupCacheTest {
+
+    @Test
+    void selectedGroupShouldBeFoundByServerName() {
+        // Given
+        KeyShareGroupCache cache = new KeyShareGroupCache();
+
+        // When
+        cache.put("example.com", x25519);
+
+        // Then
+        assertThat(cache.get("example.com")).contains(x25519);
+        assertThat(cache.get("example.org")).isEmpty();
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    void laterSelectionShouldReplaceEarlierSelection() {
+        // Given
+        KeyShareGroupCache cache = new KeyShareGroupCache();
+        cache.put("example.com", x25519);
+
+        // When
+        cache.put("example.com", secp256r1);
+
+        // Then
+        assertThat(cache.get("example.com")).contains(secp256r1);
+        assertThat(cache.getSize()).isEqualTo(1);
+    }
+
+    @Test
+    void whenFullLeastRecentlyUsedServerShouldBeRemoved() {
+        // Given
+        KeyShareGroupCache cache = new KeyShareGroupCache(2);
+        cache.put("a.example.com", x25519);
+        cache.put("b.example.com", x25519);
+        cache.get("a.example.com");
+
+        // When
+        cache.put("c.example.com", x25519);
+
+        // Then
+        assertThat(cache.get("a.example.com")).isPresent();
+        assertThat(cache.get("b.example.com")).isEmpty();
+        assertThat(cache.get("c.example.com")).isPresent();
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.TlsConstants;
+import net.luminis.tls.TlsState;
+import net.luminis.tls.extension.ClientHelloPreSharedKeyExtension;
+import net.luminis.tls.util.FieldGetter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MappedTlsSessionRegistryTest {
+
+    @TempDir
+    Path tempDir;
+    private Path file;
+    private Clock clock;
+    private TlsState tlsState;
+    private List<MappedTlsSessionRegistry> registries = new ArrayList<>();
+
+    @BeforeEach
+    void initObjectsUnderTest() {
+        file = tempDir.resolve("sessions");
+        clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(1_000_000L);
+        tlsState = mock(TlsState.class);
+        when(tlsState.computePSK(any())).thenReturn(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16 });
+    }
+
+    @AfterEach
+    void closeRegistries() throws Exception {
+        for (MappedTlsSessionRegistry registry: registries) {
+            registry.close();
+        }
+    }
+
+    @Test
+    void sessionShouldSurviveReopeningRegistry() throws Exception {
+        // Given
+        var registry = openRegistry(60, 100);
+        var ticketMessage = registry.createNewSessionTicketMessage((byte) 0, TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256, tlsState, "h3", null, new byte[] { 42 });
+        registry.close();
+
+        // When
+        var reopenedRegistry = openRegistry(60, 100);
+        TlsSession session = reopenedRegistry.useSession(new ClientHelloPreSharedKeyExtension.PskIdentity(ticketMessage.getTicket(), 0));
+
+        // Then
+        assertThat(session).isNotNull();
+        assertThat(session.getPsk()).isEqualTo(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16 });
+        assertThat(session.getApplicationLayerProtocol()).isEqualTo("h3");
+        assertThat(session.getData()).isEqualTo(new byte[] { 42 });
+    }
+
+    @Test
+    void usedSessionShouldNotBeUsableAfterRestartWithoutClose() throws Exception {
+        // Given
+        var registry = openRegistry(60, 100);
+        var ticketMessage = registry.createNewSessionTicketMessage((byte) 0, TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256, tlsState, "");
+        var identity = new ClientHelloPreSharedKeyExtension.PskIdentity(ticketMessage.getTicket(), 0);
+
+        // When
+        registry.useSession(identity);
+        // Simulate a crash: the operating system releases the file lock, but the registry is not closed (or forced)
+        ((FileChannel) FieldGetter.getField(registry, "fileChannel")).close();
+        var reopenedRegistry = openRegistry(60, 100);
+
+        // Then
+        assertThat(reopenedRegistry.getSize()).isEqualTo(0);
+        assertThat(reopenedRegistry.useSession(identity)).isNull();
+    }
+
+    @Test
+    void sessionShouldOnlyBeUsedOnce() throws Exception {
+        // Given
+        var registry = openRegistry(60, 100);
+        var ticketMessage = registry.createNewSessionTicketMessage((byte) 0, TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256, tlsState, null);
+        var identity = new ClientHelloPreSharedKeyExtension.PskIdentity(ticketMessage.getTicket(), 0);
+
+        // When
+        TlsSession session = registry.useSession(identity);
+
+        // Then
+        assertThat(session.getApplicationLayerProtocol()).isNull();
+        assertThat(session.getData()).isNull();
+        assertThat(registry.useSession(identity)).isNull();
+        assertThatThrownBy(() -> registry.peekSessionData(identity)).isInstanceOf(NoSuchElementException.class);
+    }
+
+    @Test
+    void sessionSelectionShouldCheckForSameCipher() throws Exception {
+        // Given
+        var registry = openRegistry(60, 100);
+        var ticketMessage1 = registry.createNewSessionTicketMessage((byte) 0, TlsConstants.CipherSuite.TLS_AES_256_GCM_SHA384, tlsState, "");
+        var ticketMessage2 = registry.createNewSessionTicketMessage((byte) 1, TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256, tlsState, "");
+
+        // When
+        Integer selectedIdentity = registry.selectIdentity(List.of(
+                new ClientHelloPreSharedKeyExtension.PskIdentity(ticketMessage1.getTicket(), 0xff),
+                new ClientHelloPreSharedKeyExtension.PskIdentity(ticketMessage2.getTicket(), 0xff)
+        ), TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256);
+
+        // Then
+        assertThat(selectedIdentity).isEqualTo(1);
+    }
+
+    @Test
+    void expiredSessionShouldNotBeSelected() throws Exception {
+        // Given
+        var registry = openRegistry(1, 100);
+        var ticketMessage = registry.createNewSessionTicketMessage((byte) 0, TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256, tlsState, "");
+
+        // When
+        when(clock.millis()).thenReturn(1_001_000L);
+
+        // Then
+        Integer selectedIdentity = registry.selectIdentity(List.of(
+                new ClientHelloPreSharedKeyExtension.PskIdentity(ticketMessage.getTicket(), 0xff)
+        ), TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256);
+        assertThat(selectedIdentity).isNull();
+    }
+
+    @Test
+    void sweepShouldRemoveExpiredSessions() throws Exception {
+        // Given
+        var registry = openRegistry(1, 100);
+        registry.createNewSessionTicketMessage((byte) 0, TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256, tlsState, "");
+        registry.createNewSessionTicketMessage((byte) 1, TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256, tlsState, "");
+
+        // When
+        when(clock.millis()).thenReturn(1_001_000L);
+        registry.sweepExpired(Integer.MAX_VALUE);
+
+        // Then
+        assertThat(registry.getSize()).isEqualTo(0);
+        assertThat(registry.getExpiryCount()).isEqualTo(2);
+    }
+
+    @Test
+    void whenRegistryIsFullSessionsShouldBeEvicted() throws Exception {
+        // Given
+        var registry = openRegistry(60, 1);
+        List<NewSessionTicketMessage> ticketMessages = new ArrayList<>();
+
+        // When
+        for (int i = 0; i < 100; i++) {
+            ticketMessages.add(registry.createNewSessionTicketMessage((byte) i, TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256, tlsState, ""));
+        }
+
+        // Then
+        assertThat(registry.getEvictionCount()).isGreaterThanOrEqualTo(100 - registry.getSize());
+        assertThat(registry.getSize()).isLessThan(100);
+        var lastTicket = ticketMessages.get(ticketMessages.size() - 1);
+        assertThat(registry.useSession(new ClientHelloPreSharedKeyExtension.PskIdentity(lastTicket.getTicket(), 0))).isNotNull();
+    }
+
+    @Test
+    void sessionWithTooMuchDataShouldNotBeStored() throws Exception {
+        // Given
+        var registry = openRegistry(60, 100);
+
+        // When
+        var ticketMessage = registry.createNewSessionTicketMessage((byte) 0, TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256, tlsState, "h3",
+                null, new byte[MappedTlsSessionRegistry.MAX_VARIABLE_DATA_SIZE]);
+
+        // Then
+        assertThat(ticketMessage).isNotNull();
+        assertThat(registry.getSize()).isEqualTo(0);
+    }
+
+    @Test
+    void fileForDifferentNumberOfSessionsShouldBeCleared() throws Exception {
+        // Given
+        var registry = openRegistry(60, 100);
+        registry.createNewSessionTicketMessage((byte) 0, TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256, tlsState, "");
+        registry.close();
+        long originalSize = Files.size(file);
+
+        // When
+        var reopenedRegistry = openRegistry(60, 1000);
+
+        // Then
+        assertThat(reopenedRegistry.getSize()).isEqualTo(0);
+        assertThat(Files.size(file)).isGreaterThan(originalSize);
+    }
+
+    @Test
+    void fileThatIsInUseShouldNotBeOpenedByAnotherRegistry() throws Exception {
+        // Given
+        openRegistry(60, 100);
+
+        assertThatThrownBy(() ->
+                // When
+                openRegistry(60, 100))
+                // Then
+                .isInstanceOf(IOException.class);
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void fileShouldOnlyBeAccessibleByOwner() throws Exception {
+        // Given
+        Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-r--r--")));
+
+        // When
+        openRegistry(60, 100);
+
+        // Then
+        assertThat(Files.getPosixFilePermissions(file)).isEqualTo(PosixFilePermissions.fromString("rw-------"));
+    }
+
+    private MappedTlsSessionRegistry openRegistry(int ticketLifeTimeInSeconds, int maxSessions) throws Exception {
+        var registry = new MappedTlsSessionRegistry(file, ticketLifeTimeInSeconds, maxSessions, clock, false);
+        registries.add(registry);
+        return registry;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.TlsConstants;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyPair;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.luminis.tls.TlsConstants.NamedGroup.secp256r1;
+import static net.luminis.tls.TlsConstants.NamedGroup.x25519;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PooledKeyShareProviderTest {
+
+    private PooledKeyShareProvider provider;
+
+    @AfterEach
+    void closeProvider() {
+        if (provider != null) {
+            provider.close();
+        }
+    }
+
+    @Test
+    void whenPoolIsFilledKeyPairShouldBeTakenFromPool() throws Exception {
+        // Given
+        provider = new PooledKeyShareProvider(List.of(secp256r1), 4, group -> new KeyPair(null, null));
+        waitUntilFilled(secp256r1, 4);
+
+        // When
+        KeyPair keyPair = provider.getKeyPair(secp256r1);
+
+        // Then
+        assertThat(keyPair).isNotNull();
+        assertThat(provider.getHitCount()).isEqualTo(1);
+        assertThat(provider.getMissCount()).isEqualTo(0);
+    }
+
+    @Test
+    void whenGroupIsNotPooledKeyPairShouldBeGenerated() {
+        // Given
+        provider = new PooledKeyShareProvider(List.of(secp256r1), 4);
+
+        // When
+        KeyPair keyPair = provider.getKeyPair(x25519);
+
+        // Then
+        assertThat(keyPair.getPublic().getAlgorithm()).isIn("XDH", "X25519");
+        assertThat(provider.getHitCount()).isEqualTo(0);
+        assertThat(provider.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    void keyPairsShouldNeverBeReturnedTwice() throws Exception {
+        // Given
+        provider = new PooledKeyShareProvider(List.of(secp256r1), 4, group -> new KeyPair(null, null));
+        waitUntilFilled(secp256r1, 4);
+
+        // When
+        Set<KeyPair> keyPairs = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < 20; i++) {
+            keyPairs.add(provider.getKeyPair(secp256r1));
+        }
+
+        // Then
+        assertThat(keyPairs).hasSize(20);
+        assertThat(provider.getHitCount() + provider.getMissCount()).isEqualTo(20);
+    }
+
+    @Test
+    void poolShouldNotGrowBeyondMaximumSize() throws Exception {
+        // Given
+        provider = new PooledKeyShareProvider(List.of(secp256r1), 3, group -> new KeyPair(null, null));
+        waitUntilFilled(secp256r1, 3);
+
+        // When
+        Thread.sleep(50);
+
+        // Then
+        assertThat(provider.available(secp256r1)).isEqualTo(3);
+    }
+
+    @Test
+    void whenGenerationFailsPoolShouldStopFillingAndGenerateOnDemand() throws Exception {
+        // Given
+        AtomicInteger generated = new AtomicInteger();
+        provider = new PooledKeyShareProvider(List.of(secp256r1), 4, group -> {
+            if (generated.incrementAndGet() == 2) {
+                throw new IllegalStateException("generation failed");
+            }
+            return new KeyPair(null, null);
+        });
+        waitUntilFilled(secp256r1, 1);
+
+        // When
+        Thread.sleep(50);
+
+        // Then
+        assertThat(provider.available(secp256r1)).isEqualTo(1);
+        assertThat(provider.getKeyPair(secp256r1)).isNotNull();
+        assertThat(provider.getKeyPair(secp256r1)).isNotNull();
+        assertThat(provider.getMissCount()).isEqualTo(1);
+        assertThat(generated.get()).isEqualTo(3);
+    }
+
+    @Test
+    void poolSizeMustBePositive() {
+        assertThatThrownBy(() ->
+                new PooledKeyShareProvider(List.of(secp256r1), 0)
+        ).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private void waitUntilFilled(TlsConstants.NamedGroup namedGroup, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (provider.available(namedGroup) < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(provider.available(namedGroup)).isEqualTo(size);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ReplayFilterTest {
+
+    @Test
+    void recordedValueShouldBePresent() {
+        // Given
+        ReplayFilter filter = new ReplayFilter(1000, Duration.ofMinutes(10));
+
+        // When
+        boolean presentBefore = filter.checkAndRecord(new byte[] { 0x01, 0x02, 0x03 });
+        boolean presentAfter = filter.checkAndRecord(new byte[] { 0x01, 0x02, 0x03 });
+
+        // Then
+        assertThat(presentBefore).isFalse();
+        assertThat(presentAfter).isTrue();
+        assertThat(filter.mightContain(new byte[] { 0x01, 0x02, 0x04 })).isFalse();
+    }
+
+    @Test
+    void recordedValueShouldBeRememberedForAtLeastTheWindow() {
+        // Given
+        Clock clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(0L);
+        ReplayFilter filter = new ReplayFilter(1000, Duration.ofSeconds(60), clock);
+        when(clock.millis()).thenReturn(59_000L);
+        filter.checkAndRecord(new byte[] { 0x01 });
+
+        // When
+        when(clock.millis()).thenReturn(59_000L + 60_000L);
+
+        // Then
+        assertThat(filter.mightContain(new byte[] { 0x01 })).isTrue();
+    }
+
+    @Test
+    void recordedValueShouldBeForgottenAfterTwoWindows() {
+        // Given
+        Clock clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(0L);
+        ReplayFilter filter = new ReplayFilter(1000, Duration.ofSeconds(60), clock);
+        filter.checkAndRecord(new byte[] { 0x01 });
+
+        // When
+        when(clock.millis()).thenReturn(120_000L);
+
+        // Then
+        assertThat(filter.mightContain(new byte[] { 0x01 })).isFalse();
+    }
+
+    @Test
+    void falsePositiveRateShouldBeLowWhenExpectedNumberOfEntriesIsRecorded() {
+        // Given
+        ReplayFilter filter = new ReplayFilter(10_000, Duration.ofMinutes(10));
+        for (int i = 0; i < 10_000; i++) {
+            filter.checkAndRecord(ByteBuffer.allocate(4).putInt(i).array());
+        }
+
+        // When
+        int falsePositives = 0;
+        for (int i = 10_000; i < 20_000; i++) {
+            if (filter.mightContain(ByteBuffer.allocate(4).putInt(i).array())) {
+                falsePositives++;
+            }
+        }
+
+        // Then
+        assertThat(falsePositives).isLessThan(300);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import static net.luminis.tls.CertificateUtils.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ServerCertificateStoreTest {
+
+    private ServerCertificateStore store;
+    private ServerCredentialsSelector rsaSelector;
+    private ServerCredentialsSelector ecdsaSelector;
+
+    @BeforeEach
+    void createStore() throws Exception {
+        store = new ServerCertificateStore();
+        rsaSelector = new ServerCredentialsSelector(new ServerCredentials(List.of(inflateCertificate(encodedKwikDotTechRsaCertificate)),
+                privateKey(encodedKwikDotTechRsaCertificatePrivateKey, "RSA")));
+        ecdsaSelector = new ServerCredentialsSelector(new ServerCredentials(List.of(inflateCertificate(encodedInteropLeafEcdsaCertificate)),
+                privateKey(encodedInteropLeafEcdsaCertificatePrivateKey, "EC")));
+    }
+
+    @Test
+    void exactHostNameShouldBeFound() {
+        // Given
+        store.put("www.example.com", rsaSelector);
+
+        // When
+        var selector = store.lookup("www.example.com");
+
+        // Then
+        assertThat(selector).containsSame(rsaSelector);
+        assertThat(store.lookup("example.com")).isEmpty();
+        assertThat(store.lookup("mail.example.com")).isEmpty();
+    }
+
+    @Test
+    void lookupShouldIgnoreCaseAndTrailingDot() {
+        // Given
+        store.put("www.Example.com", rsaSelector);
+
+        // When
+        var selector = store.lookup("WWW.EXAMPLE.COM.");
+
+        // Then
+        assertThat(selector).containsSame(rsaSelector);
+    }
+
+    @Test
+    void wildcardShouldMatchExactlyOneLabel() {
+        // Given
+        store.put("*.example.com", rsaSelector);
+
+        // Then
+        assertThat(store.lookup("www.example.com")).containsSame(rsaSelector);
+        assertThat(store.lookup("example.com")).isEmpty();
+        assertThat(store.lookup("a.www.example.com")).isEmpty();
+    }
+
+    @Test
+    void exactHostNameShouldTakePrecedenceOverWildcard() {
+        // Given
+        store.put("*.example.com", rsaSelector);
+        store.put("www.example.com", ecdsaSelector);
+
+        // Then
+        assertThat(store.lookup("www.example.com")).containsSame(ecdsaSelector);
+        assertThat(store.lookup("mail.example.com")).containsSame(rsaSelector);
+    }
+
+    @Test
+    void wildcardShouldMatchWhenExactNameOnlyExistsDeeper() {
+        // Given
+        store.put("*.example.com", rsaSelector);
+        store.put("a.www.example.com", ecdsaSelector);
+
+        // Then
+        assertThat(store.lookup("www.example.com")).containsSame(rsaSelector);
+        assertThat(store.lookup("a.www.example.com")).containsSame(ecdsaSelector);
+    }
+
+    @Test
+    void invalidWildcardsShouldBeRejected() {
+        assertThatThrownBy(() -> store.put("*.com", rsaSelector)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> store.put("www.*.example.com", rsaSelector)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> store.put("w*.example.com", rsaSelector)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> store.put("www..example.com", rsaSelector)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void wildcardInServerNameShouldNotMatchAnything() {
+        // Given
+        store.put("*.example.com", rsaSelector);
+
+        // Then
+        assertThat(store.lookup("*.example.com")).isEmpty();
+    }
+
+    @Test
+    void removedHostNameShouldNotBeFound() {
+        // Given
+        store.put("www.example.com", rsaSelector);
+        store.put("mail.example.com", ecdsaSelector);
+
+        // When
+        boolean removed = store.remove("www.example.com");
+
+        // Then
+        assertThat(removed).isTrue();
+        assertThat(store.remove("www.example.com")).isFalse();
+        assertThat(store.lookup("www.example.com")).isEmpty();
+        assertThat(store.lookup("mail.example.com")).containsSame(ecdsaSelector);
+        assertThat(store.size()).isEqualTo(1);
+    }
+
+    @Test
+    void sizeShouldCountReplacedHostNameOnce() {
+        // Given
+        store.put("www.example.com", rsaSelector);
+        store.put("*.example.com", rsaSelector);
+
+        // When
+        store.put("www.example.com", ecdsaSelector);
+
+        // Then
+        assertThat(store.size()).isEqualTo(2);
+    }
+
+    @Test
+    void replaceAllShouldReplaceAllHostNames() {
+        // Given
+        store.put("www.example.com", rsaSelector);
+
+        // When
+        store.replaceAll(Map.of("example.com", ecdsaSelector, "*.example.org", rsaSelector));
+
+        // Then
+        assertThat(store.size()).isEqualTo(2);
+        assertThat(store.lookup("www.example.com")).isEmpty();
+        assertThat(store.lookup("example.com")).containsSame(ecdsaSelector);
+        assertThat(store.lookup("www.example.org")).containsSame(rsaSelector);
+    }
+
+    @Test
+    void selectShouldFallBackToDefault() {
+        // Given
+        store.put("www.example.com", rsaSelector);
+        store.setDefault(ecdsaSelector);
+
+        // Then
+        assertThat(store.select("www.example.com")).containsSame(rsaSelector);
+        assertThat(store.select("www.example.org")).containsSame(ecdsaSelector);
+        assertThat(store.select(null)).containsSame(ecdsaSelector);
+        assertThat(store.lookup("www.example.org")).isEmpty();
+    }
+
+    @Test
+    void withoutDefaultSelectShouldReturnEmptyForUnknownName() {
+        // Given
+        store.put("www.example.com", rsaSelector);
+
+        // Then
+        assertThat(store.select("www.example.org")).isEmpty();
+    }
+
+    private PrivateKey privateKey(String encodedKey, String algorithm) throws Exception {
+        PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(Base64.getDecoder().decode(encodedKey));
+        return KeyFactory.getInstance(algorithm).generatePrivate(keySpec);
+    }
+}
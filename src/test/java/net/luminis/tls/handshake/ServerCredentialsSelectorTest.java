@@ -0,0 +1,108 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Base64;
+import java.util.List;
+
+import static net.luminis.tls.CertificateUtils.*;
+import static net.luminis.tls.TlsConstants.SignatureScheme.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ServerCredentialsSelectorTest {
+
+    private ServerCredentials rsaCredentials;
+    private ServerCredentials ecdsaCredentials;
+
+    @BeforeEach
+    void createCredentials() throws Exception {
+        rsaCredentials = new ServerCredentials(List.of(inflateCertificate(encodedKwikDotTechRsaCertificate)),
+                privateKey(encodedKwikDotTechRsaCertificatePrivateKey, "RSA"));
+        ecdsaCredentials = new ServerCredentials(List.of(inflateCertificate(encodedInteropLeafEcdsaCertificate)),
+                privateKey(encodedInteropLeafEcdsaCertificatePrivateKey, "EC"));
+    }
+
+    @Test
+    void whenClientSupportsBothEcdsaCredentialsShouldBeSelected() throws Exception {
+        // Given
+        ServerCredentialsSelector selector = new ServerCredentialsSelector(List.of(rsaCredentials, ecdsaCredentials));
+
+        // When
+        var selection = selector.select(List.of(rsa_pss_rsae_sha256, ecdsa_secp256r1_sha256));
+
+        // Then
+        assertThat(selection).isPresent();
+        assertThat(selection.get().getServerCredentials()).isSameAs(ecdsaCredentials);
+        assertThat(selection.get().getSignatureScheme()).isEqualTo(ecdsa_secp256r1_sha256);
+    }
+
+    @Test
+    void whenClientOnlySupportsRsaRsaCredentialsShouldBeSelected() throws Exception {
+        // Given
+        ServerCredentialsSelector selector = new ServerCredentialsSelector(List.of(ecdsaCredentials, rsaCredentials));
+
+        // When
+        var selection = selector.select(List.of(rsa_pss_rsae_sha384));
+
+        // Then
+        assertThat(selection).isPresent();
+        assertThat(selection.get().getServerCredentials()).isSameAs(rsaCredentials);
+        assertThat(selection.get().getSignatureScheme()).isEqualTo(rsa_pss_rsae_sha384);
+    }
+
+    @Test
+    void whenClientSupportsNoneOfTheSchemesNothingShouldBeSelected() throws Exception {
+        // Given
+        ServerCredentialsSelector selector = new ServerCredentialsSelector(List.of(ecdsaCredentials, rsaCredentials));
+
+        // When
+        var selection = selector.select(List.of(ed25519));
+
+        // Then
+        assertThat(selection).isEmpty();
+    }
+
+    @Test
+    void signatureSchemesShouldBeListedInOrderOfPreference() throws Exception {
+        // Given
+        ServerCredentialsSelector selector = new ServerCredentialsSelector(List.of(rsaCredentials, ecdsaCredentials));
+
+        // Then
+        assertThat(selector.getSignatureSchemes()).containsExactly(ecdsa_secp256r1_sha256, rsa_pss_rsae_sha256, rsa_pss_rsae_sha384, rsa_pss_rsae_sha512);
+    }
+
+    @Test
+    void selectorWithoutCredentialsShouldNotBeAccepted() {
+        assertThatThrownBy(() ->
+                new ServerCredentialsSelector(List.of())
+        ).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private PrivateKey privateKey(String encodedKey, String algorithm) throws Exception {
+        PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(Base64.getDecoder().decode(encodedKey));
+        return KeyFactory.getInstance(algorithm).generatePrivate(keySpec);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static net.luminis.tls.CertificateUtils.*;
+import static net.luminis.tls.TlsConstants.SignatureScheme.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ServerCredentialsTest {
+
+    @Test
+    void certificateMessageShouldBeComputedOnlyOnce() throws Exception {
+        // Given
+        ServerCredentials credentials = new ServerCredentials(List.of(inflateCertificate(encodedCA1SignedCert), inflateCertificate(encodedSampleCA1)), privateKey());
+
+        // When
+        CertificateMessage first = credentials.getCertificateMessage();
+        CertificateMessage second = credentials.getCertificateMessage();
+
+        // Then
+        assertThat(second).isSameAs(first);
+        assertThat(first.getCertificateChain()).hasSize(2);
+    }
+
+    @Test
+    void certificateMessageShouldContainEncodedChain() throws Exception {
+        // Given
+        X509Certificate certificate = inflateCertificate(encodedKwikDotTechRsaCertificate);
+        ServerCredentials credentials = new ServerCredentials(List.of(certificate), privateKey()).precompute();
+
+        // When
+        byte[] serialized = credentials.getCertificateMessage().getBytes();
+
+        // Then
+        assertThat(serialized).isEqualTo(new CertificateMessage(List.of(certificate)).getBytes());
+    }
+
+    @Test
+    void signatureSchemeShouldBeDeterminedByServerCertificate() throws Exception {
+        // Given
+        ServerCredentials credentials = new ServerCredentials(List.of(inflateCertificate(encodedKwikDotTechRsaCertificate)), privateKey());
+
+        // Then
+        assertThat(credentials.getSignatureScheme()).isEqualTo(rsa_pss_rsae_sha256);
+    }
+
+    @Test
+    void signatureSchemeShouldBeSelectedInServerOrderOfPreference() throws Exception {
+        // Given
+        ServerCredentials credentials = new ServerCredentials(List.of(inflateCertificate(encodedKwikDotTechRsaCertificate)), privateKey());
+
+        // When
+        var selected = credentials.selectSignatureScheme(List.of(ecdsa_secp256r1_sha256, rsa_pss_rsae_sha512, rsa_pss_rsae_sha256));
+
+        // Then
+        assertThat(selected).hasValue(rsa_pss_rsae_sha256);
+    }
+
+    @Test
+    void whenPeerDoesNotSupportCertificateKeyNoSignatureSchemeShouldBeSelected() throws Exception {
+        // Given
+        ServerCredentials credentials = new ServerCredentials(List.of(inflateCertificate(encodedKwikDotTechRsaCertificate)), privateKey());
+
+        // When
+        var selected = credentials.selectSignatureScheme(List.of(ecdsa_secp256r1_sha256, ed25519));
+
+        // Then
+        assertThat(selected).isEmpty();
+    }
+
+    @Test
+    void changingOriginalListShouldNotAffectCredentials() throws Exception {
+        // Given
+        List<X509Certificate> chain = new ArrayList<>(List.of(inflateCertificate(encodedKwikDotTechRsaCertificate)));
+        ServerCredentials credentials = new ServerCredentials(chain, privateKey());
+
+        // When
+        chain.add(inflateCertificate(encodedSampleCA1));
+
+        // Then
+        assertThat(credentials.getCertificateChain()).hasSize(1);
+    }
+
+    @Test
+    void emptyCertificateChainShouldNotBeAccepted() {
+        assertThatThrownBy(() ->
+                new ServerCredentials(List.of(), privateKey())
+        ).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private PrivateKey privateKey() throws Exception {
+        PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(Base64.getDecoder().decode(encodedKwikDotTechRsaCertificatePrivateKey));
+        return KeyFactory.getInstance("RSA").generatePrivate(keySpec);
+    }
+}
@@ -56,6 +56,25 @@ class ServerHelloTest {
         assertThat(serializedData).isEqualTo(ByteUtils.hexToBytes(expectedInHex));
     }
 
+    @Test
+    void serializedHelloRetryRequestShouldBeParsedAsHelloRetryRequest() throws Exception {
+        // Given
+        ServerHello helloRetryRequest = new ServerHello(TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256, List.of(
+                new SupportedVersionsExtension(TlsConstants.HandshakeType.server_hello),
+                new KeyShareExtension(TlsConstants.NamedGroup.x25519)), true);
+        byte[] serializedData = helloRetryRequest.getBytes();
+
+        // When
+        ServerHello parsed = new ServerHello().parse(ByteBuffer.wrap(serializedData), serializedData.length);
+
+        // Then
+        assertThat(parsed.isHelloRetryRequest()).isTrue();
+        assertThat(parsed.getExtensions())
+                .filteredOn(ext -> ext instanceof KeyShareExtension)
+                .first()
+                .satisfies(ext -> assertThat(((KeyShareExtension) ext).getKeyShareEntries().get(0).getNamedGroup()).isEqualTo(TlsConstants.NamedGroup.x25519));
+    }
+
     @Test
     void parsingServerHelloWithIncorrectLegacyVersionShouldThrow() throws Exception {
         byte[] data = ByteUtils.hexToBytes("0200002c03021219785ef730198b9d915575532c20dea24fa42b20b26724f988d74257404185001301000000");
@@ -0,0 +1,263 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.NewSessionTicket;
+import net.luminis.tls.TlsConstants;
+import net.luminis.tls.TlsState;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+import static net.luminis.tls.TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256;
+import static net.luminis.tls.TlsConstants.CipherSuite.TLS_AES_256_GCM_SHA384;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SessionTicketCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void ticketShouldBeFoundByServerNameProtocolAndCipher() {
+        // Given
+        SessionTicketCache cache = new SessionTicketCache();
+        NewSessionTicket ticket = createTicket(1, TLS_AES_128_GCM_SHA256, 3600);
+
+        // When
+        cache.add("example.com", "h3", ticket);
+
+        // Then
+        assertThat(cache.take("example.org", List.of("h3"), List.of(TLS_AES_128_GCM_SHA256))).isEmpty();
+        assertThat(cache.take("example.com", List.of("h2"), List.of(TLS_AES_128_GCM_SHA256))).isEmpty();
+        assertThat(cache.take("example.com", List.of("h3"), List.of(TLS_AES_256_GCM_SHA384))).isEmpty();
+        assertThat(cache.take("example.com", List.of("h3"), List.of(TLS_AES_128_GCM_SHA256))).contains(ticket);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(3);
+    }
+
+    @Test
+    void ticketShouldOnlyBeUsedOnce() {
+        // Given
+        SessionTicketCache cache = new SessionTicketCache();
+        cache.add("example.com", null, createTicket(1, TLS_AES_128_GCM_SHA256, 3600));
+
+        // When
+        cache.take("example.com", List.of(), List.of(TLS_AES_128_GCM_SHA256));
+
+        // Then
+        assertThat(cache.take("example.com", List.of(), List.of(TLS_AES_128_GCM_SHA256))).isEmpty();
+        assertThat(cache.getSize()).isEqualTo(0);
+    }
+
+    @Test
+    void mostRecentTicketShouldBeTakenFirst() {
+        // Given
+        SessionTicketCache cache = new SessionTicketCache();
+        NewSessionTicket first = createTicket(1, TLS_AES_128_GCM_SHA256, 3600);
+        NewSessionTicket second = createTicket(2, TLS_AES_128_GCM_SHA256, 3600);
+        cache.add("example.com", "h3", first);
+        cache.add("example.com", "h3", second);
+
+        // When
+        var taken = cache.take("example.com", List.of("h3"), List.of(TLS_AES_128_GCM_SHA256));
+
+        // Then
+        assertThat(taken).contains(second);
+        assertThat(cache.getSize()).isEqualTo(1);
+    }
+
+    @Test
+    void ticketWithUnknownProtocolCanBeUsedForAnyProtocol() {
+        // Given
+        SessionTicketCache cache = new SessionTicketCache();
+        NewSessionTicket ticket = createTicket(1, TLS_AES_128_GCM_SHA256, 3600);
+        cache.add("example.com", null, ticket);
+
+        // When
+        var taken = cache.take("example.com", List.of("h3"), List.of(TLS_AES_128_GCM_SHA256));
+
+        // Then
+        assertThat(taken).contains(ticket);
+    }
+
+    @Test
+    void expiredTicketShouldNotBeTaken() {
+        // Given
+        Clock clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(System.currentTimeMillis());
+        SessionTicketCache cache = new SessionTicketCache(10, null, clock);
+        cache.add("example.com", null, createTicket(1, TLS_AES_128_GCM_SHA256, 60));
+
+        // When
+        when(clock.millis()).thenReturn(System.currentTimeMillis() + Duration.ofMinutes(2).toMillis());
+
+        // Then
+        assertThat(cache.take("example.com", List.of(), List.of(TLS_AES_128_GCM_SHA256))).isEmpty();
+    }
+
+    @Test
+    void numberOfTicketsPerServerShouldBeLimited() {
+        // Given
+        SessionTicketCache cache = new SessionTicketCache();
+
+        // When
+        for (int i = 0; i < SessionTicketCache.MAX_TICKETS_PER_ENTRY + 3; i++) {
+            cache.add("example.com", null, createTicket(i, TLS_AES_128_GCM_SHA256, 3600));
+        }
+
+        // Then
+        assertThat(cache.getSize()).isEqualTo(SessionTicketCache.MAX_TICKETS_PER_ENTRY);
+    }
+
+    @Test
+    void whenFullLeastRecentlyUsedServerShouldBeRemoved() {
+        // Given
+        SessionTicketCache cache = new SessionTicketCache(2);
+        cache.add("a.example.com", null, createTicket(1, TLS_AES_128_GCM_SHA256, 3600));
+        cache.add("a.example.com", null, createTicket(2, TLS_AES_128_GCM_SHA256, 3600));
+        cache.add("b.example.com", null, createTicket(3, TLS_AES_128_GCM_SHA256, 3600));
+        cache.take("a.example.com", List.of(), List.of(TLS_AES_128_GCM_SHA256));
+
+        // When
+        cache.add("c.example.com", null, createTicket(4, TLS_AES_128_GCM_SHA256, 3600));
+
+        // Then
+        assertThat(cache.take("a.example.com", List.of(), List.of(TLS_AES_128_GCM_SHA256))).isPresent();
+        assertThat(cache.take("b.example.com", List.of(), List.of(TLS_AES_128_GCM_SHA256))).isEmpty();
+        assertThat(cache.take("c.example.com", List.of(), List.of(TLS_AES_128_GCM_SHA256))).isPresent();
+    }
+
+    @Test
+    void ticketsShouldSurviveReopeningPersistentCache() throws Exception {
+        // Given
+        Path file = tempDir.resolve("tickets");
+        SessionTicketCache cache = SessionTicketCache.open(file, 10);
+        cache.add("example.com", "h3", createTicket(1, TLS_AES_128_GCM_SHA256, 3600));
+        cache.add("example.com", "h3", createTicket(2, TLS_AES_128_GCM_SHA256, 3600));
+        cache.add("example.org", null, createTicket(3, TLS_AES_256_GCM_SHA384, 3600));
+        cache.take("example.com", List.of("h3"), List.of(TLS_AES_128_GCM_SHA256));
+        cache.close();
+
+        // When
+        SessionTicketCache reopenedCache = SessionTicketCache.open(file, 10);
+
+        // Then
+        assertThat(reopenedCache.getSize()).isEqualTo(2);
+        assertThat(reopenedCache.take("example.com", List.of("h3"), List.of(TLS_AES_128_GCM_SHA256)))
+                .hasValueSatisfying(ticket -> assertThat(ticket.getTicket()).isEqualTo(ticketIdentity(1)));
+        assertThat(reopenedCache.take("example.org", List.of(), List.of(TLS_AES_256_GCM_SHA384)))
+                .hasValueSatisfying(ticket -> assertThat(ticket.getCipher()).isEqualTo(TLS_AES_256_GCM_SHA384));
+        reopenedCache.close();
+    }
+
+    @Test
+    void incompleteLastRecordShouldBeIgnored() throws Exception {
+        // Given
+        Path file = tempDir.resolve("tickets");
+        SessionTicketCache cache = SessionTicketCache.open(file, 10);
+        cache.add("example.com", null, createTicket(1, TLS_AES_128_GCM_SHA256, 3600));
+        cache.add("example.com", null, createTicket(2, TLS_AES_128_GCM_SHA256, 3600));
+        cache.close();
+        byte[] content = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(content, content.length - 10));
+
+        // When
+        SessionTicketCache reopenedCache = SessionTicketCache.open(file, 10);
+
+        // Then
+        assertThat(reopenedCache.getSize()).isEqualTo(1);
+        reopenedCache.close();
+    }
+
+    @Test
+    void reopeningShouldCompactFile() throws Exception {
+        // Given
+        Path file = tempDir.resolve("tickets");
+        SessionTicketCache cache = SessionTicketCache.open(file, 10);
+        for (int i = 0; i < 8; i++) {
+            cache.add("example.com", null, createTicket(i, TLS_AES_128_GCM_SHA256, 3600));
+            cache.take("example.com", List.of(), List.of(TLS_AES_128_GCM_SHA256));
+        }
+        cache.add("example.com", null, createTicket(9, TLS_AES_128_GCM_SHA256, 3600));
+        cache.close();
+        long sizeBefore = Files.size(file);
+
+        // When
+        SessionTicketCache.open(file, 10).close();
+
+        // Then
+        assertThat(Files.size(file)).isLessThan(sizeBefore / 4);
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void fileShouldOnlyBeAccessibleByOwner() throws Exception {
+        // Given
+        Path file = tempDir.resolve("tickets");
+        SessionTicketCache cache = SessionTicketCache.open(file, 10);
+        cache.add("example.com", null, createTicket(1, TLS_AES_128_GCM_SHA256, 3600));
+        cache.close();
+        Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-r--r--"));
+
+        // When
+        SessionTicketCache.open(file, 10).close();
+
+        // Then
+        assertThat(Files.getPosixFilePermissions(file)).isEqualTo(PosixFilePermissions.fromString("rw-------"));
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void newFileShouldOnlyBeAccessibleByOwner() throws Exception {
+        // Given
+        Path file = tempDir.resolve("tickets");
+
+        // When
+        SessionTicketCache.open(file, 10).close();
+
+        // Then
+        assertThat(Files.getPosixFilePermissions(file)).isEqualTo(PosixFilePermissions.fromString("rw-------"));
+    }
+
+    private NewSessionTicket createTicket(int id, TlsConstants.CipherSuite cipher, int lifetime) {
+        TlsState tlsState = mock(TlsState.class);
+        when(tlsState.computePSK(any())).thenReturn(new byte[32]);
+        NewSessionTicketMessage ticketMessage = new NewSessionTicketMessage(lifetime, 0, new byte[8], ticketIdentity(id));
+        return new NewSessionTicket(tlsState, ticketMessage, cipher);
+    }
+
+    private byte[] ticketIdentity(int id) {
+        byte[] ticket = new byte[64];
+        ticket[0] = (byte) id;
+        return ticket;
+    }
+}
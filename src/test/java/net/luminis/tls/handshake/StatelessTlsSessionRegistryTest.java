@@ -0,0 +1,197 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.TlsConstants;
+import net.luminis.tls.TlsState;
+import net.luminis.tls.extension.ClientHelloPreSharedKeyExtension;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static net.luminis.tls.TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256;
+import static net.luminis.tls.TlsConstants.CipherSuite.TLS_AES_256_GCM_SHA384;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class StatelessTlsSessionRegistryTest {
+
+    private static final byte[] SECRET = new byte[32];
+    private static final long NOW = 1_700_000_000_000L;
+
+    private Clock clock;
+    private TlsState tlsState;
+    private StatelessTlsSessionRegistry registry;
+
+    @BeforeEach
+    void initObjectUnderTest() {
+        clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(NOW);
+        tlsState = mock(TlsState.class);
+        when(tlsState.computePSK(any())).thenReturn(new byte[] { 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08 });
+        registry = new StatelessTlsSessionRegistry(SECRET, 3600, 1000, clock);
+    }
+
+    @Test
+    void ticketShouldContainAllSessionState() {
+        // Given
+        var ticketMessage = registry.createNewSessionTicketMessage((byte) 0, TLS_AES_128_GCM_SHA256, tlsState, "h3", 0xffffffffL, new byte[] { 0x0a, 0x0b });
+
+        // When
+        TlsSession session = registry.useSession(identity(ticketMessage));
+
+        // Then
+        assertThat(session.getPsk()).isEqualTo(new byte[] { 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08 });
+        assertThat(session.getApplicationLayerProtocol()).isEqualTo("h3");
+        assertThat(session.getData()).isEqualTo(new byte[] { 0x0a, 0x0b });
+    }
+
+    @Test
+    void ticketWithoutApplicationProtocolAndDataCanBeUsed() {
+        // Given
+        var ticketMessage = registry.createNewSessionTicketMessage((byte) 0, TLS_AES_128_GCM_SHA256, tlsState, null);
+
+        // When
+        TlsSession session = registry.useSession(identity(ticketMessage));
+
+        // Then
+        assertThat(session.getApplicationLayerProtocol()).isNull();
+        assertThat(session.getData()).isNull();
+    }
+
+    @Test
+    void ticketCanBeUsedOnlyOnce() {
+        // Given
+        var ticketMessage = registry.createNewSessionTicketMessage((byte) 0, TLS_AES_128_GCM_SHA256, tlsState, "");
+        assertThat(registry.useSession(identity(ticketMessage))).isNotNull();
+
+        // When
+        Integer selectedIdentity = registry.selectIdentity(List.of(identity(ticketMessage)), TLS_AES_128_GCM_SHA256);
+        TlsSession session = registry.useSession(identity(ticketMessage));
+
+        // Then
+        assertThat(selectedIdentity).isNull();
+        assertThat(session).isNull();
+    }
+
+    @Test
+    void ticketIssuedByRegistryWithSameSecretShouldBeAccepted() {
+        // Given
+        var otherRegistry = new StatelessTlsSessionRegistry(SECRET, 3600, 1000, clock);
+        var ticketMessage = otherRegistry.createNewSessionTicketMessage((byte) 0, TLS_AES_128_GCM_SHA256, tlsState, "");
+
+        // When
+        Integer selectedIdentity = registry.selectIdentity(List.of(identity(ticketMessage)), TLS_AES_128_GCM_SHA256);
+
+        // Then
+        assertThat(selectedIdentity).isEqualTo(0);
+    }
+
+    @Test
+    void ticketIssuedByRegistryWithOtherSecretShouldBeIgnored() {
+        // Given
+        byte[] otherSecret = new byte[32];
+        otherSecret[0] = 1;
+        var otherRegistry = new StatelessTlsSessionRegistry(otherSecret, 3600, 1000, clock);
+        var ticketMessage = otherRegistry.createNewSessionTicketMessage((byte) 0, TLS_AES_128_GCM_SHA256, tlsState, "");
+
+        // When
+        Integer selectedIdentity = registry.selectIdentity(List.of(identity(ticketMessage)), TLS_AES_128_GCM_SHA256);
+
+        // Then
+        assertThat(selectedIdentity).isNull();
+    }
+
+    @Test
+    void modifiedTicketShouldBeIgnored() {
+        // Given
+        var ticketMessage = registry.createNewSessionTicketMessage((byte) 0, TLS_AES_128_GCM_SHA256, tlsState, "");
+        byte[] ticket = ticketMessage.getTicket().clone();
+        ticket[ticket.length / 2] ^= 0x01;
+
+        // When
+        Integer selectedIdentity = registry.selectIdentity(List.of(new ClientHelloPreSharedKeyExtension.PskIdentity(ticket, 0)), TLS_AES_128_GCM_SHA256);
+
+        // Then
+        assertThat(selectedIdentity).isNull();
+    }
+
+    @Test
+    void expiredTicketShouldBeIgnored() {
+        // Given
+        var ticketMessage = registry.createNewSessionTicketMessage((byte) 0, TLS_AES_128_GCM_SHA256, tlsState, "");
+
+        // When
+        when(clock.millis()).thenReturn(NOW + 3600_000 + 1);
+
+        // Then
+        assertThat(registry.selectIdentity(List.of(identity(ticketMessage)), TLS_AES_128_GCM_SHA256)).isNull();
+    }
+
+    @Test
+    void ticketIssuedBeforeKeyRotationShouldStillBeValid() {
+        // Given
+        long endOfPeriod = (NOW / 3600_000 + 1) * 3600_000 - 1;
+        when(clock.millis()).thenReturn(endOfPeriod);
+        var ticketMessage = registry.createNewSessionTicketMessage((byte) 0, TLS_AES_128_GCM_SHA256, tlsState, "");
+
+        // When
+        when(clock.millis()).thenReturn(endOfPeriod + 1800_000);
+
+        // Then
+        assertThat(registry.selectIdentity(List.of(identity(ticketMessage)), TLS_AES_128_GCM_SHA256)).isEqualTo(0);
+    }
+
+    @Test
+    void sessionSelectionShouldCheckForSameCipher() {
+        // Given
+        var ticketMessage1 = registry.createNewSessionTicketMessage((byte) 0, TLS_AES_256_GCM_SHA384, tlsState, "");
+        var ticketMessage2 = registry.createNewSessionTicketMessage((byte) 1, TLS_AES_128_GCM_SHA256, tlsState, "");
+
+        // When
+        Integer selectedIdentity = registry.selectIdentity(List.of(identity(ticketMessage1), identity(ticketMessage2)), TLS_AES_128_GCM_SHA256);
+
+        // Then
+        assertThat(selectedIdentity).isEqualTo(1);
+    }
+
+    @Test
+    void peekingUnknownTicketShouldThrow() {
+        assertThatThrownBy(() ->
+                registry.peekSessionData(new ClientHelloPreSharedKeyExtension.PskIdentity(new byte[64], 0))
+        ).isInstanceOf(NoSuchElementException.class);
+    }
+
+    @Test
+    void tooLargeSessionDataShouldBeRejected() {
+        assertThatThrownBy(() ->
+                registry.createNewSessionTicketMessage((byte) 0, TLS_AES_128_GCM_SHA256, tlsState, "", null, new byte[65500])
+        ).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private ClientHelloPreSharedKeyExtension.PskIdentity identity(NewSessionTicketMessage ticketMessage) {
+        return new ClientHelloPreSharedKeyExtension.PskIdentity(ticketMessage.getTicket(), 0);
+    }
+}
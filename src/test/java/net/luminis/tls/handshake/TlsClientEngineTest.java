@@ -21,6 +21,9 @@ package net.luminis.tls.handshake;
 import net.luminis.tls.*;
 import net.luminis.tls.alert.*;
 import net.luminis.tls.extension.*;
+import net.luminis.tls.metrics.HandshakeMetrics;
+import net.luminis.tls.metrics.HandshakeOutcome;
+import net.luminis.tls.metrics.HandshakePhase;
 import net.luminis.tls.util.ByteUtils;
 import net.luminis.tls.util.FieldSetter;
 import org.assertj.core.api.Assertions;
@@ -46,6 +49,9 @@ import java.security.interfaces.XECPublicKey;
 import java.security.spec.MGF1ParameterSpec;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.PSSParameterSpec;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
@@ -401,6 +407,163 @@ class TlsClientEngineTest {
                 .isInstanceOf(IllegalParameterAlert.class);
     }
 
+    @Test
+    void clientHelloShouldOfferConfiguredCertificateCompressionAlgorithms() throws Exception {
+        // Given
+        engine.setCertificateCompressors(List.of(new ZlibCertificateCompressor()));
+
+        // When
+        engine.startHandshake();
+
+        // Then
+        ArgumentCaptor<ClientHello> clientHelloCaptor = ArgumentCaptor.forClass(ClientHello.class);
+        verify(messageSender).send(clientHelloCaptor.capture());
+        assertThat(clientHelloCaptor.getValue().getExtensions())
+                .filteredOn(ext -> ext instanceof CompressCertificateExtension)
+                .first()
+                .satisfies(ext -> assertThat(((CompressCertificateExtension) ext).getAlgorithms())
+                        .containsExactly(TlsConstants.CertificateCompressionAlgorithm.zlib));
+    }
+
+    @Test
+    void compressedCertificateMessageShouldBeDecompressed() throws Exception {
+        // Given
+        engine.setCertificateCompressors(List.of(new ZlibCertificateCompressor()));
+        handshakeUpToCertificate();
+        X509Certificate certificate = inflateCertificate(encodedKwikDotTechRsaCertificate);
+        byte[] compressedMessage = new CompressedCertificateMessage(List.of(certificate), new ZlibCertificateCompressor()).getBytes();
+
+        // When
+        engine.received(new CompressedCertificateMessage().parse(ByteBuffer.wrap(compressedMessage)), ProtectionKeysType.Handshake);
+
+        // Then
+        assertThat(new FieldReader(engine, engine.getClass().getDeclaredField("serverCertificate")).read()).isEqualTo(certificate);
+    }
+
+    @Test
+    void compressedCertificateMessageWithAlgorithmNotOfferedShouldAbortHandshake() throws Exception {
+        // Given
+        handshakeUpToCertificate();
+        X509Certificate certificate = inflateCertificate(encodedKwikDotTechRsaCertificate);
+        byte[] compressedMessage = new CompressedCertificateMessage(List.of(certificate), new ZlibCertificateCompressor()).getBytes();
+
+        assertThatThrownBy(() ->
+                // When
+                engine.received(new CompressedCertificateMessage().parse(ByteBuffer.wrap(compressedMessage)), ProtectionKeysType.Handshake))
+                // Then
+                .isInstanceOf(BadCertificateAlert.class);
+    }
+
+    @Test
+    void compressedCertificateMessageExceedingMaximumSizeShouldAbortHandshake() throws Exception {
+        // Given
+        engine.setCertificateCompressors(List.of(new ZlibCertificateCompressor()));
+        engine.setMaxUncompressedCertificateSize(100);
+        handshakeUpToCertificate();
+        X509Certificate certificate = inflateCertificate(encodedKwikDotTechRsaCertificate);
+        byte[] compressedMessage = new CompressedCertificateMessage(List.of(certificate), new ZlibCertificateCompressor()).getBytes();
+
+        assertThatThrownBy(() ->
+                // When
+                engine.received(new CompressedCertificateMessage().parse(ByteBuffer.wrap(compressedMessage)), ProtectionKeysType.Handshake))
+                // Then
+                .isInstanceOf(BadCertificateAlert.class);
+    }
+
+    @Test
+    void clientHelloShouldOfferConfiguredServerCertificateTypes() throws Exception {
+        // Given
+        engine.setServerCertificateTypes(List.of(TlsConstants.CertificateType.RawPublicKey, TlsConstants.CertificateType.X509));
+        engine.setPublicKeyVerifier((serverName, key) -> true);
+
+        // When
+        engine.startHandshake();
+
+        // Then
+        ArgumentCaptor<ClientHello> clientHelloCaptor = ArgumentCaptor.forClass(ClientHello.class);
+        verify(messageSender).send(clientHelloCaptor.capture());
+        assertThat(clientHelloCaptor.getValue().getExtensions())
+                .filteredOn(ext -> ext instanceof ServerCertificateTypeExtension)
+                .first()
+                .satisfies(ext -> assertThat(((ServerCertificateTypeExtension) ext).getCertificateTypes())
+                        .containsExactly(TlsConstants.CertificateType.RawPublicKey, TlsConstants.CertificateType.X509));
+    }
+
+    @Test
+    void offeringRawPublicKeyRequiresPublicKeyVerifier() throws Exception {
+        // Given
+        engine.setServerCertificateTypes(List.of(TlsConstants.CertificateType.RawPublicKey));
+
+        assertThatThrownBy(() ->
+                // When
+                engine.startHandshake())
+                // Then
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void pinnedRawPublicKeyShouldBeAccepted() throws Exception {
+        // Given
+        X509Certificate certificate = inflateCertificate(encodedKwikDotTechRsaCertificate);
+        engine.setServerCertificateTypes(List.of(TlsConstants.CertificateType.RawPublicKey));
+        engine.setPublicKeyVerifier(new PinnedPublicKeyVerifier(certificate.getPublicKey()));
+        handshakeUpToCertificate(List.of(new ServerCertificateTypeExtension(TlsConstants.CertificateType.RawPublicKey)));
+        engine.received(new CertificateMessage(certificate.getPublicKey()), ProtectionKeysType.Handshake);
+
+        // When
+        engine.received(new CertificateVerifyMessage(rsa_pss_rsae_sha256, createServerSignature()), ProtectionKeysType.Handshake);
+
+        // Then
+        assertThat(engine.getServerCertificateType()).isEqualTo(TlsConstants.CertificateType.RawPublicKey);
+        assertThat(engine.getServerPublicKey()).isEqualTo(certificate.getPublicKey());
+        assertThat(engine.getServerCertificateChain()).isEmpty();
+    }
+
+    @Test
+    void rawPublicKeyThatIsNotPinnedShouldAbortHandshake() throws Exception {
+        // Given
+        X509Certificate certificate = inflateCertificate(encodedKwikDotTechRsaCertificate);
+        engine.setServerCertificateTypes(List.of(TlsConstants.CertificateType.RawPublicKey));
+        engine.setPublicKeyVerifier(new PinnedPublicKeyVerifier(publicKey));
+        handshakeUpToCertificate(List.of(new ServerCertificateTypeExtension(TlsConstants.CertificateType.RawPublicKey)));
+        engine.received(new CertificateMessage(certificate.getPublicKey()), ProtectionKeysType.Handshake);
+
+        assertThatThrownBy(() ->
+                // When
+                engine.received(new CertificateVerifyMessage(rsa_pss_rsae_sha256, createServerSignature()), ProtectionKeysType.Handshake))
+                // Then
+                .isInstanceOf(BadCertificateAlert.class);
+    }
+
+    @Test
+    void certificateWhenRawPublicKeyIsNegotiatedShouldAbortHandshake() throws Exception {
+        // Given
+        engine.setServerCertificateTypes(List.of(TlsConstants.CertificateType.RawPublicKey));
+        engine.setPublicKeyVerifier((serverName, key) -> true);
+        handshakeUpToCertificate(List.of(new ServerCertificateTypeExtension(TlsConstants.CertificateType.RawPublicKey)));
+        CertificateMessage certificateMessage = new CertificateMessage(inflateCertificate(encodedKwikDotTechRsaCertificate));
+
+        assertThatThrownBy(() ->
+                // When
+                engine.received(certificateMessage, ProtectionKeysType.Handshake))
+                // Then
+                .isInstanceOf(BadCertificateAlert.class);
+    }
+
+    @Test
+    void serverNotSupportingRawPublicKeyShouldAbortHandshakeWhenOnlyRawPublicKeyIsOffered() throws Exception {
+        // Given
+        engine.setServerCertificateTypes(List.of(TlsConstants.CertificateType.RawPublicKey));
+        engine.setPublicKeyVerifier((serverName, key) -> true);
+        handshakeUpToEncryptedExtensions();
+
+        assertThatThrownBy(() ->
+                // When
+                engine.received(new EncryptedExtensions(), ProtectionKeysType.Handshake))
+                // Then
+                .isInstanceOf(UnsupportedCertificateAlert.class);
+    }
+
     @Test
     void certificateVerifyShouldNotBeReceivedBeforeCertificateMessage() throws Exception {
         // Given
@@ -522,6 +685,28 @@ class TlsClientEngineTest {
                 .isInstanceOf(BadCertificateAlert.class);
     }
     
+    @Test
+    void certificateChainFoundInValidatedChainCacheShouldNotBeValidatedAgain() throws Exception {
+        // Given
+        X509Certificate serverCertificate = inflateCertificate(encodedCA1SignedCert);  // Not trusted by default trust manager
+        Clock validationTime = Clock.fixed(serverCertificate.getNotBefore().toInstant(), ZoneOffset.UTC);
+        ValidatedChainCache validatedChainCache = new ValidatedChainCache(10, Duration.ofMinutes(5), validationTime);
+        validatedChainCache.add(List.of(serverCertificate));
+        engine.setValidatedChainCache(validatedChainCache);
+        engine.setServerName("sample1.com");
+        byte[] validSignature = createServerSignatureFromPrivateKey(encodedCA1SignedCertPrivateKey);
+
+        handshakeUpToCertificate();
+        engine.received(new CertificateMessage(serverCertificate), ProtectionKeysType.Handshake);
+
+        assertThatCode(() ->
+                // When
+                engine.received(new CertificateVerifyMessage(rsa_pss_rsae_sha256, validSignature), ProtectionKeysType.Handshake))
+                // Then
+                .doesNotThrowAnyException();
+        assertThat(engine.getServerCertificateChain()).containsExactly(serverCertificate);
+    }
+
     private X509TrustManager createTrustManagerFor(X509Certificate caCertificate) throws Exception {
         KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
         keyStore.load(null);
@@ -627,6 +812,54 @@ class TlsClientEngineTest {
         Mockito.verify(messageSender).send(ArgumentMatchers.any(FinishedMessage.class));
     }
 
+    @Test
+    void compactedEngineShouldRetainApplicationTrafficSecretsOnly() throws Exception {
+        // Given
+        handshakeUpToFinished();
+        TlsClientEngine stubbedEngine = Mockito.spy(engine);
+        Mockito.doReturn(new byte[32]).when(stubbedEngine).computeFinishedVerifyData(ArgumentMatchers.any(), ArgumentMatchers.any());
+        stubbedEngine.received(new FinishedMessage(new byte[32]), ProtectionKeysType.Handshake);
+        byte[] clientApplicationTrafficSecret = stubbedEngine.getClientApplicationTrafficSecret();
+
+        // When
+        stubbedEngine.compact();
+
+        // Then
+        assertThat(stubbedEngine.getClientApplicationTrafficSecret()).isEqualTo(clientApplicationTrafficSecret);
+        assertThat(stubbedEngine.getServerCertificateChain()).isEmpty();
+        assertThat(stubbedEngine.getServerPublicKey()).isNotNull();
+        assertThatThrownBy(() -> stubbedEngine.getClientHandshakeTrafficSecret()).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void engineCannotBeCompactedBeforeHandshakeIsFinished() throws Exception {
+        // Given
+        handshakeUpToFinished();
+
+        assertThatThrownBy(() ->
+                // When
+                engine.compact())
+                // Then
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void engineCompactedAfterHandshakeShouldStillProcessNewSessionTicket() throws Exception {
+        // Given
+        engine.setCompactAfterHandshake(true);
+        handshakeUpToFinished();
+        TlsClientEngine stubbedEngine = Mockito.spy(engine);
+        Mockito.doReturn(new byte[32]).when(stubbedEngine).computeFinishedVerifyData(ArgumentMatchers.any(), ArgumentMatchers.any());
+        stubbedEngine.received(new FinishedMessage(new byte[32]), ProtectionKeysType.Handshake);
+
+        // When
+        stubbedEngine.received(new NewSessionTicketMessage(3600, 0, new byte[8], new byte[64]), ProtectionKeysType.Application);
+
+        // Then
+        assertThatThrownBy(() -> stubbedEngine.getServerHandshakeTrafficSecret()).isInstanceOf(IllegalStateException.class);
+        assertThat(stubbedEngine.getNewSessionTickets()).hasSize(1);
+    }
+
     @Test
     void certificateRequestMessageShouldNotBeReceivedBeforeEncryptedExtensions() throws Exception {
         // Given
@@ -747,6 +980,275 @@ class TlsClientEngineTest {
         assertThat(messageCaptor.getValue().getSignatureScheme()).isEqualTo(rsa_pss_rsae_sha384);
     }
 
+    @Test
+    void helloRetryRequestShouldLeadToUpdatedClientHelloWithKeyShareForSelectedGroup() throws Exception {
+        // Given
+        engine.setKeyShareGroupCache(new KeyShareGroupCache());
+        engine.setSupportedGroups(List.of(x25519));
+        engine.startHandshake(secp256r1);
+
+        // When
+        engine.received(createHelloRetryRequest(x25519), ProtectionKeysType.None);
+
+        // Then
+        ArgumentCaptor<ClientHello> clientHelloCaptor = ArgumentCaptor.forClass(ClientHello.class);
+        verify(messageSender, times(2)).send(clientHelloCaptor.capture());
+        ClientHello clientHello1 = clientHelloCaptor.getAllValues().get(0);
+        ClientHello clientHello2 = clientHelloCaptor.getAllValues().get(1);
+        assertThat(clientHello2.getClientRandom()).isEqualTo(clientHello1.getClientRandom());
+        assertThat(clientHello2.getExtensions())
+                .filteredOn(ext -> ext instanceof KeyShareExtension)
+                .first()
+                .satisfies(ext -> assertThat(((KeyShareExtension) ext).getKeyShareEntries())
+                        .extracting(KeyShareExtension.KeyShareEntry::getNamedGroup)
+                        .containsExactly(x25519));
+        assertThat(engine.isHelloRetryRequested()).isTrue();
+    }
+
+    @Test
+    void updatedClientHelloShouldEchoCookieFromHelloRetryRequest() throws Exception {
+        // Given
+        engine.setKeyShareGroupCache(new KeyShareGroupCache());
+        engine.setSupportedGroups(List.of(x25519));
+        engine.startHandshake(secp256r1);
+        byte[] cookie = new byte[] { 0x0c, 0x00, 0x0c, 0x1e };
+
+        // When
+        engine.received(new ServerHello(engineCipher, List.of(mandatorySupportedVersionExtension,
+                new KeyShareExtension(x25519), new CookieExtension(cookie)), true), ProtectionKeysType.None);
+
+        // Then
+        ArgumentCaptor<ClientHello> clientHelloCaptor = ArgumentCaptor.forClass(ClientHello.class);
+        verify(messageSender, times(2)).send(clientHelloCaptor.capture());
+        assertThat(clientHelloCaptor.getAllValues().get(1).getExtensions())
+                .filteredOn(ext -> ext instanceof CookieExtension)
+                .first()
+                .satisfies(ext -> assertThat(((CookieExtension) ext).getCookie()).isEqualTo(cookie));
+    }
+
+    @Test
+    void helloRetryRequestForGroupNotOfferedShouldAbortHandshake() throws Exception {
+        // Given
+        engine.setKeyShareGroupCache(new KeyShareGroupCache());
+        engine.startHandshake(secp256r1);
+
+        assertThatThrownBy(() ->
+                // When
+                engine.received(createHelloRetryRequest(x25519), ProtectionKeysType.None))
+                // Then
+                .isInstanceOf(IllegalParameterAlert.class);
+    }
+
+    @Test
+    void helloRetryRequestForGroupOfKeyShareSentShouldAbortHandshake() throws Exception {
+        // Given
+        engine.setKeyShareGroupCache(new KeyShareGroupCache());
+        engine.setSupportedGroups(List.of(x25519));
+        engine.startHandshake(secp256r1);
+
+        assertThatThrownBy(() ->
+                // When
+                engine.received(createHelloRetryRequest(secp256r1), ProtectionKeysType.None))
+                // Then
+                .isInstanceOf(IllegalParameterAlert.class);
+    }
+
+    @Test
+    void secondHelloRetryRequestShouldAbortHandshake() throws Exception {
+        // Given
+        engine.setKeyShareGroupCache(new KeyShareGroupCache());
+        engine.setSupportedGroups(List.of(x25519));
+        engine.startHandshake(secp256r1);
+        engine.received(createHelloRetryRequest(x25519), ProtectionKeysType.None);
+
+        assertThatThrownBy(() ->
+                // When
+                engine.received(createHelloRetryRequest(secp256r1), ProtectionKeysType.None))
+                // Then
+                .isInstanceOf(UnexpectedMessageAlert.class);
+    }
+
+    @Test
+    void serverHelloAfterHelloRetryRequestShouldHaveSameCipher() throws Exception {
+        // Given
+        engine.addSupportedCiphers(List.of(TLS_AES_256_GCM_SHA384));
+        engine.setKeyShareGroupCache(new KeyShareGroupCache());
+        engine.setSupportedGroups(List.of(x25519));
+        engine.startHandshake(secp256r1);
+        engine.received(createHelloRetryRequest(x25519), ProtectionKeysType.None);
+
+        assertThatThrownBy(() ->
+                // When
+                engine.received(createDefaultServerHello(TLS_AES_256_GCM_SHA384), ProtectionKeysType.None))
+                // Then
+                .isInstanceOf(IllegalParameterAlert.class);
+    }
+
+    @Test
+    void groupSelectedInHelloRetryRequestShouldBeUsedForKeyShareInNextHandshake() throws Exception {
+        // Given
+        KeyShareGroupCache keyShareGroupCache = new KeyShareGroupCache();
+        engine.setKeyShareGroupCache(keyShareGroupCache);
+        engine.setSupportedGroups(List.of(x25519));
+        engine.startHandshake(secp256r1);
+        engine.received(createHelloRetryRequest(x25519), ProtectionKeysType.None);
+
+        ClientMessageSender nextMessageSender = Mockito.mock(ClientMessageSender.class);
+        TlsClientEngine nextEngine = new TlsClientEngine(nextMessageSender, Mockito.mock(TlsStatusEventHandler.class));
+        nextEngine.setServerName("server");
+        nextEngine.addSupportedCiphers(List.of(engineCipher));
+        nextEngine.setKeyShareGroupCache(keyShareGroupCache);
+        nextEngine.setSupportedGroups(List.of(x25519));
+
+        // When
+        nextEngine.startHandshake(secp256r1);
+
+        // Then
+        ArgumentCaptor<ClientHello> clientHelloCaptor = ArgumentCaptor.forClass(ClientHello.class);
+        verify(nextMessageSender).send(clientHelloCaptor.capture());
+        assertThat(clientHelloCaptor.getValue().getExtensions())
+                .filteredOn(ext -> ext instanceof KeyShareExtension)
+                .first()
+                .satisfies(ext -> assertThat(((KeyShareExtension) ext).getKeyShareEntries())
+                        .extracting(KeyShareExtension.KeyShareEntry::getNamedGroup)
+                        .containsExactly(x25519));
+    }
+
+    @Test
+    void alertRaisedWhileProcessingMessageShouldBeReportedToMetricsListener() throws Exception {
+        // Given
+        HandshakeMetrics metrics = new HandshakeMetrics();
+        engine.setMetricsListener(metrics);
+        engine.startHandshake();
+
+        assertThatThrownBy(() ->
+                // When
+                TlsMessageParser.process(new ServerHello(engineCipher), engine, ProtectionKeysType.None))
+                // Then
+                .isInstanceOf(MissingExtensionAlert.class);
+        assertThat(metrics.getAlertCount(TlsConstants.AlertDescription.missing_extension)).isEqualTo(1);
+        assertThat(metrics.getHandshakeCount(HandshakeOutcome.Failed)).isEqualTo(1);
+        assertThat(metrics.getLatencies(HandshakePhase.KeyGeneration).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void clientConfiguredForPskOnlyShouldOfferBothKeyExchangeModes() throws Exception {
+        // Given
+        engine.setPskKeyEstablishmentMode(ClientHello.PskKeyEstablishmentMode.both);
+
+        // When
+        engine.startHandshake();
+
+        // Then
+        ArgumentCaptor<ClientHello> clientHelloCaptor = ArgumentCaptor.forClass(ClientHello.class);
+        verify(messageSender).send(clientHelloCaptor.capture());
+        assertThat(clientHelloCaptor.getValue().getExtensions())
+                .filteredOn(ext -> ext instanceof PskKeyExchangeModesExtension)
+                .extracting(ext -> ((PskKeyExchangeModesExtension) ext).getKeyExchangeModes())
+                .containsExactly(List.of(TlsConstants.PskKeyExchangeMode.psk_ke, TlsConstants.PskKeyExchangeMode.psk_dhe_ke));
+    }
+
+    @Test
+    void serverHelloWithoutKeyShareShouldBeAcceptedWhenPskOnlyWasOffered() throws Exception {
+        // Given
+        engine.setPskKeyEstablishmentMode(ClientHello.PskKeyEstablishmentMode.both);
+        engine.startHandshake();
+
+        // When
+        engine.received(new ServerHello(engineCipher, List.of(mandatorySupportedVersionExtension, new ServerPreSharedKeyExtension(0))), ProtectionKeysType.None);
+
+        // Then
+        assertThat(engine.getServerHandshakeTrafficSecret()).isNotNull();
+    }
+
+    @Test
+    void serverHelloWithoutKeyShareShouldBeRejectedWhenPskOnlyWasNotOffered() throws Exception {
+        // Given
+        engine.startHandshake();
+
+        assertThatThrownBy(() ->
+                // When
+                engine.received(new ServerHello(engineCipher, List.of(mandatorySupportedVersionExtension, new ServerPreSharedKeyExtension(0))), ProtectionKeysType.None))
+                // Then
+                .isInstanceOf(MissingExtensionAlert.class);
+    }
+
+    @Test
+    void clientWithExternalPskShouldOfferItsIdentity() throws Exception {
+        // Given
+        engine.setExternalPsk(new ExternalPsk(new byte[] { 0x0a, 0x0b }, new byte[32]));
+
+        // When
+        engine.startHandshake();
+
+        // Then
+        ArgumentCaptor<ClientHello> clientHelloCaptor = ArgumentCaptor.forClass(ClientHello.class);
+        verify(messageSender).send(clientHelloCaptor.capture());
+        ClientHelloPreSharedKeyExtension pskExtension = clientHelloCaptor.getValue().getExtensions().stream()
+                .filter(ext -> ext instanceof ClientHelloPreSharedKeyExtension)
+                .map(ext -> (ClientHelloPreSharedKeyExtension) ext)
+                .findFirst().get();
+        assertThat(pskExtension.getIdentities()).hasSize(1);
+        assertThat(pskExtension.getIdentities().get(0).getIdentity()).isEqualTo(new byte[] { 0x0a, 0x0b });
+    }
+
+    @Test
+    void whenServerSelectsExternalPskItShouldBeReportedAsAccepted() throws Exception {
+        // Given
+        engine.setExternalPsk(new ExternalPsk(new byte[] { 0x0a, 0x0b }, new byte[32]));
+        engine.startHandshake();
+
+        // When
+        engine.received(new ServerHello(engineCipher, List.of(mandatorySupportedVersionExtension,
+                new KeyShareExtension(publicKey, secp256r1, TlsConstants.HandshakeType.server_hello),
+                new ServerPreSharedKeyExtension(0))), ProtectionKeysType.None);
+
+        // Then
+        assertThat(engine.isExternalPskAccepted()).isTrue();
+    }
+
+    @Test
+    void ticketFromSessionTicketCacheShouldBeUsedForResumption() throws Exception {
+        // Given
+        TlsState tlsState = mock(TlsState.class);
+        when(tlsState.computePSK(any())).thenReturn(new byte[32]);
+        NewSessionTicket ticket = new NewSessionTicket(tlsState, new NewSessionTicketMessage(3600, 0, new byte[8], new byte[64]), engineCipher);
+        SessionTicketCache sessionTicketCache = new SessionTicketCache();
+        sessionTicketCache.add("server", null, ticket);
+        engine.setSessionTicketCache(sessionTicketCache);
+
+        // When
+        engine.startHandshake();
+
+        // Then
+        ArgumentCaptor<ClientHello> clientHelloCaptor = ArgumentCaptor.forClass(ClientHello.class);
+        verify(messageSender).send(clientHelloCaptor.capture());
+        assertThat(clientHelloCaptor.getValue().getExtensions()).hasAtLeastOneElementOfType(ClientHelloPreSharedKeyExtension.class);
+        assertThat(engine.getNewSessionTicket()).isSameAs(ticket);
+        assertThat(sessionTicketCache.getSize()).isEqualTo(0);
+    }
+
+    @Test
+    void receivedTicketShouldBeAddedToSessionTicketCache() throws Exception {
+        // Given
+        SessionTicketCache sessionTicketCache = new SessionTicketCache();
+        engine.setSessionTicketCache(sessionTicketCache);
+        handshakeUpToEncryptedExtensions();
+        TlsState tlsState = mock(TlsState.class);
+        when(tlsState.computePSK(any())).thenReturn(new byte[32]);
+        FieldSetter.setField(engine, TlsEngine.class.getDeclaredField("state"), tlsState);
+
+        // When
+        engine.received(new NewSessionTicketMessage(3600, 0, new byte[8], new byte[64]), ProtectionKeysType.Application);
+
+        // Then
+        assertThat(sessionTicketCache.take("server", List.of(), List.of(engineCipher))).isPresent();
+    }
+
+    private ServerHello createHelloRetryRequest(TlsConstants.NamedGroup selectedGroup) {
+        return new ServerHello(engineCipher, List.of(mandatorySupportedVersionExtension, new KeyShareExtension(selectedGroup)), true);
+    }
+
     private ServerHello createDefaultServerHello() {
         return createDefaultServerHello(engineCipher, emptyList());
     }
@@ -792,14 +1294,22 @@ class TlsClientEngineTest {
         handshakeUpToCertificate(List.of(rsa_pss_rsae_sha256), withPsk);
     }
 
+    private void handshakeUpToCertificate(List<Extension> encryptedExtensions) throws Exception {
+        handshakeUpToCertificate(List.of(rsa_pss_rsae_sha256), false, encryptedExtensions);
+    }
+
     private void handshakeUpToCertificate(List<TlsConstants.SignatureScheme> signatureSchemes, boolean withPsk) throws Exception {
+        handshakeUpToCertificate(signatureSchemes, withPsk, emptyList());
+    }
+
+    private void handshakeUpToCertificate(List<TlsConstants.SignatureScheme> signatureSchemes, boolean withPsk, List<Extension> encryptedExtensions) throws Exception {
         handshakeUpToEncryptedExtensions(signatureSchemes, withPsk);
 
         TranscriptHash transcriptHash = (TranscriptHash) Mockito.spy(new FieldReader(engine, engine.getClass().getDeclaredField("transcriptHash")).read());
         Mockito.doReturn(ByteUtils.hexToBytes("0101010101010101010101010101010101010101010101010101010101010101")).when(transcriptHash).getServerHash(ArgumentMatchers.argThat(t -> t == TlsConstants.HandshakeType.certificate));
         FieldSetter.setField(engine, engine.getClass().getDeclaredField("transcriptHash"), transcriptHash);
 
-        engine.received(new EncryptedExtensions(), ProtectionKeysType.Handshake);
+        engine.received(new EncryptedExtensions(encryptedExtensions), ProtectionKeysType.Handshake);
     }
 
     private void handshakeUpToFinished() throws Exception {
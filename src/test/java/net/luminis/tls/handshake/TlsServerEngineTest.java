@@ -21,7 +21,11 @@ package net.luminis.tls.handshake;
 import net.luminis.tls.*;
 import net.luminis.tls.alert.DecryptErrorAlert;
 import net.luminis.tls.alert.HandshakeFailureAlert;
+import net.luminis.tls.alert.IllegalParameterAlert;
 import net.luminis.tls.alert.MissingExtensionAlert;
+import net.luminis.tls.alert.NoApplicationProtocolAlert;
+import net.luminis.tls.alert.UnrecognizedNameAlert;
+import net.luminis.tls.alert.UnsupportedCertificateAlert;
 import net.luminis.tls.extension.*;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -29,10 +33,15 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.math.BigInteger;
 import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
 import java.security.PrivateKey;
+import java.security.PublicKey;
 import java.security.cert.X509Certificate;
 import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.EllipticCurve;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.util.Base64;
 import java.util.Collections;
@@ -52,6 +61,7 @@ public class TlsServerEngineTest {
     private ECPublicKey publicKey;
     private ServerMessageSender messageSender;
     private X509Certificate serverCertificate;
+    private PrivateKey privateKey;
     private TlsStatusEventHandler tlsStatusHandler;
     private TlsSessionRegistryImpl tlsSessionRegistry;
 
@@ -61,7 +71,7 @@ public class TlsServerEngineTest {
 
         KeyFactory keyFactory = KeyFactory.getInstance("RSA");
         PKCS8EncodedKeySpec keySpecPKCS8 = new PKCS8EncodedKeySpec(Base64.getDecoder().decode(encodedKwikDotTechRsaCertificatePrivateKey));
-        PrivateKey privateKey = keyFactory.generatePrivate(keySpecPKCS8);
+        privateKey = keyFactory.generatePrivate(keySpecPKCS8);
 
         serverCertificate = CertificateUtils.inflateCertificate(encodedKwikDotTechRsaCertificate);
         tlsStatusHandler = mock(TlsStatusEventHandler.class);
@@ -240,6 +250,154 @@ public class TlsServerEngineTest {
         assertThat(captor.getValue().getExtensions()).hasAtLeastOneElementOfType(ApplicationLayerProtocolNegotiationExtension.class);
     }
 
+    @Test
+    void whenClientOffersCertificateCompressionCertificateMessageShouldBeCompressed() throws Exception {
+        // Given
+        ClientHello clientHello = createDefaultClientHello(List.of(
+                new CompressCertificateExtension(List.of(TlsConstants.CertificateCompressionAlgorithm.zlib))), null);
+
+        // When
+        engine.received(clientHello, ProtectionKeysType.None);
+
+        // Then
+        ArgumentCaptor<CertificateMessage> captor = ArgumentCaptor.forClass(CertificateMessage.class);
+        verify(messageSender).send(captor.capture());
+        assertThat(captor.getValue()).isInstanceOf(CompressedCertificateMessage.class);
+        assertThat(captor.getValue().getEndEntityCertificate()).isEqualTo(serverCertificate);
+    }
+
+    @Test
+    void whenClientOffersUnsupportedCertificateCompressionCertificateMessageShouldNotBeCompressed() throws Exception {
+        // Given
+        ClientHello clientHello = createDefaultClientHello(List.of(
+                new CompressCertificateExtension(List.of(TlsConstants.CertificateCompressionAlgorithm.brotli))), null);
+
+        // When
+        engine.received(clientHello, ProtectionKeysType.None);
+
+        // Then
+        ArgumentCaptor<CertificateMessage> captor = ArgumentCaptor.forClass(CertificateMessage.class);
+        verify(messageSender).send(captor.capture());
+        assertThat(captor.getValue()).isNotInstanceOf(CompressedCertificateMessage.class);
+    }
+
+    @Test
+    void whenClientOffersRawPublicKeyServerShouldSendRawPublicKey() throws Exception {
+        // Given
+        engine.setServerCertificateTypes(List.of(TlsConstants.CertificateType.RawPublicKey, TlsConstants.CertificateType.X509));
+        ClientHello clientHello = createDefaultClientHello(List.of(
+                new ServerCertificateTypeExtension(List.of(TlsConstants.CertificateType.RawPublicKey))), null);
+
+        // When
+        engine.received(clientHello, ProtectionKeysType.None);
+
+        // Then
+        ArgumentCaptor<EncryptedExtensions> encryptedExtensionsCaptor = ArgumentCaptor.forClass(EncryptedExtensions.class);
+        verify(messageSender).send(encryptedExtensionsCaptor.capture());
+        assertThat(encryptedExtensionsCaptor.getValue().getExtensions())
+                .filteredOn(ext -> ext instanceof ServerCertificateTypeExtension)
+                .first()
+                .satisfies(ext -> assertThat(((ServerCertificateTypeExtension) ext).getCertificateType())
+                        .isEqualTo(TlsConstants.CertificateType.RawPublicKey));
+        ArgumentCaptor<CertificateMessage> certificateCaptor = ArgumentCaptor.forClass(CertificateMessage.class);
+        verify(messageSender).send(certificateCaptor.capture());
+        assertThat(certificateCaptor.getValue().getRawPublicKey()).isEqualTo(serverCertificate.getPublicKey());
+    }
+
+    @Test
+    void whenRawPublicKeyIsNotEnabledServerShouldSelectX509() throws Exception {
+        // Given
+        ClientHello clientHello = createDefaultClientHello(List.of(
+                new ServerCertificateTypeExtension(List.of(TlsConstants.CertificateType.RawPublicKey, TlsConstants.CertificateType.X509))), null);
+
+        // When
+        engine.received(clientHello, ProtectionKeysType.None);
+
+        // Then
+        assertThat(engine.getSelectedCertificateType()).isEqualTo(TlsConstants.CertificateType.X509);
+        ArgumentCaptor<CertificateMessage> certificateCaptor = ArgumentCaptor.forClass(CertificateMessage.class);
+        verify(messageSender).send(certificateCaptor.capture());
+        assertThat(certificateCaptor.getValue().getEndEntityCertificate()).isEqualTo(serverCertificate);
+    }
+
+    @Test
+    void whenThereIsNoCommonCertificateTypeHandshakeShouldFail() throws Exception {
+        // Given
+        ClientHello clientHello = createDefaultClientHello(List.of(
+                new ServerCertificateTypeExtension(List.of(TlsConstants.CertificateType.RawPublicKey))), null);
+
+        assertThatThrownBy(() ->
+                // When
+                engine.received(clientHello, ProtectionKeysType.None))
+                // Then
+                .isInstanceOf(UnsupportedCertificateAlert.class);
+    }
+
+    @Test
+    void credentialsWithoutCertificateCanOnlyBeUsedWithRawPublicKey() throws Exception {
+        // Given
+        engine = new TlsServerEngine(new ServerCredentials(serverCertificate.getPublicKey(), privateKey), messageSender, tlsStatusHandler, tlsSessionRegistry);
+        engine.addSupportedCiphers(List.of(TLS_AES_128_GCM_SHA256));
+        engine.setServerCertificateTypes(List.of(TlsConstants.CertificateType.RawPublicKey, TlsConstants.CertificateType.X509));
+
+        assertThatThrownBy(() ->
+                // When
+                engine.received(createDefaultClientHello(), ProtectionKeysType.None))
+                // Then
+                .isInstanceOf(UnsupportedCertificateAlert.class);
+    }
+
+    @Test
+    void serverNameFoundInCertificateStoreShouldBeAcknowledgedInEncryptedExtensions() throws Exception {
+        // Given
+        ServerCertificateStore store = new ServerCertificateStore();
+        store.put("*.example.com", new ServerCredentialsSelector(new ServerCredentials(List.of(serverCertificate), privateKey)));
+        engine = new TlsServerEngine(store, messageSender, tlsStatusHandler, tlsSessionRegistry);
+        engine.addSupportedCiphers(List.of(TLS_AES_128_GCM_SHA256));
+
+        // When
+        engine.received(createClientHello("www.example.com"), ProtectionKeysType.None);
+
+        // Then
+        ArgumentCaptor<EncryptedExtensions> captor = ArgumentCaptor.forClass(EncryptedExtensions.class);
+        verify(messageSender).send(captor.capture());
+        assertThat(captor.getValue().getExtensions()).hasAtLeastOneElementOfType(ServerNameExtension.class);
+        verify(messageSender).send(argThat((CertificateMessage message) -> message.getEndEntityCertificate().equals(serverCertificate)));
+    }
+
+    @Test
+    void unknownServerNameWithoutDefaultCredentialsShouldLeadToUnrecognizedNameAlert() {
+        // Given
+        ServerCertificateStore store = new ServerCertificateStore();
+        store.put("www.example.com", new ServerCredentialsSelector(new ServerCredentials(List.of(serverCertificate), privateKey)));
+        engine = new TlsServerEngine(store, messageSender, tlsStatusHandler, tlsSessionRegistry);
+        engine.addSupportedCiphers(List.of(TLS_AES_128_GCM_SHA256));
+
+        assertThatThrownBy(() ->
+                // When
+                engine.received(createClientHello("www.example.org"), ProtectionKeysType.None)
+        )
+                // Then
+                .isInstanceOf(UnrecognizedNameAlert.class);
+    }
+
+    @Test
+    void unknownServerNameShouldUseDefaultCredentialsWithoutAcknowledgingServerName() throws Exception {
+        // Given
+        ServerCertificateStore store = new ServerCertificateStore();
+        store.setDefault(new ServerCredentialsSelector(new ServerCredentials(List.of(serverCertificate), privateKey)));
+        engine = new TlsServerEngine(store, messageSender, tlsStatusHandler, tlsSessionRegistry);
+        engine.addSupportedCiphers(List.of(TLS_AES_128_GCM_SHA256));
+
+        // When
+        engine.received(createClientHello("www.example.org"), ProtectionKeysType.None);
+
+        // Then
+        ArgumentCaptor<EncryptedExtensions> captor = ArgumentCaptor.forClass(EncryptedExtensions.class);
+        verify(messageSender).send(captor.capture());
+        assertThat(captor.getValue().getExtensions()).doesNotHaveAnyElementsOfTypes(ServerNameExtension.class);
+    }
+
     @Test
     void incorrectClientFinishedMessageLeadsToDecryptError() throws Exception {
         // Given
@@ -253,6 +411,40 @@ public class TlsServerEngineTest {
         .isInstanceOf(DecryptErrorAlert.class);
     }
 
+    @Test
+    void engineCompactedAfterHandshakeShouldStillSendNewSessionTicket() throws Exception {
+        // Given
+        engine.setCompactAfterHandshake(true);
+        ClientHello clientHello = createDefaultClientHello(List.of(new PskKeyExchangeModesExtension(TlsConstants.PskKeyExchangeMode.psk_dhe_ke)), null);
+        engine.received(clientHello, ProtectionKeysType.None);
+        byte[] clientApplicationTrafficSecret = engine.getClientApplicationTrafficSecret();
+        TlsServerEngine stubbedEngine = spy(engine);
+        doReturn(new byte[32]).when(stubbedEngine).computeFinishedVerifyData(any(), any());
+
+        // When
+        stubbedEngine.received(new FinishedMessage(new byte[32]), ProtectionKeysType.Handshake);
+
+        // Then
+        verify(messageSender).send(any(NewSessionTicketMessage.class));
+        assertThat(stubbedEngine.getClientApplicationTrafficSecret()).isEqualTo(clientApplicationTrafficSecret);
+        assertThatThrownBy(() -> stubbedEngine.getClientHandshakeTrafficSecret()).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void engineShouldNotBeCompactedAfterHandshakeByDefault() throws Exception {
+        // Given
+        ClientHello clientHello = createDefaultClientHello();
+        engine.received(clientHello, ProtectionKeysType.None);
+        TlsServerEngine stubbedEngine = spy(engine);
+        doReturn(new byte[32]).when(stubbedEngine).computeFinishedVerifyData(any(), any());
+
+        // When
+        stubbedEngine.received(new FinishedMessage(new byte[32]), ProtectionKeysType.Handshake);
+
+        // Then
+        assertThat(stubbedEngine.getClientHandshakeTrafficSecret()).isNotNull();
+    }
+
     @Test
     void clientProvidingPreSharedKeyShouldAlsoProvidePskKeyExchangeMode() throws Exception {
         // Given
@@ -269,6 +461,176 @@ public class TlsServerEngineTest {
                 .isInstanceOf(MissingExtensionAlert.class);
     }
 
+    @Test
+    void withPskOnlyPolicyResumptionShouldSkipKeyExchange() throws Exception {
+        // Given
+        engine.setPskKeyExchangeModePolicy(PskKeyExchangeModePolicy.PREFER_PSK_ONLY);
+        ClientHello clientHello = createResumingClientHello(TlsConstants.PskKeyExchangeMode.psk_ke, TlsConstants.PskKeyExchangeMode.psk_dhe_ke);
+
+        // When
+        engine.received(clientHello, ProtectionKeysType.None);
+
+        // Then
+        ArgumentCaptor<ServerHello> captor = ArgumentCaptor.forClass(ServerHello.class);
+        verify(messageSender).send(captor.capture());
+        assertThat(captor.getValue().getExtensions()).hasAtLeastOneElementOfType(ServerPreSharedKeyExtension.class);
+        assertThat(captor.getValue().getExtensions()).doesNotHaveAnyElementsOfTypes(KeyShareExtension.class);
+        assertThat(engine.getSelectedPskKeyExchangeMode()).isEqualTo(TlsConstants.PskKeyExchangeMode.psk_ke);
+    }
+
+    @Test
+    void withPskOnlyPolicyServerShouldUseDheWhenClientDoesNotOfferPskOnly() throws Exception {
+        // Given
+        engine.setPskKeyExchangeModePolicy(PskKeyExchangeModePolicy.PREFER_PSK_ONLY);
+        ClientHello clientHello = createResumingClientHello(TlsConstants.PskKeyExchangeMode.psk_dhe_ke);
+
+        // When
+        engine.received(clientHello, ProtectionKeysType.None);
+
+        // Then
+        ArgumentCaptor<ServerHello> captor = ArgumentCaptor.forClass(ServerHello.class);
+        verify(messageSender).send(captor.capture());
+        assertThat(captor.getValue().getExtensions()).hasAtLeastOneElementOfType(ServerPreSharedKeyExtension.class);
+        assertThat(captor.getValue().getExtensions()).hasAtLeastOneElementOfType(KeyShareExtension.class);
+        assertThat(engine.getSelectedPskKeyExchangeMode()).isEqualTo(TlsConstants.PskKeyExchangeMode.psk_dhe_ke);
+    }
+
+    @Test
+    void withPskOnlyPolicyResumptionShouldNotRequireKeyShare() throws Exception {
+        // Given
+        engine.setPskKeyExchangeModePolicy(PskKeyExchangeModePolicy.PREFER_PSK_ONLY);
+        ClientHello clientHello = createResumingClientHello(TlsConstants.PskKeyExchangeMode.psk_ke);
+        // Hack: remove key share and supported groups extension
+        clientHello.getExtensions().removeIf(ext -> ext instanceof KeyShareExtension || ext instanceof SupportedGroupsExtension);
+
+        // When
+        engine.received(clientHello, ProtectionKeysType.None);
+
+        // Then
+        assertThat(engine.isHelloRetryRequested()).isFalse();
+        ArgumentCaptor<ServerHello> captor = ArgumentCaptor.forClass(ServerHello.class);
+        verify(messageSender).send(captor.capture());
+        assertThat(captor.getValue().getExtensions()).hasAtLeastOneElementOfType(ServerPreSharedKeyExtension.class);
+        assertThat(captor.getValue().getExtensions()).doesNotHaveAnyElementsOfTypes(KeyShareExtension.class);
+        assertThat(engine.getSelectedPskKeyExchangeMode()).isEqualTo(TlsConstants.PskKeyExchangeMode.psk_ke);
+    }
+
+    @Test
+    void withPskOnlyPolicyRejectedClientHelloShouldNotUseResumptionTicket() throws Exception {
+        // Given
+        engine.setPskKeyExchangeModePolicy(PskKeyExchangeModePolicy.PREFER_PSK_ONLY);
+        ClientHello clientHello = createResumingClientHello(TlsConstants.PskKeyExchangeMode.psk_ke);
+        doThrow(new NoApplicationProtocolAlert()).when(tlsStatusHandler).extensionsReceived(anyList());
+
+        assertThatThrownBy(() ->
+                // When
+                engine.received(clientHello, ProtectionKeysType.None))
+                // Then
+                .isInstanceOf(NoApplicationProtocolAlert.class);
+        assertThat(tlsSessionRegistry.getSize()).isEqualTo(1);
+    }
+
+    @Test
+    void withPskOnlyPolicyAcceptedClientHelloShouldUseResumptionTicket() throws Exception {
+        // Given
+        engine.setPskKeyExchangeModePolicy(PskKeyExchangeModePolicy.PREFER_PSK_ONLY);
+        ClientHello clientHello = createResumingClientHello(TlsConstants.PskKeyExchangeMode.psk_ke);
+
+        // When
+        engine.received(clientHello, ProtectionKeysType.None);
+
+        // Then
+        assertThat(engine.getSelectedPskKeyExchangeMode()).isEqualTo(TlsConstants.PskKeyExchangeMode.psk_ke);
+        assertThat(tlsSessionRegistry.getSize()).isEqualTo(0);
+    }
+
+    @Test
+    void withoutAcceptedPskMissingKeyShareExtensionLeadsToMissingExtensionError() {
+        // Given
+        ClientHello clientHello = createResumingClientHello(TlsConstants.PskKeyExchangeMode.psk_ke);
+        // Hack: remove key share extension
+        clientHello.getExtensions().removeIf(ext -> ext instanceof KeyShareExtension);
+
+        assertThatThrownBy(() ->
+                // When
+                engine.received(clientHello, ProtectionKeysType.None))
+                // Then
+                .isInstanceOf(MissingExtensionAlert.class);
+    }
+
+    @Test
+    void byDefaultServerShouldNotAcceptPskOnlyKeyExchange() throws Exception {
+        // Given
+        ClientHello clientHello = createResumingClientHello(TlsConstants.PskKeyExchangeMode.psk_ke);
+
+        // When
+        engine.received(clientHello, ProtectionKeysType.None);
+
+        // Then
+        ArgumentCaptor<ServerHello> captor = ArgumentCaptor.forClass(ServerHello.class);
+        verify(messageSender).send(captor.capture());
+        assertThat(captor.getValue().getExtensions()).doesNotHaveAnyElementsOfTypes(ServerPreSharedKeyExtension.class);
+        assertThat(captor.getValue().getExtensions()).hasAtLeastOneElementOfType(KeyShareExtension.class);
+        assertThat(engine.getSelectedPskKeyExchangeMode()).isNull();
+    }
+
+    @Test
+    void knownExternalPskShouldBeAcceptedWithoutCertificate() throws Exception {
+        // Given
+        ExternalPsk externalPsk = new ExternalPsk(new byte[] { 0x0a, 0x0b }, new byte[32]);
+        engine = createExternalPskOnlyEngine(ExternalPskStore.of(List.of(externalPsk)));
+        TlsState tlsState = mock(TlsState.class);
+        when(tlsState.computePskBinder(any())).thenReturn(new byte[32]);
+        ClientHello clientHello = createDefaultClientHello(List.of(
+                new PskKeyExchangeModesExtension(TlsConstants.PskKeyExchangeMode.psk_dhe_ke),
+                new ClientHelloPreSharedKeyExtension(externalPsk)
+        ), tlsState);
+        // Hack: remove signature algorithm extension, which is not needed when not authenticating with a certificate
+        clientHello.getExtensions().removeIf(ext -> ext instanceof SignatureAlgorithmsExtension);
+
+        // When
+        engine.received(clientHello, ProtectionKeysType.None);
+
+        // Then
+        ArgumentCaptor<ServerHello> captor = ArgumentCaptor.forClass(ServerHello.class);
+        verify(messageSender).send(captor.capture());
+        assertThat(captor.getValue().getExtensions()).hasAtLeastOneElementOfType(ServerPreSharedKeyExtension.class);
+        verify(messageSender, never()).send(any(CertificateMessage.class));
+        assertThat(engine.getExternalPskIdentity()).isEqualTo(new byte[] { 0x0a, 0x0b });
+    }
+
+    @Test
+    void withoutCertificateFullHandshakeShouldFail() throws Exception {
+        // Given
+        engine = createExternalPskOnlyEngine(ExternalPskStore.of(List.of(new ExternalPsk(new byte[] { 0x0a, 0x0b }, new byte[32]))));
+
+        assertThatThrownBy(() ->
+                // When
+                engine.received(createDefaultClientHello(), ProtectionKeysType.None))
+                // Then
+                .isInstanceOf(HandshakeFailureAlert.class);
+        verify(messageSender, never()).send(any(ServerHello.class));
+    }
+
+    @Test
+    void unknownExternalPskShouldLeadToFullHandshake() throws Exception {
+        // Given
+        engine.setExternalPskStore(ExternalPskStore.of(List.of(new ExternalPsk(new byte[] { 0x0a, 0x0b }, new byte[32]))));
+        TlsState tlsState = mock(TlsState.class);
+        when(tlsState.computePskBinder(any())).thenReturn(new byte[32]);
+        ClientHello clientHello = createDefaultClientHello(List.of(
+                new PskKeyExchangeModesExtension(TlsConstants.PskKeyExchangeMode.psk_dhe_ke),
+                new ClientHelloPreSharedKeyExtension(new ExternalPsk(new byte[] { 0x0c }, new byte[32]))
+        ), tlsState);
+
+        // When
+        engine.received(clientHello, ProtectionKeysType.None);
+
+        // Then
+        verify(messageSender).send(any(CertificateMessage.class));
+        assertThat(engine.getExternalPskIdentity()).isNull();
+    }
+
     @Test
     void whenALPNsMatchEarlyDataShouldBeEnabled() throws Exception {
         // Given
@@ -406,10 +768,161 @@ public class TlsServerEngineTest {
         assertThat(signatureScheme).isEqualTo(ecdsa_secp521r1_sha512);
     }
 
+    @Test
+    void rsaKeyCertificateSupportsAllRsaPssSchemesWithCertificateSignatureHashFirst() throws Exception {
+        // Given
+        X509Certificate certificate = CertificateUtils.inflateCertificate(encodedSampleRsa384Certificate);
+
+        // When
+        List<TlsConstants.SignatureScheme> signatureSchemes = TlsServerEngine.determineSignatureSchemes(certificate);
+
+        // Then
+        assertThat(signatureSchemes).containsExactly(rsa_pss_rsae_sha384, rsa_pss_rsae_sha256, rsa_pss_rsae_sha512);
+    }
+
+    @Test
+    void ecdsaSignatureSchemeShouldBeDeterminedByCurveOfCertificateKey() throws Exception {
+        // Given
+        X509Certificate certificate = CertificateUtils.inflateCertificate(encodedSampleEcdsa384Certificate);
+
+        // When
+        List<TlsConstants.SignatureScheme> signatureSchemes = TlsServerEngine.determineSignatureSchemes(certificate);
+
+        // Then
+        assertThat(signatureSchemes).containsExactly(ecdsa_secp384r1_sha384);
+    }
+
+    @Test
+    void ecdsaKeyOnOtherCurveWithSameFieldSizeShouldNotBeSupported() throws Exception {
+        // Given
+        ECParameterSpec secp256r1 = KeyShareExtension.ecParameterSpecForCurve("secp256r1");
+        EllipticCurve curve = secp256r1.getCurve();
+        ECParameterSpec otherCurve = new ECParameterSpec(new EllipticCurve(curve.getField(), curve.getA(), curve.getB().add(BigInteger.ONE)),
+                secp256r1.getGenerator(), secp256r1.getOrder(), secp256r1.getCofactor());
+        ECPublicKey publicKey = mock(ECPublicKey.class);
+        when(publicKey.getAlgorithm()).thenReturn("EC");
+        when(publicKey.getParams()).thenReturn(otherCurve);
+
+        assertThatThrownBy(() ->
+                // When
+                TlsServerEngine.determineSignatureSchemes(publicKey, null))
+                // Then
+                .isInstanceOf(TlsProtocolException.class)
+                .hasMessageContaining("Unsupported curve");
+    }
+
+    @Test
+    void serverWithEcdsaCertificateShouldSignCertificateVerifyWithEcdsa() throws Exception {
+        // Given
+        PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(Base64.getDecoder().decode(encodedInteropLeafEcdsaCertificatePrivateKey));
+        PrivateKey ecPrivateKey = KeyFactory.getInstance("EC").generatePrivate(keySpec);
+        X509Certificate ecCertificate = CertificateUtils.inflateCertificate(encodedInteropLeafEcdsaCertificate);
+        engine = new TlsServerEngine(ecCertificate, ecPrivateKey, messageSender, tlsStatusHandler, tlsSessionRegistry);
+        engine.addSupportedCiphers(List.of(TLS_AES_128_GCM_SHA256));
+        ClientHello clientHello = new ClientHello("localhost", publicKey, false,
+                List.of(TLS_AES_128_GCM_SHA256),
+                List.of(rsa_pss_rsae_sha256, ecdsa_secp256r1_sha256),
+                TlsConstants.NamedGroup.secp256r1, Collections.emptyList(), null, ClientHello.PskKeyEstablishmentMode.none);
+
+        // When
+        engine.received(clientHello, ProtectionKeysType.None);
+
+        // Then
+        ArgumentCaptor<CertificateVerifyMessage> certificateVerifyCaptor = ArgumentCaptor.forClass(CertificateVerifyMessage.class);
+        verify(messageSender).send(certificateVerifyCaptor.capture());
+        assertThat(certificateVerifyCaptor.getValue().getSignatureScheme()).isEqualTo(ecdsa_secp256r1_sha256);
+    }
+
+    @Test
+    void whenClientDoesNotSupportSignatureSchemeForCertificateHandshakeShouldFail() throws Exception {
+        // Given
+        ClientHello clientHello = new ClientHello("localhost", publicKey, false,
+                List.of(TLS_AES_128_GCM_SHA256),
+                List.of(ecdsa_secp256r1_sha256),
+                TlsConstants.NamedGroup.secp256r1, Collections.emptyList(), null, ClientHello.PskKeyEstablishmentMode.none);
+
+        assertThatThrownBy(() ->
+                // When
+                engine.received(clientHello, ProtectionKeysType.None))
+                // Then
+                .isInstanceOf(HandshakeFailureAlert.class);
+    }
+
+    @Test
+    void whenClientDoesNotSendKeyShareForAcceptedGroupServerShouldSendHelloRetryRequest() throws Exception {
+        // Given
+        engine.setSupportedGroups(List.of(TlsConstants.NamedGroup.x25519));
+        ClientHello clientHello = createClientHelloOfferingX25519(publicKey, TlsConstants.NamedGroup.secp256r1, null);
+
+        // When
+        engine.received(clientHello, ProtectionKeysType.None);
+
+        // Then
+        ArgumentCaptor<ServerHello> serverHelloCaptor = ArgumentCaptor.forClass(ServerHello.class);
+        verify(messageSender).send(serverHelloCaptor.capture());
+        ServerHello helloRetryRequest = serverHelloCaptor.getValue();
+        assertThat(helloRetryRequest.isHelloRetryRequest()).isTrue();
+        assertThat(helloRetryRequest.getExtensions())
+                .filteredOn(ext -> ext instanceof KeyShareExtension)
+                .first()
+                .satisfies(ext -> assertThat(((KeyShareExtension) ext).getKeyShareEntries().get(0).getNamedGroup()).isEqualTo(TlsConstants.NamedGroup.x25519));
+        verify(messageSender, never()).send(any(EncryptedExtensions.class));
+        verify(tlsStatusHandler, never()).earlySecretsKnown();
+    }
+
+    @Test
+    void afterHelloRetryRequestUpdatedClientHelloShouldCompleteHandshake() throws Exception {
+        // Given
+        engine.setSupportedGroups(List.of(TlsConstants.NamedGroup.x25519));
+        ClientHello clientHello1 = createClientHelloOfferingX25519(publicKey, TlsConstants.NamedGroup.secp256r1, null);
+        engine.received(clientHello1, ProtectionKeysType.None);
+
+        // When
+        PublicKey x25519Key = KeyPairGenerator.getInstance("X25519").generateKeyPair().getPublic();
+        ClientHello clientHello2 = createClientHelloOfferingX25519(x25519Key, TlsConstants.NamedGroup.x25519, clientHello1);
+        engine.received(clientHello2, ProtectionKeysType.None);
+
+        // Then
+        ArgumentCaptor<ServerHello> serverHelloCaptor = ArgumentCaptor.forClass(ServerHello.class);
+        verify(messageSender, times(2)).send(serverHelloCaptor.capture());
+        assertThat(serverHelloCaptor.getAllValues().get(1).isHelloRetryRequest()).isFalse();
+        verify(messageSender).send(any(EncryptedExtensions.class));
+        verify(tlsStatusHandler).handshakeSecretsKnown();
+    }
+
+    @Test
+    void updatedClientHelloWithoutKeyShareForSelectedGroupShouldFail() throws Exception {
+        // Given
+        engine.setSupportedGroups(List.of(TlsConstants.NamedGroup.x25519));
+        ClientHello clientHello1 = createClientHelloOfferingX25519(publicKey, TlsConstants.NamedGroup.secp256r1, null);
+        engine.received(clientHello1, ProtectionKeysType.None);
+
+        assertThatThrownBy(() ->
+                // When
+                engine.received(createClientHelloOfferingX25519(publicKey, TlsConstants.NamedGroup.secp256r1, clientHello1), ProtectionKeysType.None))
+                // Then
+                .isInstanceOf(IllegalParameterAlert.class);
+    }
+
+    private ClientHello createClientHelloOfferingX25519(PublicKey keySharePublicKey, TlsConstants.NamedGroup keyShareGroup, ClientHello initialClientHello) {
+        return new ClientHello("localhost", keySharePublicKey, false,
+                List.of(TLS_AES_128_GCM_SHA256),
+                List.of(rsa_pss_rsae_sha256),
+                keyShareGroup, List.of(TlsConstants.NamedGroup.secp256r1, TlsConstants.NamedGroup.x25519),
+                Collections.emptyList(), null, ClientHello.PskKeyEstablishmentMode.none, initialClientHello);
+    }
+
     private ClientHello createDefaultClientHello() {
         return createDefaultClientHello(Collections.emptyList(), null);
     }
 
+    private ClientHello createClientHello(String serverName) {
+        return new ClientHello(serverName, publicKey, false,
+                List.of(TLS_AES_128_GCM_SHA256),
+                List.of(rsa_pss_rsae_sha256),
+                TlsConstants.NamedGroup.secp256r1, Collections.emptyList(), null, ClientHello.PskKeyEstablishmentMode.none);
+    }
+
     private ClientHello createDefaultClientHello(List<Extension> extensions, TlsState state) {
         return new ClientHello("localhost", publicKey, false,
                 List.of(TLS_AES_128_GCM_SHA256),
@@ -417,6 +930,26 @@ public class TlsServerEngineTest {
                 TlsConstants.NamedGroup.secp256r1, extensions, state, ClientHello.PskKeyEstablishmentMode.none);
     }
 
+    private TlsServerEngine createExternalPskOnlyEngine(ExternalPskStore externalPskStore) {
+        TlsServerEngine engine = new TlsServerEngine(externalPskStore, messageSender, tlsStatusHandler, tlsSessionRegistry) {
+            protected boolean validateBinder(ClientHelloPreSharedKeyExtension.PskBinderEntry pskBinderEntry, int binderPosition, ClientHello clientHello) {
+                return true;
+            }
+        };
+        engine.addSupportedCiphers(List.of(TLS_AES_128_GCM_SHA256));
+        return engine;
+    }
+
+    private ClientHello createResumingClientHello(TlsConstants.PskKeyExchangeMode... pskKeyExchangeModes) {
+        TlsState tlsState = mock(TlsState.class);
+        when(tlsState.computePskBinder(any())).thenReturn(new byte[32]);
+        NewSessionTicketMessage ticketMessage = tlsSessionRegistry.createNewSessionTicketMessage((byte) 0, TLS_AES_128_GCM_SHA256, tlsState, "h3");
+        return createDefaultClientHello(List.of(
+                new PskKeyExchangeModesExtension(pskKeyExchangeModes),
+                new ClientHelloPreSharedKeyExtension(new NewSessionTicket(tlsState, ticketMessage, TLS_AES_128_GCM_SHA256))
+        ), tlsState);
+    }
+
     private void simulateAlpnNegotation() throws Exception {
         // A server is supposed to select an application layer protocol while processing client extensions...
         doAnswer(new Answer<Void>() {
@@ -21,6 +21,7 @@ package net.luminis.tls.handshake;
 import net.luminis.tls.TlsConstants;
 import net.luminis.tls.TlsState;
 import net.luminis.tls.extension.ClientHelloPreSharedKeyExtension;
+import net.luminis.tls.metrics.HandshakeMetrics;
 import org.junit.jupiter.api.Test;
 
 import java.util.List;
@@ -54,6 +55,42 @@ class TlsSessionRegistryImplTest {
         assertThat(selectedIdentity).isEqualTo(2);
     }
 
+    @Test
+    void peekedSessionShouldStillBeUsable() throws Exception {
+        // Given
+        var registry = new TlsSessionRegistryImpl();
+        TlsState tlsState = mock(TlsState.class);
+        when(tlsState.computePSK(any())).thenReturn(new byte[16]);
+        var ticketMessage = registry.createNewSessionTicketMessage((byte) 0, TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256, tlsState, "");
+        var pskIdentity = new ClientHelloPreSharedKeyExtension.PskIdentity(ticketMessage.getTicket(), 0);
+
+        // When
+        TlsSession peekedSession = registry.peekSession(pskIdentity);
+
+        // Then
+        assertThat(peekedSession.getPsk()).hasSize(16);
+        assertThat(registry.useSession(pskIdentity)).isSameAs(peekedSession);
+        assertThat(registry.peekSession(pskIdentity)).isNull();
+    }
+
+    @Test
+    void registrySizeShouldBeReportedToMetricsListener() throws Exception {
+        // Given
+        var registry = new TlsSessionRegistryImpl();
+        HandshakeMetrics metrics = new HandshakeMetrics();
+        registry.setMetricsListener(metrics);
+        TlsState tlsState = mock(TlsState.class);
+        when(tlsState.computePSK(any())).thenReturn(new byte[16]);
+
+        // When
+        var ticketMessage = registry.createNewSessionTicketMessage((byte) 0, TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256, tlsState, "");
+        registry.createNewSessionTicketMessage((byte) 1, TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256, tlsState, "");
+        registry.useSession(new ClientHelloPreSharedKeyExtension.PskIdentity(ticketMessage.getTicket(), 0));
+
+        // Then
+        assertThat(metrics.getSessionRegistrySize()).isEqualTo(1);
+    }
+
     @Test
     void expiredSessionsShouldBeRemoved() throws Exception {
         // Given
@@ -92,4 +129,60 @@ class TlsSessionRegistryImplTest {
         assertThat(selectedIdentity).isNull();
     }
 
-}
\ No newline at end of file
+    @Test
+    void whenMaximumIsReachedFirstExpiringSessionShouldBeEvicted() throws Exception {
+        // Given
+        var registry = new TlsSessionRegistryImpl(60, 2);
+        TlsState tlsState = mock(TlsState.class);
+        when(tlsState.computePSK(any())).thenReturn(new byte[16]);
+        var ticketMessage1 = registry.createNewSessionTicketMessage((byte) 0, TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256, tlsState, "");
+        Thread.sleep(5);
+        var ticketMessage2 = registry.createNewSessionTicketMessage((byte) 1, TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256, tlsState, "");
+
+        // When
+        var ticketMessage3 = registry.createNewSessionTicketMessage((byte) 2, TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256, tlsState, "");
+
+        // Then
+        assertThat(registry.getSize()).isEqualTo(2);
+        assertThat(registry.getEvictionCount()).isEqualTo(1);
+        assertThat(registry.useSession(new ClientHelloPreSharedKeyExtension.PskIdentity(ticketMessage1.getTicket(), 0))).isNull();
+        assertThat(registry.useSession(new ClientHelloPreSharedKeyExtension.PskIdentity(ticketMessage2.getTicket(), 0))).isNotNull();
+        assertThat(registry.useSession(new ClientHelloPreSharedKeyExtension.PskIdentity(ticketMessage3.getTicket(), 0))).isNotNull();
+    }
+
+    @Test
+    void expiredSessionsShouldBeCounted() throws Exception {
+        // Given
+        var registry = new TlsSessionRegistryImpl(1);
+        TlsState tlsState = mock(TlsState.class);
+        when(tlsState.computePSK(any())).thenReturn(new byte[16]);
+        registry.createNewSessionTicketMessage((byte) 0, TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256, tlsState, "");
+        registry.createNewSessionTicketMessage((byte) 1, TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256, tlsState, "");
+
+        // When
+        Thread.sleep(1005);
+        registry.cleanupExpiredPsks();
+
+        // Then
+        assertThat(registry.getSize()).isEqualTo(0);
+        assertThat(registry.getExpiryCount()).isEqualTo(2);
+        assertThat(registry.getEvictionCount()).isEqualTo(0);
+    }
+
+    @Test
+    void usedSessionShouldNotCountAsExpired() throws Exception {
+        // Given
+        var registry = new TlsSessionRegistryImpl(1);
+        TlsState tlsState = mock(TlsState.class);
+        when(tlsState.computePSK(any())).thenReturn(new byte[16]);
+        var ticketMessage = registry.createNewSessionTicketMessage((byte) 0, TlsConstants.CipherSuite.TLS_AES_128_GCM_SHA256, tlsState, "");
+        registry.useSession(new ClientHelloPreSharedKeyExtension.PskIdentity(ticketMessage.getTicket(), 0));
+
+        // When
+        Thread.sleep(1005);
+        registry.cleanupExpiredPsks();
+
+        // Then
+        assertThat(registry.getExpiryCount()).isEqualTo(0);
+    }
+}
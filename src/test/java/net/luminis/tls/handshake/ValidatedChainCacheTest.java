@@ -0,0 +1,130 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.CertificateUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ValidatedChainCacheTest {
+
+    private Clock clock;
+
+    @BeforeEach
+    void initClock() {
+        clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(1_000_000L);
+    }
+
+    @Test
+    void validatedChainShouldBeFound() throws Exception {
+        // Given
+        ValidatedChainCache cache = new ValidatedChainCache(10, Duration.ofMinutes(5), clock);
+        List<X509Certificate> chain = List.of(certificate(1, 10_000_000L), certificate(2, 10_000_000L));
+
+        // When
+        cache.add(chain);
+
+        // Then
+        assertThat(cache.contains(List.of(certificate(1, 10_000_000L), certificate(2, 10_000_000L)))).isTrue();
+        assertThat(cache.contains(List.of(certificate(1, 10_000_000L)))).isFalse();
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    void validatedChainShouldBeFoundByDigestOfCertificateMessage() throws Exception {
+        // Given
+        ValidatedChainCache cache = new ValidatedChainCache(10, Duration.ofMinutes(5), clock);
+        X509Certificate certificate = CertificateUtils.getTestCertificate();
+        CertificateMessage certificateMessage = new CertificateMessage().parse(ByteBuffer.wrap(new CertificateMessage(certificate).getBytes()));
+
+        // When
+        cache.add(List.of(certificate));
+
+        // Then
+        assertThat(cache.contains(certificateMessage.digestCertificateEntries())).isTrue();
+    }
+
+    @Test
+    void validatedChainShouldExpireAfterTimeToLive() throws Exception {
+        // Given
+        ValidatedChainCache cache = new ValidatedChainCache(10, Duration.ofMinutes(5), clock);
+        List<X509Certificate> chain = List.of(certificate(1, 10_000_000L));
+        cache.add(chain);
+
+        // When
+        when(clock.millis()).thenReturn(1_000_000L + 5 * 60_000L);
+
+        // Then
+        assertThat(cache.contains(chain)).isFalse();
+        assertThat(cache.getSize()).isEqualTo(0);
+    }
+
+    @Test
+    void validatedChainShouldExpireWhenCertificateExpires() throws Exception {
+        // Given
+        ValidatedChainCache cache = new ValidatedChainCache(10, Duration.ofMinutes(5), clock);
+        List<X509Certificate> chain = List.of(certificate(1, 10_000_000L), certificate(2, 1_060_000L));
+        cache.add(chain);
+
+        // When
+        when(clock.millis()).thenReturn(1_060_000L);
+
+        // Then
+        assertThat(cache.contains(chain)).isFalse();
+    }
+
+    @Test
+    void leastRecentlyUsedChainShouldBeRemovedWhenFull() throws Exception {
+        // Given
+        ValidatedChainCache cache = new ValidatedChainCache(2, Duration.ofMinutes(5), clock);
+        List<X509Certificate> first = List.of(certificate(1, 10_000_000L));
+        List<X509Certificate> second = List.of(certificate(2, 10_000_000L));
+        cache.add(first);
+        cache.add(second);
+        cache.contains(first);
+
+        // When
+        cache.add(List.of(certificate(3, 10_000_000L)));
+
+        // Then
+        assertThat(cache.getSize()).isEqualTo(2);
+        assertThat(cache.contains(first)).isTrue();
+        assertThat(cache.contains(second)).isFalse();
+    }
+
+    private X509Certificate certificate(int id, long notAfter) throws Exception {
+        X509Certificate certificate = mock(X509Certificate.class);
+        when(certificate.getEncoded()).thenReturn(new byte[] { 0x30, 0x03, 0x02, 0x01, (byte) id });
+        when(certificate.getNotAfter()).thenReturn(new Date(notAfter));
+        return certificate;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.handshake;
+
+import net.luminis.tls.alert.BadCertificateAlert;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ZlibCertificateCompressorTest {
+
+    private ZlibCertificateCompressor compressor;
+    private byte[] data;
+
+    @BeforeEach
+    void initObjectUnderTest() {
+        compressor = new ZlibCertificateCompressor();
+        data = new byte[3000];
+        new Random(42).nextBytes(data);
+        Arrays.fill(data, 0, 2000, (byte) 0x30);
+    }
+
+    @Test
+    void compressedDataShouldDecompressToOriginal() throws Exception {
+        // Given
+        byte[] compressed = compressor.compress(data);
+
+        // When
+        byte[] decompressed = compressor.decompress(compressed, data.length);
+
+        // Then
+        assertThat(compressed.length).isLessThan(data.length);
+        assertThat(decompressed).isEqualTo(data);
+    }
+
+    @Test
+    void dataLargerThanDeclaredShouldBeRejected() {
+        byte[] compressed = compressor.compress(data);
+
+        assertThatThrownBy(() -> compressor.decompress(compressed, data.length - 1))
+                .isInstanceOf(BadCertificateAlert.class);
+    }
+
+    @Test
+    void dataSmallerThanDeclaredShouldBeRejected() {
+        byte[] compressed = compressor.compress(data);
+
+        assertThatThrownBy(() -> compressor.decompress(compressed, data.length + 1))
+                .isInstanceOf(BadCertificateAlert.class);
+    }
+
+    @Test
+    void truncatedDataShouldBeRejected() {
+        byte[] compressed = compressor.compress(data);
+
+        assertThatThrownBy(() -> compressor.decompress(Arrays.copyOf(compressed, compressed.length - 3), data.length))
+                .isInstanceOf(BadCertificateAlert.class);
+    }
+
+    @Test
+    void trailingDataShouldBeRejected() {
+        byte[] compressed = compressor.compress(data);
+
+        assertThatThrownBy(() -> compressor.decompress(Arrays.copyOf(compressed, compressed.length + 2), data.length))
+                .isInstanceOf(BadCertificateAlert.class);
+    }
+
+    @Test
+    void invalidDataShouldBeRejected() {
+        assertThatThrownBy(() -> compressor.decompress(new byte[] { 1, 2, 3, 4, 5 }, 10))
+                .isInstanceOf(BadCertificateAlert.class);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.jfr;
+
+import net.luminis.tls.TlsConstants;
+import net.luminis.tls.handshake.FinishedMessage;
+import org.junit.jupiter.api.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TlsEventsTest {
+
+    @Test
+    void whenEventsAreNotEnabledBeginShouldNotCreateEvent() {
+        // When
+        Object keyScheduleEvent = TlsEvents.beginKeySchedule();
+        Object signatureEvent = TlsEvents.beginSignature();
+
+        // Then
+        assertThat(keyScheduleEvent).isNull();
+        assertThat(signatureEvent).isNull();
+    }
+
+    @Test
+    void eventsShouldNotBeRecordedWithDefaultSettings() throws Exception {
+        // Given
+        Path recordingFile = Files.createTempFile("agent15", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.start();
+
+            // When
+            TlsEvents.endKeySchedule(TlsEvents.beginKeySchedule(), "handshake secrets");
+            TlsEvents.messageSent(new FinishedMessage(new byte[32]));
+            TlsEvents.endSignature(TlsEvents.beginSignature(), "sign", TlsConstants.SignatureScheme.rsa_pss_rsae_sha256, true);
+
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        // Then
+        List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+        Files.delete(recordingFile);
+        assertThat(events).extracting(e -> e.getEventType().getName())
+                .noneMatch(name -> name.startsWith("net.luminis.tls."));
+    }
+
+    @Test
+    void enabledEventsShouldBeRecorded() throws Exception {
+        // Given
+        Path recordingFile = Files.createTempFile("agent15", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("net.luminis.tls.KeySchedule");
+            recording.enable("net.luminis.tls.HandshakeMessage");
+            recording.enable("net.luminis.tls.SessionRegistry");
+            recording.start();
+
+            // When
+            Object event = TlsEvents.beginKeySchedule();
+            TlsEvents.endKeySchedule(event, "handshake secrets");
+            TlsEvents.messageSent(new FinishedMessage(new byte[32]));
+            TlsEvents.sessionRegistryOperation("use", false, 3);
+            // Not enabled
+            TlsEvents.endSignature(TlsEvents.beginSignature(), "sign", TlsConstants.SignatureScheme.rsa_pss_rsae_sha256, true);
+
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        // Then
+        List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+        Files.delete(recordingFile);
+        assertThat(events).extracting(e -> e.getEventType().getName())
+                .containsExactlyInAnyOrder("net.luminis.tls.KeySchedule", "net.luminis.tls.HandshakeMessage", "net.luminis.tls.SessionRegistry");
+        assertThat(events).filteredOn(e -> e.getEventType().getName().equals("net.luminis.tls.KeySchedule"))
+                .extracting(e -> e.getString("step")).containsExactly("handshake secrets");
+        assertThat(events).filteredOn(e -> e.getEventType().getName().equals("net.luminis.tls.HandshakeMessage"))
+                .allSatisfy(e -> {
+                    assertThat(e.getString("direction")).isEqualTo("sent");
+                    assertThat(e.getString("messageType")).isEqualTo("finished");
+                    assertThat(e.getInt("size")).isEqualTo(36);
+                });
+        assertThat(events).filteredOn(e -> e.getEventType().getName().equals("net.luminis.tls.SessionRegistry"))
+                .allSatisfy(e -> {
+                    assertThat(e.getString("operation")).isEqualTo("use");
+                    assertThat(e.getBoolean("success")).isFalse();
+                    assertThat(e.getInt("size")).isEqualTo(3);
+                });
+    }
+}
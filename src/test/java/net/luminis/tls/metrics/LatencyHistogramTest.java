@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class LatencyHistogramTest {
+
+    @Test
+    void smallValuesShouldBeRecordedExactly() {
+        // Given
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // When
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+        // Then
+        assertThat(histogram.getCount()).isEqualTo(100);
+        assertThat(histogram.getValueAtPercentile(50)).isEqualTo(50);
+        assertThat(histogram.getValueAtPercentile(99)).isEqualTo(99);
+        assertThat(histogram.getMaxValue()).isEqualTo(100);
+        assertThat(histogram.getMean()).isEqualTo(50.5);
+    }
+
+    @Test
+    void largeValuesShouldBeRecordedWithLimitedRelativeError() {
+        // Given
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // When
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1_000_000L);
+        }
+
+        // Then
+        assertThat(histogram.getValueAtPercentile(50)).isCloseTo(500_000_000L, within(500_000_000L / 64));
+        assertThat(histogram.getValueAtPercentile(99)).isCloseTo(990_000_000L, within(990_000_000L / 64));
+        assertThat(histogram.getValueAtPercentile(100)).isEqualTo(1_000_000_000L);
+    }
+
+    @Test
+    void bucketsShouldCoverAllValuesInOrder() {
+        long previousIndex = -1;
+        for (long value = 0; value < 100_000; value++) {
+            int index = LatencyHistogram.indexOf(value);
+            assertThat(index).isGreaterThanOrEqualTo((int) previousIndex);
+            assertThat(LatencyHistogram.highestValueIn(index)).isGreaterThanOrEqualTo(value);
+            previousIndex = index;
+        }
+        assertThat(LatencyHistogram.highestValueIn(LatencyHistogram.indexOf(Long.MAX_VALUE))).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    void emptyHistogramShouldReturnZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertThat(histogram.getValueAtPercentile(99)).isEqualTo(0);
+        assertThat(histogram.getMean()).isEqualTo(0.0);
+    }
+
+    @Test
+    void resetShouldClearAllValues() {
+        // Given
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(42);
+
+        // When
+        histogram.reset();
+
+        // Then
+        assertThat(histogram.getCount()).isEqualTo(0);
+        assertThat(histogram.getMaxValue()).isEqualTo(0);
+        assertThat(histogram.getValueAtPercentile(100)).isEqualTo(0);
+    }
+}
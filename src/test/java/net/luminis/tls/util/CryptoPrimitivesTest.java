@@ -0,0 +1,118 @@
+/*
+ * Copyright © 2024 Peter Doornbosch
+ *
+ * This file is part of Agent15, an implementation of TLS 1.3 in Java.
+ *
+ * Agent15 is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Agent15 is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.luminis.tls.util;
+
+import at.favre.lib.hkdf.HKDF;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CryptoPrimitivesTest {
+
+    @Test
+    void sameThreadShouldGetSameInstance() throws Exception {
+        MessageDigest first = CryptoPrimitives.getMessageDigest("SHA-256");
+        MessageDigest second = CryptoPrimitives.getMessageDigest("SHA-256");
+
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    void differentThreadsShouldGetDifferentInstances() throws Exception {
+        MessageDigest own = CryptoPrimitives.getMessageDigest("SHA-256");
+        MessageDigest other = CompletableFuture.supplyAsync(() -> {
+            try {
+                return CryptoPrimitives.getMessageDigest("SHA-256");
+            }
+            catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }).get();
+
+        assertThat(other).isNotSameAs(own);
+    }
+
+    @Test
+    void cachedMessageDigestShouldBeReset() throws Exception {
+        CryptoPrimitives.getMessageDigest("SHA-256").update(new byte[] { 0x01, 0x02, 0x03 });
+
+        byte[] hash = CryptoPrimitives.getMessageDigest("SHA-256").digest();
+
+        assertThat(hash).isEqualTo(MessageDigest.getInstance("SHA-256").digest());
+    }
+
+    @Test
+    void newMessageDigestShouldNotBeShared() throws Exception {
+        MessageDigest exclusive = CryptoPrimitives.newMessageDigest("SHA-256");
+
+        assertThat(exclusive).isNotSameAs(CryptoPrimitives.getMessageDigest("SHA-256"));
+        assertThat(exclusive).isNotSameAs(CryptoPrimitives.newMessageDigest("SHA-256"));
+    }
+
+    @Test
+    void signaturesWithDifferentParametersShouldNotBeShared() throws Exception {
+        Signature sha256 = CryptoPrimitives.getSignature("RSASSA-PSS", new PSSParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, 32, 1));
+        Signature sha384 = CryptoPrimitives.getSignature("RSASSA-PSS", new PSSParameterSpec("SHA-384", "MGF1", MGF1ParameterSpec.SHA384, 48, 1));
+
+        assertThat(sha384).isNotSameAs(sha256);
+        assertThat(sha384.getParameters().getParameterSpec(PSSParameterSpec.class).getDigestAlgorithm()).isEqualTo("SHA-384");
+    }
+
+    @Test
+    void macShouldNotBeSharedBecauseItHoldsTheKey() throws Exception {
+        Mac first = CryptoPrimitives.getMac("HmacSHA256");
+        Mac second = CryptoPrimitives.getMac("HmacSHA256");
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.getProvider()).isSameAs(first.getProvider());
+    }
+
+    @Test
+    void keyAgreementShouldNotBeShared() throws Exception {
+        KeyAgreement first = CryptoPrimitives.getKeyAgreement("ECDH");
+        KeyAgreement second = CryptoPrimitives.getKeyAgreement("ECDH");
+
+        assertThat(second).isNotSameAs(first);
+    }
+
+    @Test
+    void certificateFactoryShouldBeCachedPerThread() throws Exception {
+        CertificateFactory first = CryptoPrimitives.getCertificateFactory("X.509");
+        CertificateFactory second = CryptoPrimitives.getCertificateFactory("X.509");
+
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    void hkdfShouldCreateMacsWithCachedProvider() throws Exception {
+        HKDF hkdf = CryptoPrimitives.getHkdf("HmacSHA256");
+
+        Object macFactory = FieldGetter.getField(hkdf, "macFactory");
+        assertThat(FieldGetter.getField(macFactory, "provider")).isSameAs(CryptoPrimitives.getMac("HmacSHA256").getProvider());
+    }
+}